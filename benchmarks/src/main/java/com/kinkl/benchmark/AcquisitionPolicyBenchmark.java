@@ -0,0 +1,85 @@
+package com.kinkl.benchmark;
+
+import com.kinkl.AcquisitionPolicy;
+import com.kinkl.EntityLocker;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the acquisition policies on a single hot entity. Sampling mode reports both the throughput (sample count and mean) and the
+ * latency percentiles of a lock/unlock pair, so run it with {@code -bm sample} (default) and look at p0.99 and p0.999 next to the mean.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(8)
+@Fork(1)
+public class AcquisitionPolicyBenchmark {
+
+    public enum Policy {
+        BARGING,
+        FAIR,
+        BOUNDED_BARGING,
+        SPIN_THEN_PARK
+    }
+
+    @State(Scope.Benchmark)
+    public static class LockerState {
+
+        @Param({"BARGING", "FAIR", "BOUNDED_BARGING", "SPIN_THEN_PARK"})
+        public Policy policy;
+
+        @Param({"1"})
+        public long maxBargedWaitMillis;
+
+        @Param({"20"})
+        public int protectedCodeTokens;
+
+        public EntityLocker<Long> entityLocker;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            AcquisitionPolicy acquisitionPolicy;
+            switch (this.policy) {
+                case FAIR:
+                    acquisitionPolicy = AcquisitionPolicy.fair();
+                    break;
+                case BOUNDED_BARGING:
+                    acquisitionPolicy = AcquisitionPolicy.boundedBarging(this.maxBargedWaitMillis, TimeUnit.MILLISECONDS);
+                    break;
+                case SPIN_THEN_PARK:
+                    acquisitionPolicy = AcquisitionPolicy.spinThenPark();
+                    break;
+                default:
+                    acquisitionPolicy = AcquisitionPolicy.barging();
+            }
+            this.entityLocker = EntityLocker.<Long>builder().acquisitionPolicy(acquisitionPolicy).build();
+        }
+    }
+
+    @Benchmark
+    public void hotKeyLockUnlock(LockerState lockerState) {
+        Long key = 1L;
+        lockerState.entityLocker.lock(key);
+        try {
+            Blackhole.consumeCPU(lockerState.protectedCodeTokens);
+        } finally {
+            lockerState.entityLocker.unlock(key);
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.kinkl.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the selected benchmarks with 1 to 64 threads and the GC profiler enabled, writing one JSON result file per thread count so runs can be
+ * compared with a stored baseline.
+ * <p>Usage: {@code java -cp target/benchmarks.jar com.kinkl.benchmark.BenchmarkRunner [benchmark regexp] [max threads]}</p>
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws RunnerException {
+        String include = args.length > 0 ? args[0] : EntityLockerBenchmark.class.getSimpleName();
+        int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            Options options = new OptionsBuilder()
+                    .include(include)
+                    .threads(threads)
+                    .addProfiler(GCProfiler.class)
+                    .resultFormat(ResultFormatType.JSON)
+                    .result(String.format("jmh-result-%d-threads.json", threads))
+                    .build();
+            new Runner(options).run();
+        }
+    }
+}
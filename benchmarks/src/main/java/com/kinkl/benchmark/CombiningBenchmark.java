@@ -0,0 +1,64 @@
+package com.kinkl.benchmark;
+
+import com.kinkl.EntityLocker;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares plain locking with combining on a single hot counter. A batch size of 0 disables combining; with combining the holder runs the
+ * increments submitted by waiting threads, so the counter changes hands once per batch. Compare the throughput and the context switches
+ * reported by {@code -prof perfnorm} where it's available.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(8)
+@Fork(1)
+public class CombiningBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class LockerState {
+
+        @Param({"0", "16", "64"})
+        public int maxBatchSize;
+
+        @Param({"20"})
+        public int protectedCodeTokens;
+
+        public EntityLocker<Long> entityLocker;
+
+        public long counter;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            EntityLocker.Builder<Long> builder = EntityLocker.builder();
+            if (this.maxBatchSize > 0) {
+                builder.combining(this.maxBatchSize);
+            }
+            this.entityLocker = builder.build();
+        }
+    }
+
+    @Benchmark
+    public long hotCounterIncrement(LockerState lockerState) {
+        return lockerState.entityLocker.compute(1L, () -> {
+            Blackhole.consumeCPU(lockerState.protectedCodeTokens);
+            return ++lockerState.counter;
+        });
+    }
+}
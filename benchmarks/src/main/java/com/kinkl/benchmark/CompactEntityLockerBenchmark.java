@@ -0,0 +1,96 @@
+package com.kinkl.benchmark;
+
+import com.kinkl.EntityLockers;
+import com.kinkl.IEntityLocker;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link com.kinkl.EntityLocker} with {@link com.kinkl.CompactEntityLocker} while a background thread holds locks of
+ * {@code liveLockCount} other ids, so that lookups and insertions run against a populated table. Run in sample time mode to compare the
+ * latency distribution; see {@link LockerFootprint} for the retained memory per held id.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = "-Xmx4g")
+public class CompactEntityLockerBenchmark {
+
+    public enum LockerType {
+        ENTITY_LOCKER, COMPACT
+    }
+
+    @State(Scope.Benchmark)
+    public static class LockerState {
+
+        @Param({"ENTITY_LOCKER", "COMPACT"})
+        public LockerType lockerType;
+
+        @Param({"0", "1000000"})
+        public int liveLockCount;
+
+        @Param({"1000000"})
+        public long keyCount;
+
+        public IEntityLocker<Long> entityLocker;
+
+        private Thread holderThread;
+
+        private final CountDownLatch releaseLatch = new CountDownLatch(1);
+
+        @Setup(Level.Trial)
+        public void setUp() throws InterruptedException {
+            this.entityLocker = this.lockerType == LockerType.COMPACT
+                    ? EntityLockers.newCompactEntityLocker()
+                    : EntityLockers.newEntityLocker();
+            CountDownLatch lockedLatch = new CountDownLatch(1);
+            // Live locks use negative ids, so they never collide with the benchmarked ones
+            this.holderThread = new Thread(() -> {
+                for (long id = 1; id <= this.liveLockCount; id++) {
+                    this.entityLocker.lock(-id);
+                }
+                lockedLatch.countDown();
+                try {
+                    this.releaseLatch.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                for (long id = 1; id <= this.liveLockCount; id++) {
+                    this.entityLocker.unlock(-id);
+                }
+            });
+            this.holderThread.setDaemon(true);
+            this.holderThread.start();
+            lockedLatch.await();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws InterruptedException {
+            this.releaseLatch.countDown();
+            this.holderThread.join();
+        }
+    }
+
+    @Benchmark
+    public void lockUnlock(LockerState lockerState) {
+        Long key = ThreadLocalRandom.current().nextLong(lockerState.keyCount);
+        lockerState.entityLocker.lock(key);
+        lockerState.entityLocker.unlock(key);
+    }
+}
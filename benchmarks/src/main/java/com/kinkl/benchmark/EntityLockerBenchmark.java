@@ -0,0 +1,135 @@
+package com.kinkl.benchmark;
+
+import com.kinkl.EntityLocker;
+import com.kinkl.IEntityLocker;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures the hot paths of {@link EntityLocker}: plain, timed and reentrant locking and the {@code isLockedByAnotherThread} query.
+ * Run with {@code -prof gc} to get allocation rates and with {@code -bm sample} to get latency percentiles.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EntityLockerBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class LockerState {
+
+        @Param({"INTEGER", "LONG", "STRING", "UUID"})
+        public KeyType keyType;
+
+        @Param({"UNCONTENDED", "ZIPFIAN", "HOT_KEY"})
+        public Workload workload;
+
+        @Param({"1000000"})
+        public int keyCount;
+
+        public IEntityLocker<Object> entityLocker;
+
+        final AtomicInteger threadCounter = new AtomicInteger();
+
+        Object[] keys;
+
+        int[] sequence;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            this.entityLocker = new EntityLocker<>();
+            int universe = this.workload == Workload.HOT_KEY ? 16 : this.keyCount;
+            this.keys = new Object[universe];
+            for (int i = 0; i < universe; i++) {
+                this.keys[i] = this.keyType.createKey(i);
+            }
+            this.sequence = new int[1 << 20];
+            ZipfianGenerator generator = new ZipfianGenerator(universe, ZipfianGenerator.DEFAULT_THETA, 42);
+            for (int i = 0; i < this.sequence.length; i++) {
+                this.sequence[i] = (int) generator.next();
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+
+        private Object[] keys;
+
+        private int[] sequence;
+
+        private int position;
+
+        @Setup(Level.Trial)
+        public void setUp(LockerState lockerState) {
+            int threadIndex = lockerState.threadCounter.getAndIncrement();
+            if (lockerState.workload == Workload.UNCONTENDED) {
+                // Each thread gets a disjoint range of ids that it walks sequentially
+                this.keys = new Object[1 << 16];
+                for (int i = 0; i < this.keys.length; i++) {
+                    this.keys[i] = lockerState.keyType.createKey((long) threadIndex * this.keys.length + i);
+                }
+                this.sequence = new int[this.keys.length];
+                for (int i = 0; i < this.sequence.length; i++) {
+                    this.sequence[i] = i;
+                }
+            } else {
+                this.keys = lockerState.keys;
+                this.sequence = lockerState.sequence;
+                this.position = threadIndex * 7919;
+            }
+        }
+
+        Object nextKey() {
+            int index = this.position++ & (this.sequence.length - 1);
+            return this.keys[this.sequence[index]];
+        }
+    }
+
+    @Benchmark
+    public void lockUnlock(LockerState lockerState, ThreadState threadState) {
+        Object key = threadState.nextKey();
+        lockerState.entityLocker.lock(key);
+        lockerState.entityLocker.unlock(key);
+    }
+
+    @Benchmark
+    public boolean tryLockUnlock(LockerState lockerState, ThreadState threadState) throws InterruptedException {
+        Object key = threadState.nextKey();
+        boolean isAcquired = lockerState.entityLocker.tryLock(key, 1, TimeUnit.SECONDS);
+        if (isAcquired) {
+            lockerState.entityLocker.unlock(key);
+        }
+        return isAcquired;
+    }
+
+    @Benchmark
+    public void reentrantLockUnlock(LockerState lockerState, ThreadState threadState) {
+        Object key = threadState.nextKey();
+        lockerState.entityLocker.lock(key);
+        lockerState.entityLocker.lock(key);
+        lockerState.entityLocker.lock(key);
+        lockerState.entityLocker.unlock(key);
+        lockerState.entityLocker.unlock(key);
+        lockerState.entityLocker.unlock(key);
+    }
+
+    @Benchmark
+    public boolean isLockedByAnotherThread(LockerState lockerState, ThreadState threadState) {
+        return lockerState.entityLocker.isLockedByAnotherThread(threadState.nextKey());
+    }
+}
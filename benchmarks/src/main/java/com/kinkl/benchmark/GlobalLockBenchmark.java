@@ -0,0 +1,94 @@
+package com.kinkl.benchmark;
+
+import com.kinkl.EntityLocker;
+import com.kinkl.IEntityLocker;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Measures the cost the global lock support adds to uncontended entity locking when no thread requests the global lock. {@code STRIPED}
+ * is {@link EntityLocker} itself, {@code SHARED_READ_WRITE_LOCK} additionally read-acquires one shared {@link ReentrantReadWriteLock} around
+ * every entity lock, which is the naive global lock design. Run with {@code -t} from 1 to the number of cores to see the difference.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GlobalLockBenchmark {
+
+    public enum Implementation {
+        STRIPED,
+        SHARED_READ_WRITE_LOCK
+    }
+
+    @State(Scope.Benchmark)
+    public static class LockerState {
+
+        @Param({"STRIPED", "SHARED_READ_WRITE_LOCK"})
+        public Implementation implementation;
+
+        public IEntityLocker<Long> entityLocker;
+
+        public final ReentrantReadWriteLock globalLock = new ReentrantReadWriteLock();
+
+        final AtomicInteger threadCounter = new AtomicInteger();
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            this.entityLocker = new EntityLocker<>();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+
+        private Long[] keys;
+
+        private int position;
+
+        @Setup(Level.Trial)
+        public void setUp(LockerState lockerState) {
+            int threadIndex = lockerState.threadCounter.getAndIncrement();
+            this.keys = new Long[1 << 12];
+            for (int i = 0; i < this.keys.length; i++) {
+                this.keys[i] = (long) threadIndex * this.keys.length + i;
+            }
+        }
+
+        Long nextKey() {
+            return this.keys[this.position++ & (this.keys.length - 1)];
+        }
+    }
+
+    @Benchmark
+    public void lockUnlock(LockerState lockerState, ThreadState threadState) {
+        Long key = threadState.nextKey();
+        if (lockerState.implementation == Implementation.SHARED_READ_WRITE_LOCK) {
+            lockerState.globalLock.readLock().lock();
+            try {
+                lockerState.entityLocker.lock(key);
+                lockerState.entityLocker.unlock(key);
+            } finally {
+                lockerState.globalLock.readLock().unlock();
+            }
+        } else {
+            lockerState.entityLocker.lock(key);
+            lockerState.entityLocker.unlock(key);
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.kinkl.benchmark;
+
+import java.util.UUID;
+
+/**
+ * Entity id types the benchmarks are run with. Ids are created up front so key construction is not measured.
+ */
+public enum KeyType {
+    INTEGER {
+        @Override
+        Object createKey(long n) {
+            return (int) n;
+        }
+    },
+    LONG {
+        @Override
+        Object createKey(long n) {
+            return n;
+        }
+    },
+    STRING {
+        @Override
+        Object createKey(long n) {
+            return "entity-" + n;
+        }
+    },
+    UUID {
+        @Override
+        Object createKey(long n) {
+            return new java.util.UUID(n * 0x9E3779B97F4A7C15L, n);
+        }
+    };
+
+    abstract Object createKey(long n);
+}
@@ -0,0 +1,49 @@
+package com.kinkl.benchmark;
+
+import com.kinkl.EntityLockers;
+import com.kinkl.IEntityLocker;
+
+import java.util.function.Supplier;
+
+/**
+ * Prints the heap retained by a locker while one thread holds locks of the given number of distinct ids. {@code EntityLocker} keeps a lock
+ * per held id, so its footprint grows with the number of concurrently held ids; the compact locker keeps a lock word entry and a table slot per held id
+ * instead of a map node and a lock object, and the striped locker keeps only its stripe table.
+ * <p>Usage: {@code java -Xmx8g -cp target/benchmarks.jar com.kinkl.benchmark.LockerFootprint [held ids] [stripe count]}</p>
+ */
+public class LockerFootprint {
+
+    public static void main(String[] args) {
+        int heldCount = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int stripeCount = args.length > 1 ? Integer.parseInt(args[1]) : 4096;
+        report("EntityLocker", EntityLockers::newEntityLocker, heldCount);
+        report("CompactEntityLocker", EntityLockers::newCompactEntityLocker, heldCount);
+        report(String.format("StripedEntityLocker(%d)", stripeCount), () -> EntityLockers.newStripedEntityLocker(stripeCount), heldCount);
+    }
+
+    private static void report(String name, Supplier<IEntityLocker<Long>> lockerFactory, int heldCount) {
+        Long[] keys = new Long[heldCount];
+        for (int i = 0; i < heldCount; i++) {
+            keys[i] = (long) i;
+        }
+        long before = usedHeap();
+        IEntityLocker<Long> locker = lockerFactory.get();
+        for (Long key : keys) {
+            locker.lock(key);
+        }
+        long retained = usedHeap() - before;
+        System.out.printf("%s: %d held ids, %.1f MB retained, %.1f bytes per id%n", name, heldCount, retained / 1048576.0,
+                (double) retained / heldCount);
+        for (Long key : keys) {
+            locker.unlock(key);
+        }
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,89 @@
+package com.kinkl.benchmark;
+
+import com.kinkl.EntityLocker;
+import com.kinkl.LongEntityLocker;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compares {@link LongEntityLocker} with {@link EntityLocker} keyed by boxed {@code Long} ids on the same Zipfian id sequence. Run with
+ * {@code -prof gc} to compare allocations per operation.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LongEntityLockerBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class LockerState {
+
+        @Param({"1000000"})
+        public int keyCount;
+
+        public LongEntityLocker longEntityLocker;
+
+        public EntityLocker<Long> entityLocker;
+
+        final AtomicInteger threadCounter = new AtomicInteger();
+
+        long[] sequence;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            this.longEntityLocker = new LongEntityLocker();
+            this.entityLocker = new EntityLocker<>();
+            this.sequence = new long[1 << 20];
+            ZipfianGenerator generator = new ZipfianGenerator(this.keyCount, ZipfianGenerator.DEFAULT_THETA, 42);
+            for (int i = 0; i < this.sequence.length; i++) {
+                this.sequence[i] = generator.next();
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+
+        private long[] sequence;
+
+        private int position;
+
+        @Setup(Level.Trial)
+        public void setUp(LockerState lockerState) {
+            this.sequence = lockerState.sequence;
+            this.position = lockerState.threadCounter.getAndIncrement() * 7919;
+        }
+
+        long nextKey() {
+            return this.sequence[this.position++ & (this.sequence.length - 1)];
+        }
+    }
+
+    @Benchmark
+    public void longEntityLocker(LockerState lockerState, ThreadState threadState) {
+        long key = threadState.nextKey();
+        lockerState.longEntityLocker.lock(key);
+        lockerState.longEntityLocker.unlock(key);
+    }
+
+    @Benchmark
+    public void boxedEntityLocker(LockerState lockerState, ThreadState threadState) {
+        Long key = threadState.nextKey();
+        lockerState.entityLocker.lock(key);
+        lockerState.entityLocker.unlock(key);
+    }
+}
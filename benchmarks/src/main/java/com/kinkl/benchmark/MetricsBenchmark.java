@@ -0,0 +1,80 @@
+package com.kinkl.benchmark;
+
+import com.kinkl.EntityLocker;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures the overhead of {@link EntityLocker} metrics: the same Zipfian lock/unlock workload with metrics disabled and enabled.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetricsBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class LockerState {
+
+        @Param({"false", "true"})
+        public boolean isMetricsEnabled;
+
+        @Param({"1000000"})
+        public int keyCount;
+
+        public EntityLocker<Integer> entityLocker;
+
+        final AtomicInteger threadCounter = new AtomicInteger();
+
+        Integer[] sequence;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            this.entityLocker = this.isMetricsEnabled ? EntityLocker.<Integer>builder().metrics().build() : new EntityLocker<>();
+            this.sequence = new Integer[1 << 20];
+            ZipfianGenerator generator = new ZipfianGenerator(this.keyCount, ZipfianGenerator.DEFAULT_THETA, 42);
+            for (int i = 0; i < this.sequence.length; i++) {
+                this.sequence[i] = (int) generator.next();
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+
+        private Integer[] sequence;
+
+        private int position;
+
+        @Setup(Level.Trial)
+        public void setUp(LockerState lockerState) {
+            this.sequence = lockerState.sequence;
+            this.position = lockerState.threadCounter.getAndIncrement() * 7919;
+        }
+
+        Integer nextKey() {
+            return this.sequence[this.position++ & (this.sequence.length - 1)];
+        }
+    }
+
+    @Benchmark
+    public void lockUnlock(LockerState lockerState, ThreadState threadState) {
+        Integer key = threadState.nextKey();
+        lockerState.entityLocker.lock(key);
+        lockerState.entityLocker.unlock(key);
+    }
+}
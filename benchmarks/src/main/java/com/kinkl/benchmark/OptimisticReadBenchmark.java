@@ -0,0 +1,107 @@
+package com.kinkl.benchmark;
+
+import com.kinkl.EntityLocker;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares cache-like reads of a few hot entities done under an optimistic stamp (falling back to the shared lock when validation fails),
+ * under the shared lock and under the exclusive lock. A configurable share of operations are writes under the exclusive lock.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OptimisticReadBenchmark {
+
+    public enum ReadMode {
+        OPTIMISTIC,
+        SHARED,
+        EXCLUSIVE
+    }
+
+    @State(Scope.Benchmark)
+    public static class LockerState {
+
+        @Param({"OPTIMISTIC", "SHARED", "EXCLUSIVE"})
+        public ReadMode readMode;
+
+        @Param({"0", "5"})
+        public int writePercent;
+
+        @Param({"4"})
+        public int hotKeyCount;
+
+        public EntityLocker<Long> entityLocker;
+
+        public long[] values;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            this.entityLocker = EntityLocker.<Long>builder().optimisticReads().build();
+            this.values = new long[this.hotKeyCount];
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+
+        final SplittableRandom random = new SplittableRandom();
+    }
+
+    @Benchmark
+    public long readOrWrite(LockerState lockerState, ThreadState threadState) {
+        int index = threadState.random.nextInt(lockerState.hotKeyCount);
+        Long key = (long) index;
+        EntityLocker<Long> entityLocker = lockerState.entityLocker;
+        if (threadState.random.nextInt(100) < lockerState.writePercent) {
+            entityLocker.lock(key);
+            try {
+                return ++lockerState.values[index];
+            } finally {
+                entityLocker.unlock(key);
+            }
+        }
+        switch (lockerState.readMode) {
+            case OPTIMISTIC:
+                long stamp = entityLocker.tryOptimisticRead(key);
+                long value = lockerState.values[index];
+                if (stamp != 0 && entityLocker.validate(key, stamp)) {
+                    return value;
+                }
+                return readShared(entityLocker, key, lockerState.values, index);
+            case SHARED:
+                return readShared(entityLocker, key, lockerState.values, index);
+            default:
+                entityLocker.lock(key);
+                try {
+                    return lockerState.values[index];
+                } finally {
+                    entityLocker.unlock(key);
+                }
+        }
+    }
+
+    private static long readShared(EntityLocker<Long> entityLocker, Long key, long[] values, int index) {
+        entityLocker.lockShared(key);
+        try {
+            return values[index];
+        } finally {
+            entityLocker.unlockShared(key);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.kinkl.benchmark;
+
+import com.kinkl.EntityLocker;
+import com.kinkl.IEntityLocker;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Compares the lambda based protected code API with hand-written lock/try/finally/unlock. Run with {@code -prof gc}: the lambda API must
+ * not allocate more per operation than manual locking, and reentering an entity the thread already holds must allocate nothing. Locking an
+ * idle entity is not allocation-free: {@link EntityLocker} removes idle locks, so every such call creates the entity lock and its map node.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProtectedCodeBenchmark {
+
+    private static final Runnable NO_OP = () -> {
+    };
+
+    private static final Supplier<String> CONSTANT = () -> "value";
+
+    @State(Scope.Thread)
+    public static class LockerState {
+
+        public IEntityLocker<Long> entityLocker;
+
+        public Long key;
+
+        public Long heldKey;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            this.entityLocker = new EntityLocker<>();
+            this.key = 1L;
+            this.heldKey = 2L;
+            this.entityLocker.lock(this.heldKey);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            this.entityLocker.unlock(this.heldKey);
+        }
+    }
+
+    @Benchmark
+    public void manualLockUnlock(LockerState lockerState) {
+        lockerState.entityLocker.lock(lockerState.key);
+        try {
+            NO_OP.run();
+        } finally {
+            lockerState.entityLocker.unlock(lockerState.key);
+        }
+    }
+
+    @Benchmark
+    public void execute(LockerState lockerState) {
+        lockerState.entityLocker.execute(lockerState.key, NO_OP);
+    }
+
+    @Benchmark
+    public String compute(LockerState lockerState) {
+        return lockerState.entityLocker.compute(lockerState.key, CONSTANT);
+    }
+
+    @Benchmark
+    public boolean timedExecute(LockerState lockerState) throws InterruptedException {
+        return lockerState.entityLocker.execute(lockerState.key, 1, TimeUnit.SECONDS, NO_OP);
+    }
+
+    @Benchmark
+    public void reentrantExecute(LockerState lockerState) {
+        lockerState.entityLocker.execute(lockerState.heldKey, NO_OP);
+    }
+}
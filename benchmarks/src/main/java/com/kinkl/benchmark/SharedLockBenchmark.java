@@ -0,0 +1,87 @@
+package com.kinkl.benchmark;
+
+import com.kinkl.EntityLocker;
+import com.kinkl.IEntityLocker;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures a read-heavy workload on a few hot entities where reads take either the shared or the exclusive lock. Writes always take the
+ * exclusive lock. Run with {@code -t} from 1 to the number of cores to see how reads scale.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SharedLockBenchmark {
+
+    public enum ReadLockMode {
+        SHARED,
+        EXCLUSIVE
+    }
+
+    @State(Scope.Benchmark)
+    public static class LockerState {
+
+        @Param({"SHARED", "EXCLUSIVE"})
+        public ReadLockMode readLockMode;
+
+        @Param({"95", "100"})
+        public int readPercent;
+
+        @Param({"4"})
+        public int hotKeyCount;
+
+        @Param({"50"})
+        public int protectedCodeTokens;
+
+        public IEntityLocker<Long> entityLocker;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            this.entityLocker = new EntityLocker<>();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+
+        final SplittableRandom random = new SplittableRandom();
+    }
+
+    @Benchmark
+    public void readOrWrite(LockerState lockerState, ThreadState threadState) {
+        Long key = (long) threadState.random.nextInt(lockerState.hotKeyCount);
+        boolean isRead = threadState.random.nextInt(100) < lockerState.readPercent;
+        if (isRead && lockerState.readLockMode == ReadLockMode.SHARED) {
+            lockerState.entityLocker.lockShared(key);
+            try {
+                Blackhole.consumeCPU(lockerState.protectedCodeTokens);
+            } finally {
+                lockerState.entityLocker.unlockShared(key);
+            }
+        } else {
+            lockerState.entityLocker.lock(key);
+            try {
+                Blackhole.consumeCPU(lockerState.protectedCodeTokens);
+            } finally {
+                lockerState.entityLocker.unlock(key);
+            }
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.kinkl.benchmark;
+
+import com.kinkl.EntityLockers;
+import com.kinkl.IEntityLocker;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the per-entity {@link com.kinkl.EntityLocker} with {@link com.kinkl.StripedEntityLocker} at 1K, 1M and 100M distinct ids.
+ * Ids are drawn uniformly on the fly, so even 100M ids don't need a precomputed key array. Run with {@code -prof gc} to compare allocations
+ * per operation; see {@link LockerFootprint} for the retained memory.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StripedEntityLockerBenchmark {
+
+    public enum LockerType {
+        ENTITY_LOCKER, STRIPED
+    }
+
+    @State(Scope.Benchmark)
+    public static class LockerState {
+
+        @Param({"ENTITY_LOCKER", "STRIPED"})
+        public LockerType lockerType;
+
+        @Param({"1000", "1000000", "100000000"})
+        public long keyCount;
+
+        @Param({"4096"})
+        public int stripeCount;
+
+        public IEntityLocker<Long> entityLocker;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            this.entityLocker = this.lockerType == LockerType.STRIPED
+                    ? EntityLockers.newStripedEntityLocker(this.stripeCount)
+                    : EntityLockers.newEntityLocker();
+        }
+    }
+
+    @Benchmark
+    public void lockUnlock(LockerState lockerState) {
+        Long key = ThreadLocalRandom.current().nextLong(lockerState.keyCount);
+        lockerState.entityLocker.lock(key);
+        lockerState.entityLocker.unlock(key);
+    }
+}
@@ -0,0 +1,72 @@
+package com.kinkl.benchmark;
+
+import com.kinkl.EntityLocker;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Load test with one virtual thread per task: by default 1M virtual threads contending over 10K entities. Every thread locks a random
+ * entity, yields while holding it (which unmounts it from the carrier) and unlocks it. The test reports throughput and carrier utilization,
+ * the process CPU time divided by the wall time of all carriers; a locker pinning carriers while waiting shows up as low utilization.
+ * <p>Requires Java 21. Virtual threads are created reflectively so that the module still compiles for Java 8.</p>
+ * <p>Usage: {@code java -cp target/benchmarks.jar com.kinkl.benchmark.VirtualThreadLoadTest [threads] [entities] [default|virtual]}</p>
+ */
+public class VirtualThreadLoadTest {
+
+    public static void main(String[] args) throws Exception {
+        int threadCount = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int entityCount = args.length > 1 ? Integer.parseInt(args[1]) : 10_000;
+        boolean isVirtualThreadFriendly = args.length <= 2 || "virtual".equals(args[2]);
+        EntityLocker<Integer> locker = isVirtualThreadFriendly
+                ? EntityLocker.<Integer>builder().virtualThreadFriendly().build()
+                : new EntityLocker<>();
+        LongAdder completed = new LongAdder();
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        long cpuBefore = processCpuTime(os);
+        long start = System.nanoTime();
+        ExecutorService executor = newVirtualThreadPerTaskExecutor();
+        for (int i = 0; i < threadCount; i++) {
+            executor.execute(() -> {
+                Integer entityId = ThreadLocalRandom.current().nextInt(entityCount);
+                locker.lock(entityId);
+                try {
+                    Thread.yield();
+                } finally {
+                    locker.unlock(entityId);
+                }
+                completed.increment();
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.HOURS);
+        long elapsed = System.nanoTime() - start;
+        long cpu = processCpuTime(os) - cpuBefore;
+        int carriers = Integer.getInteger("jdk.virtualThreadScheduler.parallelism", Runtime.getRuntime().availableProcessors());
+        System.out.printf("mode=%s threads=%d entities=%d completed=%d%n", isVirtualThreadFriendly ? "virtual" : "default", threadCount,
+                entityCount, completed.sum());
+        System.out.printf("elapsed=%.2f s throughput=%.0f ops/s carrier utilization=%.1f%%%n", elapsed / 1e9,
+                completed.sum() / (elapsed / 1e9), 100.0 * cpu / ((double) elapsed * carriers));
+    }
+
+    private static ExecutorService newVirtualThreadPerTaskExecutor() throws ReflectiveOperationException {
+        try {
+            Method factory = java.util.concurrent.Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (NoSuchMethodException e) {
+            throw new UnsupportedOperationException("Virtual threads require Java 21, running on " + System.getProperty("java.version"), e);
+        }
+    }
+
+    private static long processCpuTime(OperatingSystemMXBean os) {
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,19 @@
+package com.kinkl.benchmark;
+
+/**
+ * Distribution of entity ids across benchmark threads.
+ */
+public enum Workload {
+    /**
+     * Every thread works with its own range of ids, so threads never lock the same entity.
+     */
+    UNCONTENDED,
+    /**
+     * All threads pick ids from a shared range following a Zipfian distribution, so a few ids are popular and the rest are rarely contended.
+     */
+    ZIPFIAN,
+    /**
+     * All threads pick ids from a small shared range following a Zipfian distribution, so most calls contend on a couple of hot ids.
+     */
+    HOT_KEY
+}
@@ -0,0 +1,54 @@
+package com.kinkl.benchmark;
+
+import java.util.Random;
+
+/**
+ * Generates numbers from {@code [0, itemCount)} following a Zipfian distribution where 0 is the most popular item. Uses the algorithm from
+ * "Quickly Generating Billion-Record Synthetic Databases" by Gray et al., the same one YCSB uses.
+ */
+public class ZipfianGenerator {
+
+    public static final double DEFAULT_THETA = 0.99;
+
+    private final long itemCount;
+
+    private final double theta;
+
+    private final double alpha;
+
+    private final double zetaN;
+
+    private final double eta;
+
+    private final Random random;
+
+    public ZipfianGenerator(long itemCount, double theta, long seed) {
+        this.itemCount = itemCount;
+        this.theta = theta;
+        this.alpha = 1.0 / (1.0 - theta);
+        this.zetaN = zeta(itemCount, theta);
+        double zeta2 = zeta(2, theta);
+        this.eta = (1 - Math.pow(2.0 / itemCount, 1 - theta)) / (1 - zeta2 / this.zetaN);
+        this.random = new Random(seed);
+    }
+
+    public long next() {
+        double u = this.random.nextDouble();
+        double uz = u * this.zetaN;
+        if (uz < 1.0) {
+            return 0;
+        }
+        if (uz < 1.0 + Math.pow(0.5, this.theta)) {
+            return 1;
+        }
+        return (long) (this.itemCount * Math.pow(this.eta * u - this.eta + 1, this.alpha));
+    }
+
+    private static double zeta(long n, double theta) {
+        double sum = 0;
+        for (long i = 0; i < n; i++) {
+            sum += 1 / Math.pow(i + 1, theta);
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,81 @@
+package com.kinkl;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Defines the order in which threads contending for an entity lock get it. It trades throughput for tail latency: a thread that finds an
+ * entity lock free may take it at once (barging) even if other threads are already waiting, which keeps the lock busy but lets unlucky
+ * waiters lose again and again.</p>
+ * <p>Asynchronous lock requests wait in a FIFO queue of their own and get the lock handed off whenever it's freed; a new request finding
+ * the lock free still queues while the policy would make a thread queue. Reentrant acquisitions, including shared acquisitions by threads
+ * already holding the shared lock, never wait behind queued threads, so they can't deadlock on a thread waiting for the exclusive lock.</p>
+ */
+public final class AcquisitionPolicy {
+
+    enum Kind {
+        BARGING, FAIR, BOUNDED_BARGING, SPIN_THEN_PARK
+    }
+
+    private static final AcquisitionPolicy BARGING = new AcquisitionPolicy(Kind.BARGING, 0);
+
+    private static final AcquisitionPolicy FAIR = new AcquisitionPolicy(Kind.FAIR, 0);
+
+    private static final AcquisitionPolicy SPIN_THEN_PARK = new AcquisitionPolicy(Kind.SPIN_THEN_PARK, 0);
+
+    final Kind kind;
+
+    /**
+     * Time the first queued thread may wait before barging stops, used by {@link Kind#BOUNDED_BARGING}
+     */
+    final long maxBargedWaitNanos;
+
+    private AcquisitionPolicy(Kind kind, long maxBargedWaitNanos) {
+        this.kind = kind;
+        this.maxBargedWaitNanos = maxBargedWaitNanos;
+    }
+
+    /**
+     * Returns the default policy: any thread finding the lock free takes it. This gives the best throughput and the worst tail latency.
+     */
+    public static AcquisitionPolicy barging() {
+        return BARGING;
+    }
+
+    /**
+     * Returns the FIFO policy: a thread finding the lock free still waits while other threads are queued for it, so threads get the lock in
+     * the order they started waiting. Every contended handoff then includes waking a parked thread, which costs throughput.
+     */
+    public static AcquisitionPolicy fair() {
+        return FAIR;
+    }
+
+    /**
+     * Returns the policy that allows barging until the first queued thread has waited longer than the given time. Barging then stops and
+     * the lock is handed off to the queued threads in FIFO order until the queue head changes, which bounds the wait at the queue head.
+     * @throws IllegalArgumentException if maxWait is not positive
+     */
+    public static AcquisitionPolicy boundedBarging(long maxWait, TimeUnit unit) {
+        Objects.requireNonNull(unit);
+        if (maxWait <= 0) {
+            throw new IllegalArgumentException("Maximum barged wait must be positive");
+        }
+        return new AcquisitionPolicy(Kind.BOUNDED_BARGING, unit.toNanos(maxWait));
+    }
+
+    /**
+     * Returns the barging policy that spins for a while before parking a thread if nobody is parked yet. The spin length adapts per
+     * stripe of entities and outlives idle entity locks: it grows when spinning pays off and shrinks when it doesn't, so locks held for
+     * long stop burning CPU. Helps short critical sections on hot entities when there are spare cores.
+     */
+    public static AcquisitionPolicy spinThenPark() {
+        return SPIN_THEN_PARK;
+    }
+
+    @Override
+    public String toString() {
+        return this.kind == Kind.BOUNDED_BARGING
+                ? String.format("%s(%d ns)", this.kind, this.maxBargedWaitNanos)
+                : this.kind.toString();
+    }
+}
@@ -0,0 +1,57 @@
+package com.kinkl;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Owner of entity locks acquired asynchronously. It plays the role of a thread for entity locks, the global lock and deadlock detection, but
+ * is not bound to any thread: all handles obtained through the same owner may be used from any thread. The owner of a lease is the
+ * exception: deadlock detection sees the thread holding the lease in its place, since that thread may wait while the lease blocks others.
+ */
+final class AsyncLockOwner {
+
+    private static final AtomicLong OWNER_COUNTER = new AtomicLong();
+
+    private final String name = "async-owner-" + OWNER_COUNTER.incrementAndGet();
+
+    /**
+     * Thread holding the lease owned by this owner, null for owners of {@link EntityLocker#lockAsync} handles
+     */
+    final Thread leaseThread;
+
+    /**
+     * Number of entity locks the owner holds or waits for. The owner is registered in the global lock indicator while this is positive.
+     */
+    final AtomicInteger users = new AtomicInteger();
+
+    AsyncLockOwner() {
+        this(null);
+    }
+
+    AsyncLockOwner(Thread leaseThread) {
+        this.leaseThread = leaseThread;
+    }
+
+    /**
+     * Incremented before and after each release of a lock of the owner, so it's odd while a lock is being released. Handles may be released
+     * by any thread, even while the owner waits, so the deadlock detector checks that it hasn't changed while a cycle was confirmed.
+     */
+    private final AtomicLong releaseSequence = new AtomicLong();
+
+    void beforeRelease() {
+        this.releaseSequence.incrementAndGet();
+    }
+
+    void afterRelease() {
+        this.releaseSequence.incrementAndGet();
+    }
+
+    long getReleaseSequence() {
+        return this.releaseSequence.get();
+    }
+
+    @Override
+    public String toString() {
+        return this.name;
+    }
+}
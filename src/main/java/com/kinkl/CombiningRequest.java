@@ -0,0 +1,82 @@
+package com.kinkl;
+
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * Protected code submitted by a thread waiting for an entity lock in combining mode. It's run by the thread holding the lock, or by the
+ * submitting thread itself if it acquires the lock before anybody runs the code. The result or the failure is handed back to the submitting
+ * thread, which is unparked once the code has been run.
+ */
+final class CombiningRequest {
+
+    private final Thread thread = Thread.currentThread();
+
+    private final Runnable action;
+
+    private final Supplier<?> supplier;
+
+    /**
+     * Written before the volatile done flag and read after it
+     */
+    private Object result;
+
+    private Throwable failure;
+
+    private volatile boolean isDone;
+
+    /**
+     * @param action code without a result, null if supplier is set
+     * @param supplier code computing a result, null if action is set
+     */
+    CombiningRequest(Runnable action, Supplier<?> supplier) {
+        this.action = action;
+        this.supplier = supplier;
+    }
+
+    Thread getThread() {
+        return this.thread;
+    }
+
+    boolean isDone() {
+        return this.isDone;
+    }
+
+    /**
+     * Runs the code on behalf of the submitting thread and wakes it. Called by the thread holding the entity lock.
+     */
+    void run() {
+        try {
+            this.result = run(this.action, this.supplier);
+        } catch (Throwable e) {
+            this.failure = e;
+        }
+        this.isDone = true;
+        LockSupport.unpark(this.thread);
+    }
+
+    static Object run(Runnable action, Supplier<?> supplier) {
+        if (supplier != null) {
+            return supplier.get();
+        }
+        action.run();
+        return null;
+    }
+
+    /**
+     * Returns the result of the code or rethrows its failure. Called by the submitting thread once the request is done.
+     */
+    Object getResult() {
+        if (this.failure instanceof RuntimeException) {
+            throw (RuntimeException) this.failure;
+        }
+        if (this.failure instanceof Error) {
+            throw (Error) this.failure;
+        }
+        if (this.failure != null) {
+            throw new UndeclaredThrowableException(this.failure);
+        }
+        return this.result;
+    }
+}
@@ -0,0 +1,356 @@
+package com.kinkl;
+
+import com.kinkl.exception.MissingEntityLockException;
+import com.kinkl.exception.OtherThreadEntityUnlockAttemptException;
+import com.kinkl.exception.OtherThreadGlobalUnlockAttemptException;
+
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <p>Entity locker keeping the state of each lock in a single word of a small entry stored in a custom concurrent hash table, instead of a
+ * map node with an {@link EntityLock} and its synchronizer. Acquiring an entity that is not locked is a CAS of its lock word, or a CAS of
+ * an empty table slot if the entity has no entry yet, since entries are created already held; releasing it is a CAS of the word that also
+ * marks a free entry as removed. Only a thread meeting a rebuild of the table blocks on its way to the entry. The queue of parked threads
+ * is allocated only on contention. Reentrant holds are counted by the holding thread like in {@link EntityLocker}.</p>
+ * <p>Contending threads are not queued in a fair order: a releasing thread wakes the first parked thread, which competes with threads
+ * arriving meanwhile. Deadlock detection, shared locks, batches and the global lock follow the {@link IEntityLocker} contract; a thread
+ * holding only the shared lock of an entity can't acquire its exclusive lock, as in {@link EntityLocker}.</p>
+ * @param <T> the type of element id
+ * @see LockTable
+ */
+public class CompactEntityLocker<T> implements IGlobalEntityLocker<T> {
+
+    private static final int ACQUIRED = 0;
+
+    private static final int TIMED_OUT = 1;
+
+    private static final int INTERRUPTED = 2;
+
+    private static final int REMOVED = 3;
+
+    private final LockTable table = new LockTable();
+
+    private final DeadlockDetector<T> deadlockDetector = new DeadlockDetector<>();
+
+    private final GlobalLock globalLock = new GlobalLock(this.deadlockDetector);
+
+    private final ThreadLocal<ThreadState<T>> threadStates = ThreadLocal.withInitial(ThreadState::new);
+
+    @Override
+    public void lock(T entityId) {
+        lock(entityId, false);
+    }
+
+    @Override
+    public boolean tryLock(T entityId, long timeout, TimeUnit unit) throws InterruptedException {
+        Objects.requireNonNull(unit);
+        return tryLock(this.threadStates.get(), entityId, false, System.nanoTime() + unit.toNanos(timeout));
+    }
+
+    @Override
+    public void lockShared(T entityId) {
+        lock(entityId, true);
+    }
+
+    @Override
+    public boolean tryLockShared(T entityId, long timeout, TimeUnit unit) throws InterruptedException {
+        Objects.requireNonNull(unit);
+        return tryLock(this.threadStates.get(), entityId, true, System.nanoTime() + unit.toNanos(timeout));
+    }
+
+    private void lock(T entityId, boolean isShared) {
+        lock(this.threadStates.get(), entityId, isShared);
+    }
+
+    private void lock(ThreadState<T> threadState, T entityId, boolean isShared) {
+        Objects.requireNonNull(entityId);
+        HeldLocks<T, LockEntry> heldLocks = threadState.heldLocks;
+        if (heldLocks.reenter(entityId, isShared)) {
+            return;
+        }
+        boolean isFirstHold = heldLocks.size() == 0;
+        if (isFirstHold) {
+            this.globalLock.enter();
+        }
+        LockEntry entry = null;
+        try {
+            entry = acquire(entityId, isShared, false, 0);
+        } finally {
+            if (entry == null && isFirstHold) {
+                this.globalLock.exit();
+            }
+        }
+        heldLocks.addFirstHold(entityId, entry, isShared);
+    }
+
+    private boolean tryLock(ThreadState<T> threadState, T entityId, boolean isShared, long deadline) throws InterruptedException {
+        Objects.requireNonNull(entityId);
+        HeldLocks<T, LockEntry> heldLocks = threadState.heldLocks;
+        if (heldLocks.reenter(entityId, isShared)) {
+            return true;
+        }
+        boolean isFirstHold = heldLocks.size() == 0;
+        if (isFirstHold && !this.globalLock.tryEnter(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+            return false;
+        }
+        LockEntry entry = null;
+        try {
+            entry = acquire(entityId, isShared, true, deadline);
+        } finally {
+            if (entry == null && isFirstHold) {
+                this.globalLock.exit();
+            }
+        }
+        if (entry == null) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            return false;
+        }
+        heldLocks.addFirstHold(entityId, entry, isShared);
+        return true;
+    }
+
+    /**
+     * Acquires the entity lock in the given mode for the current thread, which doesn't hold it in that mode yet. Returns the entry of the
+     * lock, or null if the deadline passed or the timed wait was interrupted; the interrupt status is kept in both cases.
+     */
+    private LockEntry acquire(T entityId, boolean isShared, boolean isTimed, long deadline) {
+        Thread currentThread = Thread.currentThread();
+        boolean isWaiting = false;
+        try {
+            while (true) {
+                LockEntry entry = this.table.get(entityId);
+                if (entry == null) {
+                    LockEntry newEntry = new LockEntry(entityId, isShared, currentThread);
+                    entry = this.table.putIfAbsent(newEntry);
+                    if (entry == newEntry) {
+                        return entry;
+                    }
+                }
+                if (isShared ? entry.tryLockShared(currentThread) : entry.tryLock(currentThread)) {
+                    return entry;
+                }
+                if (entry.isRemoved()) {
+                    continue;
+                }
+                if (isTimed && deadline - System.nanoTime() <= 0) {
+                    return null;
+                }
+                this.deadlockDetector.beforeWait(entityId, entry, isShared);
+                isWaiting = true;
+                int result = await(entry, isShared, isTimed, deadline);
+                if (result == ACQUIRED) {
+                    return entry;
+                }
+                if (result != REMOVED) {
+                    return null;
+                }
+            }
+        } finally {
+            if (isWaiting) {
+                this.deadlockDetector.afterWait();
+            }
+        }
+    }
+
+    /**
+     * Parks the current thread in the queue of the entry until it acquires the entry, the entry is removed or the timed wait is over.
+     * The thread sets the waiters bit before parking, so the thread that frees the entry after that sees the bit and wakes the first
+     * parked thread. Untimed waits are not interruptible; the interrupt status is restored on return.
+     */
+    private int await(LockEntry entry, boolean isShared, boolean isTimed, long deadline) {
+        Thread currentThread = Thread.currentThread();
+        Queue<Thread> waiters = entry.waiters();
+        waiters.offer(currentThread);
+        boolean isInterrupted = false;
+        int result;
+        while (true) {
+            if (isShared ? entry.tryLockShared(currentThread) : entry.tryLock(currentThread)) {
+                result = ACQUIRED;
+                break;
+            }
+            long word = entry.word;
+            if ((word & LockEntry.REMOVED) != 0) {
+                result = REMOVED;
+                break;
+            }
+            if (LockEntry.isAvailable(word, isShared)) {
+                continue;
+            }
+            if ((word & LockEntry.WAITERS) == 0) {
+                entry.compareAndSetWord(word, word | LockEntry.WAITERS);
+                continue;
+            }
+            if (isTimed) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    result = TIMED_OUT;
+                    break;
+                }
+                LockSupport.parkNanos(entry, remaining);
+            } else {
+                LockSupport.park(entry);
+            }
+            if (Thread.interrupted()) {
+                isInterrupted = true;
+                if (isTimed) {
+                    result = INTERRUPTED;
+                    break;
+                }
+            }
+        }
+        waiters.remove(currentThread);
+        // A thread leaving without the lock may have consumed a wake-up meant for the queue, and a shared acquisition may let the next
+        // parked thread in as well
+        if (result != ACQUIRED || isShared) {
+            signal(entry);
+        }
+        if (isInterrupted) {
+            currentThread.interrupt();
+        }
+        return result;
+    }
+
+    /**
+     * Wakes the first parked thread of the entry. If no thread is parked anymore, clears the waiters bit and removes the entry if it's free.
+     */
+    private void signal(LockEntry entry) {
+        Queue<Thread> waiters = entry.waiters();
+        while (true) {
+            Thread next = waiters.peek();
+            if (next != null) {
+                LockSupport.unpark(next);
+                return;
+            }
+            long word = entry.word;
+            if ((word & LockEntry.WAITERS) == 0) {
+                return;
+            }
+            if (entry.compareAndSetWord(word, word & ~LockEntry.WAITERS)) {
+                if (word == LockEntry.WAITERS && entry.compareAndSetWord(0, LockEntry.REMOVED)) {
+                    this.table.remove(entry);
+                }
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void unlock(T entityId) {
+        unlock(this.threadStates.get(), entityId, false);
+    }
+
+    @Override
+    public void unlockShared(T entityId) {
+        unlock(this.threadStates.get(), entityId, true);
+    }
+
+    private void unlock(ThreadState<T> threadState, T entityId, boolean isShared) {
+        Objects.requireNonNull(entityId);
+        HeldLocks<T, LockEntry> heldLocks = threadState.heldLocks;
+        int index = heldLocks.indexOf(entityId);
+        int holdCount = index < 0 ? 0 : heldLocks.getHoldCount(index, isShared);
+        if (holdCount == 0) {
+            throw this.table.get(entityId) != null ? otherThreadEntityUnlockAttempt(entityId, isShared) : missingEntityLock(entityId);
+        }
+        LockEntry entry = heldLocks.getLock(index);
+        heldLocks.release(index, isShared);
+        if (holdCount > 1) {
+            return;
+        }
+        long word = isShared ? entry.unlockShared(Thread.currentThread()) : entry.unlock();
+        if (word == LockEntry.REMOVED) {
+            this.table.remove(entry);
+        } else if (isShared ? word == LockEntry.WAITERS : (word & LockEntry.WAITERS) != 0) {
+            // Only a free entry unblocks a parked thread after a shared release, while an exclusive release also unblocks shared waiters
+            // when the owner keeps a shared hold
+            signal(entry);
+        }
+        if (heldLocks.size() == 0) {
+            this.globalLock.exit();
+        }
+    }
+
+    private static MissingEntityLockException missingEntityLock(Object entityId) {
+        return new MissingEntityLockException(String.format("There is no associated locks for entity with id %s", entityId.toString()));
+    }
+
+    private static OtherThreadEntityUnlockAttemptException otherThreadEntityUnlockAttempt(Object entityId, boolean isShared) {
+        String msg = isShared
+                ? String.format("The shared lock of entity with id %s is not held by current thread", entityId.toString())
+                : String.format("The lock of entity with id %s is held by another thread", entityId.toString());
+        return new OtherThreadEntityUnlockAttemptException(msg);
+    }
+
+    @Override
+    public boolean isLockedByAnotherThread(T entityId) {
+        Objects.requireNonNull(entityId);
+        if (this.globalLock.isHeldByAnotherThread()) {
+            return true;
+        }
+        LockEntry entry = this.table.get(entityId);
+        if (entry == null) {
+            return false;
+        }
+        long word = entry.word;
+        if ((word & LockEntry.EXCLUSIVE) != 0) {
+            return entry.getOwner() != Thread.currentThread();
+        }
+        HeldLocks<T, LockEntry> heldLocks = this.threadStates.get().heldLocks;
+        int index = heldLocks.indexOf(entityId);
+        long ownSharedWord = index >= 0 && heldLocks.getHoldCount(index, true) > 0 ? LockEntry.SHARED_UNIT : 0;
+        return (word & ~(LockEntry.SHARED_UNIT - 1)) > ownSharedWord;
+    }
+
+    @Override
+    public void lockGlobal() {
+        ThreadState<T> threadState = this.threadStates.get();
+        this.globalLock.lock(threadState.heldLocks.size() > 0);
+        threadState.globalHoldCount++;
+    }
+
+    @Override
+    public boolean tryLockGlobal(long timeout, TimeUnit unit) throws InterruptedException {
+        Objects.requireNonNull(unit);
+        ThreadState<T> threadState = this.threadStates.get();
+        boolean isAcquired = this.globalLock.tryLock(threadState.heldLocks.size() > 0, timeout, unit);
+        if (isAcquired) {
+            threadState.globalHoldCount++;
+        }
+        return isAcquired;
+    }
+
+    @Override
+    public void unlockGlobal() {
+        ThreadState<T> threadState = this.threadStates.get();
+        if (threadState.globalHoldCount == 0) {
+            throw new OtherThreadGlobalUnlockAttemptException("The global lock is not held by current thread");
+        }
+        threadState.globalHoldCount--;
+        this.globalLock.unlock();
+    }
+
+    /**
+     * Returns the number of entries in the lock table, that is the number of entities locked or waited for.
+     */
+    int getEntryCount() {
+        return this.table.size();
+    }
+
+    /**
+     * Per-thread bookkeeping of the locks a thread holds. Accessed only by its own thread.
+     */
+    private static final class ThreadState<T> {
+
+        /**
+         * Held entries with hold counts. The thread is registered in the global lock indicator while it holds any entry.
+         */
+        final HeldLocks<T, LockEntry> heldLocks = new HeldLocks<>();
+
+        int globalHoldCount;
+    }
+}
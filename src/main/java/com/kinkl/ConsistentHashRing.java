@@ -0,0 +1,46 @@
+package com.kinkl;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Consistent hash ring assigning keys to nodes. Every node is placed on the ring at several points (virtual nodes), and a key belongs to the
+ * node of the first point at or after the key's hash. Adding or removing a node moves only the keys of that node. Node ids and keys are hashed
+ * with their {@code hashCode}, so every JVM maps a key to the same node as long as the key's hash code doesn't depend on the JVM, like the
+ * hash codes of strings, boxed numbers and UUIDs.
+ */
+final class ConsistentHashRing {
+
+    static final int VIRTUAL_NODE_COUNT = 128;
+
+    private final TreeMap<Integer, String> ring = new TreeMap<>();
+
+    ConsistentHashRing(Collection<String> nodeIds) {
+        if (nodeIds.isEmpty()) {
+            throw new IllegalArgumentException("There must be at least one node");
+        }
+        for (String nodeId : nodeIds) {
+            for (int i = 0; i < VIRTUAL_NODE_COUNT; i++) {
+                this.ring.putIfAbsent(mix((nodeId + "#" + i).hashCode()), nodeId);
+            }
+        }
+    }
+
+    String getNodeId(Object key) {
+        Map.Entry<Integer, String> entry = this.ring.ceilingEntry(mix(key.hashCode()));
+        return entry != null ? entry.getValue() : this.ring.firstEntry().getValue();
+    }
+
+    /**
+     * Finalization step of MurmurHash3 spreading similar hash codes over the whole ring
+     */
+    private static int mix(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x85EBCA6B;
+        hash ^= hash >>> 13;
+        hash *= 0xC2B2AE35;
+        hash ^= hash >>> 16;
+        return hash;
+    }
+}
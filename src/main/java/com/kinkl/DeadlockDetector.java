@@ -2,43 +2,663 @@ package com.kinkl;
 
 import com.kinkl.exception.DeadlockThreatException;
 
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
 
+/**
+ * Detects deadlocks by walking the wait-for graph "entity lock -> holders -> entity locks the holders wait for". Holders are taken from the
+ * entity locks themselves: the exclusive owner blocks any waiter, shared holders block exclusive waiters. Holders and waiters are threads or
+ * asynchronous lock owners; the owner of a lease stands for the thread holding the lease. The detector only keeps track of waiters and is consulted only when a thread or an asynchronous owner is about to
+ * wait for a lock held by someone else. Uncontended locking never touches the detector.
+ * <p>A waiter publishes its edge before walking the graph, so of two waiters closing a cycle concurrently at least one sees the other. Edges
+ * are read one by one while other waiters come and go, so a cycle found by a walk is confirmed before it's reported.</p>
+ * <p>In background mode waiting threads only publish their edges, and a shared daemon thread periodically looks for cycles. Of every cycle it
+ * aborts the thread that started waiting last: the thread is interrupted out of its wait and throws {@link DeadlockThreatException}. This
+ * makes contended locking cheaper at the price of detection latency. Asynchronous owners never block, so they are always checked at once.</p>
+ */
 public class DeadlockDetector<T> {
 
-    private final Map<T, Thread> lockedEntityToThreadMap = new HashMap<>();
+    private static final ScheduledExecutorService BACKGROUND_EXECUTOR = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "entity-locker-deadlock-detector");
+        thread.setDaemon(true);
+        return thread;
+    });
 
-    private final Map<Thread, T> threadToPendingEntityLockMap = new HashMap<>();
+    /**
+     * Pending locks of waiting threads and asynchronous lock owners
+     */
+    private final ConcurrentMap<Object, PendingLock> waiterToPendingEntityLockMap = new ConcurrentHashMap<>();
 
-    synchronized void beforeLock(T entityId) {
-        checkLockDoesNotCauseDeadlock(entityId);
-        this.threadToPendingEntityLockMap.putIfAbsent(Thread.currentThread(), entityId);
+    private final boolean isBackground;
+
+    /**
+     * Creates a detector checking every wait when it starts.
+     */
+    DeadlockDetector() {
+        this.isBackground = false;
+    }
+
+    /**
+     * Creates a detector looking for deadlocks in background with the given period.
+     */
+    DeadlockDetector(long period, TimeUnit unit) {
+        this.isBackground = true;
+        BackgroundScan.schedule(this, unit.toNanos(period));
+    }
+
+    void beforeWait(T entityId, EntityLock lock, boolean isShared) {
+        beforeWait(Thread.currentThread(), entityId, lock, isShared);
+    }
+
+    /**
+     * Registers the current thread, which holds no entity locks, as waiting for the lock. No edge of the wait-for graph leads to a thread
+     * holding nothing, so its wait can't close a cycle and the graph is not walked.
+     */
+    void beforeWaitHoldingNothing(T entityId, EntityLock lock, boolean isShared) {
+        Thread waiter = Thread.currentThread();
+        this.waiterToPendingEntityLockMap.put(waiter, new PendingLock(entityId, () -> getBlockingHolders(lock, isShared, waiter)));
+    }
+
+    /**
+     * Registers the waiter (the current thread or an asynchronous lock owner) as waiting for the lock, unless waiting causes a deadlock.
+     * An asynchronous owner is expected to wait for one lock at a time.
+     */
+    void beforeWait(Object waiter, T entityId, EntityLock lock, boolean isShared) {
+        beforeWait(waiter, entityId, new PendingLock(entityId, () -> getBlockingHolders(lock, isShared, waiter)));
     }
 
-    synchronized void afterLock(T entityId, boolean isLockAcquired) {
-        this.threadToPendingEntityLockMap.remove(Thread.currentThread());
-        if (isLockAcquired) {
-            this.lockedEntityToThreadMap.putIfAbsent(entityId, Thread.currentThread());
+    /**
+     * Registers the current thread as waiting for an entity, unless waiting causes a deadlock. The supplier returns the threads that
+     * currently prevent the thread from acquiring the entity; it's called by other threads as well while the thread waits.
+     */
+    void beforeWait(T entityId, Supplier<Iterable<?>> blockingHolders) {
+        beforeWait(Thread.currentThread(), entityId, new PendingLock(entityId, blockingHolders));
+    }
+
+    /**
+     * Registers the current thread as waiting for the lock entry in the given mode, unless waiting causes a deadlock. A thread waiting for a
+     * removed entry registers again for the entry replacing it.
+     */
+    void beforeWait(T entityId, LockEntry entry, boolean isShared) {
+        beforeWait(Thread.currentThread(), entityId, new PendingLock(entityId, () -> entry.getBlockingHolders(isShared)));
+    }
+
+    private void beforeWait(Object waiter, T entityId, PendingLock pendingLock) {
+        this.waiterToPendingEntityLockMap.put(waiter, pendingLock);
+        if (this.isBackground && waiter instanceof Thread) {
+            return;
+        }
+        try {
+            checkLockDoesNotCauseDeadlock(waiter, entityId, pendingLock);
+        } catch (DeadlockThreatException e) {
+            this.waiterToPendingEntityLockMap.remove(waiter);
+            throw e;
         }
     }
 
-    synchronized void beforeUnlock(T entityId) {
-        this.lockedEntityToThreadMap.remove(entityId);
+    void afterWait() {
+        afterWait(Thread.currentThread());
+    }
+
+    /**
+     * Waits for the lock the current thread registered for with {@link #beforeWait}. In background mode the wait is aborted with
+     * {@link DeadlockThreatException} if the thread is chosen as a deadlock victim; other interrupts are kept until the lock is acquired.
+     */
+    void await(EntityLock lock, boolean isShared) {
+        if (!this.isBackground) {
+            if (isShared) {
+                lock.lockShared();
+            } else {
+                lock.lock();
+            }
+            return;
+        }
+        PendingLock pendingLock = this.waiterToPendingEntityLockMap.get(Thread.currentThread());
+        boolean isInterrupted = false;
+        while (true) {
+            try {
+                if (isShared) {
+                    lock.lockSharedInterruptibly();
+                } else {
+                    lock.lockInterruptibly();
+                }
+                break;
+            } catch (InterruptedException e) {
+                if (pendingLock.isAborted()) {
+                    // The interrupt caught may be another one, so the detector's interrupt is consumed before the abort is reported
+                    pendingLock.awaitInterrupt();
+                    restoreInterrupt(isInterrupted);
+                    throw new DeadlockThreatException(pendingLock.abortMessage);
+                }
+                isInterrupted = true;
+            }
+        }
+        try {
+            afterAcquired(pendingLock, lock, isShared);
+        } finally {
+            restoreInterrupt(isInterrupted);
+        }
+    }
+
+    private static void restoreInterrupt(boolean isInterrupted) {
+        if (isInterrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Waits for the lock the current thread registered for with {@link #beforeWait}, but no longer than the given timeout. In background mode
+     * the wait is aborted with {@link DeadlockThreatException} if the thread is chosen as a deadlock victim.
+     */
+    boolean await(EntityLock lock, boolean isShared, long timeout, TimeUnit unit) throws InterruptedException {
+        if (!this.isBackground) {
+            return isShared ? lock.tryLockShared(timeout, unit) : lock.tryLock(timeout, unit);
+        }
+        PendingLock pendingLock = this.waiterToPendingEntityLockMap.get(Thread.currentThread());
+        boolean isAcquired;
+        try {
+            isAcquired = isShared ? lock.tryLockShared(timeout, unit) : lock.tryLock(timeout, unit);
+        } catch (InterruptedException e) {
+            if (pendingLock.isAborted()) {
+                pendingLock.awaitInterrupt();
+                throw new DeadlockThreatException(pendingLock.abortMessage);
+            }
+            throw e;
+        }
+        if (isAcquired) {
+            afterAcquired(pendingLock, lock, isShared);
+        } else if (!pendingLock.complete()) {
+            pendingLock.awaitInterrupt();
+            throw new DeadlockThreatException(pendingLock.abortMessage);
+        }
+        return isAcquired;
+    }
+
+    /**
+     * The lock may be acquired after the detector decided to abort the thread. The abort wins then, since the detector may already have
+     * aborted no other thread of the cycle.
+     */
+    private void afterAcquired(PendingLock pendingLock, EntityLock lock, boolean isShared) {
+        if (pendingLock.complete()) {
+            return;
+        }
+        if (isShared) {
+            lock.unlockShared();
+        } else {
+            lock.unlock();
+        }
+        pendingLock.awaitInterrupt();
+        throw new DeadlockThreatException(pendingLock.abortMessage);
+    }
+
+    /**
+     * Aborts the youngest waiting thread of every wait-for cycle. Cycles are found as strongly connected components of a snapshot of the
+     * graph in a single pass; the victim's edge is removed from the snapshot and the components are searched again, since one victim may not
+     * break every cycle of a component. Each pass is linear in the size of the graph and there are at most as many passes as victims.
+     */
+    void abortDeadlockedThreads() {
+        Map<Object, PendingLock> waiters = new HashMap<>(this.waiterToPendingEntityLockMap);
+        boolean isAborted = true;
+        while (isAborted) {
+            isAborted = false;
+            Map<Object, List<Object>> graph = buildGraph(waiters);
+            for (List<Object> component : findCyclicComponents(graph)) {
+                Thread victim = findYoungestThread(component, waiters);
+                if (victim == null || !isStillDeadlocked(component, waiters)) {
+                    continue;
+                }
+                PendingLock pendingLock = waiters.remove(victim);
+                isAborted = true;
+                Object entityHolder = findSuccessorWithin(graph.get(victim), component);
+                String msg = String.format("%s cannot lock entity with id %s because this will cause a deadlock. This entity is already locked by %s",
+                        capitalize(describe(victim)),
+                        pendingLock.entityId,
+                        describe(entityHolder));
+                if (pendingLock.abort(msg)) {
+                    this.waiterToPendingEntityLockMap.remove(victim, pendingLock);
+                    victim.interrupt();
+                    pendingLock.isInterruptDelivered = true;
+                    LockSupport.unpark(victim);
+                }
+            }
+        }
+    }
+
+    private static Thread findYoungestThread(List<Object> component, Map<Object, PendingLock> waiters) {
+        Thread youngest = null;
+        for (Object waiter : component) {
+            if (waiter instanceof Thread
+                    && (youngest == null || waiters.get(waiter).waitStartNanos - waiters.get(youngest).waitStartNanos > 0)) {
+                youngest = (Thread) waiter;
+            }
+        }
+        return youngest;
+    }
+
+    private static Object findSuccessorWithin(List<Object> successors, List<Object> component) {
+        for (Object successor : successors) {
+            if (component.contains(successor)) {
+                return successor;
+            }
+        }
+        throw new IllegalStateException("Wait-for cycle is broken");
+    }
+
+    /**
+     * Builds the adjacency lists "waiter -> waiters blocking it". Holders that don't wait themselves can't be part of a cycle and are left out.
+     * Blocking holders are read once, so the snapshot stays consistent while the locks change.
+     */
+    private static Map<Object, List<Object>> buildGraph(Map<Object, PendingLock> waiters) {
+        Map<Object, List<Object>> graph = new HashMap<>();
+        for (Map.Entry<Object, PendingLock> entry : waiters.entrySet()) {
+            List<Object> successors = new ArrayList<>();
+            for (Object owner : entry.getValue().getBlockingHolders()) {
+                Object holder = holderOf(owner);
+                if (waiters.containsKey(holder)) {
+                    successors.add(holder);
+                }
+            }
+            graph.put(entry.getKey(), successors);
+        }
+        return graph;
+    }
+
+    /**
+     * Returns the strongly connected components of the graph that contain a cycle: components of several waiters and waiters blocked by
+     * themselves. This is an iterative version of Tarjan's algorithm, so long wait chains don't overflow the stack.
+     */
+    static List<List<Object>> findCyclicComponents(Map<Object, List<Object>> graph) {
+        List<List<Object>> components = new ArrayList<>();
+        Map<Object, int[]> indexAndLowLink = new HashMap<>();
+        Deque<Object> componentStack = new ArrayDeque<>();
+        Set<Object> onComponentStack = new HashSet<>();
+        Deque<Object> callStack = new ArrayDeque<>();
+        Deque<Iterator<Object>> successorIterators = new ArrayDeque<>();
+        int nextIndex = 0;
+        for (Object root : graph.keySet()) {
+            if (indexAndLowLink.containsKey(root)) {
+                continue;
+            }
+            indexAndLowLink.put(root, new int[]{nextIndex, nextIndex++});
+            componentStack.push(root);
+            onComponentStack.add(root);
+            callStack.push(root);
+            successorIterators.push(graph.get(root).iterator());
+            while (!callStack.isEmpty()) {
+                Object node = callStack.peek();
+                int[] nodeLinks = indexAndLowLink.get(node);
+                Iterator<Object> successors = successorIterators.peek();
+                if (successors.hasNext()) {
+                    Object successor = successors.next();
+                    int[] successorLinks = indexAndLowLink.get(successor);
+                    if (successorLinks == null) {
+                        indexAndLowLink.put(successor, new int[]{nextIndex, nextIndex++});
+                        componentStack.push(successor);
+                        onComponentStack.add(successor);
+                        callStack.push(successor);
+                        successorIterators.push(graph.get(successor).iterator());
+                    } else if (onComponentStack.contains(successor)) {
+                        nodeLinks[1] = Math.min(nodeLinks[1], successorLinks[0]);
+                    }
+                    continue;
+                }
+                callStack.pop();
+                successorIterators.pop();
+                if (!callStack.isEmpty()) {
+                    int[] parentLinks = indexAndLowLink.get(callStack.peek());
+                    parentLinks[1] = Math.min(parentLinks[1], nodeLinks[1]);
+                }
+                if (nodeLinks[1] == nodeLinks[0]) {
+                    List<Object> component = new ArrayList<>();
+                    Object member;
+                    do {
+                        member = componentStack.pop();
+                        onComponentStack.remove(member);
+                        component.add(member);
+                    } while (member != node);
+                    if (component.size() > 1 || graph.get(node).contains(node)) {
+                        components.add(component);
+                    }
+                }
+            }
+        }
+        return components;
+    }
+
+    void afterWait(Object waiter) {
+        this.waiterToPendingEntityLockMap.remove(waiter);
+    }
+
+    /**
+     * Returns the registered waiters grouped by the id of the entity they wait for, with the time they have been waiting. The waiters are
+     * read without locking, so waiters registering or leaving meanwhile may be missed or included.
+     */
+    Map<Object, List<EntityLockState.Waiter>> getWaitersByEntityId() {
+        long now = System.nanoTime();
+        Map<Object, List<EntityLockState.Waiter>> waiters = new HashMap<>();
+        for (Map.Entry<Object, PendingLock> entry : this.waiterToPendingEntityLockMap.entrySet()) {
+            PendingLock pendingLock = entry.getValue();
+            waiters.computeIfAbsent(pendingLock.entityId, id -> new ArrayList<>())
+                    .add(new EntityLockState.Waiter(entry.getKey(), Math.max(0, now - pendingLock.waitStartNanos)));
+        }
+        return waiters;
+    }
+
+    /**
+     * Checks that the current thread, which holds entity locks, may wait for other threads to leave protected code. This is not the case if
+     * some thread or asynchronous owner waits (directly or through a chain of other waiters) for an entity locked by the current thread.
+     * Every chain of waiters leading to the current thread ends with a waiter blocked by the current thread itself, so it's enough to look
+     * for such waiters instead of walking the chains from every waiter.
+     */
+    void checkGlobalLockDoesNotCauseDeadlock() {
+        Thread currentThread = Thread.currentThread();
+        for (Map.Entry<Object, PendingLock> entry : this.waiterToPendingEntityLockMap.entrySet()) {
+            for (Object holder : entry.getValue().getBlockingHolders()) {
+                if (holderOf(holder) == currentThread) {
+                    String msg = String.format("Thread [%s] cannot acquire the global lock because this will cause a deadlock. %s waits for an entity locked by thread [%s]",
+                            currentThread.getName(),
+                            capitalize(describe(entry.getKey())),
+                            currentThread.getName());
+                    throw new DeadlockThreatException(msg);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the number of registered waiters. Used in tests to check that edges don't outlive waits.
+     */
+    int getWaiterCount() {
+        return this.waiterToPendingEntityLockMap.size();
+    }
+
+    private void checkLockDoesNotCauseDeadlock(Object waiter, T entityId, PendingLock pendingLock) {
+        Object entityHolder = findHolderLeadingTo(waiter, pendingLock);
+        if (entityHolder != null) {
+            String msg = String.format("%s cannot lock entity with id %s because this will cause a deadlock. This entity is already locked by %s",
+                    capitalize(describe(waiter)),
+                    entityId,
+                    describe(entityHolder));
+            throw new DeadlockThreatException(msg);
+        }
     }
 
-    private void checkLockDoesNotCauseDeadlock(T entityId) {
-        T nextEntityId = entityId;
-        while (nextEntityId != null) {
-            Thread thread = this.lockedEntityToThreadMap.get(nextEntityId);
-            if (thread == Thread.currentThread()) {
-                String msg = String.format("Thread [%s] cannot lock entity with id %s because this will cause a deadlock. This entity is already locked by thread [%s]",
-                        Thread.currentThread().getName(),
-                        entityId,
-                        this.lockedEntityToThreadMap.get(entityId).getName());
-                throw new DeadlockThreatException(msg);
+    private static String describe(Object owner) {
+        return owner instanceof Thread
+                ? String.format("thread [%s]", ((Thread) owner).getName())
+                : String.format("async owner [%s]", owner);
+    }
+
+    private static String capitalize(String description) {
+        return Character.toUpperCase(description.charAt(0)) + description.substring(1);
+    }
+
+    /**
+     * Walks the wait-for graph starting from the holders of the given lock and returns the holder through which the waiter is reached.
+     * Returns null if the waiter is not reachable. Checked waits keep the graph acyclic, so a new cycle can only pass through the
+     * new edge and only the part of the graph reachable from it is walked, each waiter at most once. A cycle that can't be confirmed was
+     * made of edges that no longer exist together, so the graph is walked again.
+     */
+    private Object findHolderLeadingTo(Object waiter, PendingLock pendingLock) {
+        while (true) {
+            Map<Object, Object> blockedWaiters = new HashMap<>();
+            Map<Object, PendingLock> pendingLocks = new HashMap<>();
+            pendingLocks.put(waiter, pendingLock);
+            Deque<Object> stack = new ArrayDeque<>();
+            Deque<Object> blockedStack = new ArrayDeque<>();
+            for (Object holder : pendingLock.getBlockingHolders()) {
+                stack.push(holderOf(holder));
+                blockedStack.push(waiter);
+            }
+            while (!stack.isEmpty()) {
+                Object owner = stack.pop();
+                Object blockedWaiter = blockedStack.pop();
+                if (blockedWaiters.putIfAbsent(owner, blockedWaiter) != null) {
+                    continue;
+                }
+                if (owner == waiter) {
+                    break;
+                }
+                PendingLock nextLock = this.waiterToPendingEntityLockMap.get(owner);
+                if (nextLock != null) {
+                    pendingLocks.put(owner, nextLock);
+                    for (Object nextHolder : nextLock.getBlockingHolders()) {
+                        stack.push(holderOf(nextHolder));
+                        blockedStack.push(owner);
+                    }
+                }
+            }
+            if (!blockedWaiters.containsKey(waiter)) {
+                return null;
+            }
+            List<Object> cycle = new ArrayList<>();
+            Object holder = waiter;
+            do {
+                cycle.add(holder);
+                holder = blockedWaiters.get(holder);
+            } while (holder != waiter);
+            if (isStillDeadlocked(cycle, pendingLocks)) {
+                // The cycle is collected backwards, so its last element is the holder the waiter waits for
+                return cycle.get(cycle.size() - 1);
+            }
+        }
+    }
+
+    /**
+     * Returns true if every waiter still waits for the pending lock it was seen with and is blocked by another waiter of the group. A thread
+     * keeping its pending lock neither acquires nor releases locks, so once all pending locks are confirmed unchanged after the edges are
+     * checked, all the edges exist at the same time and the waiters are deadlocked. Handles of an asynchronous owner may be released by any
+     * thread while the owner waits, and a lease may expire while its thread waits, so their releases are confirmed to be unchanged as well.
+     */
+    private boolean isStillDeadlocked(Collection<Object> waiters, Map<Object, PendingLock> pendingLocks) {
+        Set<Object> group = new HashSet<>(waiters);
+        Map<AsyncLockOwner, Long> releaseSequences = new HashMap<>();
+        for (Object waiter : waiters) {
+            if (waiter instanceof AsyncLockOwner) {
+                long releaseSequence = ((AsyncLockOwner) waiter).getReleaseSequence();
+                if ((releaseSequence & 1) != 0) {
+                    return false;
+                }
+                releaseSequences.put((AsyncLockOwner) waiter, releaseSequence);
+            }
+        }
+        for (Object waiter : waiters) {
+            PendingLock pendingLock = pendingLocks.get(waiter);
+            if (this.waiterToPendingEntityLockMap.get(waiter) != pendingLock || !isBlockedWithin(pendingLock, group, releaseSequences)) {
+                return false;
+            }
+        }
+        for (Object waiter : waiters) {
+            if (this.waiterToPendingEntityLockMap.get(waiter) != pendingLocks.get(waiter)) {
+                return false;
+            }
+        }
+        for (Map.Entry<AsyncLockOwner, Long> entry : releaseSequences.entrySet()) {
+            if (entry.getKey().getReleaseSequence() != entry.getValue()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if the waiter is blocked by a member of the group. A lease blocking it is recorded with its release sequence, so that its
+     * expiry is noticed.
+     */
+    private static boolean isBlockedWithin(PendingLock pendingLock, Set<Object> group, Map<AsyncLockOwner, Long> releaseSequences) {
+        for (Object owner : pendingLock.getBlockingHolders()) {
+            if (!group.contains(holderOf(owner))) {
+                continue;
+            }
+            if (owner instanceof AsyncLockOwner && !releaseSequences.containsKey(owner)) {
+                long releaseSequence = ((AsyncLockOwner) owner).getReleaseSequence();
+                if ((releaseSequence & 1) != 0) {
+                    continue;
+                }
+                releaseSequences.put((AsyncLockOwner) owner, releaseSequence);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the waiter a lock owner stands for: the thread holding the lease if the owner holds a lease, the owner itself otherwise.
+     */
+    private static Object holderOf(Object owner) {
+        if (owner instanceof AsyncLockOwner) {
+            Thread leaseThread = ((AsyncLockOwner) owner).leaseThread;
+            if (leaseThread != null) {
+                return leaseThread;
+            }
+        }
+        return owner;
+    }
+
+    /**
+     * Lock a waiter waits for together with the mode it waits for
+     */
+    private static final class PendingLock {
+
+        private static final int WAITING = 0;
+
+        private static final int COMPLETED = 1;
+
+        private static final int ABORTED = 2;
+
+        private static final AtomicIntegerFieldUpdater<PendingLock> STATE_UPDATER = AtomicIntegerFieldUpdater.newUpdater(PendingLock.class, "state");
+
+        private final Object entityId;
+
+        private final Supplier<Iterable<?>> blockingHolders;
+
+        private final long waitStartNanos = System.nanoTime();
+
+        /**
+         * Changes once, either by the waiter when its wait is over or by the background detector when it aborts the waiter
+         */
+        private volatile int state;
+
+        private volatile String abortMessage;
+
+        private volatile boolean isInterruptDelivered;
+
+        PendingLock(Object entityId, Supplier<Iterable<?>> blockingHolders) {
+            this.entityId = entityId;
+            this.blockingHolders = blockingHolders;
+        }
+
+        boolean complete() {
+            return STATE_UPDATER.compareAndSet(this, WAITING, COMPLETED);
+        }
+
+        boolean abort(String message) {
+            this.abortMessage = message;
+            return STATE_UPDATER.compareAndSet(this, WAITING, ABORTED);
+        }
+
+        boolean isAborted() {
+            return this.state == ABORTED;
+        }
+
+        /**
+         * Waits until the detector has interrupted the aborted waiter and clears the interrupt, so it doesn't leak into the caller's code.
+         * The detector unparks the waiter once the interrupt is delivered; the interrupt status is cleared before parking, since an
+         * interrupted thread doesn't park.
+         */
+        void awaitInterrupt() {
+            while (!this.isInterruptDelivered) {
+                Thread.interrupted();
+                LockSupport.park(this);
+            }
+            Thread.interrupted();
+        }
+
+        /**
+         * Returns the owners that currently prevent the waiter from acquiring the lock
+         */
+        Iterable<?> getBlockingHolders() {
+            return this.blockingHolders.get();
+        }
+    }
+
+    /**
+     * Returns the owners that prevent a waiter from acquiring the entity lock: the exclusive owner or, for exclusive waiters, the threads
+     * holding the shared lock. The waiting thread itself may be among them if it waits to upgrade its shared lock. A shared waiter queued
+     * behind exclusive waiters is blocked by the shared holders those waiters wait for.
+     * <p>Threads resolve reentrant holds before waiting, so a waiting thread found as the exclusive owner or, for shared waits, among the
+     * shared holders has just acquired the lock and is about to complete its wait. It's left out, otherwise a concurrent scan would see it
+     * blocked by itself. Asynchronous owners don't reenter, so an asynchronous owner blocked by itself is a real deadlock.</p>
+     */
+    private static Iterable<?> getBlockingHolders(EntityLock lock, boolean isShared, Object waiter) {
+        Object owner = lock.getOwner();
+        if (owner != null) {
+            return owner == waiter && waiter instanceof Thread ? Collections.emptySet() : Collections.singleton(owner);
+        }
+        if (!isShared) {
+            return lock.getSharedHolders();
+        }
+        if (!lock.hasQueuedExclusiveWaiters()) {
+            return Collections.emptySet();
+        }
+        Set<Thread> holders = lock.getSharedHolders();
+        if (!holders.contains(waiter)) {
+            return holders;
+        }
+        Set<Thread> otherHolders = new HashSet<>(holders);
+        otherHolders.remove(waiter);
+        return otherHolders;
+    }
+
+    /**
+     * Periodic background scan of a detector. It references the detector weakly, so a locker that is no longer used can be collected, and
+     * stops once the detector is gone.
+     */
+    private static final class BackgroundScan implements Runnable {
+
+        private final WeakReference<DeadlockDetector<?>> detectorReference;
+
+        private volatile ScheduledFuture<?> future;
+
+        private BackgroundScan(DeadlockDetector<?> detector) {
+            this.detectorReference = new WeakReference<>(detector);
+        }
+
+        static void schedule(DeadlockDetector<?> detector, long periodNanos) {
+            BackgroundScan scan = new BackgroundScan(detector);
+            scan.future = BACKGROUND_EXECUTOR.scheduleWithFixedDelay(scan, periodNanos, periodNanos, TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public void run() {
+            DeadlockDetector<?> detector = this.detectorReference.get();
+            if (detector == null) {
+                ScheduledFuture<?> scheduledFuture = this.future;
+                if (scheduledFuture != null) {
+                    scheduledFuture.cancel(false);
+                }
+                return;
             }
-            nextEntityId = this.threadToPendingEntityLockMap.get(thread);
+            detector.abortDeadlockedThreads();
         }
     }
 }
@@ -0,0 +1,558 @@
+package com.kinkl;
+
+import com.kinkl.exception.LeaseExpiredException;
+import com.kinkl.exception.MissingEntityLockException;
+import com.kinkl.exception.NodeUnavailableException;
+import com.kinkl.exception.OtherThreadEntityUnlockAttemptException;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Entity locker shared by several JVMs (nodes). Entity ids are partitioned between the nodes by a consistent hash ring, and the node owning
+ * an id serves its lock. Threads lock ids owned by their own node directly in the node's {@link EntityLocker}, without any remote calls.
+ * Ids owned by other nodes are locked through a {@link LockTransport} as leases: the owner node releases a lease unless the locking node renews
+ * it in time, so locks of a crashed or partitioned node don't live forever. The locking node renews the leases of its threads in background.</p>
+ * <p>Every lock has a fencing token, see {@link #getFencingToken}. Tokens of an entity grow with every new holder, so a storage accepting
+ * writes only with a token not less than the last one it has seen is protected from a holder whose lease has expired unnoticed.</p>
+ * <p>Limitations: nodes are fixed when the locker is built; ids must have the same hash code in every JVM; shared locks of remote ids are
+ * exclusive leases; deadlocks spanning several nodes are not detected (use {@link #tryLock} or batch locking, which never waits while
+ * it holds entities of the batch); there is no global lock, since it would have to stop every node.</p>
+ * @param <T> the type of entity id
+ */
+public class DistributedEntityLocker<T> implements IEntityLocker<T>, AutoCloseable {
+
+    private final String nodeId;
+
+    private final LockTransport<T> transport;
+
+    private final ConsistentHashRing ring;
+
+    /**
+     * Lock services of the other nodes
+     */
+    private final Map<String, LockService<T>> remoteServices = new HashMap<>();
+
+    /**
+     * Locks of the entities owned by this node, held by threads of this node directly and by leases of other nodes
+     */
+    private final EntityLocker<T> localLocker;
+
+    private final long leaseTimeNanos;
+
+    private final AtomicLong fencingTokens = new AtomicLong();
+
+    /**
+     * Leases granted by this node
+     */
+    private final ConcurrentMap<T, Lease<T>> leases = new ConcurrentHashMap<>();
+
+    /**
+     * Leases of other nodes held by threads of this node, renewed in background
+     */
+    private final Set<Hold<T>> remoteHolds = ConcurrentHashMap.newKeySet();
+
+    private final ThreadLocal<Map<T, Hold<T>>> holds = ThreadLocal.withInitial(HashMap::new);
+
+    private final ScheduledExecutorService scheduler;
+
+    private DistributedEntityLocker(Builder<T> builder) {
+        this.nodeId = builder.nodeId;
+        this.transport = builder.transport;
+        this.ring = new ConsistentHashRing(builder.nodeIds);
+        this.localLocker = new EntityLocker<>();
+        this.leaseTimeNanos = builder.leaseTimeNanos;
+        for (String otherNodeId : builder.nodeIds) {
+            if (!otherNodeId.equals(this.nodeId)) {
+                this.remoteServices.put(otherNodeId, this.transport.connect(otherNodeId));
+            }
+        }
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "distributed-entity-locker-" + this.nodeId);
+            thread.setDaemon(true);
+            return thread;
+        });
+        long renewalPeriod = Math.max(1, this.leaseTimeNanos / 3);
+        this.scheduler.scheduleWithFixedDelay(this::renewRemoteHolds, renewalPeriod, renewalPeriod, TimeUnit.NANOSECONDS);
+        long expiryCheckPeriod = Math.max(1, this.leaseTimeNanos / 4);
+        this.scheduler.scheduleWithFixedDelay(this::expireLeases, expiryCheckPeriod, expiryCheckPeriod, TimeUnit.NANOSECONDS);
+        this.transport.bind(this.nodeId, new OwnerService());
+    }
+
+    /**
+     * @param nodeId id of the node this locker runs on
+     * @param transport transport connecting the nodes
+     */
+    public static <T> Builder<T> builder(String nodeId, LockTransport<T> transport) {
+        return new Builder<>(nodeId, transport);
+    }
+
+    public String getNodeId() {
+        return this.nodeId;
+    }
+
+    /**
+     * Returns the id of the node that owns the entity.
+     * @throws NullPointerException if entityId is null
+     */
+    public String getOwnerNodeId(T entityId) {
+        return this.ring.getNodeId(Objects.requireNonNull(entityId));
+    }
+
+    /**
+     * Returns the lock service of the node owning the entity, null if the entity is owned by this node.
+     */
+    private LockService<T> getRemoteService(T entityId) {
+        return this.remoteServices.get(this.ring.getNodeId(entityId));
+    }
+
+    @Override
+    public void lock(T entityId) {
+        lock(entityId, false);
+    }
+
+    @Override
+    public void lockShared(T entityId) {
+        lock(entityId, true);
+    }
+
+    /**
+     * @throws NodeUnavailableException if the entity is owned by a node that can't be reached
+     */
+    private void lock(T entityId, boolean isShared) {
+        Objects.requireNonNull(entityId);
+        Map<T, Hold<T>> threadHolds = this.holds.get();
+        LockService<T> service = getRemoteService(entityId);
+        if (service == null) {
+            if (isShared) {
+                this.localLocker.lockShared(entityId);
+            } else {
+                this.localLocker.lock(entityId);
+            }
+            afterLock(threadHolds, entityId, null, LockService.NO_TOKEN, isShared);
+            return;
+        }
+        long fencingToken = threadHolds.containsKey(entityId) ? LockService.NO_TOKEN : acquireLease(service, entityId);
+        afterLock(threadHolds, entityId, service, fencingToken, isShared);
+    }
+
+    /**
+     * Waits for the lease in requests of the lease time each, so that a request doesn't wait on the owner node for too long.
+     */
+    private long acquireLease(LockService<T> service, T entityId) {
+        boolean isInterrupted = false;
+        try {
+            while (true) {
+                try {
+                    long fencingToken = service.acquire(entityId, this.leaseTimeNanos, this.leaseTimeNanos, TimeUnit.NANOSECONDS);
+                    if (fencingToken != LockService.NO_TOKEN) {
+                        return fencingToken;
+                    }
+                } catch (InterruptedException e) {
+                    isInterrupted = true;
+                }
+            }
+        } finally {
+            if (isInterrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public boolean tryLock(T entityId, long timeout, TimeUnit unit) throws InterruptedException {
+        return tryLock(entityId, false, timeout, unit);
+    }
+
+    @Override
+    public boolean tryLockShared(T entityId, long timeout, TimeUnit unit) throws InterruptedException {
+        return tryLock(entityId, true, timeout, unit);
+    }
+
+    private boolean tryLock(T entityId, boolean isShared, long timeout, TimeUnit unit) throws InterruptedException {
+        Objects.requireNonNull(entityId);
+        Objects.requireNonNull(unit);
+        Map<T, Hold<T>> threadHolds = this.holds.get();
+        LockService<T> service = getRemoteService(entityId);
+        if (service == null) {
+            boolean isAcquired = isShared ? this.localLocker.tryLockShared(entityId, timeout, unit) : this.localLocker.tryLock(entityId, timeout, unit);
+            if (isAcquired) {
+                afterLock(threadHolds, entityId, null, LockService.NO_TOKEN, isShared);
+            }
+            return isAcquired;
+        }
+        long fencingToken = LockService.NO_TOKEN;
+        if (!threadHolds.containsKey(entityId)) {
+            fencingToken = service.acquire(entityId, this.leaseTimeNanos, timeout, unit);
+            if (fencingToken == LockService.NO_TOKEN) {
+                return false;
+            }
+        }
+        afterLock(threadHolds, entityId, service, fencingToken, isShared);
+        return true;
+    }
+
+    /**
+     * Counts the hold of the current thread. The first hold of a local entity gets a new fencing token, the first hold of a remote entity
+     * gets the token of its lease.
+     */
+    private void afterLock(Map<T, Hold<T>> threadHolds, T entityId, LockService<T> service, long fencingToken, boolean isShared) {
+        Hold<T> hold = threadHolds.get(entityId);
+        if (hold == null) {
+            hold = new Hold<>(entityId, service, service == null ? this.fencingTokens.incrementAndGet() : fencingToken);
+            threadHolds.put(entityId, hold);
+            if (service != null) {
+                this.remoteHolds.add(hold);
+            }
+        }
+        if (isShared) {
+            hold.sharedCount++;
+        } else {
+            hold.exclusiveCount++;
+        }
+    }
+
+    @Override
+    public void unlock(T entityId) {
+        unlock(entityId, false);
+    }
+
+    @Override
+    public void unlockShared(T entityId) {
+        unlock(entityId, true);
+    }
+
+    /**
+     * @throws LeaseExpiredException if the lease of a remote entity had expired before it was released
+     * @throws NodeUnavailableException if the entity is owned by a node that can't be reached; the lease expires on that node then
+     */
+    private void unlock(T entityId, boolean isShared) {
+        Objects.requireNonNull(entityId);
+        Map<T, Hold<T>> threadHolds = this.holds.get();
+        Hold<T> hold = threadHolds.get(entityId);
+        LockService<T> service = getRemoteService(entityId);
+        if (service == null) {
+            if (isShared) {
+                this.localLocker.unlockShared(entityId);
+            } else {
+                this.localLocker.unlock(entityId);
+            }
+        } else if (hold == null || (isShared ? hold.sharedCount : hold.exclusiveCount) == 0) {
+            throw isShared
+                    ? new OtherThreadEntityUnlockAttemptException(String.format("The shared lock of entity with id %s is not held by current thread", entityId))
+                    : new MissingEntityLockException(String.format("There is no associated locks for entity with id %s", entityId));
+        }
+        if (isShared) {
+            hold.sharedCount--;
+        } else {
+            hold.exclusiveCount--;
+        }
+        if (hold.sharedCount > 0 || hold.exclusiveCount > 0) {
+            return;
+        }
+        threadHolds.remove(entityId);
+        if (service != null) {
+            this.remoteHolds.remove(hold);
+            if (hold.isLost || !service.release(entityId, hold.fencingToken)) {
+                throw new LeaseExpiredException(String.format("The lease of entity with id %s expired before it was released", entityId));
+            }
+        }
+    }
+
+    /**
+     * Returns true if the entity is locked by another thread of any node.
+     * @throws NodeUnavailableException if the entity is owned by a node that can't be reached
+     */
+    @Override
+    public boolean isLockedByAnotherThread(T entityId) {
+        Objects.requireNonNull(entityId);
+        LockService<T> service = getRemoteService(entityId);
+        if (service == null) {
+            return this.localLocker.isLockedByAnotherThread(entityId);
+        }
+        return !this.holds.get().containsKey(entityId) && service.isLocked(entityId);
+    }
+
+    /**
+     * Returns the fencing token of the entity lock held by the current thread. The token stays the same while the thread holds the lock.
+     * @throws MissingEntityLockException if the current thread doesn't hold the lock of the entity
+     * @throws NullPointerException if entityId is null
+     */
+    public long getFencingToken(T entityId) {
+        Hold<T> hold = this.holds.get().get(Objects.requireNonNull(entityId));
+        if (hold == null) {
+            throw new MissingEntityLockException(String.format("There is no associated locks for entity with id %s", entityId));
+        }
+        return hold.fencingToken;
+    }
+
+    /**
+     * Renews the leases held by threads of this node. A lease the owner node refuses to renew is marked lost. Unreachable owner nodes are
+     * retried on the next renewal, the lease survives if the node becomes reachable before the lease expires.
+     */
+    private void renewRemoteHolds() {
+        for (Hold<T> hold : this.remoteHolds) {
+            try {
+                if (!hold.service.renew(hold.entityId, hold.fencingToken, this.leaseTimeNanos, TimeUnit.NANOSECONDS)) {
+                    hold.isLost = true;
+                    this.remoteHolds.remove(hold);
+                }
+            } catch (NodeUnavailableException e) {
+                // Retried on the next renewal
+            }
+        }
+    }
+
+    /**
+     * Releases the entity locks of expired leases granted by this node.
+     */
+    private void expireLeases() {
+        long now = System.nanoTime();
+        for (Lease<T> lease : this.leases.values()) {
+            if (!lease.isLive(now) && lease.end()) {
+                this.leases.remove(lease.handle.getEntityId(), lease);
+                lease.handle.unlock();
+            }
+        }
+    }
+
+    /**
+     * Makes the node unreachable and stops lease renewal and expiry. Leases held by threads of this node expire on their owner nodes.
+     */
+    @Override
+    public void close() {
+        this.transport.unbind(this.nodeId);
+        this.scheduler.shutdownNow();
+    }
+
+    /**
+     * Lock service of this node called by other nodes. Leases are held by lock handles of the local locker, so they exclude the threads of
+     * this node and each other.
+     */
+    private final class OwnerService implements LockService<T> {
+
+        @Override
+        public long acquire(T entityId, long leaseTime, long waitTime, TimeUnit unit) throws InterruptedException {
+            Objects.requireNonNull(entityId);
+            CompletableFuture<EntityLockHandle<T>> request = DistributedEntityLocker.this.localLocker.lockAsync(entityId).toCompletableFuture();
+            EntityLockHandle<T> handle;
+            try {
+                handle = request.get(waitTime, unit);
+            } catch (TimeoutException e) {
+                handle = cancelOrJoin(request);
+                if (handle == null) {
+                    return NO_TOKEN;
+                }
+            } catch (InterruptedException e) {
+                handle = cancelOrJoin(request);
+                if (handle != null) {
+                    handle.unlock();
+                }
+                throw e;
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : new IllegalStateException(e.getCause());
+            }
+            long fencingToken = DistributedEntityLocker.this.fencingTokens.incrementAndGet();
+            long expiryNanos = System.nanoTime() + unit.toNanos(leaseTime);
+            DistributedEntityLocker.this.leases.put(entityId, new Lease<>(handle, fencingToken, expiryNanos));
+            return fencingToken;
+        }
+
+        /**
+         * Cancels the lock request and returns null, or returns the handle if the request has already completed. A cancelled request
+         * releases its lock once it gets it.
+         */
+        private EntityLockHandle<T> cancelOrJoin(CompletableFuture<EntityLockHandle<T>> request) {
+            if (request.cancel(false)) {
+                return null;
+            }
+            try {
+                return request.join();
+            } catch (CancellationException | CompletionException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public boolean renew(T entityId, long fencingToken, long leaseTime, TimeUnit unit) {
+            Lease<T> lease = DistributedEntityLocker.this.leases.get(Objects.requireNonNull(entityId));
+            return lease != null && lease.fencingToken == fencingToken && lease.renew(System.nanoTime(), unit.toNanos(leaseTime));
+        }
+
+        @Override
+        public boolean release(T entityId, long fencingToken) {
+            Lease<T> lease = DistributedEntityLocker.this.leases.get(Objects.requireNonNull(entityId));
+            if (lease == null || lease.fencingToken != fencingToken) {
+                return false;
+            }
+            boolean isLive = lease.isLive(System.nanoTime());
+            if (!lease.end()) {
+                return false;
+            }
+            DistributedEntityLocker.this.leases.remove(entityId, lease);
+            lease.handle.unlock();
+            return isLive;
+        }
+
+        @Override
+        public boolean isLocked(T entityId) {
+            return DistributedEntityLocker.this.localLocker.isLocked(Objects.requireNonNull(entityId));
+        }
+    }
+
+    /**
+     * Lease granted by this node. The expiry time changes only by compare-and-set, so a lease that is renewed, released and expired
+     * concurrently ends exactly once and is never renewed after it has expired.
+     */
+    private static final class Lease<T> {
+
+        private static final long ENDED = Long.MIN_VALUE;
+
+        private final EntityLockHandle<T> handle;
+
+        private final long fencingToken;
+
+        private final AtomicLong expiryNanos;
+
+        Lease(EntityLockHandle<T> handle, long fencingToken, long expiryNanos) {
+            this.handle = handle;
+            this.fencingToken = fencingToken;
+            this.expiryNanos = new AtomicLong(expiryNanos);
+        }
+
+        boolean isLive(long now) {
+            long expiry = this.expiryNanos.get();
+            return expiry != ENDED && expiry - now > 0;
+        }
+
+        boolean renew(long now, long leaseTimeNanos) {
+            while (true) {
+                long expiry = this.expiryNanos.get();
+                if (expiry == ENDED || expiry - now <= 0) {
+                    return false;
+                }
+                if (this.expiryNanos.compareAndSet(expiry, now + leaseTimeNanos)) {
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * Ends the lease. Returns false if it has already ended.
+         */
+        boolean end() {
+            long expiry = this.expiryNanos.get();
+            while (expiry != ENDED) {
+                if (this.expiryNanos.compareAndSet(expiry, ENDED)) {
+                    return true;
+                }
+                expiry = this.expiryNanos.get();
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Lock of an entity held by a thread of this node. Hold counts are accessed only by the holding thread.
+     */
+    private static final class Hold<T> {
+
+        private final T entityId;
+
+        /**
+         * Lock service of the owner node, null if the entity is owned by this node
+         */
+        private final LockService<T> service;
+
+        private final long fencingToken;
+
+        private int exclusiveCount;
+
+        private int sharedCount;
+
+        /**
+         * Set by the renewal thread when the owner node refused to renew the lease
+         */
+        private volatile boolean isLost;
+
+        Hold(T entityId, LockService<T> service, long fencingToken) {
+            this.entityId = entityId;
+            this.service = service;
+            this.fencingToken = fencingToken;
+        }
+    }
+
+    public static final class Builder<T> {
+
+        private final String nodeId;
+
+        private final LockTransport<T> transport;
+
+        private final Set<String> nodeIds = new LinkedHashSet<>();
+
+        private long leaseTimeNanos = TimeUnit.SECONDS.toNanos(30);
+
+        private Builder(String nodeId, LockTransport<T> transport) {
+            this.nodeId = Objects.requireNonNull(nodeId);
+            this.transport = Objects.requireNonNull(transport);
+        }
+
+        /**
+         * Sets the ids of all nodes sharing the locker, including this one. Every node must be built with the same ids.
+         */
+        public Builder<T> nodes(String... nodeIds) {
+            return nodes(Arrays.asList(nodeIds));
+        }
+
+        /**
+         * Sets the ids of all nodes sharing the locker, including this one. Every node must be built with the same ids.
+         */
+        public Builder<T> nodes(Collection<String> nodeIds) {
+            this.nodeIds.clear();
+            for (String id : nodeIds) {
+                this.nodeIds.add(Objects.requireNonNull(id));
+            }
+            return this;
+        }
+
+        /**
+         * Sets the lease time of remote locks, 30 seconds by default. Leases are renewed every third of it, so a lock survives an owner
+         * node being unreachable for up to about two thirds of the lease time.
+         * @throws IllegalArgumentException if leaseTime is not positive
+         */
+        public Builder<T> leaseTime(long leaseTime, TimeUnit unit) {
+            if (leaseTime <= 0) {
+                throw new IllegalArgumentException("Lease time must be positive");
+            }
+            this.leaseTimeNanos = unit.toNanos(leaseTime);
+            return this;
+        }
+
+        /**
+         * Builds the locker and binds its lock service to the transport.
+         * @throws IllegalArgumentException if the node ids don't contain the id of this node
+         */
+        public DistributedEntityLocker<T> build() {
+            if (!this.nodeIds.contains(this.nodeId)) {
+                throw new IllegalArgumentException(String.format("The node ids must contain the id of this node %s", this.nodeId));
+            }
+            return new DistributedEntityLocker<>(this);
+        }
+    }
+}
@@ -0,0 +1,699 @@
+package com.kinkl;
+
+import java.util.Collections;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.AbstractQueuedSynchronizer;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <p>Lock associated with a single entity. It can be held exclusively by one thread or shared by several threads, both modes are reentrant.
+ * A thread holding the exclusive lock may also acquire the shared one (downgrade), but a thread holding only the shared lock can't acquire
+ * the exclusive one (upgrade) since two upgrading threads would wait for each other forever. The order in which contending threads get the
+ * lock is defined by the {@link AcquisitionPolicy}; with the default barging policy shared lockers don't yield to waiting exclusive lockers.</p>
+ * <p>The exclusive lock may also be held by an asynchronous lock owner instead of a thread. Such owners never block: they wait in a FIFO
+ * queue of their own and get the lock handed off by whoever frees it. A new owner doesn't take a free lock while the policy makes threads
+ * queue, so it doesn't overtake them. Asynchronous ownership is not reentrant.</p>
+ * <p>In combining mode threads waiting for the exclusive lock submit their protected code instead of queueing for the lock. Submitted code
+ * is run by the holder, and whoever frees the lock wakes the first submitter so that it can take the lock if nobody has run its code.</p>
+ * <p>Besides the lock itself it keeps the number of lock users (threads that hold the lock or wait for it) that is used to remove the lock
+ * from the locker once nobody needs it anymore, and the threads holding the shared lock that are used for reentrancy and deadlock detection.</p>
+ */
+final class EntityLock {
+
+    /**
+     * Guarded by the entity locks map: the counter is modified only inside atomic compute operations of the map.
+     */
+    int users;
+
+    /**
+     * Time the current exclusive hold started if it's sampled for hold time metrics, zero otherwise. Accessed only by the owner thread.
+     */
+    long holdStartNanos;
+
+    // Generic class literals don't exist, so the updater can only be declared with the raw field type
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<EntityLock, ConcurrentMap> SHARED_HOLDERS_UPDATER =
+            AtomicReferenceFieldUpdater.newUpdater(EntityLock.class, ConcurrentMap.class, "sharedHolders");
+
+    private final Sync sync;
+
+    /**
+     * Threads holding the shared lock with their hold counts. Created on the first shared acquisition, so exclusive-only locks don't pay for it.
+     */
+    private volatile ConcurrentMap<Thread, Integer> sharedHolders;
+
+    // Raw for the same reason: there is no class literal for Queue<AsyncWaiter>
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<EntityLock, Queue> ASYNC_WAITERS_UPDATER =
+            AtomicReferenceFieldUpdater.newUpdater(EntityLock.class, Queue.class, "asyncWaiters");
+
+    /**
+     * Asynchronous owners waiting for the exclusive lock in arrival order. Created on the first asynchronous wait.
+     */
+    private volatile Queue<AsyncWaiter> asyncWaiters;
+
+    // Raw for the same reason: there is no class literal for Queue<CombiningRequest>
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<EntityLock, Queue> COMBINING_REQUESTS_UPDATER =
+            AtomicReferenceFieldUpdater.newUpdater(EntityLock.class, Queue.class, "combiningRequests");
+
+    /**
+     * Protected code submitted by threads waiting for the exclusive lock in combining mode, in arrival order. Created on the first submission.
+     */
+    private volatile Queue<CombiningRequest> combiningRequests;
+
+    EntityLock() {
+        this(false);
+    }
+
+    /**
+     * @param isPadded whether the synchronizer state should be padded to occupy its own cache lines. Used for long-living locks allocated
+     *                 next to each other, like lock stripes.
+     */
+    EntityLock(boolean isPadded) {
+        this.sync = isPadded ? new PaddedSync() : new Sync();
+    }
+
+    /**
+     * @param spinLimits the spin limits of the locker, used by {@link AcquisitionPolicy#spinThenPark}
+     * @param entityId the id of the entity, which selects its spin limit
+     */
+    EntityLock(AcquisitionPolicy policy, SpinLimits spinLimits, Object entityId) {
+        switch (policy.kind) {
+            case FAIR:
+                this.sync = new FairSync();
+                break;
+            case BOUNDED_BARGING:
+                this.sync = new BoundedBargingSync(policy.maxBargedWaitNanos);
+                break;
+            case SPIN_THEN_PARK:
+                this.sync = new SpinningSync(spinLimits, spinLimits.indexOf(entityId));
+                break;
+            default:
+                this.sync = new Sync();
+        }
+    }
+
+    boolean tryLock() {
+        return this.sync.tryAcquire(1);
+    }
+
+    void lock() {
+        if (!this.sync.spinToAcquire(false, 1)) {
+            this.sync.acquire(1);
+        }
+    }
+
+    boolean tryLock(long timeout, TimeUnit unit) throws InterruptedException {
+        boolean isAcquired = false;
+        try {
+            isAcquired = this.sync.spinToAcquire(false, 1) || this.sync.tryAcquireNanos(1, unit.toNanos(timeout));
+        } finally {
+            if (!isAcquired) {
+                afterQueueLeft();
+            }
+        }
+        return isAcquired;
+    }
+
+    void lockInterruptibly() throws InterruptedException {
+        boolean isAcquired = false;
+        try {
+            isAcquired = this.sync.spinToAcquire(false, 1);
+            if (!isAcquired) {
+                this.sync.acquireInterruptibly(1);
+                isAcquired = true;
+            }
+        } finally {
+            if (!isAcquired) {
+                afterQueueLeft();
+            }
+        }
+    }
+
+    void unlock() {
+        if (this.sync.release(1)) {
+            handOffToAsyncWaiters();
+            wakeCombiningSubmitter();
+        }
+    }
+
+    /**
+     * Acquires the exclusive lock for the asynchronous owner if the lock is free, no other asynchronous owner waits for it and the policy
+     * doesn't make the owner queue behind waiting threads.
+     */
+    boolean tryLockAsync(Object asyncOwner) {
+        Queue<AsyncWaiter> waiters = this.asyncWaiters;
+        return (waiters == null || waiters.isEmpty()) && !this.sync.shouldQueue() && this.sync.tryAcquireAsync(asyncOwner);
+    }
+
+    /**
+     * Queues the asynchronous owner for the exclusive lock. The callback is run once the lock is handed off to the owner, by the thread that
+     * frees the lock or by the current thread if the lock is free already and the policy doesn't make the owner queue behind waiting
+     * threads. In the latter case the lock is handed off once a waiting thread frees it or gives up waiting.
+     */
+    void lockAsync(Object asyncOwner, Runnable onAcquired) {
+        Queue<AsyncWaiter> waiters = this.asyncWaiters;
+        if (waiters == null) {
+            ASYNC_WAITERS_UPDATER.compareAndSet(this, null, new ConcurrentLinkedQueue<>());
+            waiters = this.asyncWaiters;
+        }
+        waiters.offer(new AsyncWaiter(asyncOwner, onAcquired));
+        if (!this.sync.shouldQueue()) {
+            handOffToAsyncWaiters();
+        }
+    }
+
+    /**
+     * Called by a thread that gave up waiting for the lock. An asynchronous owner may have queued behind it while the lock was free.
+     */
+    private void afterQueueLeft() {
+        if (this.sync.isQueueing()) {
+            handOffToAsyncWaiters();
+        }
+    }
+
+    /**
+     * Hands the exclusive lock, held once by the current thread, over to the asynchronous owner, which releases it with {@link #unlockAsync}.
+     */
+    void transferToAsync(Object asyncOwner) {
+        this.sync.transferToAsync(asyncOwner);
+    }
+
+    /**
+     * Releases the exclusive lock held by an asynchronous owner. The caller is responsible for checking that the owner holds the lock.
+     */
+    void unlockAsync() {
+        this.sync.release(Sync.ASYNC_RELEASE);
+        handOffToAsyncWaiters();
+        wakeCombiningSubmitter();
+    }
+
+    /**
+     * Queues protected code for the holder of the exclusive lock. The submitting thread must check the lock after queueing, since it may have
+     * been freed before the request was queued.
+     */
+    @SuppressWarnings("unchecked")
+    void submit(CombiningRequest request) {
+        Queue<CombiningRequest> requests = this.combiningRequests;
+        if (requests == null) {
+            COMBINING_REQUESTS_UPDATER.compareAndSet(this, null, new ConcurrentLinkedQueue<>());
+            requests = this.combiningRequests;
+        }
+        requests.offer(request);
+    }
+
+    /**
+     * Removes the request of a submitter that has acquired the lock itself. Returns false if the request has been taken by a holder already.
+     */
+    boolean withdraw(CombiningRequest request) {
+        return this.combiningRequests.remove(request);
+    }
+
+    /**
+     * Takes the oldest submitted request, or returns null if there is none. Called by the holder of the exclusive lock.
+     */
+    CombiningRequest pollCombiningRequest() {
+        Queue<CombiningRequest> requests = this.combiningRequests;
+        return requests != null ? requests.poll() : null;
+    }
+
+    /**
+     * Wakes the oldest submitter after the lock is freed, so that a request is not left waiting when the holder didn't run it.
+     */
+    private void wakeCombiningSubmitter() {
+        Queue<CombiningRequest> requests = this.combiningRequests;
+        if (requests != null) {
+            CombiningRequest head = requests.peek();
+            if (head != null) {
+                LockSupport.unpark(head.getThread());
+            }
+        }
+    }
+
+    /**
+     * Hands the lock off to the first asynchronous waiter while the lock is free. The lock is acquired before the waiter is dequeued, so a
+     * waiter queued concurrently with a release is served either by the releasing thread or by the queueing one.
+     */
+    private void handOffToAsyncWaiters() {
+        Queue<AsyncWaiter> waiters = this.asyncWaiters;
+        if (waiters == null) {
+            return;
+        }
+        AsyncWaiter head;
+        while ((head = waiters.peek()) != null && this.sync.tryAcquireAsync(head.owner)) {
+            AsyncWaiter waiter = waiters.poll();
+            if (waiter == null) {
+                this.sync.release(Sync.ASYNC_RELEASE);
+                continue;
+            }
+            this.sync.asyncOwner = waiter.owner;
+            waiter.onAcquired.run();
+        }
+    }
+
+    boolean tryLockShared() {
+        if (this.sync.tryAcquireShared(sharedAcquires()) < 0) {
+            return false;
+        }
+        afterSharedLock();
+        return true;
+    }
+
+    void lockShared() {
+        int acquires = sharedAcquires();
+        if (!this.sync.spinToAcquire(true, acquires)) {
+            this.sync.acquireShared(acquires);
+        }
+        afterSharedLock();
+    }
+
+    void lockSharedInterruptibly() throws InterruptedException {
+        int acquires = sharedAcquires();
+        boolean isAcquired = false;
+        try {
+            isAcquired = this.sync.spinToAcquire(true, acquires);
+            if (!isAcquired) {
+                this.sync.acquireSharedInterruptibly(acquires);
+                isAcquired = true;
+            }
+        } finally {
+            if (!isAcquired) {
+                afterQueueLeft();
+            }
+        }
+        afterSharedLock();
+    }
+
+    boolean tryLockShared(long timeout, TimeUnit unit) throws InterruptedException {
+        int acquires = sharedAcquires();
+        boolean isAcquired = false;
+        try {
+            isAcquired = this.sync.spinToAcquire(true, acquires) || this.sync.tryAcquireSharedNanos(acquires, unit.toNanos(timeout));
+        } finally {
+            if (!isAcquired) {
+                afterQueueLeft();
+            }
+        }
+        if (!isAcquired) {
+            return false;
+        }
+        afterSharedLock();
+        return true;
+    }
+
+    /**
+     * Returns the shared acquire argument telling the synchronizer whether the acquisition is reentrant. Only policies that make threads
+     * queue need to know it, so barging locks skip the holders lookup.
+     */
+    private int sharedAcquires() {
+        return this.sync.isQueueing() && getSharedHoldCount() > 0 ? Sync.REENTRANT_SHARED_ACQUIRE : 1;
+    }
+
+    private void afterSharedLock() {
+        ConcurrentMap<Thread, Integer> holders = this.sharedHolders;
+        if (holders == null) {
+            SHARED_HOLDERS_UPDATER.compareAndSet(this, null, new ConcurrentHashMap<>());
+            holders = this.sharedHolders;
+        }
+        holders.merge(Thread.currentThread(), 1, Integer::sum);
+    }
+
+    void unlockShared() {
+        this.sharedHolders.computeIfPresent(Thread.currentThread(), (thread, holdCount) -> holdCount == 1 ? null : holdCount - 1);
+        if (this.sync.releaseShared(1)) {
+            handOffToAsyncWaiters();
+            wakeCombiningSubmitter();
+        }
+    }
+
+    boolean isHeldByCurrentThread() {
+        return this.sync.isHeldExclusively();
+    }
+
+    int getHoldCount() {
+        return this.sync.isHeldExclusively() ? Sync.exclusiveCount(this.sync.getLockState()) : 0;
+    }
+
+    int getSharedHoldCount() {
+        ConcurrentMap<Thread, Integer> holders = this.sharedHolders;
+        if (holders == null) {
+            return 0;
+        }
+        Integer holdCount = holders.get(Thread.currentThread());
+        return holdCount != null ? holdCount : 0;
+    }
+
+    boolean isLocked() {
+        return Sync.exclusiveCount(this.sync.getLockState()) != 0;
+    }
+
+    boolean isLockedInAnyMode() {
+        return this.sync.getLockState() != 0;
+    }
+
+    /**
+     * Returns true if the lock is held in any mode by a thread other than the current one or by an asynchronous owner.
+     */
+    boolean isLockedByAnotherThread() {
+        int state = this.sync.getLockState();
+        if (Sync.exclusiveCount(state) != 0) {
+            return !this.sync.isHeldExclusively();
+        }
+        return Sync.sharedCount(state) > getSharedHoldCount();
+    }
+
+    /**
+     * Returns the thread or the asynchronous owner holding the exclusive lock, or null if the lock is not held exclusively.
+     */
+    Object getOwner() {
+        Thread owner = this.sync.getOwner();
+        return owner != null ? owner : this.sync.asyncOwner;
+    }
+
+    Set<Thread> getSharedHolders() {
+        ConcurrentMap<Thread, Integer> holders = this.sharedHolders;
+        return holders != null ? holders.keySet() : Collections.emptySet();
+    }
+
+    /**
+     * Returns whether any thread is queued for the exclusive lock. Shared waiters queued behind it are not woken before it gets the lock.
+     */
+    boolean hasQueuedExclusiveWaiters() {
+        return !this.sync.getExclusiveQueuedThreads().isEmpty();
+    }
+
+    private static final class AsyncWaiter {
+
+        private final Object owner;
+
+        private final Runnable onAcquired;
+
+        AsyncWaiter(Object owner, Runnable onAcquired) {
+            this.owner = owner;
+            this.onAcquired = onAcquired;
+        }
+    }
+
+    /**
+     * Synchronizer state keeps the exclusive hold count in the lower 16 bits and the total shared hold count in the upper 16 bits, like
+     * {@link java.util.concurrent.locks.ReentrantReadWriteLock} does.
+     */
+    private static class Sync extends AbstractQueuedSynchronizer {
+
+        private static final long serialVersionUID = 7866984872847129015L;
+
+        private static final int SHARED_SHIFT = 16;
+
+        private static final int SHARED_UNIT = 1 << SHARED_SHIFT;
+
+        private static final int MAX_COUNT = (1 << SHARED_SHIFT) - 1;
+
+        private static final int EXCLUSIVE_MASK = (1 << SHARED_SHIFT) - 1;
+
+        /**
+         * Release argument of the exclusive lock held by an asynchronous owner
+         */
+        static final int ASYNC_RELEASE = -1;
+
+        /**
+         * Shared acquire argument of a thread already holding the shared lock
+         */
+        static final int REENTRANT_SHARED_ACQUIRE = 2;
+
+        /**
+         * Asynchronous owner holding the exclusive lock, null if the lock is free or held by a thread
+         */
+        volatile Object asyncOwner;
+
+        static int sharedCount(int state) {
+            return state >>> SHARED_SHIFT;
+        }
+
+        static int exclusiveCount(int state) {
+            return state & EXCLUSIVE_MASK;
+        }
+
+        @Override
+        protected boolean tryAcquire(int acquires) {
+            Thread current = Thread.currentThread();
+            int c = getState();
+            if (exclusiveCount(c) != 0 && current == getExclusiveOwnerThread()) {
+                if (exclusiveCount(c) + acquires > MAX_COUNT) {
+                    throw new Error("Maximum lock count exceeded");
+                }
+                setState(c + acquires);
+                return true;
+            }
+            if (shouldQueue() || c != 0 || !compareAndSetState(0, acquires)) {
+                return false;
+            }
+            setExclusiveOwnerThread(current);
+            return true;
+        }
+
+        /**
+         * Returns whether a thread must leave the lock to the queued threads even if the lock is available. Called for every acquisition
+         * attempt that is not reentrant, whether the lock is available or not, so policies can also watch the queued threads.
+         */
+        boolean shouldQueue() {
+            return false;
+        }
+
+        /**
+         * Returns whether {@link #shouldQueue} may ever return true
+         */
+        boolean isQueueing() {
+            return false;
+        }
+
+        /**
+         * Tries to acquire the lock by spinning before the caller parks. Returns false at once unless the policy spins.
+         */
+        boolean spinToAcquire(boolean isShared, int acquires) {
+            return false;
+        }
+
+        boolean tryAcquireAsync(Object owner) {
+            if (getState() != 0 || !compareAndSetState(0, 1)) {
+                return false;
+            }
+            this.asyncOwner = owner;
+            return true;
+        }
+
+        void transferToAsync(Object owner) {
+            if (getState() != 1 || !isHeldExclusively()) {
+                throw new IllegalMonitorStateException();
+            }
+            // The owner is published first, so the lock never looks free to the deadlock detector
+            this.asyncOwner = owner;
+            setExclusiveOwnerThread(null);
+        }
+
+        @Override
+        protected boolean tryRelease(int releases) {
+            if (releases == ASYNC_RELEASE) {
+                this.asyncOwner = null;
+                setState(0);
+                return true;
+            }
+            if (!isHeldExclusively()) {
+                throw new IllegalMonitorStateException();
+            }
+            int nextc = getState() - releases;
+            boolean isFree = exclusiveCount(nextc) == 0;
+            if (isFree) {
+                setExclusiveOwnerThread(null);
+            }
+            setState(nextc);
+            return isFree;
+        }
+
+        @Override
+        protected int tryAcquireShared(int acquires) {
+            Thread current = Thread.currentThread();
+            for (;;) {
+                int c = getState();
+                boolean isDowngrade = exclusiveCount(c) != 0 && getExclusiveOwnerThread() == current;
+                if (!isDowngrade && (acquires != REENTRANT_SHARED_ACQUIRE && shouldQueue() || exclusiveCount(c) != 0)) {
+                    return -1;
+                }
+                if (sharedCount(c) == MAX_COUNT) {
+                    throw new Error("Maximum lock count exceeded");
+                }
+                if (compareAndSetState(c, c + SHARED_UNIT)) {
+                    return 1;
+                }
+            }
+        }
+
+        @Override
+        protected boolean tryReleaseShared(int unused) {
+            for (;;) {
+                int c = getState();
+                int nextc = c - SHARED_UNIT;
+                if (compareAndSetState(c, nextc)) {
+                    return nextc == 0;
+                }
+            }
+        }
+
+        @Override
+        protected boolean isHeldExclusively() {
+            // Reading the state first makes the owner written before the state update visible
+            return getState() != 0 && getExclusiveOwnerThread() == Thread.currentThread();
+        }
+
+        int getLockState() {
+            return getState();
+        }
+
+        Thread getOwner() {
+            return exclusiveCount(getState()) == 0 ? null : getExclusiveOwnerThread();
+        }
+    }
+
+    /**
+     * Threads get the lock in the order they queued for it
+     */
+    private static final class FairSync extends Sync {
+
+        private static final long serialVersionUID = 358605429877101206L;
+
+        @Override
+        boolean shouldQueue() {
+            return hasQueuedPredecessors();
+        }
+
+        @Override
+        boolean isQueueing() {
+            return true;
+        }
+    }
+
+    /**
+     * Threads barge until the first queued thread has waited for too long. The first queued thread stamps the time it was first seen at the
+     * queue head; a stamp of another thread is stale and only means the current queue head hasn't tried to acquire the lock yet.
+     */
+    private static final class BoundedBargingSync extends Sync {
+
+        private static final long serialVersionUID = -1025839983883124234L;
+
+        private final long maxBargedWaitNanos;
+
+        private volatile Thread queueHead;
+
+        private volatile long queueHeadSinceNanos;
+
+        BoundedBargingSync(long maxBargedWaitNanos) {
+            this.maxBargedWaitNanos = maxBargedWaitNanos;
+        }
+
+        @Override
+        boolean shouldQueue() {
+            Thread first = getFirstQueuedThread();
+            if (first == null) {
+                return false;
+            }
+            if (first == Thread.currentThread()) {
+                if (this.queueHead != first) {
+                    this.queueHeadSinceNanos = System.nanoTime();
+                    this.queueHead = first;
+                }
+                return false;
+            }
+            return this.queueHead == first && System.nanoTime() - this.queueHeadSinceNanos > this.maxBargedWaitNanos;
+        }
+
+        @Override
+        boolean isQueueing() {
+            return true;
+        }
+    }
+
+    /**
+     * Spin limits of the entity locks of a locker using {@link AcquisitionPolicy#spinThenPark}. Entity locks are removed once nobody uses
+     * them, so the limits are kept by the locker to survive that. They are striped by entity hash, so that a hot entity doesn't share its
+     * limit with the others, and every limit occupies a cache line of its own.
+     */
+    static final class SpinLimits {
+
+        private static final int MIN_SPINS = 16;
+
+        private static final int MAX_SPINS = 4096;
+
+        private static final int STRIPE_COUNT = 64;
+
+        /**
+         * Distance between two limits in the array, an int per 64 bytes
+         */
+        private static final int SPACING = 16;
+
+        private final int[] limits = new int[STRIPE_COUNT * SPACING];
+
+        SpinLimits() {
+            for (int i = 0; i < STRIPE_COUNT; i++) {
+                this.limits[i * SPACING] = MIN_SPINS;
+            }
+        }
+
+        int indexOf(Object entityId) {
+            int hash = entityId.hashCode();
+            return ((hash ^ (hash >>> 16)) & (STRIPE_COUNT - 1)) * SPACING;
+        }
+    }
+
+    /**
+     * Threads spin before parking while nobody is parked. The spin limit is an estimate shared with the entities of the same stripe and
+     * updated without synchronization: a lost update only makes the next spin slightly longer or shorter.
+     */
+    private static final class SpinningSync extends Sync {
+
+        private static final long serialVersionUID = 944061558736218872L;
+
+        private final int[] limits;
+
+        private final int limitIndex;
+
+        SpinningSync(SpinLimits spinLimits, int limitIndex) {
+            this.limits = spinLimits.limits;
+            this.limitIndex = limitIndex;
+        }
+
+        @Override
+        boolean spinToAcquire(boolean isShared, int acquires) {
+            if (hasQueuedThreads()) {
+                return false;
+            }
+            int limit = this.limits[this.limitIndex];
+            // Thread.onSpinWait is not available on Java 8; the state read of a failed attempt is cheap enough to spin on
+            for (int i = 0; i < limit; i++) {
+                if (isShared ? tryAcquireShared(acquires) >= 0 : tryAcquire(acquires)) {
+                    this.limits[this.limitIndex] = Math.min(SpinLimits.MAX_SPINS, limit << 1);
+                    return true;
+                }
+            }
+            this.limits[this.limitIndex] = Math.max(SpinLimits.MIN_SPINS, limit >> 1);
+            return false;
+        }
+    }
+
+    /**
+     * Subclass fields are laid out after the fields of the superclass, so the padding keeps the state of the next synchronizer allocated
+     * right after this one off its cache lines.
+     */
+    @SuppressWarnings("unused")
+    private static final class PaddedSync extends Sync {
+
+        private static final long serialVersionUID = 5429585197608984284L;
+
+        private long p1, p2, p3, p4, p5, p6, p7, p8, p9, p10, p11, p12, p13, p14, p15;
+    }
+}
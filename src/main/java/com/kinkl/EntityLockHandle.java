@@ -0,0 +1,34 @@
+package com.kinkl;
+
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Exclusive lock of an entity acquired by {@link EntityLocker#lockAsync}. The lock is owned by the handle rather than by a thread, so it may be
+ * released from any thread, but only once.
+ * @param <T> the type of entity id
+ */
+public interface EntityLockHandle<T> extends AutoCloseable {
+
+    T getEntityId();
+
+    /**
+     * Asynchronously locks another entity on behalf of the same owner. Locks of one owner are checked for deadlocks together, like the locks
+     * of one thread, but they are not reentrant: locking an entity the owner already holds completes exceptionally with
+     * {@link com.kinkl.exception.DeadlockThreatException}.
+     * @param entityId id of entity to lock
+     * @return a stage completed with the handle of the locked entity
+     * @throws com.kinkl.exception.MissingEntityLockException if this handle was already released
+     */
+    CompletionStage<EntityLockHandle<T>> lockAsync(T entityId);
+
+    /**
+     * Releases the lock and hands it off to the next waiter.
+     * @throws com.kinkl.exception.MissingEntityLockException if the handle was already released
+     */
+    void unlock();
+
+    @Override
+    default void close() {
+        unlock();
+    }
+}
@@ -0,0 +1,173 @@
+package com.kinkl;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * State of the lock of one entity as seen by {@link EntityLocker#lockStates}: who holds it and who waits for it. The state is read piece by
+ * piece without locking while threads keep locking, so holders and waiters may be off by the operations performed meanwhile. Holders are
+ * threads or asynchronous lock owners; only the first hold of each holder is visible since reentrant holds are counted by the holder itself.
+ * @param <T> the type of entity id
+ */
+public final class EntityLockState<T> {
+
+    private final T entityId;
+
+    private final Object owner;
+
+    private final List<Thread> sharedHolders;
+
+    private final List<Waiter> waiters;
+
+    EntityLockState(T entityId, Object owner, List<Thread> sharedHolders, List<Waiter> waiters) {
+        this.entityId = entityId;
+        this.owner = owner;
+        this.sharedHolders = Collections.unmodifiableList(sharedHolders);
+        this.waiters = Collections.unmodifiableList(waiters);
+    }
+
+    public T getEntityId() {
+        return this.entityId;
+    }
+
+    /**
+     * Returns the name of the thread or the asynchronous lock owner holding the exclusive lock, or null if the lock is not held exclusively.
+     */
+    public String getOwner() {
+        return this.owner instanceof Thread ? ((Thread) this.owner).getName() : this.owner != null ? this.owner.toString() : null;
+    }
+
+    /**
+     * Returns the thread holding the exclusive lock, or null if the lock is not held exclusively or is held by an asynchronous lock owner.
+     */
+    public Thread getOwnerThread() {
+        return this.owner instanceof Thread ? (Thread) this.owner : null;
+    }
+
+    /**
+     * Returns the threads holding the shared lock.
+     */
+    public List<Thread> getSharedHolders() {
+        return this.sharedHolders;
+    }
+
+    /**
+     * Returns the threads and asynchronous lock owners waiting for the lock, in no particular order.
+     */
+    public List<Waiter> getWaiters() {
+        return this.waiters;
+    }
+
+    /**
+     * Returns the state as a JSON object: the entity id as a string, the exclusive owner or null, the shared holders and the waiters with their
+     * wait time in nanoseconds. Holders and waiters are objects with a name and, for threads, a thread id.
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        try {
+            appendJson(sb);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Appends the JSON object returned by {@link #toString} without building it as a string first.
+     */
+    void appendJson(Appendable out) throws IOException {
+        out.append("{\"entityId\":");
+        appendJsonString(out, this.entityId.toString());
+        out.append(",\"owner\":");
+        if (this.owner == null) {
+            out.append("null");
+        } else {
+            appendHolder(out, this.owner);
+            out.append('}');
+        }
+        out.append(",\"sharedHolders\":[");
+        for (int i = 0; i < this.sharedHolders.size(); i++) {
+            if (i > 0) {
+                out.append(',');
+            }
+            appendHolder(out, this.sharedHolders.get(i));
+            out.append('}');
+        }
+        out.append("],\"waiters\":[");
+        for (int i = 0; i < this.waiters.size(); i++) {
+            if (i > 0) {
+                out.append(',');
+            }
+            Waiter waiter = this.waiters.get(i);
+            appendHolder(out, waiter.waiter);
+            out.append(",\"waitNanos\":").append(Long.toString(waiter.waitNanos)).append('}');
+        }
+        out.append("]}");
+    }
+
+    /**
+     * Appends an unterminated JSON object describing the thread or the asynchronous lock owner, so the caller can add fields to it.
+     */
+    private static void appendHolder(Appendable out, Object holder) throws IOException {
+        out.append("{\"name\":");
+        if (holder instanceof Thread) {
+            appendJsonString(out, ((Thread) holder).getName());
+            out.append(",\"threadId\":").append(Long.toString(((Thread) holder).getId()));
+        } else {
+            appendJsonString(out, holder.toString());
+        }
+    }
+
+    private static void appendJsonString(Appendable out, String value) throws IOException {
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.append('\\').append(c);
+            } else if (c < 0x20) {
+                out.append(String.format("\\u%04x", (int) c));
+            } else {
+                out.append(c);
+            }
+        }
+        out.append('"');
+    }
+
+    /**
+     * Thread or asynchronous lock owner waiting for an entity lock
+     */
+    public static final class Waiter {
+
+        private final Object waiter;
+
+        private final long waitNanos;
+
+        Waiter(Object waiter, long waitNanos) {
+            this.waiter = waiter;
+            this.waitNanos = waitNanos;
+        }
+
+        /**
+         * Returns the name of the waiting thread or asynchronous lock owner.
+         */
+        public String getName() {
+            return this.waiter instanceof Thread ? ((Thread) this.waiter).getName() : this.waiter.toString();
+        }
+
+        /**
+         * Returns the waiting thread, or null if the waiter is an asynchronous lock owner.
+         */
+        public Thread getThread() {
+            return this.waiter instanceof Thread ? (Thread) this.waiter : null;
+        }
+
+        /**
+         * Returns the time the waiter had been waiting when the state was read.
+         */
+        public long getWaitNanos() {
+            return this.waitNanos;
+        }
+    }
+}
@@ -1,74 +1,1631 @@
 package com.kinkl;
 
+import com.kinkl.exception.DeadlockThreatException;
+import com.kinkl.exception.LeaseExpiredException;
 import com.kinkl.exception.MissingEntityLockException;
 import com.kinkl.exception.OtherThreadEntityUnlockAttemptException;
+import com.kinkl.exception.OtherThreadGlobalUnlockAttemptException;
 
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Supplier;
 
-public class EntityLocker<T> implements IEntityLocker<T> {
+import javax.management.JMException;
+import javax.management.ObjectName;
 
-    private final ConcurrentMap<T, ReentrantLock> entityLocks = new ConcurrentHashMap<>();
+public class EntityLocker<T> implements IGlobalEntityLocker<T> {
 
-    private final DeadlockDetector<T> deadlockDetector = new DeadlockDetector<>();
+    /**
+     * Timer revoking expired leases of all lockers. A tick of 10 ms and 4096 buckets make a turn of about 40 seconds, so most leases expire
+     * within the first turn of the wheel.
+     */
+    private static final TimerWheel LEASE_TIMER = new TimerWheel(10, TimeUnit.MILLISECONDS, 4096, "entity-locker-lease-timer");
+
+    private final ConcurrentMap<T, EntityLock> entityLocks = new ConcurrentHashMap<>();
+
+    private final DeadlockDetector<T> deadlockDetector;
+
+    private final GlobalLock globalLock;
+
+    private final ThreadLocal<LockHolder<T>> lockHolders = ThreadLocal.withInitial(LockHolder::new);
+
+    private final int escalationThreshold;
+
+    /**
+     * Whether per-thread bookkeeping is dropped once a thread leaves protected code, so that it exists only for threads holding locks
+     */
+    private final boolean isThreadStateTransient;
+
+    /**
+     * Version stripes for optimistic reads, null if optimistic reads are disabled. A stripe version changes whenever an entity mapped to
+     * the stripe is exclusively locked or unlocked and whenever the global lock is acquired or released.
+     */
+    private final StampedLock[] versionStripes;
+
+    /**
+     * Order in which contending threads get entity locks
+     */
+    private final AcquisitionPolicy acquisitionPolicy;
+
+    /**
+     * Spin limits of the entity locks, null unless the acquisition policy spins
+     */
+    private final EntityLock.SpinLimits spinLimits;
+
+    /**
+     * Executor completing asynchronous lock requests that had to wait
+     */
+    private final Executor asyncExecutor;
+
+    /**
+     * Metrics, null if they are disabled
+     */
+    private final LockMetrics<T> metrics;
+
+    private final LongAdder escalationCount = new LongAdder();
+
+    private final LongAdder failedEscalationCount = new LongAdder();
+
+    private final LongAdder deescalationCount = new LongAdder();
+
+    private final LongAdder expiredLeaseCount = new LongAdder();
+
+    /**
+     * Maximum number of submitted protected codes a holder runs before releasing the entity lock, zero if combining is disabled
+     */
+    private final int maxCombinedBatchSize;
+
+    private final LongAdder combinedExecutionCount = new LongAdder();
+
+    public EntityLocker() {
+        this(new Builder<>());
+    }
+
+    private EntityLocker(Builder<T> builder) {
+        this.deadlockDetector = builder.deadlockDetectionPeriodNanos > 0
+                ? new DeadlockDetector<>(builder.deadlockDetectionPeriodNanos, TimeUnit.NANOSECONDS)
+                : new DeadlockDetector<>();
+        this.globalLock = new GlobalLock(this.deadlockDetector);
+        this.escalationThreshold = builder.escalationThreshold;
+        this.asyncExecutor = builder.asyncExecutor;
+        this.acquisitionPolicy = builder.acquisitionPolicy;
+        this.spinLimits = builder.acquisitionPolicy.kind == AcquisitionPolicy.Kind.SPIN_THEN_PARK ? new EntityLock.SpinLimits() : null;
+        this.isThreadStateTransient = builder.isThreadStateTransient;
+        this.maxCombinedBatchSize = builder.maxCombinedBatchSize;
+        this.metrics = builder.hotKeyCount > 0 ? new LockMetrics<>(builder.hotKeyCount) : null;
+        if (builder.isOptimisticReadEnabled) {
+            int stripeCount = Integer.highestOneBit(Math.max(64, Runtime.getRuntime().availableProcessors() * 16) - 1) << 1;
+            this.versionStripes = new StampedLock[stripeCount];
+            for (int i = 0; i < stripeCount; i++) {
+                this.versionStripes[i] = new StampedLock();
+            }
+        } else {
+            this.versionStripes = null;
+        }
+    }
+
+    public static <T> Builder<T> builder() {
+        return new Builder<>();
+    }
 
     @Override
     public void lock(T entityId) {
-        ReentrantLock lock = checkLockExists(entityId);
-        if (!lock.isHeldByCurrentThread()) {
-            this.deadlockDetector.beforeLock(entityId);
-        }
-        lock.lock();
-        this.deadlockDetector.afterLock(entityId, true);
+        lock(entityId, false);
     }
 
     @Override
     public boolean tryLock(T entityId, long timeout, TimeUnit unit) throws InterruptedException {
-        ReentrantLock lock = checkLockExists(entityId);
-        if (!lock.isHeldByCurrentThread()) {
-            this.deadlockDetector.beforeLock(entityId);
+        return tryLock(entityId, false, timeout, unit);
+    }
+
+    @Override
+    public void lockShared(T entityId) {
+        lock(entityId, true);
+    }
+
+    @Override
+    public boolean tryLockShared(T entityId, long timeout, TimeUnit unit) throws InterruptedException {
+        return tryLock(entityId, true, timeout, unit);
+    }
+
+    private void lock(T entityId, boolean isShared) {
+        Objects.requireNonNull(entityId);
+        lock(this.lockHolders.get(), entityId, isShared);
+    }
+
+    private void lock(LockHolder<T> lockHolder, T entityId, boolean isShared) {
+        if (lockHolder.leases != null && lockLeased(lockHolder, entityId, isShared)) {
+            return;
+        }
+        if (lockHolder.heldLocks.reenter(entityId, isShared)) {
+            return;
+        }
+        if (lockHolder.isEscalated && lockEscalated(lockHolder, entityId)) {
+            return;
+        }
+        if (lockHolder.heldEntityCount == 0) {
+            this.globalLock.enter();
+        }
+        boolean isAcquired = false;
+        try {
+            EntityLock lock = acquireEntityLock(entityId);
+            if (!(isShared ? lock.tryLockShared() : lock.tryLock())) {
+                awaitEntityLock(lockHolder, entityId, lock, isShared);
+            }
+            isAcquired = true;
+            afterFirstHold(lockHolder, entityId, lock, isShared);
+        } finally {
+            if (!isAcquired && lockHolder.heldEntityCount == 0) {
+                this.globalLock.exit();
+                releaseThreadStateIfIdle(lockHolder);
+            }
+        }
+    }
+
+    private boolean tryLock(T entityId, boolean isShared, long timeout, TimeUnit unit) throws InterruptedException {
+        Objects.requireNonNull(entityId);
+        Objects.requireNonNull(unit);
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        return tryLock(this.lockHolders.get(), entityId, isShared, deadline);
+    }
+
+    private boolean tryLock(LockHolder<T> lockHolder, T entityId, boolean isShared, long deadline) throws InterruptedException {
+        if (lockHolder.leases != null && lockLeased(lockHolder, entityId, isShared)) {
+            return true;
+        }
+        if (lockHolder.heldLocks.reenter(entityId, isShared)) {
+            return true;
+        }
+        if (lockHolder.isEscalated && lockEscalated(lockHolder, entityId)) {
+            return true;
+        }
+        if (lockHolder.heldEntityCount == 0 && !this.globalLock.tryEnter(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+            if (this.metrics != null) {
+                this.metrics.recordTimeout();
+            }
+            return false;
+        }
+        boolean isAcquired = false;
+        try {
+            EntityLock lock = acquireEntityLock(entityId);
+            isAcquired = isShared ? lock.tryLockShared() : lock.tryLock();
+            if (!isAcquired) {
+                isAcquired = awaitEntityLock(lockHolder, entityId, lock, isShared, deadline);
+            }
+            if (isAcquired) {
+                afterFirstHold(lockHolder, entityId, lock, isShared);
+            }
+        } finally {
+            if (!isAcquired && lockHolder.heldEntityCount == 0) {
+                this.globalLock.exit();
+                releaseThreadStateIfIdle(lockHolder);
+            }
+        }
+        return isAcquired;
+    }
+
+    /**
+     * Waits for the entity lock the current thread failed to acquire at once. The entity lock is released if the wait fails.
+     */
+    private void awaitEntityLock(LockHolder<T> lockHolder, T entityId, EntityLock lock, boolean isShared) {
+        long waitStart = this.metrics != null ? System.nanoTime() : 0;
+        beforeWait(lockHolder, entityId, lock, isShared);
+        try {
+            this.deadlockDetector.await(lock, isShared);
+        } catch (DeadlockThreatException e) {
+            releaseEntityLock(entityId);
+            recordDeadlock();
+            throw e;
+        } finally {
+            this.deadlockDetector.afterWait();
+        }
+        if (this.metrics != null) {
+            this.metrics.recordWait(entityId, System.nanoTime() - waitStart);
+        }
+    }
+
+    /**
+     * Waits for the entity lock the current thread failed to acquire at once, but no longer than until the deadline. The entity lock is
+     * released if the wait fails. A thread whose deadline has already passed doesn't wait, so it's not checked for deadlocks either.
+     */
+    private boolean awaitEntityLock(LockHolder<T> lockHolder, T entityId, EntityLock lock, boolean isShared, long deadline)
+            throws InterruptedException {
+        if (deadline - System.nanoTime() <= 0) {
+            releaseEntityLock(entityId);
+            if (this.metrics != null) {
+                this.metrics.recordTimeout();
+            }
+            return false;
+        }
+        long waitStart = this.metrics != null ? System.nanoTime() : 0;
+        beforeWait(lockHolder, entityId, lock, isShared);
+        boolean isAcquired = false;
+        try {
+            isAcquired = this.deadlockDetector.await(lock, isShared, deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        } catch (DeadlockThreatException e) {
+            recordDeadlock();
+            throw e;
+        } finally {
+            this.deadlockDetector.afterWait();
+            if (!isAcquired) {
+                releaseEntityLock(entityId);
+            }
+        }
+        if (this.metrics != null) {
+            this.metrics.recordWait(entityId, System.nanoTime() - waitStart);
+            if (!isAcquired) {
+                this.metrics.recordTimeout();
+            }
         }
-        boolean isAcquired = lock.tryLock(timeout, unit);
-        this.deadlockDetector.afterLock(entityId, isAcquired);
         return isAcquired;
     }
 
-    private ReentrantLock checkLockExists(T entityId) {
+    /**
+     * {@inheritDoc}
+     * <p>In combining mode the protected code may be run by the thread holding the entity lock, see {@link Builder#combining}.</p>
+     */
+    @Override
+    public void execute(T entityId, Runnable protectedCode) {
+        Objects.requireNonNull(protectedCode);
+        if (this.maxCombinedBatchSize > 0) {
+            executeCombining(entityId, protectedCode, null);
+        } else {
+            IGlobalEntityLocker.super.execute(entityId, protectedCode);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>In combining mode the protected code may be run by the thread holding the entity lock, see {@link Builder#combining}.</p>
+     */
+    @Override
+    public <R> R compute(T entityId, Supplier<R> protectedCode) {
+        Objects.requireNonNull(protectedCode);
+        if (this.maxCombinedBatchSize > 0) {
+            return executeCombining(entityId, null, protectedCode);
+        }
+        return IGlobalEntityLocker.super.compute(entityId, protectedCode);
+    }
+
+    /**
+     * Runs the protected code under the exclusive lock of the entity. If the lock is held, the code is submitted to the holder, and the
+     * current thread waits until the code has been run or until it acquires the lock itself. The holder of the lock runs the submitted codes
+     * after its own one. A thread holding any locks doesn't submit: its wait would be invisible to deadlock detection.
+     */
+    @SuppressWarnings("unchecked")
+    private <R> R executeCombining(T entityId, Runnable action, Supplier<R> supplier) {
+        Objects.requireNonNull(entityId);
+        LockHolder<T> lockHolder = this.lockHolders.get();
+        if (lockHolder.heldEntityCount > 0 || lockHolder.globalHoldCount > 0 || lockHolder.isEscalated
+                || lockHolder.leases != null && !lockHolder.leases.isEmpty()) {
+            lock(lockHolder, entityId, false);
+            try {
+                return (R) CombiningRequest.run(action, supplier);
+            } finally {
+                unlock(lockHolder, entityId, false);
+            }
+        }
+        this.globalLock.enter();
+        EntityLock lock = acquireEntityLock(entityId);
+        CombiningRequest request = null;
+        if (!lock.tryLock()) {
+            try {
+                request = submitAndAwait(entityId, lock, action, supplier);
+            } catch (RuntimeException e) {
+                releaseEntityLock(entityId);
+                this.globalLock.exit();
+                releaseThreadStateIfIdle(lockHolder);
+                throw e;
+            }
+            if (request.isDone()) {
+                releaseEntityLock(entityId);
+                this.globalLock.exit();
+                releaseThreadStateIfIdle(lockHolder);
+                return (R) request.getResult();
+            }
+        }
+        afterFirstHold(lockHolder, entityId, lock, false);
+        try {
+            return (R) CombiningRequest.run(action, supplier);
+        } finally {
+            runCombiningRequests(lock);
+            unlock(lockHolder, entityId, false);
+        }
+    }
+
+    /**
+     * Submits the protected code to the holder of the entity lock and parks until the code has been run or the lock has been acquired by the
+     * current thread, in which case the request is withdrawn and returned not done. Deadlock detection is checked before submitting, so a
+     * submitted code is never abandoned. Interrupts don't stop waiting but are kept.
+     */
+    private CombiningRequest submitAndAwait(T entityId, EntityLock lock, Runnable action, Supplier<?> supplier) {
+        long waitStart = this.metrics != null ? System.nanoTime() : 0;
+        try {
+            this.deadlockDetector.beforeWait(entityId, lock, false);
+        } catch (DeadlockThreatException e) {
+            recordDeadlock();
+            throw e;
+        }
+        CombiningRequest request = new CombiningRequest(action, supplier);
+        lock.submit(request);
+        boolean isInterrupted = false;
+        try {
+            while (!request.isDone()) {
+                // The lock is checked after submitting, so a release that didn't see the request is not missed
+                if (lock.tryLock()) {
+                    if (!lock.withdraw(request)) {
+                        // The previous holder ran the request before releasing the lock
+                        lock.unlock();
+                    }
+                    break;
+                }
+                LockSupport.park(this);
+                if (Thread.interrupted()) {
+                    isInterrupted = true;
+                }
+            }
+        } finally {
+            this.deadlockDetector.afterWait();
+            if (isInterrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (this.metrics != null) {
+            this.metrics.recordWait(entityId, System.nanoTime() - waitStart);
+        }
+        return request;
+    }
+
+    /**
+     * Runs protected code submitted to the entity lock held by the current thread, at most a batch of it, and wakes the submitters.
+     */
+    private void runCombiningRequests(EntityLock lock) {
+        for (int i = 0; i < this.maxCombinedBatchSize; i++) {
+            CombiningRequest request = lock.pollCombiningRequest();
+            if (request == null) {
+                return;
+            }
+            request.run();
+            this.combinedExecutionCount.increment();
+        }
+    }
+
+    /**
+     * Locks the entity exclusively without blocking the calling thread. The returned stage is completed with a handle once the lock is
+     * acquired. Asynchronous requests for an entity are served in FIFO order; they may be overtaken by threads locking the entity directly.
+     * Requests that had to wait are completed by the locker's asynchronous executor, never by the thread releasing the lock.
+     * <p>The lock is owned by the handle, not by the calling thread: it's released with {@link EntityLockHandle#unlock()} from any thread and
+     * {@link #unlock} throws {@link OtherThreadEntityUnlockAttemptException} for it. Waiting handles take part in deadlock detection: if
+     * waiting would close a cycle, the stage is completed exceptionally with {@link DeadlockThreatException}. While the global lock is held,
+     * the request waits for it to be released.</p>
+     * @param entityId id of entity to lock
+     * @return a stage completed with the lock handle
+     * @throws NullPointerException if entityId is null
+     */
+    public CompletionStage<EntityLockHandle<T>> lockAsync(T entityId) {
         Objects.requireNonNull(entityId);
-        ReentrantLock lock = this.entityLocks.get(entityId);
-        if (lock == null) {
-            ReentrantLock newLock = new ReentrantLock();
-            lock = this.entityLocks.putIfAbsent(entityId, newLock);
+        AsyncLockOwner owner = new AsyncLockOwner();
+        CompletableFuture<EntityLockHandle<T>> result = new CompletableFuture<>();
+        owner.users.incrementAndGet();
+        Thread callerThread = Thread.currentThread();
+        this.globalLock.enterAsync(owner, () -> lockAsync(owner, entityId, result, Thread.currentThread() == callerThread));
+        return result;
+    }
+
+    /**
+     * Locks the entity for the owner, which is already registered in the global lock indicator and counts this request as a user.
+     */
+    private void lockAsync(AsyncLockOwner owner, T entityId, CompletableFuture<EntityLockHandle<T>> result, boolean isCallerThread) {
+        EntityLock lock = acquireEntityLock(entityId);
+        if (lock.tryLockAsync(owner)) {
+            afterAsyncLock(owner, entityId, result, isCallerThread);
+            return;
+        }
+        try {
+            this.deadlockDetector.beforeWait(owner, entityId, lock, false);
+        } catch (DeadlockThreatException e) {
+            releaseEntityLock(entityId);
+            releaseAsyncOwner(owner);
+            recordDeadlock();
+            result.completeExceptionally(e);
+            return;
+        }
+        long waitStart = this.metrics != null ? System.nanoTime() : 0;
+        lock.lockAsync(owner, () -> {
+            this.deadlockDetector.afterWait(owner);
+            if (this.metrics != null) {
+                this.metrics.recordWait(entityId, System.nanoTime() - waitStart);
+            }
+            afterAsyncLock(owner, entityId, result, false);
+        });
+    }
+
+    private void afterAsyncLock(AsyncLockOwner owner, T entityId, CompletableFuture<EntityLockHandle<T>> result, boolean isCallerThread) {
+        advanceVersion(entityId);
+        if (this.metrics != null) {
+            this.metrics.recordAcquisition();
+        }
+        AsyncHandle handle = new AsyncHandle(owner, entityId);
+        if (isCallerThread) {
+            completeAsyncLock(result, handle);
+        } else {
+            this.asyncExecutor.execute(() -> completeAsyncLock(result, handle));
+        }
+    }
+
+    /**
+     * Completes the request with the handle, releasing the lock at once if the request was cancelled.
+     */
+    private void completeAsyncLock(CompletableFuture<EntityLockHandle<T>> result, AsyncHandle handle) {
+        if (!result.complete(handle)) {
+            handle.unlock();
+        }
+    }
+
+    private void releaseAsyncOwner(AsyncLockOwner owner) {
+        if (owner.users.decrementAndGet() == 0) {
+            this.globalLock.exitAsync(owner);
+        }
+    }
+
+    private final class AsyncHandle implements EntityLockHandle<T> {
+
+        private final AsyncLockOwner owner;
+
+        private final T entityId;
+
+        private final AtomicBoolean isReleased = new AtomicBoolean();
+
+        AsyncHandle(AsyncLockOwner owner, T entityId) {
+            this.owner = owner;
+            this.entityId = entityId;
+        }
+
+        @Override
+        public T getEntityId() {
+            return this.entityId;
+        }
+
+        @Override
+        public CompletionStage<EntityLockHandle<T>> lockAsync(T entityId) {
+            Objects.requireNonNull(entityId);
+            if (this.isReleased.get()) {
+                throw releasedHandle(this.entityId);
+            }
+            CompletableFuture<EntityLockHandle<T>> result = new CompletableFuture<>();
+            this.owner.users.incrementAndGet();
+            EntityLocker.this.lockAsync(this.owner, entityId, result, true);
+            return result;
+        }
+
+        @Override
+        public void unlock() {
+            if (!this.isReleased.compareAndSet(false, true)) {
+                throw releasedHandle(this.entityId);
+            }
+            EntityLock lock = EntityLocker.this.entityLocks.get(this.entityId);
+            advanceVersion(this.entityId);
+            this.owner.beforeRelease();
+            lock.unlockAsync();
+            this.owner.afterRelease();
+            releaseEntityLock(this.entityId);
+            releaseAsyncOwner(this.owner);
+        }
+    }
+
+    private static MissingEntityLockException releasedHandle(Object entityId) {
+        return new MissingEntityLockException(String.format("The lock handle of entity with id %s is already released", entityId.toString()));
+    }
+
+    /**
+     * Locks the entity exclusively for at most the lease time. If the calling thread doesn't unlock the entity in time, for example because
+     * it's stuck on a downstream call, the lock is revoked and waiters get the entity; the late {@link #unlock} then throws
+     * {@link LeaseExpiredException}. Revoking doesn't interrupt the thread, and the thread must still unlock the entity to drop its
+     * bookkeeping.
+     * <p>Nested {@link #lock}, {@link #lockShared} and {@link #lockWithLease} calls of the thread for the entity reenter the lease without
+     * extending it. While it leases entities, the thread can't acquire the global lock. The thread waits for the lock like {@link #lock}, and
+     * once acquired the lock is held like a {@link #lockAsync} handle. Leases are revoked with a precision of 10 milliseconds.</p>
+     * @param entityId id of entity to lock
+     * @param leaseTime maximum time the lock is held
+     * @param unit time unit of the lease time
+     * @throws NullPointerException if entityId or unit is null
+     * @throws IllegalArgumentException if leaseTime is not positive
+     * @throws DeadlockThreatException if the thread already holds the entity lock without a lease or holds the global lock, or if waiting
+     * for the lock causes a deadlock
+     * @throws LeaseExpiredException if the thread reenters a lease that has expired
+     */
+    public void lockWithLease(T entityId, long leaseTime, TimeUnit unit) {
+        LockHolder<T> lockHolder = this.lockHolders.get();
+        if (reenterLease(lockHolder, entityId, leaseTime, unit)) {
+            return;
+        }
+        if (lockHolder.heldEntityCount == 0) {
+            this.globalLock.enter();
+        }
+        boolean isAcquired = false;
+        try {
+            EntityLock lock = acquireEntityLock(entityId);
+            if (!lock.tryLock()) {
+                awaitEntityLock(lockHolder, entityId, lock, false);
+            }
+            isAcquired = true;
+            startLease(lockHolder, entityId, lock, leaseTime, unit);
+        } finally {
+            if (!isAcquired && lockHolder.heldEntityCount == 0) {
+                this.globalLock.exit();
+                releaseThreadStateIfIdle(lockHolder);
+            }
+        }
+    }
+
+    /**
+     * Locks the entity exclusively for at most the lease time like {@link #lockWithLease}, waiting for the lock at most the given timeout.
+     * @param entityId id of entity to lock
+     * @param timeout maximum time to wait for the lock
+     * @param leaseTime maximum time the lock is held
+     * @param unit time unit of the timeout and the lease time
+     * @return true if the lock was acquired and false if the waiting time elapsed
+     * @throws InterruptedException if the thread is interrupted while waiting
+     * @throws NullPointerException if entityId or unit is null
+     * @throws IllegalArgumentException if leaseTime is not positive
+     * @throws DeadlockThreatException if the thread already holds the entity lock without a lease or holds the global lock, or if waiting
+     * for the lock causes a deadlock
+     * @throws LeaseExpiredException if the thread reenters a lease that has expired
+     */
+    public boolean tryLockWithLease(T entityId, long timeout, long leaseTime, TimeUnit unit) throws InterruptedException {
+        LockHolder<T> lockHolder = this.lockHolders.get();
+        if (reenterLease(lockHolder, entityId, leaseTime, unit)) {
+            return true;
+        }
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        if (lockHolder.heldEntityCount == 0 && !this.globalLock.tryEnter(timeout, unit)) {
+            if (this.metrics != null) {
+                this.metrics.recordTimeout();
+            }
+            releaseThreadStateIfIdle(lockHolder);
+            return false;
+        }
+        boolean isAcquired = false;
+        try {
+            EntityLock lock = acquireEntityLock(entityId);
+            isAcquired = lock.tryLock() || awaitEntityLock(lockHolder, entityId, lock, false, deadline);
+            if (isAcquired) {
+                startLease(lockHolder, entityId, lock, leaseTime, unit);
+            }
+        } finally {
+            if (!isAcquired && lockHolder.heldEntityCount == 0) {
+                this.globalLock.exit();
+                releaseThreadStateIfIdle(lockHolder);
+            }
+        }
+        return isAcquired;
+    }
+
+    /**
+     * Validates a lease request and reenters the lease if the thread already holds one for the entity.
+     */
+    private boolean reenterLease(LockHolder<T> lockHolder, T entityId, long leaseTime, TimeUnit unit) {
+        Objects.requireNonNull(entityId);
+        Objects.requireNonNull(unit);
+        if (leaseTime <= 0) {
+            throw new IllegalArgumentException("Lease time must be positive");
+        }
+        if (lockHolder.leases != null && lockLeased(lockHolder, entityId, false)) {
+            return true;
+        }
+        String reason = null;
+        if (lockHolder.heldLocks.contains(entityId)) {
+            reason = "The thread already holds its lock without a lease";
+        } else if (lockHolder.isEscalated || lockHolder.globalHoldCount > 0) {
+            reason = "The thread holds the global lock";
+        }
+        if (reason != null) {
+            releaseThreadStateIfIdle(lockHolder);
+            String msg = String.format("Thread [%s] cannot lease entity with id %s because this will cause a deadlock. %s",
+                    Thread.currentThread().getName(),
+                    entityId.toString(),
+                    reason);
+            throw new DeadlockThreatException(msg);
+        }
+        return false;
+    }
+
+    /**
+     * Hands the entity lock the current thread has just acquired over to a lock handle, so the lease timer can release it from its own
+     * thread, and schedules the lease expiry. The handle's owner enters protected code before the thread may leave it, so the hand-over
+     * never waits for the global lock.
+     */
+    private void startLease(LockHolder<T> lockHolder, T entityId, EntityLock lock, long leaseTime, TimeUnit unit) {
+        AsyncLockOwner owner = new AsyncLockOwner(Thread.currentThread());
+        owner.users.incrementAndGet();
+        this.globalLock.enterAsyncFromCurrentThread(owner);
+        lock.transferToAsync(owner);
+        if (lockHolder.heldEntityCount == 0) {
+            this.globalLock.exit();
+        }
+        advanceVersion(entityId);
+        if (this.metrics != null) {
+            this.metrics.recordAcquisition();
+        }
+        EntityLockHandle<T> handle = new AsyncHandle(owner, entityId);
+        LeasedLock lease = new LeasedLock(handle);
+        lease.expiry = LEASE_TIMER.schedule(() -> {
+            this.expiredLeaseCount.increment();
+            handle.unlock();
+        }, leaseTime, unit);
+        if (lockHolder.leases == null) {
+            lockHolder.leases = new HashMap<>();
+        }
+        lockHolder.leases.put(handle.getEntityId(), lease);
+    }
+
+    /**
+     * Reenters the lease of the entity if the thread holds one. Returns false if it doesn't.
+     */
+    private boolean lockLeased(LockHolder<T> lockHolder, T entityId, boolean isShared) {
+        LeasedLock lease = lockHolder.leases.get(entityId);
+        if (lease == null) {
+            return false;
+        }
+        if (lease.expiry.isExpired()) {
+            throw leaseExpired(entityId);
+        }
+        if (isShared) {
+            lease.sharedHoldCount++;
+        } else {
+            lease.holdCount++;
+        }
+        return true;
+    }
+
+    /**
+     * Releases a hold of the lease of the entity if the thread holds one. The lock is released with the last hold unless the lease has
+     * expired, in which case every unlock throws {@link LeaseExpiredException}. Returns false if the thread holds no lease for the entity.
+     */
+    private boolean unlockLeased(LockHolder<T> lockHolder, T entityId, boolean isShared) {
+        LeasedLock lease = lockHolder.leases.get(entityId);
+        if (lease == null) {
+            return false;
+        }
+        if ((isShared ? lease.sharedHoldCount : lease.holdCount) == 0) {
+            throw otherThreadEntityUnlockAttempt(entityId, isShared);
+        }
+        if (isShared) {
+            lease.sharedHoldCount--;
+        } else {
+            lease.holdCount--;
+        }
+        boolean isLastHold = lease.holdCount + lease.sharedHoldCount == 0;
+        boolean isExpired = isLastHold ? !lease.expiry.cancel() : lease.expiry.isExpired();
+        if (isLastHold) {
+            lockHolder.leases.remove(entityId);
+            if (!isExpired) {
+                lease.handle.unlock();
+            }
+            releaseThreadStateIfIdle(lockHolder);
+        }
+        if (isExpired) {
+            throw leaseExpired(entityId);
+        }
+        return true;
+    }
+
+    private static LeaseExpiredException leaseExpired(Object entityId) {
+        return new LeaseExpiredException(String.format("The lease of entity with id %s expired before it was released", entityId.toString()));
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>The batch never waits while it holds some of its entities: the entities are locked in order as long as they are free, and when
+     * an entity is held by another thread, the batch releases what it has locked so far, waits for that entity alone and then tries the
+     * others again. So batches can't deadlock each other whatever their order, and the deadlock detector is consulted once per wait rather
+     * than once per entity. It doesn't walk the wait-for graph at all unless the thread held other locks before the batch.</p>
+     */
+    @Override
+    public void lockAll(Collection<T> entityIds) {
+        List<T> orderedIds = toLockOrder(entityIds);
+        LockHolder<T> lockHolder = this.lockHolders.get();
+        int lockedCount = 0;
+        int waitedIndex = -1;
+        try {
+            while (lockedCount < orderedIds.size()) {
+                if (lockedCount == waitedIndex || tryLockAtOnce(lockHolder, orderedIds.get(lockedCount))) {
+                    lockedCount++;
+                    continue;
+                }
+                unlockBatch(lockHolder, orderedIds, lockedCount, waitedIndex);
+                int contendedIndex = lockedCount;
+                lockedCount = 0;
+                waitedIndex = -1;
+                lock(lockHolder, orderedIds.get(contendedIndex), false);
+                waitedIndex = contendedIndex;
+            }
+        } finally {
+            if (lockedCount < orderedIds.size()) {
+                unlockBatch(lockHolder, orderedIds, lockedCount, waitedIndex);
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>The batch waits for one entity at a time like {@link #lockAll} does.</p>
+     */
+    @Override
+    public boolean tryLockAll(Collection<T> entityIds, long timeout, TimeUnit unit) throws InterruptedException {
+        Objects.requireNonNull(unit);
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        List<T> orderedIds = toLockOrder(entityIds);
+        LockHolder<T> lockHolder = this.lockHolders.get();
+        int lockedCount = 0;
+        int waitedIndex = -1;
+        try {
+            while (lockedCount < orderedIds.size()) {
+                if (lockedCount == waitedIndex || tryLockAtOnce(lockHolder, orderedIds.get(lockedCount))) {
+                    lockedCount++;
+                    continue;
+                }
+                unlockBatch(lockHolder, orderedIds, lockedCount, waitedIndex);
+                int contendedIndex = lockedCount;
+                lockedCount = 0;
+                waitedIndex = -1;
+                if (!tryLock(lockHolder, orderedIds.get(contendedIndex), false, deadline)) {
+                    return false;
+                }
+                waitedIndex = contendedIndex;
+            }
+        } finally {
+            if (lockedCount < orderedIds.size()) {
+                unlockBatch(lockHolder, orderedIds, lockedCount, waitedIndex);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void unlockAll(Collection<T> entityIds) {
+        List<T> orderedIds = toLockOrder(entityIds);
+        unlockInReverseOrder(this.lockHolders.get(), orderedIds, orderedIds.size());
+    }
+
+    /**
+     * Locks the entity exclusively if this doesn't require waiting for another thread.
+     */
+    private boolean tryLockAtOnce(LockHolder<T> lockHolder, T entityId) {
+        if (lockHolder.leases != null && lockLeased(lockHolder, entityId, false)) {
+            return true;
+        }
+        if (lockHolder.heldLocks.reenter(entityId, false)) {
+            return true;
+        }
+        if (lockHolder.isEscalated && lockEscalated(lockHolder, entityId)) {
+            return true;
+        }
+        if (lockHolder.heldEntityCount == 0 && !this.globalLock.tryEnter()) {
+            return false;
+        }
+        EntityLock lock = acquireEntityLock(entityId);
+        if (lock.tryLock()) {
+            afterFirstHold(lockHolder, entityId, lock, false);
+            return true;
+        }
+        releaseEntityLock(entityId);
+        if (lockHolder.heldEntityCount == 0) {
+            this.globalLock.exit();
+        }
+        return false;
+    }
+
+    /**
+     * Releases the entities of a batch: the first lockedCount entities and the entity the batch waited for, unless it's among them.
+     */
+    private void unlockBatch(LockHolder<T> lockHolder, List<T> orderedIds, int lockedCount, int waitedIndex) {
+        if (waitedIndex >= lockedCount) {
+            unlock(lockHolder, orderedIds.get(waitedIndex), false);
+        }
+        unlockInReverseOrder(lockHolder, orderedIds, lockedCount);
+    }
+
+    private void unlockInReverseOrder(LockHolder<T> lockHolder, List<T> orderedIds, int count) {
+        for (int i = count - 1; i >= 0; i--) {
+            unlock(lockHolder, orderedIds.get(i), false);
+        }
+    }
+
+    /**
+     * Returns distinct ids in lock order, see {@link #compareLockOrder}. Waiting is still checked by the deadlock detector since other locks
+     * held by the caller may close a cycle.
+     */
+    static <E> List<E> toLockOrder(Collection<E> entityIds) {
+        Objects.requireNonNull(entityIds);
+        List<E> orderedIds = new ArrayList<>(new HashSet<>(entityIds));
+        for (E entityId : orderedIds) {
+            Objects.requireNonNull(entityId);
+        }
+        orderedIds.sort(EntityLocker::compareLockOrder);
+        return orderedIds;
+    }
+
+    /**
+     * Orders ids by hash code, then ids of the same comparable class by natural order, ids of different classes by class name and
+     * finally by identity hash code. The order is total for distinct ids unless their identity hash codes collide, but only the part
+     * before the identity hash codes is the same for equal ids of different threads. Batches don't depend on the order to avoid
+     * deadlocks, since they never wait while holding entities of the batch; a common order just makes batches of different threads meet
+     * at the same entity first.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    static int compareLockOrder(Object first, Object second) {
+        int result = Integer.compare(first.hashCode(), second.hashCode());
+        if (result != 0) {
+            return result;
+        }
+        if (first.getClass() != second.getClass()) {
+            result = first.getClass().getName().compareTo(second.getClass().getName());
+        } else if (first instanceof Comparable) {
+            result = ((Comparable) first).compareTo(second);
+        }
+        return result != 0 ? result : Integer.compare(System.identityHashCode(first), System.identityHashCode(second));
+    }
+
+    /**
+     * Checks that the current thread may wait for the lock held by another thread. Called only when the lock can't be acquired immediately.
+     * A thread holding neither entity locks nor leases can't close a wait-for cycle, so it's just registered as a waiter.
+     */
+    private void beforeWait(LockHolder<T> lockHolder, T entityId, EntityLock lock, boolean isShared) {
+        try {
+            if (lockHolder.heldEntityCount == 0 && (lockHolder.leases == null || lockHolder.leases.isEmpty())) {
+                this.deadlockDetector.beforeWaitHoldingNothing(entityId, lock, isShared);
+            } else {
+                this.deadlockDetector.beforeWait(entityId, lock, isShared);
+            }
+        } catch (RuntimeException e) {
+            releaseEntityLock(entityId);
+            if (e instanceof DeadlockThreatException) {
+                recordDeadlock();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the lock of the entity registering the current thread as its user. The lock is created if it doesn't exist yet.
+     * Every call must be paired with {@link #releaseEntityLock} once the thread neither holds nor waits for the lock.
+     */
+    private EntityLock acquireEntityLock(T entityId) {
+        return this.entityLocks.compute(entityId, (id, lock) -> {
             if (lock == null) {
-                lock = newLock;
+                lock = new EntityLock(this.acquisitionPolicy, this.spinLimits, id);
+            }
+            lock.users++;
+            return lock;
+        });
+    }
+
+    /**
+     * Unregisters a user of the entity lock and removes the lock when it's not used by any thread anymore.
+     */
+    private void releaseEntityLock(T entityId) {
+        this.entityLocks.computeIfPresent(entityId, (id, lock) -> --lock.users == 0 ? null : lock);
+    }
+
+    /**
+     * Records the first hold of the entity lock in the given mode. Reentrant holds never reach the entity lock, they're counted by
+     * {@link HeldLocks}, so the entity lock is held at most once per mode by a thread. An entity already held in the other mode doesn't
+     * count towards the escalation threshold again.
+     */
+    private void afterFirstHold(LockHolder<T> lockHolder, T entityId, EntityLock lock, boolean isShared) {
+        HeldLocks<T, EntityLock> heldLocks = lockHolder.heldLocks;
+        int heldCount = heldLocks.size();
+        heldLocks.addFirstHold(entityId, lock, isShared);
+        if (!isShared) {
+            advanceVersion(entityId);
+        }
+        if (this.metrics != null) {
+            recordAcquisition(lockHolder, lock, isShared);
+        }
+        if (heldLocks.size() == heldCount) {
+            return;
+        }
+        lockHolder.heldEntityCount++;
+        if (this.escalationThreshold > 0 && !lockHolder.isEscalated && lockHolder.heldEntityCount >= this.escalationThreshold) {
+            escalate(lockHolder);
+        }
+    }
+
+    // Metrics are recorded in separate methods to keep the lock and unlock paths small enough to be inlined
+
+    private void recordAcquisition(LockHolder<T> lockHolder, EntityLock lock, boolean isShared) {
+        this.metrics.recordAcquisition();
+        if (!isShared && (++lockHolder.acquisitionCount & (LockMetrics.HOLD_SAMPLE_PERIOD - 1)) == 0) {
+            lock.holdStartNanos = System.nanoTime();
+        }
+    }
+
+    private void recordDeadlock() {
+        if (this.metrics != null) {
+            this.metrics.recordDeadlock();
+        }
+    }
+
+    private void recordRelease(EntityLock lock) {
+        if (lock.holdStartNanos != 0) {
+            this.metrics.recordHold(System.nanoTime() - lock.holdStartNanos);
+            lock.holdStartNanos = 0;
+        }
+    }
+
+    /**
+     * Escalates the entity locks of the current thread to the global lock. Once escalated, the thread locks entities it doesn't hold yet by
+     * bookkeeping only. If waiting for the global lock may cause a deadlock or the thread holds leases, it just keeps using entity locks.
+     */
+    private void escalate(LockHolder<T> lockHolder) {
+        if (lockHolder.leases != null && !lockHolder.leases.isEmpty()) {
+            this.failedEscalationCount.increment();
+            return;
+        }
+        try {
+            this.globalLock.lock(true);
+        } catch (DeadlockThreatException e) {
+            this.failedEscalationCount.increment();
+            return;
+        }
+        advanceAllVersions();
+        if (lockHolder.escalatedHolds == null) {
+            lockHolder.escalatedHolds = new HashMap<>();
+        }
+        lockHolder.isEscalated = true;
+        this.escalationCount.increment();
+    }
+
+    private void deescalateIfPossible(LockHolder<T> lockHolder) {
+        if (lockHolder.escalatedHolds.isEmpty() && lockHolder.heldEntityCount < this.escalationThreshold) {
+            lockHolder.isEscalated = false;
+            advanceAllVersions();
+            this.globalLock.unlock();
+            this.deescalationCount.increment();
+        }
+    }
+
+    /**
+     * Locks the entity on behalf of an escalated thread. Returns false if the thread holds the entity lock (in any mode) acquired before
+     * escalation, in this case the entity lock is reentered as usual.
+     */
+    private boolean lockEscalated(LockHolder<T> lockHolder, T entityId) {
+        Integer holdCount = lockHolder.escalatedHolds.get(entityId);
+        if (holdCount == null) {
+            if (lockHolder.heldLocks.contains(entityId)) {
+                return false;
             }
+            holdCount = 0;
         }
-        return lock;
+        lockHolder.escalatedHolds.put(entityId, holdCount + 1);
+        return true;
     }
 
     @Override
     public void unlock(T entityId) {
+        unlock(entityId, false);
+    }
+
+    @Override
+    public void unlockShared(T entityId) {
+        unlock(entityId, true);
+    }
+
+    private void unlock(T entityId, boolean isShared) {
         Objects.requireNonNull(entityId);
-        ReentrantLock lock = this.entityLocks.get(entityId);
-        if (lock == null) {
-            throw new MissingEntityLockException(String.format("There is no associated locks for entity with id %s", entityId.toString()));
+        unlock(this.lockHolders.get(), entityId, isShared);
+    }
+
+    private void unlock(LockHolder<T> lockHolder, T entityId, boolean isShared) {
+        if (lockHolder.leases != null && unlockLeased(lockHolder, entityId, isShared)) {
+            return;
+        }
+        if (lockHolder.isEscalated && unlockEscalated(lockHolder, entityId)) {
+            return;
+        }
+        HeldLocks<T, EntityLock> heldLocks = lockHolder.heldLocks;
+        int index = heldLocks.indexOf(entityId);
+        int holdCount = index < 0 ? 0 : heldLocks.getHoldCount(index, isShared);
+        if (holdCount == 0) {
+            releaseThreadStateIfIdle(lockHolder);
+            throw this.entityLocks.containsKey(entityId) ? otherThreadEntityUnlockAttempt(entityId, isShared) : missingEntityLock(entityId);
+        }
+        EntityLock lock = heldLocks.getLock(index);
+        int heldCount = heldLocks.size();
+        heldLocks.release(index, isShared);
+        if (holdCount > 1) {
+            return;
+        }
+        if (isShared) {
+            lock.unlockShared();
+        } else {
+            advanceVersion(entityId);
+            if (this.metrics != null) {
+                recordRelease(lock);
+            }
+            lock.unlock();
+        }
+        releaseEntityLock(entityId);
+        if (heldLocks.size() < heldCount && --lockHolder.heldEntityCount == 0) {
+            this.globalLock.exit();
+        }
+        if (lockHolder.isEscalated) {
+            deescalateIfPossible(lockHolder);
+        }
+        releaseThreadStateIfIdle(lockHolder);
+    }
+
+    /**
+     * Drops the bookkeeping of the current thread if it holds nothing and thread state is transient. Removing the thread-local entry keeps
+     * memory proportional to the number of threads in protected code rather than to the number of threads that ever used the locker.
+     */
+    private void releaseThreadStateIfIdle(LockHolder<T> lockHolder) {
+        if (this.isThreadStateTransient && lockHolder.heldEntityCount == 0 && lockHolder.globalHoldCount == 0 && !lockHolder.isEscalated
+                && (lockHolder.leases == null || lockHolder.leases.isEmpty())) {
+            this.lockHolders.remove();
         }
-        if (!lock.isHeldByCurrentThread()) {
-            throw new OtherThreadEntityUnlockAttemptException(String.format("The lock of entity with id %s is held by another thread", entityId.toString()));
+    }
+
+    // Exception messages are built in separate methods to keep the unlock path small enough to be inlined
+
+    private static MissingEntityLockException missingEntityLock(Object entityId) {
+        return new MissingEntityLockException(String.format("There is no associated locks for entity with id %s", entityId.toString()));
+    }
+
+    private static OtherThreadEntityUnlockAttemptException otherThreadEntityUnlockAttempt(Object entityId, boolean isShared) {
+        String msg = isShared
+                ? String.format("The shared lock of entity with id %s is not held by current thread", entityId.toString())
+                : String.format("The lock of entity with id %s is held by another thread", entityId.toString());
+        return new OtherThreadEntityUnlockAttemptException(msg);
+    }
+
+    private boolean unlockEscalated(LockHolder<T> lockHolder, T entityId) {
+        Integer holdCount = lockHolder.escalatedHolds.get(entityId);
+        if (holdCount == null) {
+            return false;
         }
-        if (lock.getHoldCount() == 1) {
-            this.deadlockDetector.beforeUnlock(entityId);
+        if (holdCount > 1) {
+            lockHolder.escalatedHolds.put(entityId, holdCount - 1);
+        } else {
+            lockHolder.escalatedHolds.remove(entityId);
+            deescalateIfPossible(lockHolder);
+            releaseThreadStateIfIdle(lockHolder);
         }
-        lock.unlock();
+        return true;
     }
 
     @Override
     public boolean isLockedByAnotherThread(T entityId) {
         Objects.requireNonNull(entityId);
-        ReentrantLock lock = this.entityLocks.get(entityId);
-        return lock != null && !lock.isHeldByCurrentThread();
+        LockHolder<T> lockHolder = this.lockHolders.get();
+        if (lockHolder.leases != null) {
+            LeasedLock lease = lockHolder.leases.get(entityId);
+            if (lease != null && !lease.expiry.isExpired()) {
+                return false;
+            }
+        } else {
+            releaseThreadStateIfIdle(lockHolder);
+        }
+        if (this.globalLock.isHeldByAnotherThread()) {
+            return true;
+        }
+        EntityLock lock = this.entityLocks.get(entityId);
+        return lock != null && lock.isLockedByAnotherThread();
+    }
+
+    /**
+     * Returns true if the entity is locked in any mode, whoever holds the lock. The global lock is not taken into account.
+     */
+    boolean isLocked(T entityId) {
+        EntityLock lock = this.entityLocks.get(entityId);
+        return lock != null && lock.isLockedInAnyMode();
+    }
+
+    @Override
+    public void lockGlobal() {
+        LockHolder<T> lockHolder = this.lockHolders.get();
+        checkNoLeases(lockHolder);
+        try {
+            this.globalLock.lock(lockHolder.heldEntityCount > 0);
+        } catch (DeadlockThreatException e) {
+            recordDeadlock();
+            throw e;
+        }
+        advanceAllVersions();
+        lockHolder.globalHoldCount++;
+    }
+
+    @Override
+    public boolean tryLockGlobal(long timeout, TimeUnit unit) throws InterruptedException {
+        Objects.requireNonNull(unit);
+        LockHolder<T> lockHolder = this.lockHolders.get();
+        checkNoLeases(lockHolder);
+        boolean isAcquired = this.globalLock.tryLock(lockHolder.heldEntityCount > 0, timeout, unit);
+        if (isAcquired) {
+            advanceAllVersions();
+            lockHolder.globalHoldCount++;
+        } else {
+            if (this.metrics != null) {
+                this.metrics.recordTimeout();
+            }
+            releaseThreadStateIfIdle(lockHolder);
+        }
+        return isAcquired;
+    }
+
+    /**
+     * The global lock waits for leased locks to be released, and the thread holding them would wait for itself until they expire.
+     */
+    private void checkNoLeases(LockHolder<T> lockHolder) {
+        if (lockHolder.leases != null && !lockHolder.leases.isEmpty()) {
+            String msg = String.format("Thread [%s] cannot acquire the global lock because this will cause a deadlock. The thread holds leased entity locks",
+                    Thread.currentThread().getName());
+            throw new DeadlockThreatException(msg);
+        }
+    }
+
+    @Override
+    public void unlockGlobal() {
+        LockHolder<T> lockHolder = this.lockHolders.get();
+        if (lockHolder.globalHoldCount == 0) {
+            releaseThreadStateIfIdle(lockHolder);
+            throw new OtherThreadGlobalUnlockAttemptException("The global lock is not held by current thread");
+        }
+        lockHolder.globalHoldCount--;
+        advanceAllVersions();
+        this.globalLock.unlock();
+        releaseThreadStateIfIdle(lockHolder);
+    }
+
+    /**
+     * Returns a stamp for an optimistic read of the entity, or zero if the entity is locked exclusively by another thread or the global lock
+     * is held by another thread. Neither the call nor {@link #validate} write shared memory, so optimistic readers don't contend with each
+     * other. Data read after obtaining the stamp may be used only if {@link #validate} returns true for it afterwards.
+     * @param entityId id of entity to read
+     * @return a non-zero stamp for validation, or zero if the entity is locked
+     * @throws IllegalStateException if optimistic reads are not enabled for this locker
+     * @throws NullPointerException if entityId is null
+     */
+    public long tryOptimisticRead(T entityId) {
+        Objects.requireNonNull(entityId);
+        long stamp = versionStripe(entityId).tryOptimisticRead();
+        // Writers advance the version after acquiring the entity lock, so the lock state is checked after the version is read
+        if (stamp == 0 || this.globalLock.isHeldByAnotherThread()) {
+            return 0;
+        }
+        EntityLock lock = this.entityLocks.get(entityId);
+        if (lock != null && lock.isLocked() && !lock.isHeldByCurrentThread()) {
+            return 0;
+        }
+        return stamp;
+    }
+
+    /**
+     * Returns true if the entity has not been locked exclusively since the given stamp was obtained by {@link #tryOptimisticRead}. May also
+     * return false if another entity sharing the same version stripe has been locked.
+     * @param entityId id of entity that was read
+     * @param stamp the stamp returned by {@link #tryOptimisticRead}
+     * @return true if data read under the stamp is consistent
+     * @throws IllegalStateException if optimistic reads are not enabled for this locker
+     * @throws NullPointerException if entityId is null
+     */
+    public boolean validate(T entityId, long stamp) {
+        Objects.requireNonNull(entityId);
+        return versionStripe(entityId).validate(stamp);
+    }
+
+    private StampedLock versionStripe(T entityId) {
+        if (this.versionStripes == null) {
+            throw new IllegalStateException("Optimistic reads are not enabled for this locker");
+        }
+        int hash = entityId.hashCode() * 0x9E3779B9;
+        return this.versionStripes[(hash ^ (hash >>> 16)) & (this.versionStripes.length - 1)];
+    }
+
+    /**
+     * Invalidates optimistic reads of the entity. A momentary write lock of the stripe is enough since stamps are validated against it.
+     */
+    private void advanceVersion(T entityId) {
+        if (this.versionStripes != null) {
+            StampedLock stripe = versionStripe(entityId);
+            stripe.unlockWrite(stripe.writeLock());
+        }
+    }
+
+    private void advanceAllVersions() {
+        if (this.versionStripes != null) {
+            for (StampedLock stripe : this.versionStripes) {
+                stripe.unlockWrite(stripe.writeLock());
+            }
+        }
+    }
+
+    /**
+     * Returns the ids of the entities the current thread holds in any mode, including entities locked while the thread was escalated and
+     * leased entities. The list is a snapshot built from the thread's own bookkeeping, so the call doesn't touch shared state.
+     * @return ids of the held entities in no particular order
+     */
+    public List<T> getHeldEntityIds() {
+        LockHolder<T> lockHolder = this.lockHolders.get();
+        List<T> entityIds = lockHolder.heldLocks.getEntityIds();
+        if (lockHolder.escalatedHolds != null) {
+            entityIds.addAll(lockHolder.escalatedHolds.keySet());
+        }
+        if (lockHolder.leases != null) {
+            entityIds.addAll(lockHolder.leases.keySet());
+        }
+        releaseThreadStateIfIdle(lockHolder);
+        return entityIds;
+    }
+
+    /**
+     * Returns an iterator over the states of the entity locks that are held or waited for at the moment, in no particular order. States are
+     * built one by one as the iterator advances, so iterating over millions of held entities doesn't materialize them at once. Iteration
+     * neither locks nor writes anything shared, so it doesn't slow down concurrent locking; in return the view is weakly consistent: entities
+     * locked or unlocked during iteration may be missed or included, and waiters are read once when the iterator is created. Entities locked
+     * by escalated threads are covered by the global lock and have no entity lock to report.
+     * @return iterator over the lock states
+     */
+    public Iterator<EntityLockState<T>> lockStates() {
+        return new LockStateIterator(this.deadlockDetector.getWaitersByEntityId());
+    }
+
+    /**
+     * Returns the states of the entity locks that are held or waited for at the moment. See {@link #lockStates} for details.
+     * @return list of the lock states in no particular order
+     */
+    public List<EntityLockState<T>> getLockStates() {
+        List<EntityLockState<T>> states = new ArrayList<>();
+        lockStates().forEachRemaining(states::add);
+        return states;
+    }
+
+    /**
+     * Writes the states of the entity locks that are held or waited for as a JSON array, one object per entity, streaming them as they are
+     * read. See {@link #lockStates} for the consistency of the view and {@link EntityLockState#toString} for the format of an entity.
+     * @param out destination of the JSON text
+     * @throws IOException if writing fails
+     */
+    public void dumpLockStates(Appendable out) throws IOException {
+        Iterator<EntityLockState<T>> states = lockStates();
+        out.append('[');
+        for (boolean isFirst = true; states.hasNext(); isFirst = false) {
+            if (!isFirst) {
+                out.append(',');
+            }
+            states.next().appendJson(out);
+        }
+        out.append(']');
+    }
+
+    /**
+     * Iterator over the entity locks map skipping locks that are neither held nor waited for, like locks about to be removed
+     */
+    private final class LockStateIterator implements Iterator<EntityLockState<T>> {
+
+        private final Iterator<Map.Entry<T, EntityLock>> entries = EntityLocker.this.entityLocks.entrySet().iterator();
+
+        private final Map<Object, List<EntityLockState.Waiter>> waiters;
+
+        private EntityLockState<T> next;
+
+        LockStateIterator(Map<Object, List<EntityLockState.Waiter>> waiters) {
+            this.waiters = waiters;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (this.next == null && this.entries.hasNext()) {
+                Map.Entry<T, EntityLock> entry = this.entries.next();
+                EntityLock lock = entry.getValue();
+                List<EntityLockState.Waiter> lockWaiters = this.waiters.getOrDefault(entry.getKey(), Collections.emptyList());
+                Object owner = lock.getOwner();
+                List<Thread> sharedHolders = new ArrayList<>(lock.getSharedHolders());
+                if (owner != null || !sharedHolders.isEmpty() || !lockWaiters.isEmpty()) {
+                    this.next = new EntityLockState<>(entry.getKey(), owner, sharedHolders, lockWaiters);
+                }
+            }
+            return this.next != null;
+        }
+
+        @Override
+        public EntityLockState<T> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            EntityLockState<T> state = this.next;
+            this.next = null;
+            return state;
+        }
+    }
+
+    /**
+     * Returns the number of times threads escalated their entity locks to the global lock.
+     */
+    public long getEscalationCount() {
+        return this.escalationCount.sum();
+    }
+
+    /**
+     * Returns the number of times escalation was skipped because waiting for the global lock would cause a deadlock.
+     */
+    public long getFailedEscalationCount() {
+        return this.failedEscalationCount.sum();
+    }
+
+    /**
+     * Returns the number of times escalated threads released the global lock.
+     */
+    public long getDeescalationCount() {
+        return this.deescalationCount.sum();
+    }
+
+    /**
+     * Returns the number of leases revoked because they expired before being unlocked.
+     */
+    public long getExpiredLeaseCount() {
+        return this.expiredLeaseCount.sum();
+    }
+
+    /**
+     * Returns the number of submitted protected codes run by the holders of entity locks in combining mode.
+     */
+    public long getCombinedExecutionCount() {
+        return this.combinedExecutionCount.sum();
+    }
+
+    /**
+     * Returns a snapshot of the locker metrics.
+     * @throws IllegalStateException if metrics are not enabled for this locker
+     */
+    public LockMetricsSnapshot<T> getMetrics() {
+        if (this.metrics == null) {
+            throw new IllegalStateException("Metrics are not enabled for this locker");
+        }
+        return this.metrics.snapshot(this.entityLocks.size());
+    }
+
+    /**
+     * Registers an {@link EntityLockerMXBean} exposing the locker metrics in the platform MBean server.
+     * @param name object name of the bean, e.g. "com.kinkl:type=EntityLocker,name=orders"
+     * @throws IllegalStateException if metrics are not enabled for this locker
+     * @throws JMException if the name is malformed or already registered
+     */
+    public ObjectName registerMXBean(String name) throws JMException {
+        getMetrics();
+        ObjectName objectName = new ObjectName(name);
+        ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsMXBean(), objectName);
+        return objectName;
+    }
+
+    int getEntityLockCount() {
+        return this.entityLocks.size();
+    }
+
+    int getWaiterCount() {
+        return this.deadlockDetector.getWaiterCount();
+    }
+
+    private final class MetricsMXBean implements EntityLockerMXBean {
+
+        @Override
+        public long getAcquisitionCount() {
+            return getMetrics().getAcquisitionCount();
+        }
+
+        @Override
+        public long getContendedAcquisitionCount() {
+            return getMetrics().getContendedAcquisitionCount();
+        }
+
+        @Override
+        public long getTimeoutCount() {
+            return getMetrics().getTimeoutCount();
+        }
+
+        @Override
+        public long getDeadlockCount() {
+            return getMetrics().getDeadlockCount();
+        }
+
+        @Override
+        public int getEntityLockCount() {
+            return EntityLocker.this.entityLocks.size();
+        }
+
+        @Override
+        public long getWaitTimeCount() {
+            return getMetrics().getWaitTime().getCount();
+        }
+
+        @Override
+        public double getWaitTimeMean() {
+            return getMetrics().getWaitTime().getMean();
+        }
+
+        @Override
+        public long getWaitTime99thPercentile() {
+            return getMetrics().getWaitTime().getValueAtPercentile(99);
+        }
+
+        @Override
+        public long getWaitTimeMax() {
+            return getMetrics().getWaitTime().getMax();
+        }
+
+        @Override
+        public double getHoldTimeMean() {
+            return getMetrics().getHoldTime().getMean();
+        }
+
+        @Override
+        public long getHoldTime99thPercentile() {
+            return getMetrics().getHoldTime().getValueAtPercentile(99);
+        }
+
+        @Override
+        public long getHoldTimeMax() {
+            return getMetrics().getHoldTime().getMax();
+        }
+
+        @Override
+        public String[] getHotKeys() {
+            return getMetrics().getHotKeys().stream().map(LockMetricsSnapshot.HotKey::toString).toArray(String[]::new);
+        }
+    }
+
+    public static final class Builder<T> {
+
+        private int escalationThreshold;
+
+        private boolean isOptimisticReadEnabled;
+
+        private Executor asyncExecutor = ForkJoinPool.commonPool();
+
+        private boolean isThreadStateTransient;
+
+        private int hotKeyCount;
+
+        private long deadlockDetectionPeriodNanos;
+
+        private AcquisitionPolicy acquisitionPolicy = AcquisitionPolicy.barging();
+
+        private int maxCombinedBatchSize;
+
+        private Builder() {
+        }
+
+        /**
+         * Enables lock escalation: once a thread holds locks on the given number of distinct entities, it acquires the global lock, and
+         * entities it locks afterwards are tracked without entity locks until it releases them. An entity held both shared and exclusively
+         * counts once.
+         * @param escalationThreshold number of distinct entities locked by a thread in any mode that triggers escalation
+         * @throws IllegalArgumentException if escalationThreshold is not positive
+         */
+        public Builder<T> escalationThreshold(int escalationThreshold) {
+            if (escalationThreshold <= 0) {
+                throw new IllegalArgumentException("Escalation threshold must be positive");
+            }
+            this.escalationThreshold = escalationThreshold;
+            return this;
+        }
+
+        /**
+         * Enables {@link EntityLocker#tryOptimisticRead} and {@link EntityLocker#validate}. Exclusive locking and unlocking then also advance
+         * the version of the entity's stripe, which costs two uncontended atomic operations per call.
+         */
+        public Builder<T> optimisticReads() {
+            this.isOptimisticReadEnabled = true;
+            return this;
+        }
+
+        /**
+         * Sets the executor completing {@link EntityLocker#lockAsync} requests that had to wait, the common fork-join pool by default.
+         * Completing them in the releasing thread would run the caller's continuations while that thread is still inside unlock.
+         */
+        public Builder<T> asyncExecutor(Executor asyncExecutor) {
+            this.asyncExecutor = Objects.requireNonNull(asyncExecutor);
+            return this;
+        }
+
+        /**
+         * Makes the locker suitable for a very large number of short-lived threads, like virtual threads: per-thread bookkeeping is dropped
+         * when a thread leaves protected code instead of living as long as the thread. This costs a small allocation whenever a thread
+         * enters protected code. Waiting never pins a carrier thread in either mode since the locker doesn't use monitors.
+         */
+        public Builder<T> virtualThreadFriendly() {
+            this.isThreadStateTransient = true;
+            return this;
+        }
+
+        /**
+         * Enables {@link EntityLocker#getMetrics} and {@link EntityLocker#registerMXBean}, reporting the ten most contended entities.
+         */
+        public Builder<T> metrics() {
+            return metrics(10);
+        }
+
+        /**
+         * Enables {@link EntityLocker#getMetrics} and {@link EntityLocker#registerMXBean}. Without metrics the locker only checks a null
+         * field on its paths; with metrics uncontended locking additionally increments a striped counter and reads the clock twice for
+         * one in 16 exclusive holds of a thread. This is not free: single-threaded lock/unlock of Zipfian keys in {@code MetricsBenchmark}
+         * runs about 5-10% slower with metrics (5.16 vs 5.74 ops/us and 5.86 vs 6.19 ops/us on a single-core host).
+         * @param hotKeyCount number of the most contended entities reported
+         * @throws IllegalArgumentException if hotKeyCount is not positive
+         */
+        public Builder<T> metrics(int hotKeyCount) {
+            if (hotKeyCount <= 0) {
+                throw new IllegalArgumentException("Hot key count must be positive");
+            }
+            this.hotKeyCount = hotKeyCount;
+            return this;
+        }
+
+        /**
+         * Moves deadlock detection off the locking path: a thread about to wait only publishes what it waits for, and a background thread
+         * looks for wait-for cycles with the given period. The thread of a cycle that started waiting last is interrupted out of its wait and
+         * throws {@link DeadlockThreatException}, so a deadlock lasts up to one period before it's broken. Asynchronous lock requests and
+         * the global lock are still checked when they wait.
+         * @throws IllegalArgumentException if period is not positive
+         */
+        public Builder<T> backgroundDeadlockDetection(long period, TimeUnit unit) {
+            if (period <= 0) {
+                throw new IllegalArgumentException("Deadlock detection period must be positive");
+            }
+            this.deadlockDetectionPeriodNanos = unit.toNanos(period);
+            return this;
+        }
+
+        /**
+         * Sets the order in which contending threads get entity locks, {@link AcquisitionPolicy#barging} by default.
+         */
+        public Builder<T> acquisitionPolicy(AcquisitionPolicy acquisitionPolicy) {
+            this.acquisitionPolicy = Objects.requireNonNull(acquisitionPolicy);
+            return this;
+        }
+
+        /**
+         * Enables combining for {@link EntityLocker#execute(Object, Runnable)} and {@link EntityLocker#compute(Object, Supplier)}: a thread
+         * finding the entity locked submits its protected code to the holder instead of queueing for the lock, and the holder runs up to the
+         * given number of submitted codes before releasing the lock. A hot entity then changes hands once per batch rather than once per
+         * call. Submitted code runs in the holder's thread, so it must not depend on the identity or thread locals of the calling thread,
+         * and its exceptions are rethrown to the caller with the holder's stack trace. Threads that hold locks already and other
+         * ways of locking are not affected; a submission costs a small allocation.
+         * @param maxBatchSize maximum number of submitted codes a holder runs before releasing the entity lock
+         * @throws IllegalArgumentException if maxBatchSize is not positive
+         */
+        public Builder<T> combining(int maxBatchSize) {
+            if (maxBatchSize <= 0) {
+                throw new IllegalArgumentException("Combining batch size must be positive");
+            }
+            this.maxCombinedBatchSize = maxBatchSize;
+            return this;
+        }
+
+        public EntityLocker<T> build() {
+            return new EntityLocker<>(this);
+        }
     }
 }
@@ -0,0 +1,36 @@
+package com.kinkl;
+
+/**
+ * JMX view of the metrics of an {@link EntityLocker}, registered with {@link EntityLocker#registerMXBean}. Durations are in nanoseconds.
+ */
+public interface EntityLockerMXBean {
+
+    long getAcquisitionCount();
+
+    long getContendedAcquisitionCount();
+
+    long getTimeoutCount();
+
+    long getDeadlockCount();
+
+    int getEntityLockCount();
+
+    long getWaitTimeCount();
+
+    double getWaitTimeMean();
+
+    long getWaitTime99thPercentile();
+
+    long getWaitTimeMax();
+
+    double getHoldTimeMean();
+
+    long getHoldTime99thPercentile();
+
+    long getHoldTimeMax();
+
+    /**
+     * Returns the most contended entities as "id=count" strings, most contended first.
+     */
+    String[] getHotKeys();
+}
@@ -0,0 +1,48 @@
+package com.kinkl;
+
+import java.util.function.Function;
+
+/**
+ * Factory methods for the {@link IEntityLocker} implementations.
+ */
+public final class EntityLockers {
+
+    private EntityLockers() {
+    }
+
+    /**
+     * Returns a locker with a lock per locked entity. Memory grows with the number of concurrently locked entities and locks of different
+     * entities never interfere.
+     */
+    public static <T> IGlobalEntityLocker<T> newEntityLocker() {
+        return new EntityLocker<>();
+    }
+
+    /**
+     * Returns a locker keeping the state of each lock in one word of a compact entry, so it takes less memory and fewer atomic operations
+     * per locked entity than {@link #newEntityLocker()}, but doesn't support the builder options of {@link EntityLocker}.
+     * @see CompactEntityLocker
+     */
+    public static <T> IGlobalEntityLocker<T> newCompactEntityLocker() {
+        return new CompactEntityLocker<>();
+    }
+
+    /**
+     * Returns a locker with a fixed table of lock stripes. Memory is bounded by the stripe count regardless of the number of entities, but
+     * entities mapped to the same stripe exclude each other.
+     * @param stripeCount number of lock stripes, rounded up to a power of two
+     * @see StripedEntityLocker
+     */
+    public static <T> IGlobalEntityLocker<T> newStripedEntityLocker(int stripeCount) {
+        return new StripedEntityLocker<>(stripeCount);
+    }
+
+    /**
+     * Returns a locker for entities forming a hierarchy, where locking an entity also locks all its descendants.
+     * @param parentResolver function returning the parent id of an entity, or null if the entity is a root
+     * @see HierarchicalEntityLocker
+     */
+    public static <T> IGlobalEntityLocker<T> newHierarchicalEntityLocker(Function<? super T, ? extends T> parentResolver) {
+        return new HierarchicalEntityLocker<>(parentResolver);
+    }
+}
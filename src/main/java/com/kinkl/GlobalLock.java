@@ -0,0 +1,306 @@
+package com.kinkl;
+
+import com.kinkl.exception.DeadlockThreatException;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>Global lock that excludes all protected code of a locker. Threads executing protected code are counted by a striped reader indicator:
+ * a thread increments the counter of its own stripe when it starts holding entity locks and decrements it when it releases the last one.
+ * Stripes are padded to separate cache lines, so entering and leaving protected code on different cores doesn't contend when no global lock
+ * is requested.</p>
+ * <p>The global lock owner first blocks new entries and then waits until the indicator drains. Threads that already execute protected code
+ * (hold entity locks) are not blocked and may lock further entities until they leave protected code.</p>
+ * <p>Asynchronous lock owners are counted the same way but never wait: while the global lock is held their entry is deferred and performed by
+ * the thread releasing it.</p>
+ */
+final class GlobalLock {
+
+    /**
+     * Number of longs per stripe, so that each counter occupies its own 128-byte block (two cache lines on adjacent line prefetching CPUs)
+     */
+    private static final int STRIPE_WIDTH = 16;
+
+    /**
+     * Maximum time the owner parks between deadlock checks while it waits for protected code to finish
+     */
+    private static final long DRAIN_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final AtomicLongArray indicator;
+
+    private final int stripeMask;
+
+    private final ReentrantLock ownerLock = new ReentrantLock();
+
+    private final DeadlockDetector<?> deadlockDetector;
+
+    private volatile Thread owner;
+
+    /**
+     * Deferred entries of asynchronous lock owners
+     */
+    private final Queue<Runnable> asyncEntrants = new ConcurrentLinkedQueue<>();
+
+    GlobalLock(DeadlockDetector<?> deadlockDetector) {
+        this.deadlockDetector = deadlockDetector;
+        int stripeCount = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() * 2 - 1) << 1);
+        this.indicator = new AtomicLongArray(stripeCount * STRIPE_WIDTH);
+        this.stripeMask = stripeCount - 1;
+    }
+
+    /**
+     * Registers the current thread as executing protected code, waiting while the global lock is held by another thread.
+     */
+    void enter() {
+        int index = indicatorIndex();
+        while (!tryEnter(index)) {
+            this.ownerLock.lock();
+            this.ownerLock.unlock();
+        }
+    }
+
+    /**
+     * Registers the current thread as executing protected code, waiting while the global lock is held by another thread but no longer than
+     * the given timeout.
+     */
+    boolean tryEnter(long timeout, TimeUnit unit) throws InterruptedException {
+        int index = indicatorIndex();
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!tryEnter(index)) {
+            if (!this.ownerLock.tryLock(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                return false;
+            }
+            this.ownerLock.unlock();
+        }
+        return true;
+    }
+
+    /**
+     * Registers the current thread as executing protected code unless the global lock is held by another thread.
+     */
+    boolean tryEnter() {
+        return tryEnter(indicatorIndex());
+    }
+
+    private boolean tryEnter(int index) {
+        this.indicator.getAndIncrement(index);
+        Thread globalOwner = this.owner;
+        if (globalOwner == null || globalOwner == Thread.currentThread()) {
+            return true;
+        }
+        exit(index);
+        return false;
+    }
+
+    /**
+     * Registers the asynchronous lock owner as executing protected code and runs the action. If the global lock is held by a thread, the
+     * action is run by the thread releasing it.
+     */
+    void enterAsync(Object asyncOwner, Runnable action) {
+        int index = indicatorIndex(asyncOwner);
+        this.indicator.getAndIncrement(index);
+        if (this.owner == null) {
+            action.run();
+            return;
+        }
+        exit(index);
+        this.asyncEntrants.offer(() -> enterAsync(asyncOwner, action));
+        // The global lock may have been released before the entry was queued
+        runAsyncEntrantsIfFree();
+    }
+
+    /**
+     * Registers the asynchronous lock owner as executing protected code on behalf of the current thread, which is registered itself. The
+     * indicator doesn't drain in between, so the owner enters even if another thread waits to acquire the global lock.
+     */
+    void enterAsyncFromCurrentThread(Object asyncOwner) {
+        this.indicator.getAndIncrement(indicatorIndex(asyncOwner));
+    }
+
+    private void runAsyncEntrantsIfFree() {
+        Runnable entrant;
+        while (this.owner == null && (entrant = this.asyncEntrants.poll()) != null) {
+            entrant.run();
+        }
+    }
+
+    /**
+     * Unregisters the asynchronous lock owner when it leaves protected code.
+     */
+    void exitAsync(Object asyncOwner) {
+        exit(indicatorIndex(asyncOwner));
+    }
+
+    /**
+     * Unregisters the current thread when it leaves protected code.
+     */
+    void exit() {
+        exit(indicatorIndex());
+    }
+
+    private void exit(int index) {
+        this.indicator.getAndDecrement(index);
+        Thread globalOwner = this.owner;
+        if (globalOwner != null) {
+            LockSupport.unpark(globalOwner);
+        }
+    }
+
+    /**
+     * Acquires the global lock and waits until other threads leave protected code.
+     * @param isInProtectedCode whether the current thread itself is registered as executing protected code
+     */
+    void lock(boolean isInProtectedCode) {
+        if (isInProtectedCode) {
+            boolean isInterrupted = false;
+            while (true) {
+                try {
+                    if (this.ownerLock.tryLock(DRAIN_PARK_NANOS, TimeUnit.NANOSECONDS)) {
+                        break;
+                    }
+                } catch (InterruptedException e) {
+                    isInterrupted = true;
+                }
+                checkOwnerDoesNotWaitForCurrentThread();
+            }
+            if (isInterrupted) {
+                Thread.currentThread().interrupt();
+            }
+        } else {
+            this.ownerLock.lock();
+        }
+        if (this.ownerLock.getHoldCount() > 1) {
+            return;
+        }
+        this.owner = Thread.currentThread();
+        boolean isDrained = false;
+        boolean isInterrupted = false;
+        try {
+            long ownCount = isInProtectedCode ? 1 : 0;
+            while (indicatorSum() != ownCount) {
+                if (isInProtectedCode) {
+                    this.deadlockDetector.checkGlobalLockDoesNotCauseDeadlock();
+                }
+                LockSupport.parkNanos(this, DRAIN_PARK_NANOS);
+                isInterrupted |= Thread.interrupted();
+            }
+            isDrained = true;
+        } finally {
+            if (!isDrained) {
+                release();
+            }
+            if (isInterrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Acquires the global lock if it's possible within the given timeout.
+     * @param isInProtectedCode whether the current thread itself is registered as executing protected code
+     */
+    boolean tryLock(boolean isInProtectedCode, long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        if (isInProtectedCode) {
+            while (!this.ownerLock.tryLock(Math.min(deadline - System.nanoTime(), DRAIN_PARK_NANOS), TimeUnit.NANOSECONDS)) {
+                checkOwnerDoesNotWaitForCurrentThread();
+                if (deadline - System.nanoTime() <= 0) {
+                    return false;
+                }
+            }
+        } else if (!this.ownerLock.tryLock(timeout, unit)) {
+            return false;
+        }
+        if (this.ownerLock.getHoldCount() > 1) {
+            return true;
+        }
+        this.owner = Thread.currentThread();
+        boolean isDrained = false;
+        try {
+            long ownCount = isInProtectedCode ? 1 : 0;
+            while (indicatorSum() != ownCount) {
+                if (isInProtectedCode) {
+                    this.deadlockDetector.checkGlobalLockDoesNotCauseDeadlock();
+                }
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                LockSupport.parkNanos(this, Math.min(remaining, DRAIN_PARK_NANOS));
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+            }
+            isDrained = true;
+        } finally {
+            if (!isDrained) {
+                release();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * A thread executing protected code can't wait for another thread to acquire the global lock because the other thread waits for it to
+     * leave protected code.
+     */
+    private void checkOwnerDoesNotWaitForCurrentThread() {
+        Thread globalOwner = this.owner;
+        if (globalOwner != null) {
+            String msg = String.format("Thread [%s] cannot acquire the global lock because this will cause a deadlock. The global lock is being acquired by thread [%s]",
+                    Thread.currentThread().getName(),
+                    globalOwner.getName());
+            throw new DeadlockThreatException(msg);
+        }
+    }
+
+    void unlock() {
+        if (this.ownerLock.getHoldCount() == 1) {
+            release();
+        } else {
+            this.ownerLock.unlock();
+        }
+    }
+
+    private void release() {
+        this.owner = null;
+        this.ownerLock.unlock();
+        runAsyncEntrantsIfFree();
+    }
+
+    boolean isHeldByCurrentThread() {
+        return this.ownerLock.isHeldByCurrentThread();
+    }
+
+    boolean isHeldByAnotherThread() {
+        Thread globalOwner = this.owner;
+        return globalOwner != null && globalOwner != Thread.currentThread();
+    }
+
+    private long indicatorSum() {
+        long sum = 0;
+        for (int i = 0; i < this.indicator.length(); i += STRIPE_WIDTH) {
+            sum += this.indicator.get(i);
+        }
+        return sum;
+    }
+
+    private int indicatorIndex() {
+        long id = Thread.currentThread().getId();
+        return indicatorIndex((int) (id ^ (id >>> 32)));
+    }
+
+    private int indicatorIndex(Object asyncOwner) {
+        return indicatorIndex(System.identityHashCode(asyncOwner));
+    }
+
+    private int indicatorIndex(int seed) {
+        int hash = seed * 0x9E3779B9;
+        return ((hash ^ (hash >>> 16)) & this.stripeMask) * STRIPE_WIDTH;
+    }
+}
@@ -0,0 +1,200 @@
+package com.kinkl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>Entity locks of type L held by a thread together with its exclusive and shared hold counts. Only the first hold of each mode acquires
+ * the entity lock; reentrant holds and releases just update the counts here, so they don't touch the lock map or the lock state. Accessed
+ * only by its own thread.</p>
+ * <p>The table uses open addressing with linear probing over parallel arrays, so lookups, insertions and removals don't allocate. It's
+ * created with the first held lock and dropped when a large table becomes empty.</p>
+ */
+final class HeldLocks<T, L> {
+
+    private static final int INITIAL_CAPACITY = 8;
+
+    /**
+     * Capacity above which an empty table is dropped rather than kept for reuse
+     */
+    private static final int RETAINED_CAPACITY = 64;
+
+    private Object[] entityIds;
+
+    private Object[] locks;
+
+    private int[] holdCounts;
+
+    private int[] sharedHoldCounts;
+
+    private int size;
+
+    /**
+     * Returns the number of entities held in any mode.
+     */
+    int size() {
+        return this.size;
+    }
+
+    /**
+     * Returns the slot of the entity, or -1 if the thread doesn't hold it.
+     */
+    int indexOf(Object entityId) {
+        if (this.size == 0) {
+            return -1;
+        }
+        int mask = this.entityIds.length - 1;
+        for (int i = slot(entityId, mask); ; i = (i + 1) & mask) {
+            Object id = this.entityIds[i];
+            if (id == null) {
+                return -1;
+            }
+            if (id == entityId || id.equals(entityId)) {
+                return i;
+            }
+        }
+    }
+
+    boolean contains(Object entityId) {
+        return indexOf(entityId) >= 0;
+    }
+
+    /**
+     * Adds a hold of the entity if the thread already holds it in the given mode. Returns false if it doesn't.
+     */
+    boolean reenter(Object entityId, boolean isShared) {
+        int index = indexOf(entityId);
+        if (index < 0) {
+            return false;
+        }
+        int[] counts = isShared ? this.sharedHoldCounts : this.holdCounts;
+        if (counts[index] == 0) {
+            return false;
+        }
+        if (counts[index] == Integer.MAX_VALUE) {
+            throw new Error("Maximum lock count exceeded");
+        }
+        counts[index]++;
+        return true;
+    }
+
+    /**
+     * Records the first hold of the entity in the given mode, after its entity lock has been acquired.
+     */
+    void addFirstHold(T entityId, L lock, boolean isShared) {
+        int index = indexOf(entityId);
+        if (index < 0) {
+            if (this.entityIds == null) {
+                allocate(INITIAL_CAPACITY);
+            } else if ((this.size + 1) * 2 > this.entityIds.length) {
+                resize(this.entityIds.length * 2);
+            }
+            int mask = this.entityIds.length - 1;
+            index = slot(entityId, mask);
+            while (this.entityIds[index] != null) {
+                index = (index + 1) & mask;
+            }
+            this.entityIds[index] = entityId;
+            this.locks[index] = lock;
+            this.size++;
+        }
+        (isShared ? this.sharedHoldCounts : this.holdCounts)[index] = 1;
+    }
+
+    int getHoldCount(int index, boolean isShared) {
+        return (isShared ? this.sharedHoldCounts : this.holdCounts)[index];
+    }
+
+    @SuppressWarnings("unchecked")
+    L getLock(int index) {
+        return (L) this.locks[index];
+    }
+
+    /**
+     * Removes a hold of the entity in the given mode and forgets the entity once it's not held in any mode. Invalidates slot indexes.
+     */
+    void release(int index, boolean isShared) {
+        (isShared ? this.sharedHoldCounts : this.holdCounts)[index]--;
+        if (this.holdCounts[index] == 0 && this.sharedHoldCounts[index] == 0) {
+            removeAt(index);
+        }
+    }
+
+    /**
+     * Returns the ids of the held entities in no particular order.
+     */
+    @SuppressWarnings("unchecked")
+    List<T> getEntityIds() {
+        List<T> ids = new ArrayList<>(this.size);
+        if (this.size > 0) {
+            for (Object id : this.entityIds) {
+                if (id != null) {
+                    ids.add((T) id);
+                }
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Empties the slot and shifts the following entries of the probe sequence back, so that lookups never stop at the hole.
+     */
+    private void removeAt(int index) {
+        int mask = this.entityIds.length - 1;
+        int hole = index;
+        for (int i = (index + 1) & mask; this.entityIds[i] != null; i = (i + 1) & mask) {
+            int home = slot(this.entityIds[i], mask);
+            // The entry may move to the hole only if the hole lies between its home slot and its current slot
+            if (((i - home) & mask) >= ((i - hole) & mask)) {
+                this.entityIds[hole] = this.entityIds[i];
+                this.locks[hole] = this.locks[i];
+                this.holdCounts[hole] = this.holdCounts[i];
+                this.sharedHoldCounts[hole] = this.sharedHoldCounts[i];
+                hole = i;
+            }
+        }
+        this.entityIds[hole] = null;
+        this.locks[hole] = null;
+        this.holdCounts[hole] = 0;
+        this.sharedHoldCounts[hole] = 0;
+        if (--this.size == 0 && this.entityIds.length > RETAINED_CAPACITY) {
+            this.entityIds = null;
+            this.locks = null;
+            this.holdCounts = null;
+            this.sharedHoldCounts = null;
+        }
+    }
+
+    private void resize(int capacity) {
+        Object[] oldEntityIds = this.entityIds;
+        Object[] oldLocks = this.locks;
+        int[] oldHoldCounts = this.holdCounts;
+        int[] oldSharedHoldCounts = this.sharedHoldCounts;
+        allocate(capacity);
+        int mask = capacity - 1;
+        for (int j = 0; j < oldEntityIds.length; j++) {
+            if (oldEntityIds[j] != null) {
+                int i = slot(oldEntityIds[j], mask);
+                while (this.entityIds[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                this.entityIds[i] = oldEntityIds[j];
+                this.locks[i] = oldLocks[j];
+                this.holdCounts[i] = oldHoldCounts[j];
+                this.sharedHoldCounts[i] = oldSharedHoldCounts[j];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        this.entityIds = new Object[capacity];
+        this.locks = new Object[capacity];
+        this.holdCounts = new int[capacity];
+        this.sharedHoldCounts = new int[capacity];
+    }
+
+    private static int slot(Object entityId, int mask) {
+        int hash = entityId.hashCode() * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+}
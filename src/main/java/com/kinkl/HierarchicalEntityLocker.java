@@ -0,0 +1,420 @@
+package com.kinkl;
+
+import com.kinkl.exception.MissingEntityLockException;
+import com.kinkl.exception.OtherThreadEntityUnlockAttemptException;
+import com.kinkl.exception.OtherThreadGlobalUnlockAttemptException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * <p>Entity locker for entities forming a hierarchy, like tenant, account and order. Locking an entity locks its whole subtree: a single
+ * tenant lock excludes locks of all its accounts and orders, however many there are. To make this cheap, locking an entity first takes an
+ * intention lock (see {@link IntentionLock}) on each of its ancestors, from the root down: {@link #lock} takes X on the entity and IX on the
+ * ancestors, {@link #lockShared} takes S on the entity and IS on the ancestors. Intention locks are compatible with each other, so entities
+ * of the same parent are locked concurrently, while a lock of the parent itself waits for them to be released.</p>
+ * <p>The hierarchy is defined by a function returning the parent id of an entity, or null for a root. It must not change while entities
+ * are locked, and locking an entity also allocates its path to the root. Reentrancy, deadlock detection, timeouts, batches and the global
+ * lock work as in {@link EntityLocker}. A thread holding an entity lock may lock the entity's ancestors, converting their intention locks;
+ * if another thread holds a conflicting lock, the conversion waits, and two threads converting locks of the same entity get
+ * {@link com.kinkl.exception.DeadlockThreatException}.</p>
+ * @param <T> the type of element id
+ */
+public class HierarchicalEntityLocker<T> implements IGlobalEntityLocker<T> {
+
+    private final Function<? super T, ? extends T> parentResolver;
+
+    private final ConcurrentMap<T, IntentionLock> nodeLocks = new ConcurrentHashMap<>();
+
+    private final DeadlockDetector<T> deadlockDetector = new DeadlockDetector<>();
+
+    private final GlobalLock globalLock = new GlobalLock(this.deadlockDetector);
+
+    private final ThreadLocal<NodeHolder<T>> nodeHolders = ThreadLocal.withInitial(NodeHolder::new);
+
+    /**
+     * Threads holding node locks. Node locks only count their holders, so the deadlock detector finds the holders here.
+     */
+    private final ConcurrentMap<Thread, NodeHolder<T>> lockingThreads = new ConcurrentHashMap<>();
+
+    /**
+     * @param parentResolver function returning the parent id of an entity, or null if the entity is a root
+     */
+    public HierarchicalEntityLocker(Function<? super T, ? extends T> parentResolver) {
+        this.parentResolver = Objects.requireNonNull(parentResolver);
+    }
+
+    @Override
+    public void lock(T entityId) {
+        lockPath(this.nodeHolders.get(), entityId, false);
+    }
+
+    @Override
+    public boolean tryLock(T entityId, long timeout, TimeUnit unit) throws InterruptedException {
+        Objects.requireNonNull(unit);
+        return tryLockPath(this.nodeHolders.get(), entityId, false, System.nanoTime() + unit.toNanos(timeout));
+    }
+
+    @Override
+    public void lockShared(T entityId) {
+        lockPath(this.nodeHolders.get(), entityId, true);
+    }
+
+    @Override
+    public boolean tryLockShared(T entityId, long timeout, TimeUnit unit) throws InterruptedException {
+        Objects.requireNonNull(unit);
+        return tryLockPath(this.nodeHolders.get(), entityId, true, System.nanoTime() + unit.toNanos(timeout));
+    }
+
+    private void lockPath(NodeHolder<T> nodeHolder, T entityId, boolean isShared) {
+        List<T> path = pathFromRoot(entityId);
+        if (nodeHolder.holds.isEmpty()) {
+            this.globalLock.enter();
+            this.lockingThreads.put(Thread.currentThread(), nodeHolder);
+        }
+        int lockedCount = 0;
+        try {
+            for (T nodeId : path) {
+                IntentionLock.Mode mode = modeOnPath(path, lockedCount, isShared);
+                if (!holdAgain(nodeHolder, nodeId, mode)) {
+                    lockNode(nodeHolder, nodeId, mode);
+                }
+                lockedCount++;
+            }
+        } finally {
+            if (lockedCount < path.size()) {
+                unlockPath(nodeHolder, path, lockedCount, isShared);
+            }
+        }
+    }
+
+    private boolean tryLockPath(NodeHolder<T> nodeHolder, T entityId, boolean isShared, long deadline) throws InterruptedException {
+        List<T> path = pathFromRoot(entityId);
+        if (nodeHolder.holds.isEmpty()) {
+            if (!this.globalLock.tryEnter(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                return false;
+            }
+            this.lockingThreads.put(Thread.currentThread(), nodeHolder);
+        }
+        int lockedCount = 0;
+        try {
+            for (T nodeId : path) {
+                IntentionLock.Mode mode = modeOnPath(path, lockedCount, isShared);
+                if (!holdAgain(nodeHolder, nodeId, mode) && !tryLockNode(nodeHolder, nodeId, mode, deadline)) {
+                    return false;
+                }
+                lockedCount++;
+            }
+        } finally {
+            if (lockedCount < path.size()) {
+                unlockPath(nodeHolder, path, lockedCount, isShared);
+            }
+        }
+        return true;
+    }
+
+    private static IntentionLock.Mode modeOnPath(List<?> path, int index, boolean isShared) {
+        if (index == path.size() - 1) {
+            return isShared ? IntentionLock.Mode.SHARED : IntentionLock.Mode.EXCLUSIVE;
+        }
+        return isShared ? IntentionLock.Mode.INTENTION_SHARED : IntentionLock.Mode.INTENTION_EXCLUSIVE;
+    }
+
+    /**
+     * Returns the ids from the root down to the entity itself. A cycle of ancestors is found the way Brent's algorithm finds it: each
+     * ancestor is compared with the one at the last power-of-two depth only, so a cycle costs at most a few rounds around it.
+     */
+    @SuppressWarnings("unchecked")
+    private List<T> pathFromRoot(T entityId) {
+        Objects.requireNonNull(entityId);
+        Object[] path = new Object[8];
+        int depth = 0;
+        T checkpoint = null;
+        for (T nodeId = entityId; nodeId != null; nodeId = this.parentResolver.apply(nodeId)) {
+            if (nodeId.equals(checkpoint)) {
+                throw new IllegalArgumentException(String.format("The ancestors of entity with id %s form a cycle", entityId.toString()));
+            }
+            if (depth == path.length) {
+                path = Arrays.copyOf(path, depth * 2);
+            }
+            path[depth++] = nodeId;
+            if ((depth & (depth - 1)) == 0) {
+                checkpoint = nodeId;
+            }
+        }
+        for (int i = 0, j = depth - 1; i < j; i++, j--) {
+            Object nodeId = path[i];
+            path[i] = path[j];
+            path[j] = nodeId;
+        }
+        return (List<T>) Arrays.asList(path).subList(0, depth);
+    }
+
+    /**
+     * Counts a reentrant hold if the thread already holds the mode. Returns false if it doesn't.
+     */
+    private static <T> boolean holdAgain(NodeHolder<T> nodeHolder, T nodeId, IntentionLock.Mode mode) {
+        int[] holdCounts = nodeHolder.holds.get(nodeId);
+        if (holdCounts == null || holdCounts[mode.ordinal()] == 0) {
+            return false;
+        }
+        holdCounts[mode.ordinal()]++;
+        return true;
+    }
+
+    private void lockNode(NodeHolder<T> nodeHolder, T nodeId, IntentionLock.Mode mode) {
+        int ownModes = nodeHolder.getModes(nodeId);
+        while (true) {
+            IntentionLock lock = getNodeLock(nodeId);
+            if (lock.tryLock(mode, ownModes)) {
+                break;
+            }
+            if (!lock.isRemoved()) {
+                this.deadlockDetector.beforeWait(nodeId, blockingHolders(nodeId, mode));
+                boolean isAcquired;
+                try {
+                    isAcquired = lock.lock(mode, ownModes);
+                } finally {
+                    this.deadlockDetector.afterWait();
+                }
+                if (isAcquired) {
+                    break;
+                }
+            }
+            this.nodeLocks.remove(nodeId, lock);
+        }
+        nodeHolder.addHold(nodeId, mode);
+    }
+
+    private boolean tryLockNode(NodeHolder<T> nodeHolder, T nodeId, IntentionLock.Mode mode, long deadline) throws InterruptedException {
+        int ownModes = nodeHolder.getModes(nodeId);
+        while (true) {
+            IntentionLock lock = getNodeLock(nodeId);
+            if (lock.tryLock(mode, ownModes)) {
+                break;
+            }
+            if (!lock.isRemoved()) {
+                if (deadline - System.nanoTime() <= 0) {
+                    return false;
+                }
+                this.deadlockDetector.beforeWait(nodeId, blockingHolders(nodeId, mode));
+                boolean isAcquired = false;
+                try {
+                    isAcquired = lock.tryLock(mode, ownModes, deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                } finally {
+                    this.deadlockDetector.afterWait();
+                    if (lock.isRemoved()) {
+                        this.nodeLocks.remove(nodeId, lock);
+                    }
+                }
+                if (isAcquired) {
+                    break;
+                }
+                if (!lock.isRemoved()) {
+                    return false;
+                }
+            }
+            this.nodeLocks.remove(nodeId, lock);
+        }
+        nodeHolder.addHold(nodeId, mode);
+        return true;
+    }
+
+    /**
+     * Returns the lock of the node, creating it if there is none. The lock may turn out to be removed already, and then the node is looked
+     * up again.
+     */
+    private IntentionLock getNodeLock(T nodeId) {
+        IntentionLock lock = this.nodeLocks.get(nodeId);
+        if (lock == null) {
+            lock = this.nodeLocks.computeIfAbsent(nodeId, id -> new IntentionLock());
+        }
+        return lock;
+    }
+
+    /**
+     * Returns the supplier of the threads other than the current one holding modes of the node that conflict with the requested one.
+     */
+    private Supplier<Iterable<?>> blockingHolders(T nodeId, IntentionLock.Mode mode) {
+        Thread waiter = Thread.currentThread();
+        return () -> {
+            List<Thread> blockingHolders = new ArrayList<>();
+            for (Map.Entry<Thread, NodeHolder<T>> entry : this.lockingThreads.entrySet()) {
+                Integer modes = entry.getValue().modes.get(nodeId);
+                if (entry.getKey() != waiter && modes != null && !IntentionLock.isCompatible(mode, modes)) {
+                    blockingHolders.add(entry.getKey());
+                }
+            }
+            return blockingHolders;
+        };
+    }
+
+    @Override
+    public void unlock(T entityId) {
+        unlock(entityId, false);
+    }
+
+    @Override
+    public void unlockShared(T entityId) {
+        unlock(entityId, true);
+    }
+
+    private void unlock(T entityId, boolean isShared) {
+        NodeHolder<T> nodeHolder = this.nodeHolders.get();
+        List<T> path = pathFromRoot(entityId);
+        IntentionLock.Mode mode = isShared ? IntentionLock.Mode.SHARED : IntentionLock.Mode.EXCLUSIVE;
+        int[] holdCounts = nodeHolder.holds.get(entityId);
+        if (holdCounts == null || holdCounts[mode.ordinal()] == 0) {
+            IntentionLock lock = this.nodeLocks.get(entityId);
+            if (lock == null) {
+                throw new MissingEntityLockException(String.format("There is no associated locks for entity with id %s", entityId.toString()));
+            }
+            String msg = isShared
+                    ? String.format("The shared lock of entity with id %s is not held by current thread", entityId.toString())
+                    : String.format("The lock of entity with id %s is held by another thread", entityId.toString());
+            throw new OtherThreadEntityUnlockAttemptException(msg);
+        }
+        unlockPath(nodeHolder, path, path.size(), isShared);
+    }
+
+    /**
+     * Releases one hold of the first count nodes of the path, from the deepest one up.
+     */
+    private void unlockPath(NodeHolder<T> nodeHolder, List<T> path, int count, boolean isShared) {
+        for (int i = count - 1; i >= 0; i--) {
+            T nodeId = path.get(i);
+            IntentionLock.Mode mode = modeOnPath(path, i, isShared);
+            if (nodeHolder.removeHold(nodeId, mode)) {
+                IntentionLock lock = this.nodeLocks.get(nodeId);
+                lock.unlock(mode);
+                if (lock.isRemoved()) {
+                    this.nodeLocks.remove(nodeId, lock);
+                }
+            }
+        }
+        if (nodeHolder.holds.isEmpty()) {
+            this.lockingThreads.remove(Thread.currentThread());
+            this.globalLock.exit();
+        }
+    }
+
+    /**
+     * Returns true if the entity or one of its ancestors is locked in S or X mode by another thread, or the global lock is held by another
+     * thread. Intention locks of other threads on the entity don't count: they only mean that some descendants are locked.
+     */
+    @Override
+    public boolean isLockedByAnotherThread(T entityId) {
+        List<T> path = pathFromRoot(entityId);
+        if (this.globalLock.isHeldByAnotherThread()) {
+            return true;
+        }
+        NodeHolder<T> nodeHolder = this.nodeHolders.get();
+        for (T nodeId : path) {
+            IntentionLock lock = this.nodeLocks.get(nodeId);
+            if (lock != null && lock.isHeldByAnotherThread(IntentionLock.Mode.SHARED.bit | IntentionLock.Mode.EXCLUSIVE.bit,
+                    nodeHolder.getModes(nodeId))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void lockGlobal() {
+        NodeHolder<T> nodeHolder = this.nodeHolders.get();
+        this.globalLock.lock(!nodeHolder.holds.isEmpty());
+        nodeHolder.globalHoldCount++;
+    }
+
+    @Override
+    public boolean tryLockGlobal(long timeout, TimeUnit unit) throws InterruptedException {
+        Objects.requireNonNull(unit);
+        NodeHolder<T> nodeHolder = this.nodeHolders.get();
+        boolean isAcquired = this.globalLock.tryLock(!nodeHolder.holds.isEmpty(), timeout, unit);
+        if (isAcquired) {
+            nodeHolder.globalHoldCount++;
+        }
+        return isAcquired;
+    }
+
+    @Override
+    public void unlockGlobal() {
+        NodeHolder<T> nodeHolder = this.nodeHolders.get();
+        if (nodeHolder.globalHoldCount == 0) {
+            throw new OtherThreadGlobalUnlockAttemptException("The global lock is not held by current thread");
+        }
+        nodeHolder.globalHoldCount--;
+        this.globalLock.unlock();
+    }
+
+    int getNodeLockCount() {
+        return this.nodeLocks.size();
+    }
+
+    /**
+     * Node locks held by a thread. The thread is registered in the global lock indicator and among the locking threads while it holds any
+     * node lock.
+     */
+    private static final class NodeHolder<T> {
+
+        /**
+         * Reentrant hold counts of the nodes the thread holds, indexed by mode ordinal
+         */
+        final Map<T, int[]> holds = new HashMap<>();
+
+        /**
+         * Masks of the modes the thread holds, published for the deadlock detector. A mode is added after the node lock is acquired and
+         * removed before it's released.
+         */
+        final ConcurrentMap<T, Integer> modes = new ConcurrentHashMap<>();
+
+        int globalHoldCount;
+
+        int getModes(T nodeId) {
+            int[] holdCounts = this.holds.get(nodeId);
+            if (holdCounts == null) {
+                return 0;
+            }
+            int modes = 0;
+            for (IntentionLock.Mode mode : IntentionLock.Mode.values()) {
+                if (holdCounts[mode.ordinal()] > 0) {
+                    modes |= mode.bit;
+                }
+            }
+            return modes;
+        }
+
+        void addHold(T nodeId, IntentionLock.Mode mode) {
+            this.holds.computeIfAbsent(nodeId, id -> new int[IntentionLock.Mode.values().length])[mode.ordinal()] = 1;
+            this.modes.merge(nodeId, mode.bit, (modes, bit) -> modes | bit);
+        }
+
+        /**
+         * Releases a hold of the mode and returns true if it was the last one, so the node lock must be released in this mode.
+         */
+        boolean removeHold(T nodeId, IntentionLock.Mode mode) {
+            int[] holdCounts = this.holds.get(nodeId);
+            if (--holdCounts[mode.ordinal()] > 0) {
+                return false;
+            }
+            for (int holdCount : holdCounts) {
+                if (holdCount > 0) {
+                    this.modes.computeIfPresent(nodeId, (id, modes) -> modes & ~mode.bit);
+                    return true;
+                }
+            }
+            this.holds.remove(nodeId);
+            this.modes.remove(nodeId);
+            return true;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.kinkl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Space-saving sketch of the most frequent keys. It keeps a fixed number of counters; a key that is not tracked replaces the key with the
+ * smallest count and inherits that count as its maximum overestimation. Any key occurring more often than total / capacity times is
+ * guaranteed to be tracked.
+ * <p>Recording never waits: if another thread is recording at the same moment, the sample is dropped. The sketch is fed from contended paths
+ * only, so dropping samples under heavy contention keeps the ranking while bounding the cost.</p>
+ */
+final class HotKeySketch<T> {
+
+    private final int capacity;
+
+    private final Map<T, long[]> counters = new HashMap<>();
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * @param capacity number of tracked keys
+     */
+    HotKeySketch(int capacity) {
+        this.capacity = capacity;
+    }
+
+    void record(T key) {
+        if (!this.lock.tryLock()) {
+            return;
+        }
+        try {
+            long[] counter = this.counters.get(key);
+            if (counter != null) {
+                counter[0]++;
+                return;
+            }
+            if (this.counters.size() < this.capacity) {
+                this.counters.put(key, new long[]{1, 0});
+                return;
+            }
+            Map.Entry<T, long[]> minEntry = null;
+            for (Map.Entry<T, long[]> entry : this.counters.entrySet()) {
+                if (minEntry == null || entry.getValue()[0] < minEntry.getValue()[0]) {
+                    minEntry = entry;
+                }
+            }
+            long minCount = minEntry.getValue()[0];
+            this.counters.remove(minEntry.getKey());
+            this.counters.put(key, new long[]{minCount + 1, minCount});
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Returns up to the given number of keys with the highest counts, most frequent first.
+     */
+    List<LockMetricsSnapshot.HotKey<T>> top(int count) {
+        List<LockMetricsSnapshot.HotKey<T>> hotKeys = new ArrayList<>();
+        this.lock.lock();
+        try {
+            for (Map.Entry<T, long[]> entry : this.counters.entrySet()) {
+                hotKeys.add(new LockMetricsSnapshot.HotKey<>(entry.getKey(), entry.getValue()[0], entry.getValue()[1]));
+            }
+        } finally {
+            this.lock.unlock();
+        }
+        hotKeys.sort((first, second) -> Long.compare(second.getCount(), first.getCount()));
+        return hotKeys.size() > count ? new ArrayList<>(hotKeys.subList(0, count)) : hotKeys;
+    }
+}
@@ -1,6 +1,11 @@
 package com.kinkl;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
 
 /**
  * <p>Utility class that provides synchronization mechanism similar to row-level DB locking. The class is supposed to be used by the components
@@ -17,7 +22,12 @@ import java.util.concurrent.TimeUnit;
  * <li>Support of reentrant locking</li>
  * <li>Support of timeout for entity locking</li>
  * <li>Protection from deadlocks</li>
+ * <li>Execution of protected code passed as a lambda with automatic unlocking</li>
+ * <li>Locking a batch of entities at once</li>
+ * <li>Shared locks that let several threads execute protected code that only reads the entity</li>
  * </ul>
+ * <p>Implementations that can't do better inherit shared locks that lock the entity exclusively and batch locking that locks the entities one
+ * by one in a common order. Implementations with a global lock implement {@link IGlobalEntityLocker}.</p>
  * @param <T> the type of element id
  */
 public interface IEntityLocker<T> {
@@ -40,7 +50,7 @@ public interface IEntityLocker<T> {
     void unlock(T entityId);
 
     /**
-     * Returns true if entity is locked by another thread. Otherwise false.
+     * Returns true if entity is locked (exclusively or shared) by another thread or the global lock is held by another thread. Otherwise false.
      * @param entityId id of entity to lock
      * @return true if entity is locked by another thread. Otherwise false
      * @throws NullPointerException if entityId is null
@@ -59,4 +69,255 @@ public interface IEntityLocker<T> {
      * @throws NullPointerException if entityId is null
      */
     boolean tryLock(T entityId, long timeout, TimeUnit unit) throws InterruptedException;
+
+    /**
+     * Executes the protected code under the lock of the entity and unlocks the entity afterwards, even if the code throws an exception.
+     * The call allocates nothing besides the lock itself, so with a non-capturing lambda or a reused instance it costs no more than locking
+     * by hand. A locker reclaiming idle entity locks, like {@link EntityLocker}, still creates the lock of an entity nobody uses.
+     * See {@link #lock} for details.
+     * @param entityId id of entity to lock
+     * @param protectedCode code to execute
+     * @throws com.kinkl.exception.DeadlockThreatException if lock causes deadlock
+     * @throws NullPointerException if entityId or protectedCode is null
+     */
+    default void execute(T entityId, Runnable protectedCode) {
+        Objects.requireNonNull(protectedCode);
+        lock(entityId);
+        try {
+            protectedCode.run();
+        } finally {
+            unlock(entityId);
+        }
+    }
+
+    /**
+     * Executes the protected code under the lock of the entity if the lock is acquired within the given waiting time and unlocks the entity
+     * afterwards, even if the code throws an exception. See {@link #tryLock} for details.
+     * @param entityId id of entity to lock
+     * @param timeout the time to wait for the lock
+     * @param unit the time unit of the timeout argument
+     * @param protectedCode code to execute
+     * @return true if the code was executed. Otherwise false
+     * @throws InterruptedException if the current thread is interrupted
+     * @throws com.kinkl.exception.DeadlockThreatException if lock causes deadlock
+     * @throws NullPointerException if entityId, unit or protectedCode is null
+     */
+    default boolean execute(T entityId, long timeout, TimeUnit unit, Runnable protectedCode) throws InterruptedException {
+        Objects.requireNonNull(protectedCode);
+        if (!tryLock(entityId, timeout, unit)) {
+            return false;
+        }
+        try {
+            protectedCode.run();
+        } finally {
+            unlock(entityId);
+        }
+        return true;
+    }
+
+    /**
+     * Computes a result under the lock of the entity and unlocks the entity afterwards, even if the code throws an exception.
+     * See {@link #execute(Object, Runnable)} for details.
+     * @param entityId id of entity to lock
+     * @param protectedCode code computing the result
+     * @param <R> the type of the result
+     * @return the result of the protected code
+     * @throws com.kinkl.exception.DeadlockThreatException if lock causes deadlock
+     * @throws NullPointerException if entityId or protectedCode is null
+     */
+    default <R> R compute(T entityId, Supplier<R> protectedCode) {
+        Objects.requireNonNull(protectedCode);
+        lock(entityId);
+        try {
+            return protectedCode.get();
+        } finally {
+            unlock(entityId);
+        }
+    }
+
+    /**
+     * Computes a result under the lock of the entity if the lock is acquired within the given waiting time and unlocks the entity afterwards,
+     * even if the code throws an exception. See {@link #tryLock} for details.
+     * @param entityId id of entity to lock
+     * @param timeout the time to wait for the lock
+     * @param unit the time unit of the timeout argument
+     * @param protectedCode code computing the result
+     * @param <R> the type of the result
+     * @return the result of the protected code
+     * @throws InterruptedException if the current thread is interrupted
+     * @throws TimeoutException if the lock was not acquired within the given waiting time
+     * @throws com.kinkl.exception.DeadlockThreatException if lock causes deadlock
+     * @throws NullPointerException if entityId, unit or protectedCode is null
+     */
+    default <R> R compute(T entityId, long timeout, TimeUnit unit, Supplier<R> protectedCode) throws InterruptedException, TimeoutException {
+        Objects.requireNonNull(protectedCode);
+        if (!tryLock(entityId, timeout, unit)) {
+            throw new TimeoutException(String.format("The lock of entity with id %s was not acquired within %d %s", entityId, timeout, unit));
+        }
+        try {
+            return protectedCode.get();
+        } finally {
+            unlock(entityId);
+        }
+    }
+
+    /**
+     * Locks all entities with the passed ids or none of them. Entities are locked in an order that is the same for all threads, and a batch
+     * never waits while it holds some of its entities: when an entity is held by another thread, the entities of the batch locked so far
+     * are released, the entity is waited for alone and the others are tried again. So batch locking doesn't deadlock with other batches.
+     * Duplicate ids are locked once. If locking of some entity fails, the entities of the batch that have already been locked are unlocked
+     * before the exception is thrown. The default implementation tries the entities with {@link #tryLock} and waits with {@link #lock}.
+     * @param entityIds ids of entities to lock
+     * @throws com.kinkl.exception.DeadlockThreatException if lock causes deadlock
+     * @throws NullPointerException if entityIds or any of the ids is null
+     */
+    default void lockAll(Collection<T> entityIds) {
+        List<T> orderedIds = EntityLocker.toLockOrder(entityIds);
+        int waitedIndex = -1;
+        boolean isInterrupted = false;
+        try {
+            while (true) {
+                int lockedCount = 0;
+                int contendedIndex = -1;
+                try {
+                    while (lockedCount < orderedIds.size()) {
+                        boolean isLocked = lockedCount == waitedIndex;
+                        if (!isLocked) {
+                            try {
+                                isLocked = tryLock(orderedIds.get(lockedCount), 0, TimeUnit.NANOSECONDS);
+                            } catch (InterruptedException e) {
+                                // The batch isn't interruptible, the entity is waited for instead
+                                isInterrupted = true;
+                            }
+                        }
+                        if (!isLocked) {
+                            contendedIndex = lockedCount;
+                            break;
+                        }
+                        lockedCount++;
+                    }
+                } finally {
+                    if (lockedCount < orderedIds.size()) {
+                        if (waitedIndex >= lockedCount) {
+                            unlock(orderedIds.get(waitedIndex));
+                        }
+                        for (int i = lockedCount - 1; i >= 0; i--) {
+                            unlock(orderedIds.get(i));
+                        }
+                    }
+                }
+                if (contendedIndex < 0) {
+                    return;
+                }
+                waitedIndex = -1;
+                lock(orderedIds.get(contendedIndex));
+                waitedIndex = contendedIndex;
+            }
+        } finally {
+            if (isInterrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Locks all entities with the passed ids within the given waiting time or none of them. See {@link #lockAll} for details.
+     * @param entityIds ids of entities to lock
+     * @param timeout the time to wait for all locks
+     * @param unit the time unit of the timeout argument
+     * @return true if all entities were locked successfully. Otherwise false and none of them is locked by this call
+     * @throws InterruptedException if the current thread is interrupted
+     * @throws com.kinkl.exception.DeadlockThreatException if lock causes deadlock
+     * @throws NullPointerException if entityIds, any of the ids or unit is null
+     */
+    default boolean tryLockAll(Collection<T> entityIds, long timeout, TimeUnit unit) throws InterruptedException {
+        Objects.requireNonNull(unit);
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        List<T> orderedIds = EntityLocker.toLockOrder(entityIds);
+        int waitedIndex = -1;
+        while (true) {
+            int lockedCount = 0;
+            int contendedIndex = -1;
+            try {
+                while (lockedCount < orderedIds.size()) {
+                    if (lockedCount != waitedIndex && !tryLock(orderedIds.get(lockedCount), 0, TimeUnit.NANOSECONDS)) {
+                        contendedIndex = lockedCount;
+                        break;
+                    }
+                    lockedCount++;
+                }
+            } finally {
+                if (lockedCount < orderedIds.size()) {
+                    if (waitedIndex >= lockedCount) {
+                        unlock(orderedIds.get(waitedIndex));
+                    }
+                    for (int i = lockedCount - 1; i >= 0; i--) {
+                        unlock(orderedIds.get(i));
+                    }
+                }
+            }
+            if (contendedIndex < 0) {
+                return true;
+            }
+            waitedIndex = -1;
+            if (!tryLock(orderedIds.get(contendedIndex), deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                return false;
+            }
+            waitedIndex = contendedIndex;
+        }
+    }
+
+    /**
+     * Unlocks all entities with the passed ids, duplicate ids are unlocked once. Counterpart of {@link #lockAll} and {@link #tryLockAll}.
+     * @param entityIds ids of entities to unlock
+     * @throws com.kinkl.exception.MissingEntityLockException if some entity doesn't have associated locks
+     * @throws com.kinkl.exception.OtherThreadEntityUnlockAttemptException if some entity is locked by another thread
+     * @throws NullPointerException if entityIds or any of the ids is null
+     */
+    default void unlockAll(Collection<T> entityIds) {
+        List<T> orderedIds = EntityLocker.toLockOrder(entityIds);
+        for (int i = orderedIds.size() - 1; i >= 0; i--) {
+            unlock(orderedIds.get(i));
+        }
+    }
+
+    /**
+     * Acquires the shared lock of the entity if passed id is not null and this will not cause deadlock. Any number of threads may hold the
+     * shared lock of an entity at the same time, but not while another thread holds its exclusive lock. The shared lock is reentrant.
+     * A thread holding the exclusive lock may acquire the shared lock as well (downgrade), a thread holding only the shared lock can't acquire
+     * the exclusive one (upgrade) and gets {@link com.kinkl.exception.DeadlockThreatException} instead. The default implementation locks
+     * the entity exclusively, so readers exclude each other and upgrades succeed.
+     * @param entityId id of entity to lock
+     * @throws com.kinkl.exception.DeadlockThreatException if lock causes deadlock
+     * @throws NullPointerException if entityId is null
+     */
+    default void lockShared(T entityId) {
+        lock(entityId);
+    }
+
+    /**
+     * Acquires the shared lock of the entity if passed id is not null, this will not cause deadlock, it is not held exclusively by another
+     * thread within the given waiting time and the current thread has not been interrupted. See {@link #lockShared} for details.
+     * @param entityId id of entity to lock
+     * @param timeout the time to wait for the lock
+     * @param unit the time unit of the timeout argument
+     * @return true if entity was locked successfully. Otherwise false
+     * @throws InterruptedException if the current thread is interrupted
+     * @throws com.kinkl.exception.DeadlockThreatException if lock causes deadlock
+     * @throws NullPointerException if entityId is null
+     */
+    default boolean tryLockShared(T entityId, long timeout, TimeUnit unit) throws InterruptedException {
+        return tryLock(entityId, timeout, unit);
+    }
+
+    /**
+     * Releases the shared lock of the entity if passed id is not null and the current thread holds it.
+     * @param entityId id of entity to unlock
+     * @throws com.kinkl.exception.MissingEntityLockException if entity doesn't have associated locks
+     * @throws com.kinkl.exception.OtherThreadEntityUnlockAttemptException if the current thread doesn't hold the shared lock
+     * @throws NullPointerException if entityId is null
+     */
+    default void unlockShared(T entityId) {
+        unlock(entityId);
+    }
 }
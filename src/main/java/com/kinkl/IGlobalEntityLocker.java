@@ -0,0 +1,35 @@
+package com.kinkl;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Entity locker that also has a global lock excluding any other protected code of the locker.
+ * @param <T> the type of element id
+ */
+public interface IGlobalEntityLocker<T> extends IEntityLocker<T> {
+    /**
+     * Acquires the global lock. Protected code executed under the global lock doesn't run concurrently with any other protected code: the
+     * method blocks new protected code of other threads and waits until other threads release all their entity locks. Threads that already hold
+     * entity locks may keep locking entities until they release all of them. The global lock is reentrant.
+     * @throws com.kinkl.exception.DeadlockThreatException if the current thread holds entity locks that other threads wait for
+     */
+    void lockGlobal();
+
+    /**
+     * Acquires the global lock if it's possible within the given waiting time and the current thread has not been interrupted.
+     * See {@link #lockGlobal} for details.
+     * @param timeout the time to wait for the global lock
+     * @param unit the time unit of the timeout argument
+     * @return true if the global lock was acquired. Otherwise false
+     * @throws InterruptedException if the current thread is interrupted
+     * @throws com.kinkl.exception.DeadlockThreatException if the current thread holds entity locks that other threads wait for
+     * @throws NullPointerException if unit is null
+     */
+    boolean tryLockGlobal(long timeout, TimeUnit unit) throws InterruptedException;
+
+    /**
+     * Releases the global lock.
+     * @throws com.kinkl.exception.OtherThreadGlobalUnlockAttemptException if the global lock is not held by the current thread
+     */
+    void unlockGlobal();
+}
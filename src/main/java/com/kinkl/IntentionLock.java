@@ -0,0 +1,243 @@
+package com.kinkl;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <p>Lock of a node of an entity hierarchy with the modes of database lock managers. A thread locking a node in shared (S) or exclusive (X)
+ * mode first locks every ancestor of the node in the matching intention mode (IS or IX), so a lock of a whole subtree conflicts with the
+ * locks inside it without looking at them:</p>
+ * <pre>
+ *        IS   IX   S    X
+ *   IS   +    +    +    -
+ *   IX   +    +    -    -
+ *   S    +    -    +    -
+ *   X    -    -    -    -
+ * </pre>
+ * <p>The lock counts threads, not holds: a thread takes each mode at most once and keeps its reentrant hold counts itself. A thread may hold
+ * several modes of the same node, and its own modes never block it, so a thread alone on a node may convert its lock to a stronger mode.
+ * Two threads converting at once wait for each other, which the deadlock detector reports.</p>
+ * <p>The whole lock state is one word changed by CAS, so an uncontended acquisition of an ancestor is a single CAS. Waiting threads are kept
+ * in a queue allocated on the first contention, and a release wakes every waiter whose mode has become compatible, since several waiters of
+ * compatible modes may enter at once. A free lock with no waiters is marked as removed by the thread that frees it, and a removed lock never
+ * comes back to life, so a thread that finds it removed looks the node up again.</p>
+ */
+final class IntentionLock {
+
+    enum Mode {
+        INTENTION_SHARED, INTENTION_EXCLUSIVE, SHARED, EXCLUSIVE;
+
+        final int bit = 1 << ordinal();
+    }
+
+    /**
+     * Masks of the modes each mode conflicts with, indexed by mode ordinal
+     */
+    private static final int[] CONFLICTS = {
+            Mode.EXCLUSIVE.bit,
+            Mode.SHARED.bit | Mode.EXCLUSIVE.bit,
+            Mode.INTENTION_EXCLUSIVE.bit | Mode.EXCLUSIVE.bit,
+            Mode.INTENTION_SHARED.bit | Mode.INTENTION_EXCLUSIVE.bit | Mode.SHARED.bit | Mode.EXCLUSIVE.bit
+    };
+
+    /**
+     * The word keeps the number of threads holding each mode in 15 bits, the mode with ordinal i at bits 15*i
+     */
+    private static final int COUNT_BITS = 15;
+
+    private static final long COUNT_MASK = (1L << COUNT_BITS) - 1;
+
+    private static final long REMOVED = Long.MIN_VALUE;
+
+    private static final AtomicLongFieldUpdater<IntentionLock> WORD_UPDATER = AtomicLongFieldUpdater.newUpdater(IntentionLock.class, "word");
+
+    // Generic class literals don't exist, so the updater can only be declared with the raw field type
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<IntentionLock, Queue> WAITERS_UPDATER =
+            AtomicReferenceFieldUpdater.newUpdater(IntentionLock.class, Queue.class, "waiters");
+
+    private volatile long word;
+
+    private volatile Queue<Waiter> waiters;
+
+    /**
+     * Returns true if mode doesn't conflict with any mode of the given mask.
+     */
+    static boolean isCompatible(Mode mode, int modes) {
+        return (CONFLICTS[mode.ordinal()] & modes) == 0;
+    }
+
+    private static long count(long word, int modeOrdinal) {
+        return (word >>> modeOrdinal * COUNT_BITS) & COUNT_MASK;
+    }
+
+    /**
+     * Returns true if a thread holding ownModes could acquire mode with the given word: every conflicting mode is held by nobody but the
+     * thread itself.
+     */
+    private static boolean isGrantable(long word, Mode mode, int ownModes) {
+        int conflicts = CONFLICTS[mode.ordinal()];
+        for (int other = 0; other < CONFLICTS.length; other++) {
+            if ((conflicts & 1 << other) != 0 && count(word, other) > (ownModes >>> other & 1)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    boolean isRemoved() {
+        return this.word == REMOVED;
+    }
+
+    /**
+     * Acquires the mode unless another thread holds a conflicting one or the lock is removed.
+     *
+     * @param ownModes mask of the modes the current thread already holds
+     */
+    boolean tryLock(Mode mode, int ownModes) {
+        while (true) {
+            long w = this.word;
+            if (w == REMOVED || !isGrantable(w, mode, ownModes)) {
+                return false;
+            }
+            if (count(w, mode.ordinal()) == COUNT_MASK) {
+                throw new Error("Maximum lock count exceeded");
+            }
+            if (WORD_UPDATER.compareAndSet(this, w, w + (1L << mode.ordinal() * COUNT_BITS))) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Waits until the mode is acquired. Returns false if the lock is removed first. The wait is not interruptible; the interrupt status is
+     * restored on return.
+     */
+    boolean lock(Mode mode, int ownModes) {
+        try {
+            return await(mode, ownModes, false, 0);
+        } catch (InterruptedException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Waits until the mode is acquired or the timeout expires. Returns false if the timeout expires or the lock is removed first.
+     */
+    boolean tryLock(Mode mode, int ownModes, long timeout, TimeUnit unit) throws InterruptedException {
+        return await(mode, ownModes, true, System.nanoTime() + unit.toNanos(timeout));
+    }
+
+    /**
+     * Parks the current thread in the queue until it acquires the mode, the lock is removed or the timed wait is over. The thread joins the
+     * queue before checking the word, so a release that makes the mode compatible after the check sees the thread and wakes it.
+     */
+    private boolean await(Mode mode, int ownModes, boolean isTimed, long deadline) throws InterruptedException {
+        Waiter waiter = new Waiter(Thread.currentThread(), mode, ownModes);
+        Queue<Waiter> queue = waiters();
+        queue.offer(waiter);
+        boolean isInterrupted = false;
+        try {
+            while (!tryLock(mode, ownModes)) {
+                if (isRemoved()) {
+                    return false;
+                }
+                if (isTimed) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    LockSupport.parkNanos(this, remaining);
+                    if (Thread.interrupted()) {
+                        throw new InterruptedException();
+                    }
+                } else {
+                    LockSupport.park(this);
+                    isInterrupted |= Thread.interrupted();
+                }
+            }
+            return true;
+        } finally {
+            queue.remove(waiter);
+            // The last waiter leaving a free lock removes it, since the thread that freed it saw the waiter and left the lock in place
+            if (this.word == 0) {
+                tryRemove();
+            }
+            if (isInterrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Releases the mode and wakes the waiters that may acquire their modes now. A free lock with no waiters is marked as removed at once.
+     */
+    void unlock(Mode mode) {
+        long w = WORD_UPDATER.addAndGet(this, -(1L << mode.ordinal() * COUNT_BITS));
+        if (w == 0 && tryRemove()) {
+            return;
+        }
+        Queue<Waiter> queue = this.waiters;
+        if (queue == null) {
+            return;
+        }
+        for (Waiter waiter : queue) {
+            if (isGrantable(w, waiter.mode, waiter.ownModes)) {
+                LockSupport.unpark(waiter.thread);
+            }
+        }
+    }
+
+    private boolean tryRemove() {
+        Queue<Waiter> queue = this.waiters;
+        return (queue == null || queue.isEmpty()) && WORD_UPDATER.compareAndSet(this, 0, REMOVED);
+    }
+
+    /**
+     * Returns true if a thread holding ownModes sees any of the given modes held by another thread.
+     */
+    boolean isHeldByAnotherThread(int modes, int ownModes) {
+        long w = this.word;
+        if (w == REMOVED) {
+            return false;
+        }
+        for (Mode mode : Mode.values()) {
+            if ((modes & mode.bit) != 0 && count(w, mode.ordinal()) > (ownModes >>> mode.ordinal() & 1)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the queue of parked threads, creating it on the first contention.
+     */
+    @SuppressWarnings("unchecked")
+    private Queue<Waiter> waiters() {
+        Queue<Waiter> queue = this.waiters;
+        if (queue == null) {
+            WAITERS_UPDATER.compareAndSet(this, null, new ConcurrentLinkedQueue<Waiter>());
+            queue = this.waiters;
+        }
+        return queue;
+    }
+
+    private static final class Waiter {
+
+        final Thread thread;
+
+        final Mode mode;
+
+        final int ownModes;
+
+        Waiter(Thread thread, Mode mode, int ownModes) {
+            this.thread = thread;
+            this.mode = mode;
+            this.ownModes = ownModes;
+        }
+    }
+}
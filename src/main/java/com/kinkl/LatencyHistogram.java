@@ -0,0 +1,54 @@
+package com.kinkl;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of durations in nanoseconds with log-linear buckets, like HdrHistogram: every power of two is split into
+ * {@value #SUB_BUCKET_COUNT} linear sub-buckets, so a recorded value is reported with a relative error below 1/{@value #SUB_BUCKET_COUNT}.
+ * Recording is a single atomic increment, plus an update of the maximum when it grows.
+ */
+final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    private final AtomicLongArray counts = new AtomicLongArray((Long.SIZE - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT);
+
+    private final LongAdder total = new LongAdder();
+
+    private final AtomicLong max = new AtomicLong();
+
+    void record(long nanos) {
+        long value = Math.max(0, nanos);
+        this.counts.getAndIncrement(indexOf(value));
+        this.total.add(value);
+        if (value > this.max.get()) {
+            this.max.accumulateAndGet(value, Math::max);
+        }
+    }
+
+    static int indexOf(long value) {
+        int bucket = Math.max(0, Long.SIZE - 1 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS);
+        return (bucket << SUB_BUCKET_BITS) + (int) (value >>> bucket);
+    }
+
+    /**
+     * Returns the largest value recorded into the bucket with the given index.
+     */
+    static long highestValueOf(int index) {
+        int bucket = Math.max(0, (index >> SUB_BUCKET_BITS) - 1);
+        long lowest = (long) (index - (bucket << SUB_BUCKET_BITS)) << bucket;
+        return lowest + (1L << bucket) - 1;
+    }
+
+    LockMetricsSnapshot.Histogram snapshot() {
+        long[] bucketCounts = new long[this.counts.length()];
+        for (int i = 0; i < bucketCounts.length; i++) {
+            bucketCounts[i] = this.counts.get(i);
+        }
+        return new LockMetricsSnapshot.Histogram(bucketCounts, this.total.sum(), this.max.get());
+    }
+}
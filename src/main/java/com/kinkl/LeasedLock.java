@@ -0,0 +1,26 @@
+package com.kinkl;
+
+/**
+ * Bookkeeping of an entity lock leased by a thread. The lock itself is held by the handle, so the lease timer can release it from its own
+ * thread. Whichever of the holder and the timer ends the lease first wins the {@link TimerWheel.Timeout#cancel} race.
+ */
+final class LeasedLock {
+
+    final EntityLockHandle<?> handle;
+
+    TimerWheel.Timeout expiry;
+
+    /**
+     * Number of exclusive acquisitions by the thread, including the leasing one
+     */
+    int holdCount = 1;
+
+    /**
+     * Number of shared acquisitions by the thread, served by the leased exclusive lock
+     */
+    int sharedHoldCount;
+
+    LeasedLock(EntityLockHandle<?> handle) {
+        this.handle = handle;
+    }
+}
@@ -0,0 +1,176 @@
+package com.kinkl;
+
+import java.util.Collections;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * <p>Lock of an entity in {@link CompactEntityLocker}. The whole lock state is one word changed by CAS: the exclusive bit, the number of
+ * shared holds, a bit telling that threads may be parked and a bit telling that the entry has been removed from the table. A free entry
+ * with no waiters is removed by the thread that frees it, and a removed entry never comes back to life, so a thread that finds it removed
+ * looks the entity up again.</p>
+ * <p>Everything that doesn't fit the word is allocated on demand: the queue of parked threads on the first contention and the set of
+ * shared holders, needed by the deadlock detector, on the first shared acquisition. Each thread acquires each mode of the entry at most
+ * once; reentrant holds are counted by the thread itself.</p>
+ */
+final class LockEntry {
+
+    static final long EXCLUSIVE = 1;
+
+    static final long WAITERS = 1 << 1;
+
+    static final long REMOVED = 1 << 2;
+
+    static final long SHARED_UNIT = 1 << 3;
+
+    private static final AtomicLongFieldUpdater<LockEntry> WORD_UPDATER = AtomicLongFieldUpdater.newUpdater(LockEntry.class, "word");
+
+    // Generic class literals don't exist, so the updaters can only be declared with the raw field types
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<LockEntry, Queue> WAITERS_UPDATER =
+            AtomicReferenceFieldUpdater.newUpdater(LockEntry.class, Queue.class, "waiters");
+
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<LockEntry, Set> SHARED_HOLDERS_UPDATER =
+            AtomicReferenceFieldUpdater.newUpdater(LockEntry.class, Set.class, "sharedHolders");
+
+    final Object entityId;
+
+    volatile long word;
+
+    /**
+     * Thread holding the exclusive lock. Set by the owner right after acquiring and cleared right before releasing.
+     */
+    private volatile Thread owner;
+
+    private volatile Queue<Thread> waiters;
+
+    private volatile Set<Thread> sharedHolders;
+
+    /**
+     * Creates an entry already held by the thread, so inserting the entry into the table is the acquisition.
+     */
+    LockEntry(Object entityId, boolean isShared, Thread thread) {
+        this.entityId = entityId;
+        if (isShared) {
+            this.word = SHARED_UNIT;
+            Set<Thread> holders = ConcurrentHashMap.newKeySet();
+            holders.add(thread);
+            this.sharedHolders = holders;
+        } else {
+            this.word = EXCLUSIVE;
+            this.owner = thread;
+        }
+    }
+
+    boolean compareAndSetWord(long expect, long update) {
+        return WORD_UPDATER.compareAndSet(this, expect, update);
+    }
+
+    boolean isRemoved() {
+        return (this.word & REMOVED) != 0;
+    }
+
+    /**
+     * Returns true if a thread not holding the entry could acquire it in the given mode with the given word.
+     */
+    static boolean isAvailable(long word, boolean isShared) {
+        return isShared ? (word & (EXCLUSIVE | REMOVED)) == 0 : (word & ~WAITERS) == 0;
+    }
+
+    boolean tryLock(Thread thread) {
+        long w = this.word;
+        if ((w & ~WAITERS) == 0 && compareAndSetWord(w, w | EXCLUSIVE)) {
+            this.owner = thread;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Acquires a shared hold unless another thread holds the entry exclusively. The exclusive owner itself may acquire it (downgrade).
+     */
+    boolean tryLockShared(Thread thread) {
+        while (true) {
+            long w = this.word;
+            if ((w & REMOVED) != 0 || (w & EXCLUSIVE) != 0 && this.owner != thread) {
+                return false;
+            }
+            if (compareAndSetWord(w, w + SHARED_UNIT)) {
+                sharedHolders().add(thread);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Releases the exclusive hold and returns the new word. A free entry with no waiters is marked as removed at once.
+     */
+    long unlock() {
+        this.owner = null;
+        while (true) {
+            long w = this.word;
+            long update = w == EXCLUSIVE ? REMOVED : w & ~EXCLUSIVE;
+            if (compareAndSetWord(w, update)) {
+                return update;
+            }
+        }
+    }
+
+    /**
+     * Releases the shared hold of the thread and returns the new word. A free entry with no waiters is marked as removed at once.
+     */
+    long unlockShared(Thread thread) {
+        this.sharedHolders.remove(thread);
+        while (true) {
+            long w = this.word;
+            long update = w == SHARED_UNIT ? REMOVED : w - SHARED_UNIT;
+            if (compareAndSetWord(w, update)) {
+                return update;
+            }
+        }
+    }
+
+    Thread getOwner() {
+        return this.owner;
+    }
+
+    /**
+     * Returns the threads that prevent a thread from acquiring the entry in the given mode. Used by the deadlock detector.
+     */
+    Iterable<Thread> getBlockingHolders(boolean isShared) {
+        Thread owner = this.owner;
+        if (owner != null) {
+            return Collections.singleton(owner);
+        }
+        Set<Thread> holders = this.sharedHolders;
+        return isShared || holders == null ? Collections.emptySet() : holders;
+    }
+
+    /**
+     * Returns the queue of parked threads, creating it on the first contention.
+     */
+    @SuppressWarnings("unchecked")
+    Queue<Thread> waiters() {
+        Queue<Thread> queue = this.waiters;
+        if (queue == null) {
+            WAITERS_UPDATER.compareAndSet(this, null, new ConcurrentLinkedQueue<Thread>());
+            queue = this.waiters;
+        }
+        return queue;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Set<Thread> sharedHolders() {
+        Set<Thread> holders = this.sharedHolders;
+        if (holders == null) {
+            SHARED_HOLDERS_UPDATER.compareAndSet(this, null, ConcurrentHashMap.newKeySet());
+            holders = this.sharedHolders;
+        }
+        return holders;
+    }
+}
@@ -0,0 +1,46 @@
+package com.kinkl;
+
+import java.util.Map;
+
+/**
+ * Per-thread bookkeeping of the locks a thread holds in a particular locker. Accessed only by its own thread.
+ */
+final class LockHolder<T> {
+
+    /**
+     * Entity locks held by the thread with its hold counts, so that reentrant acquisitions and releases are resolved by the thread alone
+     */
+    final HeldLocks<T, EntityLock> heldLocks = new HeldLocks<>();
+
+    /**
+     * Number of distinct entities locked by the thread in any mode ({@link StripedEntityLocker} counts stripe holds per mode instead). The thread
+     * is registered in the global lock indicator while this is positive.
+     */
+    int heldEntityCount;
+
+    /**
+     * Number of global lock acquisitions made explicitly by the caller, as opposed to the one made by lock escalation
+     */
+    int globalHoldCount;
+
+    /**
+     * Whether the thread holds the global lock because of lock escalation
+     */
+    boolean isEscalated;
+
+    /**
+     * Number of exclusive acquisitions made by the thread, used to sample hold times when metrics are enabled
+     */
+    int acquisitionCount;
+
+    /**
+     * Hold counts of entities locked while the thread was escalated. These entities have no entity locks, they are protected by the global lock.
+     * Created on the first escalation of the thread.
+     */
+    Map<T, Integer> escalatedHolds;
+
+    /**
+     * Entity locks leased by the thread, including expired leases that are not unlocked yet. Created on the first lease of the thread.
+     */
+    Map<T, LeasedLock> leases;
+}
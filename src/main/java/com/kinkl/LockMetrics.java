@@ -0,0 +1,68 @@
+package com.kinkl;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics recorded by an {@link EntityLocker} with metrics enabled. Uncontended locking only increments a striped counter and, for one in
+ * {@value #HOLD_SAMPLE_PERIOD} exclusive acquisitions of a thread, reads the clock to measure the hold time. Everything else is recorded on
+ * paths that wait anyway.
+ */
+final class LockMetrics<T> {
+
+    /**
+     * Hold time is measured for every this many exclusive acquisitions of a thread. Must be a power of two.
+     */
+    static final int HOLD_SAMPLE_PERIOD = 16;
+
+    private static final int HOT_KEY_CAPACITY = 64;
+
+    private final LongAdder acquisitionCount = new LongAdder();
+
+    private final LongAdder contendedAcquisitionCount = new LongAdder();
+
+    private final LongAdder timeoutCount = new LongAdder();
+
+    private final LongAdder deadlockCount = new LongAdder();
+
+    private final LatencyHistogram waitTime = new LatencyHistogram();
+
+    private final LatencyHistogram holdTime = new LatencyHistogram();
+
+    private final HotKeySketch<T> hotKeys = new HotKeySketch<>(HOT_KEY_CAPACITY);
+
+    private final int hotKeyCount;
+
+    /**
+     * @param hotKeyCount number of hot keys reported in snapshots
+     */
+    LockMetrics(int hotKeyCount) {
+        this.hotKeyCount = hotKeyCount;
+    }
+
+    void recordAcquisition() {
+        this.acquisitionCount.increment();
+    }
+
+    void recordWait(T entityId, long waitNanos) {
+        this.contendedAcquisitionCount.increment();
+        this.waitTime.record(waitNanos);
+        this.hotKeys.record(entityId);
+    }
+
+    void recordHold(long holdNanos) {
+        this.holdTime.record(holdNanos);
+    }
+
+    void recordTimeout() {
+        this.timeoutCount.increment();
+    }
+
+    void recordDeadlock() {
+        this.deadlockCount.increment();
+    }
+
+    LockMetricsSnapshot<T> snapshot(int entityLockCount) {
+        return new LockMetricsSnapshot<>(this.acquisitionCount.sum(), this.contendedAcquisitionCount.sum(), this.timeoutCount.sum(),
+                this.deadlockCount.sum(), entityLockCount, this.waitTime.snapshot(), this.holdTime.snapshot(), this.hotKeys.top(this.hotKeyCount));
+    }
+}
@@ -0,0 +1,188 @@
+package com.kinkl;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Point-in-time view of the metrics of an {@link EntityLocker}. Counters are read one by one while threads keep locking, so values of different
+ * counters may be off by the operations performed during the snapshot.
+ * @param <T> the type of entity id
+ */
+public final class LockMetricsSnapshot<T> {
+
+    private final long acquisitionCount;
+
+    private final long contendedAcquisitionCount;
+
+    private final long timeoutCount;
+
+    private final long deadlockCount;
+
+    private final int entityLockCount;
+
+    private final Histogram waitTime;
+
+    private final Histogram holdTime;
+
+    private final List<HotKey<T>> hotKeys;
+
+    LockMetricsSnapshot(long acquisitionCount, long contendedAcquisitionCount, long timeoutCount, long deadlockCount, int entityLockCount,
+                        Histogram waitTime, Histogram holdTime, List<HotKey<T>> hotKeys) {
+        this.acquisitionCount = acquisitionCount;
+        this.contendedAcquisitionCount = contendedAcquisitionCount;
+        this.timeoutCount = timeoutCount;
+        this.deadlockCount = deadlockCount;
+        this.entityLockCount = entityLockCount;
+        this.waitTime = waitTime;
+        this.holdTime = holdTime;
+        this.hotKeys = Collections.unmodifiableList(hotKeys);
+    }
+
+    /**
+     * Returns the number of times a thread or a lock handle started holding an entity lock. Reentrant acquisitions are not counted.
+     */
+    public long getAcquisitionCount() {
+        return this.acquisitionCount;
+    }
+
+    /**
+     * Returns the number of lock attempts that had to wait for another holder.
+     */
+    public long getContendedAcquisitionCount() {
+        return this.contendedAcquisitionCount;
+    }
+
+    /**
+     * Returns the number of timed lock attempts, for entities and for the global lock, that gave up.
+     */
+    public long getTimeoutCount() {
+        return this.timeoutCount;
+    }
+
+    /**
+     * Returns the number of lock attempts rejected with {@link com.kinkl.exception.DeadlockThreatException}.
+     */
+    public long getDeadlockCount() {
+        return this.deadlockCount;
+    }
+
+    /**
+     * Returns the number of entity locks existing at the moment, that is the number of entities held or waited for.
+     */
+    public int getEntityLockCount() {
+        return this.entityLockCount;
+    }
+
+    /**
+     * Returns the time spent waiting by contended lock attempts, including the ones that timed out.
+     */
+    public Histogram getWaitTime() {
+        return this.waitTime;
+    }
+
+    /**
+     * Returns the time exclusive entity locks were held by threads. Only a sample of the holds is measured.
+     */
+    public Histogram getHoldTime() {
+        return this.holdTime;
+    }
+
+    /**
+     * Returns the entities waited for most often, most contended first.
+     */
+    public List<HotKey<T>> getHotKeys() {
+        return this.hotKeys;
+    }
+
+    /**
+     * Distribution of durations in nanoseconds
+     */
+    public static final class Histogram {
+
+        private final long[] bucketCounts;
+
+        private final long count;
+
+        private final long total;
+
+        private final long max;
+
+        Histogram(long[] bucketCounts, long total, long max) {
+            this.bucketCounts = bucketCounts;
+            long count = 0;
+            for (long bucketCount : bucketCounts) {
+                count += bucketCount;
+            }
+            this.count = count;
+            this.total = total;
+            this.max = max;
+        }
+
+        public long getCount() {
+            return this.count;
+        }
+
+        public double getMean() {
+            return this.count == 0 ? 0 : (double) this.total / this.count;
+        }
+
+        public long getMax() {
+            return this.max;
+        }
+
+        /**
+         * Returns the value below or equal to which the given percentage of recorded values fall, with the histogram precision.
+         * @param percentile percentile between 0 and 100
+         */
+        public long getValueAtPercentile(double percentile) {
+            if (this.count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * this.count));
+            long seen = 0;
+            for (int i = 0; i < this.bucketCounts.length; i++) {
+                seen += this.bucketCounts[i];
+                if (seen >= rank) {
+                    return Math.min(LatencyHistogram.highestValueOf(i), this.max);
+                }
+            }
+            return this.max;
+        }
+    }
+
+    /**
+     * Entity from the hot key sketch with its estimated number of contended lock attempts. The estimate exceeds the real number by at most the
+     * error.
+     */
+    public static final class HotKey<T> {
+
+        private final T entityId;
+
+        private final long count;
+
+        private final long error;
+
+        HotKey(T entityId, long count, long error) {
+            this.entityId = entityId;
+            this.count = count;
+            this.error = error;
+        }
+
+        public T getEntityId() {
+            return this.entityId;
+        }
+
+        public long getCount() {
+            return this.count;
+        }
+
+        public long getError() {
+            return this.error;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s=%d", this.entityId, this.count);
+        }
+    }
+}
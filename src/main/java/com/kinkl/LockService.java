@@ -0,0 +1,46 @@
+package com.kinkl;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lock operations a node of a {@link DistributedEntityLocker} serves for the entities it owns. Other nodes call them through a
+ * {@link LockTransport}. A granted lock is a lease: it's released by the owner node unless it's renewed in time. Every grant gets a fencing
+ * token greater than the tokens of all earlier grants of the owner node, so a storage that remembers the last token it has seen for an
+ * entity can reject writes of a client whose lease has already expired.
+ * @param <T> the type of entity id
+ */
+public interface LockService<T> {
+
+    /**
+     * Token value meaning that the lock was not granted
+     */
+    long NO_TOKEN = 0;
+
+    /**
+     * Locks the entity exclusively for a lease of the given duration, waiting for it no longer than the given time.
+     * @return the fencing token of the lease, or {@link #NO_TOKEN} if the lock was not acquired within the waiting time
+     * @throws InterruptedException if the current thread is interrupted while waiting
+     * @throws com.kinkl.exception.NodeUnavailableException if the owner node can't be reached
+     */
+    long acquire(T entityId, long leaseTime, long waitTime, TimeUnit unit) throws InterruptedException;
+
+    /**
+     * Extends the lease with the given token so that it expires the given time from now.
+     * @return false if the lease has already expired or was released
+     * @throws com.kinkl.exception.NodeUnavailableException if the owner node can't be reached
+     */
+    boolean renew(T entityId, long fencingToken, long leaseTime, TimeUnit unit);
+
+    /**
+     * Releases the lease with the given token.
+     * @return false if the lease has already expired or was released
+     * @throws com.kinkl.exception.NodeUnavailableException if the owner node can't be reached
+     */
+    boolean release(T entityId, long fencingToken);
+
+    /**
+     * Returns true if the entity is locked by a lease or by a thread of the owner node.
+     * @throws com.kinkl.exception.NodeUnavailableException if the owner node can't be reached
+     */
+    boolean isLocked(T entityId);
+}
@@ -0,0 +1,238 @@
+package com.kinkl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * <p>Concurrent hash table of the {@link LockEntry lock entries} of {@link CompactEntityLocker}. Slots hold entry references directly and
+ * are probed linearly, so the table costs a reference per slot instead of a node per entry. It's split into segments to keep rebuilds
+ * short.</p>
+ * <p>Lookups and insertions take no lock while the segment is not rebuilt: an insertion claims an empty slot by CAS, and since a slot is
+ * never emptied again, threads inserting the same id probe the same slots and meet at the first empty one. A removed entry leaves a
+ * tombstone. Tombstones are dropped and the table is resized by rebuilding a segment under its monitor: the rebuilding thread seals every
+ * slot, so nothing can be inserted behind it, copies the live entries into a table sized for them and publishes it. Threads that meet a
+ * sealed slot block on the monitor until the rebuild is over, so the table is not lock-free; segments keep such stalls short and local.
+ * Entries are moved by reference, so their lock words are not touched and holders and waiters are not disturbed.</p>
+ */
+final class LockTable {
+
+    private static final Object TOMBSTONE = new Object();
+
+    private static final Object SEALED = new Object();
+
+    private static final int MIN_CAPACITY = 16;
+
+    private final Segment[] segments;
+
+    private final int segmentShift;
+
+    LockTable() {
+        int segmentCount = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() * 4 - 1) << 1);
+        this.segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            this.segments[i] = new Segment();
+        }
+        this.segmentShift = 32 - Integer.numberOfTrailingZeros(segmentCount);
+    }
+
+    /**
+     * Returns the entry of the entity that is not removed, or null if there is none.
+     */
+    LockEntry get(Object entityId) {
+        int hash = hash(entityId);
+        Segment segment = segmentFor(hash);
+        retry:
+        while (true) {
+            AtomicReferenceArray<Object> slots = segment.table.slots;
+            int mask = slots.length() - 1;
+            for (int i = hash & mask, probes = 0; probes <= mask; i = (i + 1) & mask, probes++) {
+                Object slot = slots.get(i);
+                if (slot == null) {
+                    return null;
+                }
+                if (slot == SEALED) {
+                    segment.awaitRebuild();
+                    continue retry;
+                }
+                if (isLiveEntryOf(slot, entityId)) {
+                    return (LockEntry) slot;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Inserts the entry unless its entity already has an entry that is not removed, in which case that entry is returned instead.
+     */
+    LockEntry putIfAbsent(LockEntry entry) {
+        int hash = hash(entry.entityId);
+        Segment segment = segmentFor(hash);
+        retry:
+        while (true) {
+            Table table = segment.table;
+            if (table.usedSlotCount.get() >= table.maxUsedSlotCount) {
+                rebuild(segment, table);
+                continue;
+            }
+            AtomicReferenceArray<Object> slots = table.slots;
+            int mask = slots.length() - 1;
+            int i = hash & mask;
+            for (int probes = 0; probes <= mask; ) {
+                Object slot = slots.get(i);
+                if (slot == null) {
+                    if (slots.compareAndSet(i, null, entry)) {
+                        table.usedSlotCount.incrementAndGet();
+                        return entry;
+                    }
+                    // Another thread claimed the slot, it may have inserted the same entity
+                    continue;
+                }
+                if (slot == SEALED) {
+                    segment.awaitRebuild();
+                    continue retry;
+                }
+                if (isLiveEntryOf(slot, entry.entityId)) {
+                    return (LockEntry) slot;
+                }
+                i = (i + 1) & mask;
+                probes++;
+            }
+            // Concurrent insertions filled the table before any of them triggered a rebuild
+            rebuild(segment, table);
+        }
+    }
+
+    /**
+     * Replaces the entry with a tombstone. The entry must have been marked as removed.
+     */
+    void remove(LockEntry entry) {
+        int hash = hash(entry.entityId);
+        Segment segment = segmentFor(hash);
+        retry:
+        while (true) {
+            AtomicReferenceArray<Object> slots = segment.table.slots;
+            int mask = slots.length() - 1;
+            for (int i = hash & mask, probes = 0; probes <= mask; ) {
+                Object slot = slots.get(i);
+                if (slot == null) {
+                    return;
+                }
+                if (slot == SEALED) {
+                    segment.awaitRebuild();
+                    continue retry;
+                }
+                if (slot == entry) {
+                    if (slots.compareAndSet(i, entry, TOMBSTONE)) {
+                        return;
+                    }
+                    continue;
+                }
+                i = (i + 1) & mask;
+                probes++;
+            }
+            return;
+        }
+    }
+
+    /**
+     * Returns the number of entries that are not removed. The count is not atomic with respect to concurrent updates.
+     */
+    int size() {
+        int size = 0;
+        for (Segment segment : this.segments) {
+            AtomicReferenceArray<Object> slots = segment.table.slots;
+            for (int i = 0; i < slots.length(); i++) {
+                Object slot = slots.get(i);
+                if (slot instanceof LockEntry && !((LockEntry) slot).isRemoved()) {
+                    size++;
+                }
+            }
+        }
+        return size;
+    }
+
+    private static boolean isLiveEntryOf(Object slot, Object entityId) {
+        if (slot == TOMBSTONE) {
+            return false;
+        }
+        LockEntry entry = (LockEntry) slot;
+        return (entry.entityId == entityId || entry.entityId.equals(entityId)) && !entry.isRemoved();
+    }
+
+    /**
+     * Replaces the table of the segment with one that holds only its live entries and is at most a quarter full.
+     */
+    private void rebuild(Segment segment, Table table) {
+        synchronized (segment) {
+            if (segment.table != table) {
+                return;
+            }
+            AtomicReferenceArray<Object> slots = table.slots;
+            List<LockEntry> liveEntries = new ArrayList<>();
+            for (int i = 0; i < slots.length(); i++) {
+                Object slot = slots.getAndSet(i, SEALED);
+                if (slot instanceof LockEntry && !((LockEntry) slot).isRemoved()) {
+                    liveEntries.add((LockEntry) slot);
+                }
+            }
+            int capacity = MIN_CAPACITY;
+            while (capacity < liveEntries.size() * 4) {
+                capacity <<= 1;
+            }
+            Table rebuilt = new Table(capacity);
+            int mask = capacity - 1;
+            for (LockEntry entry : liveEntries) {
+                int i = hash(entry.entityId) & mask;
+                while (rebuilt.slots.get(i) != null) {
+                    i = (i + 1) & mask;
+                }
+                rebuilt.slots.set(i, entry);
+            }
+            rebuilt.usedSlotCount.set(liveEntries.size());
+            segment.table = rebuilt;
+        }
+    }
+
+    private Segment segmentFor(int hash) {
+        return this.segments[(hash >>> this.segmentShift) & (this.segments.length - 1)];
+    }
+
+    private static int hash(Object entityId) {
+        int hash = entityId.hashCode() * 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    private static final class Segment {
+
+        volatile Table table = new Table(MIN_CAPACITY);
+
+        /**
+         * Waits for the rebuild that sealed the table. Rebuilds hold the segment monitor, so acquiring it is enough.
+         */
+        void awaitRebuild() {
+            synchronized (this) {
+                // Nothing to do, the new table is published once the monitor is released
+            }
+        }
+    }
+
+    private static final class Table {
+
+        final AtomicReferenceArray<Object> slots;
+
+        /**
+         * Number of slots that are not empty, tombstones included
+         */
+        final AtomicInteger usedSlotCount = new AtomicInteger();
+
+        final int maxUsedSlotCount;
+
+        Table(int capacity) {
+            this.slots = new AtomicReferenceArray<>(capacity);
+            this.maxUsedSlotCount = capacity / 2;
+        }
+    }
+}
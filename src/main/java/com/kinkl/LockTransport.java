@@ -0,0 +1,25 @@
+package com.kinkl;
+
+/**
+ * Connects the nodes of a {@link DistributedEntityLocker}. An implementation delivers calls of {@link LockService} to the node that owns the
+ * entity, serializing entity ids as it needs to. {@link LoopbackTransport} connects nodes living in one JVM.
+ * @param <T> the type of entity id
+ */
+public interface LockTransport<T> {
+
+    /**
+     * Makes the lock service of the node reachable by other nodes.
+     */
+    void bind(String nodeId, LockService<T> service);
+
+    /**
+     * Makes the lock service of the node unreachable. Called when the node shuts down.
+     */
+    void unbind(String nodeId);
+
+    /**
+     * Returns the lock service of the node. Calls of the returned service throw {@link com.kinkl.exception.NodeUnavailableException} while the
+     * node can't be reached.
+     */
+    LockService<T> connect(String nodeId);
+}
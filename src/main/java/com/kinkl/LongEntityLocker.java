@@ -0,0 +1,473 @@
+package com.kinkl;
+
+import com.kinkl.exception.DeadlockThreatException;
+import com.kinkl.exception.MissingEntityLockException;
+import com.kinkl.exception.OtherThreadEntityUnlockAttemptException;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>Entity locker specialized for {@code long} ids. Provides exclusive reentrant locking, timeouts and deadlock protection like
+ * {@link EntityLocker} does, but ids are never boxed and uncontended locking doesn't allocate: lock states (owner thread and hold count)
+ * are kept inline in open addressing tables of primitive arrays. The tables are split into segments guarded by their own locks, so
+ * operations on ids of different segments don't contend. Only an entity with waiting threads gets a wait queue of its own, so a release
+ * wakes a waiter of that entity and not the waiters of the whole segment. An entry is removed as soon as the entity is neither locked nor
+ * awaited.</p>
+ * <p>Deadlock detection follows the same rules as in {@link EntityLocker}: a thread that has to wait publishes the entity it waits for and
+ * walks the wait-for chain before parking. The wait queue of an entity keeps its current owner, so the chain always follows the threads
+ * holding the entities now, and a cycle is confirmed before it's reported.</p>
+ */
+public class LongEntityLocker {
+
+    private static final int INITIAL_SEGMENT_CAPACITY = 16;
+
+    private final Segment[] segments;
+
+    private final int segmentShift;
+
+    /**
+     * Waiting thread to the wait it registered. Written only by threads that have to wait.
+     */
+    private final ConcurrentMap<Thread, PendingWait> waitingThreadToPendingWaitMap = new ConcurrentHashMap<>();
+
+    public LongEntityLocker() {
+        int segmentCount = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() * 4 - 1) << 1);
+        this.segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            this.segments[i] = new Segment();
+        }
+        this.segmentShift = 64 - Integer.numberOfTrailingZeros(segmentCount);
+    }
+
+    /**
+     * Locks entity if this will not cause deadlock. See {@link IEntityLocker#lock} for details.
+     * @param entityId id of entity to lock
+     * @throws com.kinkl.exception.DeadlockThreatException if lock causes deadlock
+     */
+    public void lock(long entityId) {
+        long hash = hash(entityId);
+        Segment segment = segmentFor(hash);
+        segment.lock();
+        try {
+            int slot = segment.findOrInsert(entityId, hash);
+            if (segment.tryAcquire(slot)) {
+                return;
+            }
+            WaitQueue queue = segment.beginWait(slot);
+            try {
+                beforeWait(entityId, queue);
+                do {
+                    queue.released.awaitUninterruptibly();
+                    slot = segment.find(entityId, hash);
+                } while (!segment.tryAcquire(slot));
+            } finally {
+                this.waitingThreadToPendingWaitMap.remove(Thread.currentThread());
+                segment.afterWait(entityId, hash);
+            }
+        } finally {
+            segment.unlock();
+        }
+    }
+
+    /**
+     * Locks entity if this will not cause deadlock, it is not held by another thread within the given waiting time and the current thread has
+     * not been interrupted. See {@link IEntityLocker#tryLock} for details.
+     * @param entityId id of entity to lock
+     * @param timeout the time to wait for the lock
+     * @param unit the time unit of the timeout argument
+     * @return true if entity was locked successfully. Otherwise false
+     * @throws InterruptedException if the current thread is interrupted
+     * @throws com.kinkl.exception.DeadlockThreatException if lock causes deadlock
+     * @throws NullPointerException if unit is null
+     */
+    public boolean tryLock(long entityId, long timeout, TimeUnit unit) throws InterruptedException {
+        Objects.requireNonNull(unit);
+        long nanos = unit.toNanos(timeout);
+        long hash = hash(entityId);
+        Segment segment = segmentFor(hash);
+        segment.lockInterruptibly();
+        try {
+            int slot = segment.findOrInsert(entityId, hash);
+            if (segment.tryAcquire(slot)) {
+                return true;
+            }
+            if (nanos <= 0) {
+                segment.removeIfUnused(slot);
+                return false;
+            }
+            WaitQueue queue = segment.beginWait(slot);
+            try {
+                beforeWait(entityId, queue);
+                do {
+                    if (nanos <= 0) {
+                        return false;
+                    }
+                    nanos = queue.released.awaitNanos(nanos);
+                    slot = segment.find(entityId, hash);
+                } while (!segment.tryAcquire(slot));
+                return true;
+            } finally {
+                this.waitingThreadToPendingWaitMap.remove(Thread.currentThread());
+                segment.afterWait(entityId, hash);
+            }
+        } finally {
+            segment.unlock();
+        }
+    }
+
+    /**
+     * Unlocks entity if this entity is locked by the current thread. See {@link IEntityLocker#unlock} for details.
+     * @param entityId id of entity to unlock
+     * @throws com.kinkl.exception.MissingEntityLockException if entity doesn't have associated locks
+     * @throws com.kinkl.exception.OtherThreadEntityUnlockAttemptException if entity is locked by another thread
+     */
+    public void unlock(long entityId) {
+        long hash = hash(entityId);
+        Segment segment = segmentFor(hash);
+        segment.lock();
+        try {
+            int slot = segment.find(entityId, hash);
+            if (slot < 0 || segment.owners[slot] == null) {
+                throw missingEntityLock(entityId);
+            }
+            if (segment.owners[slot] != Thread.currentThread()) {
+                throw otherThreadEntityUnlockAttempt(entityId);
+            }
+            if (--segment.holdCounts[slot] > 0) {
+                return;
+            }
+            segment.owners[slot] = null;
+            WaitQueue queue = segment.waitQueues[slot];
+            if (queue != null) {
+                queue.owner = null;
+                queue.released.signal();
+            } else {
+                segment.removeAt(slot);
+            }
+        } finally {
+            segment.unlock();
+        }
+    }
+
+    /**
+     * Returns true if entity is locked by another thread. Otherwise false.
+     * @param entityId id of entity to check
+     * @return true if entity is locked by another thread. Otherwise false
+     */
+    public boolean isLockedByAnotherThread(long entityId) {
+        long hash = hash(entityId);
+        Segment segment = segmentFor(hash);
+        segment.lock();
+        try {
+            int slot = segment.find(entityId, hash);
+            return slot >= 0 && segment.owners[slot] != null && segment.owners[slot] != Thread.currentThread();
+        } finally {
+            segment.unlock();
+        }
+    }
+
+    int getEntityLockCount() {
+        int count = 0;
+        for (Segment segment : this.segments) {
+            segment.lock();
+            try {
+                count += segment.size;
+            } finally {
+                segment.unlock();
+            }
+        }
+        return count;
+    }
+
+    private void beforeWait(long entityId, WaitQueue queue) {
+        PendingWait pendingWait = new PendingWait(queue);
+        this.waitingThreadToPendingWaitMap.put(Thread.currentThread(), pendingWait);
+        Thread owner = findOwnerLeadingToCurrentThread(pendingWait);
+        if (owner != null) {
+            throw deadlockThreat(entityId, owner);
+        }
+    }
+
+    /**
+     * Walks the wait-for chain starting from the owner of the entity the current thread waits for and returns the owner if the chain
+     * reaches the current thread, or null otherwise. A cycle that can't be confirmed was made of edges that no longer exist together, so
+     * the chain is walked again.
+     */
+    private Thread findOwnerLeadingToCurrentThread(PendingWait pendingWait) {
+        Thread currentThread = Thread.currentThread();
+        while (true) {
+            Map<Thread, PendingWait> chain = new LinkedHashMap<>();
+            chain.put(currentThread, pendingWait);
+            Thread entityOwner = pendingWait.queue.owner;
+            Thread thread = entityOwner;
+            while (thread != null && !chain.containsKey(thread)) {
+                PendingWait nextWait = this.waitingThreadToPendingWaitMap.get(thread);
+                if (nextWait == null) {
+                    return null;
+                }
+                chain.put(thread, nextWait);
+                thread = nextWait.queue.owner;
+            }
+            // The chain may also loop without the current thread, but checked waits don't close such loops
+            if (thread != currentThread) {
+                return null;
+            }
+            if (isStillDeadlocked(chain)) {
+                return entityOwner;
+            }
+        }
+    }
+
+    /**
+     * Returns true if every thread of the chain still has the wait it was seen with and the entity it waits for is still owned by the next
+     * thread of the chain. A thread keeping its wait neither acquires nor releases entities, so once all waits are confirmed unchanged after
+     * the owners are checked, all the edges exist at the same time.
+     */
+    private boolean isStillDeadlocked(Map<Thread, PendingWait> chain) {
+        Thread[] threads = chain.keySet().toArray(new Thread[0]);
+        for (int i = 0; i < threads.length; i++) {
+            PendingWait pendingWait = chain.get(threads[i]);
+            if (this.waitingThreadToPendingWaitMap.get(threads[i]) != pendingWait
+                    || pendingWait.queue.owner != threads[(i + 1) % threads.length]) {
+                return false;
+            }
+        }
+        for (Map.Entry<Thread, PendingWait> entry : chain.entrySet()) {
+            if (this.waitingThreadToPendingWaitMap.get(entry.getKey()) != entry.getValue()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Segment segmentFor(long hash) {
+        return this.segments[(int) (hash >>> this.segmentShift)];
+    }
+
+    /**
+     * Murmur3 finalizer, spreads sequential ids over segments and slots
+     */
+    private static long hash(long entityId) {
+        long h = entityId;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static DeadlockThreatException deadlockThreat(long entityId, Thread owner) {
+        return new DeadlockThreatException(String.format("Thread [%s] cannot lock entity with id %d because this will cause a deadlock. This entity is already locked by thread [%s]",
+                Thread.currentThread().getName(),
+                entityId,
+                owner.getName()));
+    }
+
+    private static MissingEntityLockException missingEntityLock(long entityId) {
+        return new MissingEntityLockException(String.format("There is no associated locks for entity with id %d", entityId));
+    }
+
+    private static OtherThreadEntityUnlockAttemptException otherThreadEntityUnlockAttempt(long entityId) {
+        return new OtherThreadEntityUnlockAttemptException(String.format("The lock of entity with id %d is held by another thread", entityId));
+    }
+
+    /**
+     * Threads waiting for an entity. Exists only while there are such threads; its owner mirrors the owner of the entity for the deadlock
+     * detector, which reads it without the segment lock.
+     */
+    private static final class WaitQueue {
+
+        final Condition released;
+
+        volatile Thread owner;
+
+        int waiterCount;
+
+        WaitQueue(Condition released, Thread owner) {
+            this.released = released;
+            this.owner = owner;
+        }
+    }
+
+    /**
+     * Wait registered by a thread. Every wait registers a new one, so a thread seen with the same wait twice kept waiting in between.
+     */
+    private static final class PendingWait {
+
+        final WaitQueue queue;
+
+        PendingWait(WaitQueue queue) {
+            this.queue = queue;
+        }
+    }
+
+    /**
+     * Open addressing table with linear probing. All fields are guarded by the segment lock itself.
+     */
+    private static final class Segment extends ReentrantLock {
+
+        private static final long serialVersionUID = 7426018658156437348L;
+
+        long[] keys = new long[INITIAL_SEGMENT_CAPACITY];
+
+        boolean[] used = new boolean[INITIAL_SEGMENT_CAPACITY];
+
+        Thread[] owners = new Thread[INITIAL_SEGMENT_CAPACITY];
+
+        int[] holdCounts = new int[INITIAL_SEGMENT_CAPACITY];
+
+        WaitQueue[] waitQueues = new WaitQueue[INITIAL_SEGMENT_CAPACITY];
+
+        int size;
+
+        boolean tryAcquire(int slot) {
+            Thread owner = this.owners[slot];
+            if (owner == null) {
+                Thread currentThread = Thread.currentThread();
+                this.owners[slot] = currentThread;
+                this.holdCounts[slot] = 1;
+                if (this.waitQueues[slot] != null) {
+                    this.waitQueues[slot].owner = currentThread;
+                }
+                return true;
+            }
+            if (owner == Thread.currentThread()) {
+                this.holdCounts[slot]++;
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * Registers the current thread as waiting for the entity at the slot, creating the wait queue of the entity for the first waiter.
+         */
+        WaitQueue beginWait(int slot) {
+            WaitQueue queue = this.waitQueues[slot];
+            if (queue == null) {
+                queue = new WaitQueue(newCondition(), this.owners[slot]);
+                this.waitQueues[slot] = queue;
+            }
+            queue.waiterCount++;
+            return queue;
+        }
+
+        /**
+         * Unregisters the current thread as waiting for the entity. A thread leaving a free entry without acquiring it may have consumed the
+         * signal, so it passes the signal on to the next waiter.
+         */
+        void afterWait(long entityId, long hash) {
+            int slot = find(entityId, hash);
+            WaitQueue queue = this.waitQueues[slot];
+            if (--queue.waiterCount == 0) {
+                this.waitQueues[slot] = null;
+            } else if (this.owners[slot] == null) {
+                queue.released.signal();
+            }
+            removeIfUnused(slot);
+        }
+
+        void removeIfUnused(int slot) {
+            if (this.owners[slot] == null && this.waitQueues[slot] == null) {
+                removeAt(slot);
+            }
+        }
+
+        int find(long entityId, long hash) {
+            int mask = this.keys.length - 1;
+            for (int slot = (int) hash & mask; this.used[slot]; slot = (slot + 1) & mask) {
+                if (this.keys[slot] == entityId) {
+                    return slot;
+                }
+            }
+            return -1;
+        }
+
+        int findOrInsert(long entityId, long hash) {
+            int slot = find(entityId, hash);
+            if (slot >= 0) {
+                return slot;
+            }
+            if ((this.size + 1) * 2 > this.keys.length) {
+                resize(this.keys.length * 2);
+            }
+            int mask = this.keys.length - 1;
+            slot = (int) hash & mask;
+            while (this.used[slot]) {
+                slot = (slot + 1) & mask;
+            }
+            this.used[slot] = true;
+            this.keys[slot] = entityId;
+            this.owners[slot] = null;
+            this.holdCounts[slot] = 0;
+            this.waitQueues[slot] = null;
+            this.size++;
+            return slot;
+        }
+
+        /**
+         * Removes the entry using backward shift deletion, so no tombstones are left behind.
+         */
+        void removeAt(int slot) {
+            int mask = this.keys.length - 1;
+            int free = slot;
+            for (int next = (free + 1) & mask; this.used[next]; next = (next + 1) & mask) {
+                int ideal = (int) hash(this.keys[next]) & mask;
+                // The entry at next may be moved to free only if its ideal slot is not cyclically within (free, next]
+                boolean staysInPlace = free <= next ? free < ideal && ideal <= next : free < ideal || ideal <= next;
+                if (!staysInPlace) {
+                    move(next, free);
+                    free = next;
+                }
+            }
+            this.used[free] = false;
+            this.owners[free] = null;
+            this.waitQueues[free] = null;
+            this.size--;
+            if (this.keys.length > INITIAL_SEGMENT_CAPACITY && this.size * 8 < this.keys.length) {
+                resize(this.keys.length / 2);
+            }
+        }
+
+        private void move(int from, int to) {
+            this.keys[to] = this.keys[from];
+            this.owners[to] = this.owners[from];
+            this.holdCounts[to] = this.holdCounts[from];
+            this.waitQueues[to] = this.waitQueues[from];
+        }
+
+        private void resize(int capacity) {
+            long[] oldKeys = this.keys;
+            boolean[] oldUsed = this.used;
+            Thread[] oldOwners = this.owners;
+            int[] oldHoldCounts = this.holdCounts;
+            WaitQueue[] oldWaitQueues = this.waitQueues;
+            this.keys = new long[capacity];
+            this.used = new boolean[capacity];
+            this.owners = new Thread[capacity];
+            this.holdCounts = new int[capacity];
+            this.waitQueues = new WaitQueue[capacity];
+            int mask = capacity - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldUsed[i]) {
+                    int slot = (int) hash(oldKeys[i]) & mask;
+                    while (this.used[slot]) {
+                        slot = (slot + 1) & mask;
+                    }
+                    this.used[slot] = true;
+                    this.keys[slot] = oldKeys[i];
+                    this.owners[slot] = oldOwners[i];
+                    this.holdCounts[slot] = oldHoldCounts[i];
+                    this.waitQueues[slot] = oldWaitQueues[i];
+                }
+            }
+        }
+    }
+}
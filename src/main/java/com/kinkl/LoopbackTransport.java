@@ -0,0 +1,87 @@
+package com.kinkl;
+
+import com.kinkl.exception.NodeUnavailableException;
+
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Transport connecting nodes of a {@link DistributedEntityLocker} that live in one JVM, for tests and local development. Calls are plain
+ * method calls of the bound services. A node may be disconnected to simulate a network partition: calls to it fail with
+ * {@link NodeUnavailableException} until it's reconnected.
+ * @param <T> the type of entity id
+ */
+public class LoopbackTransport<T> implements LockTransport<T> {
+
+    private final ConcurrentMap<String, LockService<T>> services = new ConcurrentHashMap<>();
+
+    private final Set<String> disconnectedNodeIds = ConcurrentHashMap.newKeySet();
+
+    @Override
+    public void bind(String nodeId, LockService<T> service) {
+        if (this.services.putIfAbsent(Objects.requireNonNull(nodeId), Objects.requireNonNull(service)) != null) {
+            throw new IllegalStateException(String.format("Node %s is already bound", nodeId));
+        }
+    }
+
+    @Override
+    public void unbind(String nodeId) {
+        this.services.remove(nodeId);
+    }
+
+    @Override
+    public LockService<T> connect(String nodeId) {
+        return new Connection(Objects.requireNonNull(nodeId));
+    }
+
+    /**
+     * Makes the node unreachable until {@link #reconnect} is called.
+     */
+    public void disconnect(String nodeId) {
+        this.disconnectedNodeIds.add(nodeId);
+    }
+
+    public void reconnect(String nodeId) {
+        this.disconnectedNodeIds.remove(nodeId);
+    }
+
+    private final class Connection implements LockService<T> {
+
+        private final String nodeId;
+
+        Connection(String nodeId) {
+            this.nodeId = nodeId;
+        }
+
+        private LockService<T> service() {
+            LockService<T> service = LoopbackTransport.this.services.get(this.nodeId);
+            if (service == null || LoopbackTransport.this.disconnectedNodeIds.contains(this.nodeId)) {
+                throw new NodeUnavailableException(String.format("Node %s is unavailable", this.nodeId));
+            }
+            return service;
+        }
+
+        @Override
+        public long acquire(T entityId, long leaseTime, long waitTime, TimeUnit unit) throws InterruptedException {
+            return service().acquire(entityId, leaseTime, waitTime, unit);
+        }
+
+        @Override
+        public boolean renew(T entityId, long fencingToken, long leaseTime, TimeUnit unit) {
+            return service().renew(entityId, fencingToken, leaseTime, unit);
+        }
+
+        @Override
+        public boolean release(T entityId, long fencingToken) {
+            return service().release(entityId, fencingToken);
+        }
+
+        @Override
+        public boolean isLocked(T entityId) {
+            return service().isLocked(entityId);
+        }
+    }
+}
@@ -0,0 +1,286 @@
+package com.kinkl;
+
+import com.kinkl.exception.MissingEntityLockException;
+import com.kinkl.exception.OtherThreadEntityUnlockAttemptException;
+import com.kinkl.exception.OtherThreadGlobalUnlockAttemptException;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Entity locker with a hard memory bound. Entity ids are hashed onto a fixed power-of-two array of padded locks (stripes), so locking
+ * allocates nothing per id and there is no map that grows with the number of ids. The price is that different entities mapped to the same
+ * stripe exclude each other.</p>
+ * <p>Reentrancy and deadlock detection work on stripes, not on ids: a thread holding a stripe may lock any entity of the stripe, unlocking
+ * releases one hold of the entity's stripe, and the deadlock detector sees threads waiting for stripes. Therefore a thread holding the shared
+ * lock of an entity can't lock another entity of the same stripe exclusively (that is an upgrade of the stripe), and two threads locking
+ * distinct entities of two common stripes in opposite order get {@link com.kinkl.exception.DeadlockThreatException}.</p>
+ * @param <T> the type of element id
+ */
+public class StripedEntityLocker<T> implements IGlobalEntityLocker<T> {
+
+    private final EntityLock[] stripes;
+
+    private final DeadlockDetector<T> deadlockDetector = new DeadlockDetector<>();
+
+    private final GlobalLock globalLock = new GlobalLock(this.deadlockDetector);
+
+    private final ThreadLocal<LockHolder<T>> lockHolders = ThreadLocal.withInitial(LockHolder::new);
+
+    /**
+     * @param stripeCount number of lock stripes, rounded up to a power of two
+     * @throws IllegalArgumentException if stripeCount is not positive or exceeds 2^30
+     */
+    public StripedEntityLocker(int stripeCount) {
+        if (stripeCount <= 0 || stripeCount > 1 << 30) {
+            throw new IllegalArgumentException("Stripe count must be positive and not greater than 2^30");
+        }
+        int capacity = stripeCount == 1 ? 1 : Integer.highestOneBit(stripeCount - 1) << 1;
+        this.stripes = new EntityLock[capacity];
+        for (int i = 0; i < capacity; i++) {
+            this.stripes[i] = new EntityLock(true);
+        }
+    }
+
+    @Override
+    public void lock(T entityId) {
+        lock(entityId, false);
+    }
+
+    @Override
+    public boolean tryLock(T entityId, long timeout, TimeUnit unit) throws InterruptedException {
+        Objects.requireNonNull(unit);
+        return tryLock(entityId, false, System.nanoTime() + unit.toNanos(timeout));
+    }
+
+    @Override
+    public void lockShared(T entityId) {
+        lock(entityId, true);
+    }
+
+    @Override
+    public boolean tryLockShared(T entityId, long timeout, TimeUnit unit) throws InterruptedException {
+        Objects.requireNonNull(unit);
+        return tryLock(entityId, true, System.nanoTime() + unit.toNanos(timeout));
+    }
+
+    private void lock(T entityId, boolean isShared) {
+        EntityLock stripe = stripeFor(entityId);
+        LockHolder<T> lockHolder = this.lockHolders.get();
+        if (lockHolder.heldEntityCount == 0) {
+            this.globalLock.enter();
+        }
+        boolean isAcquired = false;
+        try {
+            if (!(isShared ? stripe.tryLockShared() : stripe.tryLock())) {
+                this.deadlockDetector.beforeWait(entityId, stripe, isShared);
+                try {
+                    if (isShared) {
+                        stripe.lockShared();
+                    } else {
+                        stripe.lock();
+                    }
+                } finally {
+                    this.deadlockDetector.afterWait();
+                }
+            }
+            isAcquired = true;
+            if ((isShared ? stripe.getSharedHoldCount() : stripe.getHoldCount()) == 1) {
+                lockHolder.heldEntityCount++;
+            }
+        } finally {
+            if (!isAcquired && lockHolder.heldEntityCount == 0) {
+                this.globalLock.exit();
+            }
+        }
+    }
+
+    private boolean tryLock(T entityId, boolean isShared, long deadline) throws InterruptedException {
+        EntityLock stripe = stripeFor(entityId);
+        LockHolder<T> lockHolder = this.lockHolders.get();
+        if (lockHolder.heldEntityCount == 0 && !this.globalLock.tryEnter(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+            return false;
+        }
+        boolean isAcquired = false;
+        try {
+            isAcquired = isShared ? stripe.tryLockShared() : stripe.tryLock();
+            if (!isAcquired) {
+                this.deadlockDetector.beforeWait(entityId, stripe, isShared);
+                try {
+                    long remaining = deadline - System.nanoTime();
+                    isAcquired = isShared
+                            ? stripe.tryLockShared(remaining, TimeUnit.NANOSECONDS)
+                            : stripe.tryLock(remaining, TimeUnit.NANOSECONDS);
+                } finally {
+                    this.deadlockDetector.afterWait();
+                }
+            }
+            if (isAcquired && (isShared ? stripe.getSharedHoldCount() : stripe.getHoldCount()) == 1) {
+                lockHolder.heldEntityCount++;
+            }
+        } finally {
+            if (!isAcquired && lockHolder.heldEntityCount == 0) {
+                this.globalLock.exit();
+            }
+        }
+        return isAcquired;
+    }
+
+    @Override
+    public void unlock(T entityId) {
+        unlock(entityId, false);
+    }
+
+    @Override
+    public void unlockShared(T entityId) {
+        unlock(entityId, true);
+    }
+
+    private void unlock(T entityId, boolean isShared) {
+        EntityLock stripe = stripeFor(entityId);
+        int holdCount = isShared ? stripe.getSharedHoldCount() : stripe.getHoldCount();
+        if (holdCount == 0) {
+            throw isShared || stripe.isLockedByAnotherThread() ? otherThreadEntityUnlockAttempt(entityId, isShared) : missingEntityLock(entityId);
+        }
+        if (isShared) {
+            stripe.unlockShared();
+        } else {
+            stripe.unlock();
+        }
+        if (holdCount == 1) {
+            LockHolder<T> lockHolder = this.lockHolders.get();
+            if (--lockHolder.heldEntityCount == 0) {
+                this.globalLock.exit();
+            }
+        }
+    }
+
+    private static MissingEntityLockException missingEntityLock(Object entityId) {
+        return new MissingEntityLockException(String.format("There is no associated locks for entity with id %s", entityId.toString()));
+    }
+
+    private static OtherThreadEntityUnlockAttemptException otherThreadEntityUnlockAttempt(Object entityId, boolean isShared) {
+        String msg = isShared
+                ? String.format("The shared lock of entity with id %s is not held by current thread", entityId.toString())
+                : String.format("The lock of entity with id %s is held by another thread", entityId.toString());
+        return new OtherThreadEntityUnlockAttemptException(msg);
+    }
+
+    @Override
+    public boolean isLockedByAnotherThread(T entityId) {
+        EntityLock stripe = stripeFor(entityId);
+        return this.globalLock.isHeldByAnotherThread() || stripe.isLockedByAnotherThread();
+    }
+
+    @Override
+    public void lockAll(Collection<T> entityIds) {
+        List<T> orderedIds = toLockOrder(entityIds);
+        int lockedCount = 0;
+        try {
+            for (T entityId : orderedIds) {
+                lock(entityId, false);
+                lockedCount++;
+            }
+        } finally {
+            if (lockedCount < orderedIds.size()) {
+                unlockInReverseOrder(orderedIds, lockedCount);
+            }
+        }
+    }
+
+    @Override
+    public boolean tryLockAll(Collection<T> entityIds, long timeout, TimeUnit unit) throws InterruptedException {
+        Objects.requireNonNull(unit);
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        List<T> orderedIds = toLockOrder(entityIds);
+        int lockedCount = 0;
+        try {
+            for (T entityId : orderedIds) {
+                if (!tryLock(entityId, false, deadline)) {
+                    return false;
+                }
+                lockedCount++;
+            }
+        } finally {
+            if (lockedCount < orderedIds.size()) {
+                unlockInReverseOrder(orderedIds, lockedCount);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void unlockAll(Collection<T> entityIds) {
+        List<T> orderedIds = toLockOrder(entityIds);
+        unlockInReverseOrder(orderedIds, orderedIds.size());
+    }
+
+    private void unlockInReverseOrder(List<T> orderedIds, int count) {
+        for (int i = count - 1; i >= 0; i--) {
+            unlock(orderedIds.get(i), false);
+        }
+    }
+
+    /**
+     * Returns distinct ids sorted by stripe index. Since stripes are what is actually locked, this order is the same for all threads even for
+     * non-comparable ids.
+     */
+    private List<T> toLockOrder(Collection<T> entityIds) {
+        Objects.requireNonNull(entityIds);
+        List<T> orderedIds = new ArrayList<>(new HashSet<>(entityIds));
+        for (T entityId : orderedIds) {
+            Objects.requireNonNull(entityId);
+        }
+        orderedIds.sort(Comparator.comparingInt(this::stripeIndex));
+        return orderedIds;
+    }
+
+    @Override
+    public void lockGlobal() {
+        LockHolder<T> lockHolder = this.lockHolders.get();
+        this.globalLock.lock(lockHolder.heldEntityCount > 0);
+        lockHolder.globalHoldCount++;
+    }
+
+    @Override
+    public boolean tryLockGlobal(long timeout, TimeUnit unit) throws InterruptedException {
+        Objects.requireNonNull(unit);
+        LockHolder<T> lockHolder = this.lockHolders.get();
+        boolean isAcquired = this.globalLock.tryLock(lockHolder.heldEntityCount > 0, timeout, unit);
+        if (isAcquired) {
+            lockHolder.globalHoldCount++;
+        }
+        return isAcquired;
+    }
+
+    @Override
+    public void unlockGlobal() {
+        LockHolder<T> lockHolder = this.lockHolders.get();
+        if (lockHolder.globalHoldCount == 0) {
+            throw new OtherThreadGlobalUnlockAttemptException("The global lock is not held by current thread");
+        }
+        lockHolder.globalHoldCount--;
+        this.globalLock.unlock();
+    }
+
+    /**
+     * Returns the number of lock stripes.
+     */
+    public int getStripeCount() {
+        return this.stripes.length;
+    }
+
+    private EntityLock stripeFor(T entityId) {
+        return this.stripes[stripeIndex(entityId)];
+    }
+
+    int stripeIndex(T entityId) {
+        int hash = entityId.hashCode() * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & (this.stripes.length - 1);
+    }
+}
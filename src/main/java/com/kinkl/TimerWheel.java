@@ -0,0 +1,194 @@
+package com.kinkl;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <p>Hashed timing wheel running tasks after a delay with a precision of one tick. A task lands in the bucket of the tick it's due at; the
+ * wheel has a fixed number of buckets, so tasks due after a full turn wait for the number of turns left. Scheduling and cancelling are O(1)
+ * and allocate one timeout object, which makes the wheel suitable for millions of outstanding timeouts that are mostly cancelled before they
+ * expire, unlike a priority queue with O(log n) operations.</p>
+ * <p>Scheduling threads only add timeouts to a lock-free queue. A single daemon worker thread, started with the first timeout, moves them to
+ * the buckets and runs the expired tasks, so tasks must be short. A cancelled timeout stays in its bucket until the worker passes it.</p>
+ */
+final class TimerWheel {
+
+    private final long tickNanos;
+
+    private final Bucket[] buckets;
+
+    private final Queue<Timeout> addedTimeouts = new ConcurrentLinkedQueue<>();
+
+    private final String threadName;
+
+    private final AtomicBoolean isStarted = new AtomicBoolean();
+
+    private final long startNanos = System.nanoTime();
+
+    /**
+     * @param bucketCount number of buckets, rounded up to a power of two
+     */
+    TimerWheel(long tickDuration, TimeUnit unit, int bucketCount, String threadName) {
+        if (tickDuration <= 0 || bucketCount <= 0 || bucketCount > 1 << 30) {
+            throw new IllegalArgumentException("Tick duration and bucket count must be positive");
+        }
+        this.tickNanos = unit.toNanos(tickDuration);
+        int capacity = bucketCount == 1 ? 1 : Integer.highestOneBit(bucketCount - 1) << 1;
+        this.buckets = new Bucket[capacity];
+        for (int i = 0; i < capacity; i++) {
+            this.buckets[i] = new Bucket();
+        }
+        this.threadName = threadName;
+    }
+
+    /**
+     * Schedules the task to run once the delay has elapsed, not earlier and usually less than a tick later.
+     */
+    Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        if (!this.isStarted.get() && this.isStarted.compareAndSet(false, true)) {
+            Thread worker = new Thread(this::work, this.threadName);
+            worker.setDaemon(true);
+            worker.start();
+        }
+        Timeout timeout = new Timeout(task, System.nanoTime() - this.startNanos + unit.toNanos(delay));
+        this.addedTimeouts.offer(timeout);
+        return timeout;
+    }
+
+    private void work() {
+        long tick = (System.nanoTime() - this.startNanos) / this.tickNanos;
+        while (true) {
+            long tickDeadline = this.startNanos + (tick + 1) * this.tickNanos;
+            long sleepNanos;
+            while ((sleepNanos = tickDeadline - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(this, sleepNanos);
+            }
+            transferAddedTimeouts(tick);
+            this.buckets[(int) tick & (this.buckets.length - 1)].expire(tick);
+            tick++;
+        }
+    }
+
+    /**
+     * Moves the timeouts added since the last tick to their buckets. A timeout that is already due goes to the bucket of the current tick.
+     */
+    private void transferAddedTimeouts(long currentTick) {
+        Timeout timeout;
+        while ((timeout = this.addedTimeouts.poll()) != null) {
+            if (timeout.state == Timeout.CANCELLED) {
+                continue;
+            }
+            long dueTick = Math.max(currentTick, (timeout.deadlineNanos + this.tickNanos - 1) / this.tickNanos - 1);
+            timeout.dueTick = dueTick;
+            this.buckets[(int) dueTick & (this.buckets.length - 1)].add(timeout);
+        }
+    }
+
+    static final class Timeout {
+
+        private static final int WAITING = 0;
+
+        private static final int CANCELLED = 1;
+
+        private static final int EXPIRED = 2;
+
+        private static final AtomicIntegerFieldUpdater<Timeout> STATE_UPDATER = AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+
+        private final Runnable task;
+
+        /**
+         * Deadline relative to the start of the wheel
+         */
+        private final long deadlineNanos;
+
+        private volatile int state;
+
+        // Accessed only by the worker thread
+
+        private long dueTick;
+
+        private Timeout previous;
+
+        private Timeout next;
+
+        Timeout(Runnable task, long deadlineNanos) {
+            this.task = task;
+            this.deadlineNanos = deadlineNanos;
+        }
+
+        /**
+         * Cancels the timeout. Returns false if the task has already been started, so exactly one of cancelling and running succeeds.
+         */
+        boolean cancel() {
+            return STATE_UPDATER.compareAndSet(this, WAITING, CANCELLED);
+        }
+
+        boolean isExpired() {
+            return this.state == EXPIRED;
+        }
+    }
+
+    /**
+     * Doubly linked list of timeouts, accessed only by the worker thread
+     */
+    private static final class Bucket {
+
+        private Timeout head;
+
+        void add(Timeout timeout) {
+            timeout.next = this.head;
+            if (this.head != null) {
+                this.head.previous = timeout;
+            }
+            this.head = timeout;
+        }
+
+        private void remove(Timeout timeout) {
+            if (timeout.previous != null) {
+                timeout.previous.next = timeout.next;
+            } else {
+                this.head = timeout.next;
+            }
+            if (timeout.next != null) {
+                timeout.next.previous = timeout.previous;
+            }
+            timeout.previous = null;
+            timeout.next = null;
+        }
+
+        /**
+         * Runs the tasks due at the tick and drops cancelled timeouts. Timeouts due at later turns of the wheel stay.
+         */
+        void expire(long tick) {
+            Timeout timeout = this.head;
+            while (timeout != null) {
+                Timeout next = timeout.next;
+                if (timeout.state == Timeout.CANCELLED) {
+                    remove(timeout);
+                } else if (timeout.dueTick <= tick) {
+                    remove(timeout);
+                    if (Timeout.STATE_UPDATER.compareAndSet(timeout, Timeout.WAITING, Timeout.EXPIRED)) {
+                        run(timeout.task);
+                    }
+                }
+                timeout = next;
+            }
+        }
+
+        /**
+         * A failing task is reported like an uncaught exception, but doesn't stop the worker.
+         */
+        private static void run(Runnable task) {
+            try {
+                task.run();
+            } catch (RuntimeException | Error e) {
+                Thread worker = Thread.currentThread();
+                worker.getUncaughtExceptionHandler().uncaughtException(worker, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,8 @@
+package com.kinkl.exception;
+
+public class LeaseExpiredException extends RuntimeException {
+
+    public LeaseExpiredException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,8 @@
+package com.kinkl.exception;
+
+public class NodeUnavailableException extends RuntimeException {
+
+    public NodeUnavailableException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,8 @@
+package com.kinkl.exception;
+
+public class OtherThreadGlobalUnlockAttemptException extends RuntimeException {
+
+    public OtherThreadGlobalUnlockAttemptException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,273 @@
+package com.kinkl;
+
+import com.kinkl.exception.DeadlockThreatException;
+import com.kinkl.exception.MissingEntityLockException;
+import com.kinkl.exception.OtherThreadEntityUnlockAttemptException;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.Timeout;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class CompactEntityLockerTest {
+
+    @Rule
+    public ExpectedException expectedRule = ExpectedException.none();
+
+    @Rule
+    public Timeout timeout = new Timeout(10, TimeUnit.SECONDS);
+
+    private CompactEntityLocker<Integer> entityLocker;
+
+    @Before
+    public void setUp() {
+        this.entityLocker = new CompactEntityLocker<>();
+    }
+
+    private void inAnotherThread(InterruptibleRunnable code) throws InterruptedException {
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread thread = new Thread(() -> {
+            try {
+                code.run();
+            } catch (Throwable e) {
+                failure.set(e);
+            }
+        });
+        thread.start();
+        thread.join();
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+    }
+
+    private interface InterruptibleRunnable {
+        void run() throws InterruptedException;
+    }
+
+    private static void awaitParked(Thread thread) {
+        while (thread.getState() != Thread.State.WAITING && thread.getState() != Thread.State.TIMED_WAITING) {
+            Thread.yield();
+        }
+    }
+
+    @Test
+    public void testReentrantLockingKeepsOneEntry() throws InterruptedException {
+        this.entityLocker.lock(123);
+        this.entityLocker.lock(123);
+        assertTrue(this.entityLocker.tryLock(123, 0, TimeUnit.MILLISECONDS));
+        assertEquals(1, this.entityLocker.getEntryCount());
+        this.entityLocker.unlock(123);
+        this.entityLocker.unlock(123);
+        inAnotherThread(() -> {
+            assertTrue(this.entityLocker.isLockedByAnotherThread(123));
+            assertFalse(this.entityLocker.tryLock(123, 10, TimeUnit.MILLISECONDS));
+        });
+        assertFalse(this.entityLocker.isLockedByAnotherThread(123));
+        this.entityLocker.unlock(123);
+        assertEquals(0, this.entityLocker.getEntryCount());
+    }
+
+    @Test
+    public void testUnlockThrowsExceptionWhenEntityWasNotLocked() {
+        this.expectedRule.expect(MissingEntityLockException.class);
+        this.expectedRule.expectMessage("There is no associated locks for entity with id 123");
+        this.entityLocker.unlock(123);
+    }
+
+    @Test
+    public void testUnlockThrowsExceptionWhenEntityIsLockedByAnotherThread() throws InterruptedException {
+        inAnotherThread(() -> this.entityLocker.lock(123));
+        this.expectedRule.expect(OtherThreadEntityUnlockAttemptException.class);
+        this.expectedRule.expectMessage("The lock of entity with id 123 is held by another thread");
+        this.entityLocker.unlock(123);
+    }
+
+    @Test
+    public void testParkedThreadGetsLockOnRelease() throws InterruptedException {
+        this.entityLocker.lock(123);
+        AtomicBoolean isLocked = new AtomicBoolean();
+        Thread subThread = new Thread(() -> {
+            this.entityLocker.lock(123);
+            isLocked.set(true);
+            this.entityLocker.unlock(123);
+        });
+        subThread.start();
+        awaitParked(subThread);
+        assertFalse(isLocked.get());
+        this.entityLocker.unlock(123);
+        subThread.join();
+        assertTrue(isLocked.get());
+        assertEquals(0, this.entityLocker.getEntryCount());
+    }
+
+    @Test
+    public void testTimedOutWaiterLeavesNoEntryBehind() throws InterruptedException {
+        this.entityLocker.lock(123);
+        inAnotherThread(() -> assertFalse(this.entityLocker.tryLock(123, 20, TimeUnit.MILLISECONDS)));
+        this.entityLocker.unlock(123);
+        assertEquals(0, this.entityLocker.getEntryCount());
+    }
+
+    @Test
+    public void testInterruptedTryLockThrowsException() throws InterruptedException {
+        this.entityLocker.lock(123);
+        AtomicBoolean isInterrupted = new AtomicBoolean();
+        Thread subThread = new Thread(() -> {
+            try {
+                this.entityLocker.tryLock(123, 10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                isInterrupted.set(true);
+            }
+        });
+        subThread.start();
+        awaitParked(subThread);
+        subThread.interrupt();
+        subThread.join();
+        assertTrue(isInterrupted.get());
+        this.entityLocker.unlock(123);
+        assertEquals(0, this.entityLocker.getEntryCount());
+    }
+
+    @Test
+    public void testDowngradedLockAdmitsOnlyReaders() throws InterruptedException {
+        this.entityLocker.lock(123);
+        this.entityLocker.lockShared(123);
+        inAnotherThread(() -> assertFalse(this.entityLocker.tryLockShared(123, 10, TimeUnit.MILLISECONDS)));
+        this.entityLocker.unlock(123);
+        inAnotherThread(() -> {
+            assertTrue(this.entityLocker.tryLockShared(123, 10, TimeUnit.MILLISECONDS));
+            assertTrue(this.entityLocker.isLockedByAnotherThread(123));
+            this.entityLocker.unlockShared(123);
+            assertFalse(this.entityLocker.tryLock(123, 10, TimeUnit.MILLISECONDS));
+        });
+        this.entityLocker.unlockShared(123);
+        assertEquals(0, this.entityLocker.getEntryCount());
+    }
+
+    @Test
+    public void testParkedReadersAreAllWokenByWriterRelease() throws InterruptedException {
+        this.entityLocker.lock(123);
+        CountDownLatch readersLockedLatch = new CountDownLatch(3);
+        CountDownLatch readersMayUnlockLatch = new CountDownLatch(1);
+        Thread[] readers = new Thread[3];
+        for (int t = 0; t < readers.length; t++) {
+            readers[t] = new Thread(() -> {
+                this.entityLocker.lockShared(123);
+                readersLockedLatch.countDown();
+                try {
+                    readersMayUnlockLatch.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                } finally {
+                    this.entityLocker.unlockShared(123);
+                }
+            });
+            readers[t].start();
+            awaitParked(readers[t]);
+        }
+        this.entityLocker.unlock(123);
+        // Every reader gets the shared lock while the others still hold it
+        readersLockedLatch.await();
+        readersMayUnlockLatch.countDown();
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        assertEquals(0, this.entityLocker.getEntryCount());
+    }
+
+    @Test
+    public void testUpgradeCausesDeadlockThreat() {
+        this.entityLocker.lockShared(123);
+        this.expectedRule.expect(DeadlockThreatException.class);
+        this.entityLocker.lock(123);
+    }
+
+    @Test
+    public void testDeadlockIsDetected() throws InterruptedException {
+        CountDownLatch subThreadLockedLatch = new CountDownLatch(1);
+        Thread subThread = new Thread(() -> {
+            this.entityLocker.lock(2);
+            subThreadLockedLatch.countDown();
+            this.entityLocker.lock(1);
+            this.entityLocker.unlock(1);
+            this.entityLocker.unlock(2);
+        });
+        this.entityLocker.lock(1);
+        subThread.start();
+        subThreadLockedLatch.await();
+        awaitParked(subThread);
+        try {
+            this.entityLocker.lock(2);
+            fail("Deadlock was not detected");
+        } catch (DeadlockThreatException e) {
+            assertTrue(e.getMessage().contains("cannot lock entity with id 2"));
+        }
+        this.entityLocker.unlock(1);
+        subThread.join();
+        assertEquals(0, this.entityLocker.getEntryCount());
+    }
+
+    @Test
+    public void testLocksSurviveTableRebuilds() throws InterruptedException {
+        int count = 100_000;
+        for (int i = 0; i < count; i++) {
+            this.entityLocker.lock(i);
+        }
+        assertEquals(count, this.entityLocker.getEntryCount());
+        inAnotherThread(() -> {
+            for (int i = 0; i < count; i += 97) {
+                assertTrue(this.entityLocker.isLockedByAnotherThread(i));
+            }
+            assertFalse(this.entityLocker.isLockedByAnotherThread(count));
+        });
+        for (int i = 0; i < count; i++) {
+            this.entityLocker.unlock(i);
+        }
+        assertEquals(0, this.entityLocker.getEntryCount());
+    }
+
+    @Test
+    public void testMutualExclusionUnderContention() throws InterruptedException {
+        long[] counters = new long[64];
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 20_000; i++) {
+                    int first = ThreadLocalRandom.current().nextInt(counters.length);
+                    int second = ThreadLocalRandom.current().nextInt(counters.length);
+                    this.entityLocker.lockAll(Arrays.asList(first, second));
+                    counters[first]++;
+                    counters[second]++;
+                    this.entityLocker.unlockAll(Arrays.asList(first, second));
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(8 * 20_000 * 2, Arrays.stream(counters).sum());
+        assertEquals(0, this.entityLocker.getEntryCount());
+    }
+
+    @Test
+    public void testGlobalLockExcludesEntityLocks() throws InterruptedException {
+        this.entityLocker.lockGlobal();
+        inAnotherThread(() -> {
+            assertTrue(this.entityLocker.isLockedByAnotherThread(1));
+            assertFalse(this.entityLocker.tryLock(1, 10, TimeUnit.MILLISECONDS));
+        });
+        this.entityLocker.unlockGlobal();
+        assertTrue(this.entityLocker.tryLock(1, 0, TimeUnit.MILLISECONDS));
+        this.entityLocker.unlock(1);
+    }
+}
@@ -0,0 +1,207 @@
+package com.kinkl;
+
+import com.kinkl.exception.DeadlockThreatException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class DeadlockDetectorTest {
+
+    @Rule
+    public Timeout timeout = new Timeout(10, TimeUnit.SECONDS);
+
+    /**
+     * Owner 0 is the current thread, the others are asynchronous owners, so the whole graph is built by one thread. The model keeps the
+     * holder of every lock and the lock every owner waits for, and the oracle looks for cycles by following the model from scratch.
+     */
+    @Test
+    public void testRandomWaitsAgreeWithBruteForceOracle() {
+        Random random = new Random(42);
+        for (int round = 0; round < 200; round++) {
+            int ownerCount = 2 + random.nextInt(10);
+            int lockCount = 1 + random.nextInt(10);
+            Object[] owners = new Object[ownerCount];
+            owners[0] = Thread.currentThread();
+            for (int i = 1; i < ownerCount; i++) {
+                owners[i] = new AsyncLockOwner();
+            }
+            EntityLock[] locks = new EntityLock[lockCount];
+            for (int i = 0; i < lockCount; i++) {
+                locks[i] = new EntityLock();
+            }
+            int[] holders = new int[lockCount];
+            Arrays.fill(holders, -1);
+            int[] pendingLocks = new int[ownerCount];
+            Arrays.fill(pendingLocks, -1);
+            DeadlockDetector<Integer> detector = new DeadlockDetector<>();
+
+            for (int step = 0; step < 200; step++) {
+                int owner = random.nextInt(ownerCount);
+                int lockIndex = random.nextInt(lockCount);
+                switch (random.nextInt(4)) {
+                    case 0:
+                        if (pendingLocks[owner] >= 0) {
+                            break;
+                        }
+                        if (holders[lockIndex] < 0) {
+                            assertTrue(owner == 0 ? locks[lockIndex].tryLock() : locks[lockIndex].tryLockAsync(owners[owner]));
+                            holders[lockIndex] = owner;
+                        } else if (owner != 0) {
+                            boolean isDeadlock = reaches(holders[lockIndex], owner, holders, pendingLocks);
+                            try {
+                                detector.beforeWait(owners[owner], lockIndex, locks[lockIndex], false);
+                                assertFalse("Deadlock was not detected", isDeadlock);
+                                pendingLocks[owner] = lockIndex;
+                            } catch (DeadlockThreatException e) {
+                                assertTrue("False deadlock was detected", isDeadlock);
+                            }
+                        }
+                        break;
+                    case 1:
+                        if (pendingLocks[owner] >= 0) {
+                            detector.afterWait(owners[owner]);
+                            pendingLocks[owner] = -1;
+                        }
+                        break;
+                    case 2:
+                        if (holders[lockIndex] >= 0 && pendingLocks[holders[lockIndex]] < 0) {
+                            if (holders[lockIndex] == 0) {
+                                locks[lockIndex].unlock();
+                            } else {
+                                locks[lockIndex].unlockAsync();
+                            }
+                            holders[lockIndex] = -1;
+                        }
+                        break;
+                    default:
+                        boolean isDeadlock = false;
+                        for (int waiter = 1; waiter < ownerCount; waiter++) {
+                            isDeadlock |= reaches(waiter, 0, holders, pendingLocks);
+                        }
+                        try {
+                            detector.checkGlobalLockDoesNotCauseDeadlock();
+                            assertFalse("Deadlock was not detected", isDeadlock);
+                        } catch (DeadlockThreatException e) {
+                            assertTrue("False deadlock was detected", isDeadlock);
+                        }
+                }
+            }
+
+            for (int owner = 0; owner < ownerCount; owner++) {
+                if (pendingLocks[owner] >= 0) {
+                    detector.afterWait(owners[owner]);
+                }
+            }
+            assertEquals(0, detector.getWaiterCount());
+            for (int lockIndex = 0; lockIndex < lockCount; lockIndex++) {
+                if (holders[lockIndex] == 0) {
+                    locks[lockIndex].unlock();
+                }
+            }
+        }
+    }
+
+    private static boolean reaches(int from, int to, int[] holders, int[] pendingLocks) {
+        int owner = from;
+        for (int hop = 0; hop <= pendingLocks.length; hop++) {
+            if (owner == to) {
+                return true;
+            }
+            if (owner < 0 || pendingLocks[owner] < 0) {
+                return false;
+            }
+            owner = holders[pendingLocks[owner]];
+        }
+        return false;
+    }
+
+    @Test
+    public void testCyclicComponentsAgreeWithBruteForceOracle() {
+        Random random = new Random(42);
+        for (int round = 0; round < 500; round++) {
+            int nodeCount = 1 + random.nextInt(30);
+            Map<Object, List<Object>> graph = new HashMap<>();
+            for (int node = 0; node < nodeCount; node++) {
+                graph.put(node, new ArrayList<>());
+            }
+            int edgeCount = random.nextInt(2 * nodeCount);
+            for (int i = 0; i < edgeCount; i++) {
+                graph.get(random.nextInt(nodeCount)).add(random.nextInt(nodeCount));
+            }
+
+            Set<Object> cyclicNodes = new HashSet<>();
+            for (List<Object> component : DeadlockDetector.findCyclicComponents(graph)) {
+                for (Object node : component) {
+                    assertTrue(cyclicNodes.add(node));
+                    for (Object other : component) {
+                        assertTrue(reachable(graph, node).contains(other));
+                    }
+                }
+            }
+            for (Object node : graph.keySet()) {
+                assertEquals(reachable(graph, node).contains(node), cyclicNodes.contains(node));
+            }
+        }
+    }
+
+    /**
+     * Returns the nodes reachable from the node by a non-empty path.
+     */
+    private static Set<Object> reachable(Map<Object, List<Object>> graph, Object from) {
+        Set<Object> reached = new HashSet<>();
+        List<Object> queue = new ArrayList<>(graph.get(from));
+        while (!queue.isEmpty()) {
+            Object node = queue.remove(queue.size() - 1);
+            if (reached.add(node)) {
+                queue.addAll(graph.get(node));
+            }
+        }
+        return reached;
+    }
+
+    @Test
+    public void testEdgesAreRemovedOnTimeoutAndInterrupt() throws InterruptedException {
+        EntityLocker<Integer> locker = new EntityLocker<>();
+        locker.lock(123);
+        Thread timedOutThread = new Thread(() -> {
+            try {
+                assertFalse(locker.tryLock(123, 10, TimeUnit.MILLISECONDS));
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        timedOutThread.start();
+        timedOutThread.join();
+        assertEquals(0, locker.getWaiterCount());
+
+        Thread interruptedThread = new Thread(() -> {
+            try {
+                locker.tryLock(123, 10, TimeUnit.SECONDS);
+                fail("Wait was not interrupted");
+            } catch (InterruptedException e) {
+                // expected
+            }
+        });
+        interruptedThread.start();
+        while (locker.getWaiterCount() == 0) {
+            Thread.yield();
+        }
+        interruptedThread.interrupt();
+        interruptedThread.join();
+        assertEquals(0, locker.getWaiterCount());
+        locker.unlock(123);
+        assertEquals(0, locker.getEntityLockCount());
+    }
+}
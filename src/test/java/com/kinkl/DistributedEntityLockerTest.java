@@ -0,0 +1,217 @@
+package com.kinkl;
+
+import com.kinkl.exception.LeaseExpiredException;
+import com.kinkl.exception.MissingEntityLockException;
+import com.kinkl.exception.NodeUnavailableException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.Timeout;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class DistributedEntityLockerTest {
+
+    @Rule
+    public ExpectedException expectedRule = ExpectedException.none();
+
+    @Rule
+    public Timeout timeout = new Timeout(10, TimeUnit.SECONDS);
+
+    private LoopbackTransport<Integer> transport;
+
+    private DistributedEntityLocker<Integer> nodeA;
+
+    private DistributedEntityLocker<Integer> nodeB;
+
+    private DistributedEntityLocker<Integer> nodeC;
+
+    @Before
+    public void setUp() {
+        this.transport = new LoopbackTransport<>();
+        this.nodeA = newNode("node-a");
+        this.nodeB = newNode("node-b");
+        this.nodeC = newNode("node-c");
+    }
+
+    private DistributedEntityLocker<Integer> newNode(String nodeId) {
+        return DistributedEntityLocker.builder(nodeId, this.transport)
+                .nodes("node-a", "node-b", "node-c")
+                .leaseTime(300, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    @After
+    public void tearDown() {
+        this.nodeA.close();
+        this.nodeB.close();
+        this.nodeC.close();
+    }
+
+    private int findEntityOwnedBy(DistributedEntityLocker<Integer> node) {
+        int entityId = 0;
+        while (!this.nodeA.getOwnerNodeId(entityId).equals(node.getNodeId())) {
+            entityId++;
+        }
+        return entityId;
+    }
+
+    @Test
+    public void testRingMovesOnlyKeysOfRemovedNode() {
+        ConsistentHashRing threeNodeRing = new ConsistentHashRing(Arrays.asList("node-a", "node-b", "node-c"));
+        ConsistentHashRing twoNodeRing = new ConsistentHashRing(Arrays.asList("node-a", "node-b"));
+        Map<String, Integer> keyCounts = new HashMap<>();
+        for (int key = 0; key < 30_000; key++) {
+            String nodeId = threeNodeRing.getNodeId(key);
+            keyCounts.merge(nodeId, 1, Integer::sum);
+            if (!nodeId.equals("node-c")) {
+                assertEquals(nodeId, twoNodeRing.getNodeId(key));
+            }
+        }
+        for (int keyCount : keyCounts.values()) {
+            assertTrue(keyCount > 7_000 && keyCount < 13_000);
+        }
+    }
+
+    @Test
+    public void testLocalEntityIsLockedWithoutTransport() {
+        int entityId = findEntityOwnedBy(this.nodeA);
+        this.transport.disconnect("node-a");
+        this.nodeA.lock(entityId);
+        this.nodeA.unlock(entityId);
+        this.expectedRule.expect(NodeUnavailableException.class);
+        this.expectedRule.expectMessage("Node node-a is unavailable");
+        this.nodeB.lock(entityId);
+    }
+
+    @Test
+    public void testMutualExclusionAcrossNodes() throws InterruptedException {
+        long[] counters = new long[8];
+        List<Thread> threads = new ArrayList<>();
+        for (DistributedEntityLocker<Integer> node : Arrays.asList(this.nodeA, this.nodeB, this.nodeC)) {
+            for (int t = 0; t < 2; t++) {
+                Thread thread = new Thread(() -> {
+                    for (int i = 0; i < 2_000; i++) {
+                        int entityId = ThreadLocalRandom.current().nextInt(counters.length);
+                        node.lock(entityId);
+                        counters[entityId]++;
+                        node.unlock(entityId);
+                    }
+                });
+                threads.add(thread);
+                thread.start();
+            }
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(threads.size() * 2_000, Arrays.stream(counters).sum());
+    }
+
+    @Test
+    public void testFencingTokensGrowWithEveryHolder() {
+        int entityId = findEntityOwnedBy(this.nodeA);
+        this.nodeB.lock(entityId);
+        long firstToken = this.nodeB.getFencingToken(entityId);
+        this.nodeB.lock(entityId);
+        assertEquals(firstToken, this.nodeB.getFencingToken(entityId));
+        this.nodeB.unlock(entityId);
+        this.nodeB.unlock(entityId);
+
+        this.nodeC.lock(entityId);
+        long secondToken = this.nodeC.getFencingToken(entityId);
+        this.nodeC.unlock(entityId);
+
+        this.nodeA.lock(entityId);
+        long thirdToken = this.nodeA.getFencingToken(entityId);
+        this.nodeA.unlock(entityId);
+
+        assertTrue(firstToken < secondToken);
+        assertTrue(secondToken < thirdToken);
+    }
+
+    @Test
+    public void testRemoteAndLocalHoldersExcludeEachOther() throws InterruptedException {
+        int entityId = findEntityOwnedBy(this.nodeA);
+        this.nodeA.lock(entityId);
+        assertTrue(this.nodeB.isLockedByAnotherThread(entityId));
+        assertFalse(this.nodeB.tryLock(entityId, 50, TimeUnit.MILLISECONDS));
+        this.nodeA.unlock(entityId);
+
+        assertTrue(this.nodeB.tryLock(entityId, 1, TimeUnit.SECONDS));
+        assertFalse(this.nodeB.isLockedByAnotherThread(entityId));
+        Thread nodeAThread = new Thread(() -> {
+            assertTrue(this.nodeA.isLockedByAnotherThread(entityId));
+            try {
+                assertFalse(this.nodeA.tryLock(entityId, 50, TimeUnit.MILLISECONDS));
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        nodeAThread.start();
+        nodeAThread.join();
+        this.nodeB.unlock(entityId);
+        assertFalse(this.nodeC.isLockedByAnotherThread(entityId));
+    }
+
+    @Test
+    public void testLeaseIsKeptByRenewal() throws InterruptedException {
+        int entityId = findEntityOwnedBy(this.nodeA);
+        this.nodeB.lock(entityId);
+        Thread.sleep(600);
+        assertTrue(this.nodeC.isLockedByAnotherThread(entityId));
+        this.nodeB.unlock(entityId);
+    }
+
+    @Test
+    public void testExpiredLeaseIsReleasedAndReported() throws InterruptedException {
+        int entityId = findEntityOwnedBy(this.nodeA);
+        this.nodeB.lock(entityId);
+        long expiredToken = this.nodeB.getFencingToken(entityId);
+        this.transport.disconnect("node-a");
+        assertTrue(this.nodeA.tryLock(entityId, 3, TimeUnit.SECONDS));
+        assertTrue(this.nodeA.getFencingToken(entityId) > expiredToken);
+        this.nodeA.unlock(entityId);
+        this.transport.reconnect("node-a");
+
+        this.expectedRule.expect(LeaseExpiredException.class);
+        this.expectedRule.expectMessage(String.format("The lease of entity with id %d expired before it was released", entityId));
+        this.nodeB.unlock(entityId);
+    }
+
+    @Test
+    public void testUnlockThrowsExceptionWhenRemoteEntityWasNotLocked() {
+        int entityId = findEntityOwnedBy(this.nodeA);
+        this.expectedRule.expect(MissingEntityLockException.class);
+        this.expectedRule.expectMessage(String.format("There is no associated locks for entity with id %d", entityId));
+        this.nodeB.unlock(entityId);
+    }
+
+    @Test
+    public void testLockAllLocksEntitiesOfEveryNode() throws InterruptedException {
+        List<Integer> entityIds = Arrays.asList(findEntityOwnedBy(this.nodeA), findEntityOwnedBy(this.nodeB), findEntityOwnedBy(this.nodeC));
+        this.nodeA.lockAll(entityIds);
+        Thread nodeBThread = new Thread(() -> {
+            try {
+                assertFalse(this.nodeB.tryLockAll(entityIds, 50, TimeUnit.MILLISECONDS));
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        nodeBThread.start();
+        nodeBThread.join();
+        this.nodeA.unlockAll(entityIds);
+        assertTrue(this.nodeB.tryLockAll(entityIds, 1, TimeUnit.SECONDS));
+        this.nodeB.unlockAll(entityIds);
+    }
+}
@@ -0,0 +1,154 @@
+package com.kinkl;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.*;
+
+public class EntityLockerStressTest {
+
+    @Rule
+    public Timeout timeout = new Timeout(10, TimeUnit.SECONDS);
+
+    private static LockerStressHarness.Result run(LockerStressHarness harness) throws InterruptedException {
+        LockerStressHarness.Result result = harness.duration(400, TimeUnit.MILLISECONDS).run();
+        assertTrue(result.toString(), result.getViolations().isEmpty());
+        assertTrue(result.toString(), result.getOperationCount() > 0);
+        return result;
+    }
+
+    @Test
+    public void testEntityLocker() throws InterruptedException {
+        EntityLocker<Integer> locker = new EntityLocker<>();
+        run(new LockerStressHarness(locker).entityCount(4).interrupts());
+        assertEquals(0, locker.getEntityLockCount());
+    }
+
+    @Test
+    public void testEntityLockerReportsNoDeadlocksForOrderedLocking() throws InterruptedException {
+        EntityLocker<Integer> locker = new EntityLocker<>();
+        assertEquals(0, run(new LockerStressHarness(locker).orderedNesting()).getDeadlockCount());
+        assertEquals(0, locker.getEntityLockCount());
+    }
+
+    @Test
+    public void testFairEntityLockerWithBackgroundDeadlockDetection() throws InterruptedException {
+        EntityLocker<Integer> locker = EntityLocker.<Integer>builder()
+                .acquisitionPolicy(AcquisitionPolicy.fair())
+                .backgroundDeadlockDetection(5, TimeUnit.MILLISECONDS)
+                .build();
+        run(new LockerStressHarness(locker).interrupts());
+        assertEquals(0, locker.getEntityLockCount());
+    }
+
+    @Test
+    public void testCombiningEntityLocker() throws InterruptedException {
+        EntityLocker<Integer> locker = EntityLocker.<Integer>builder().combining(8).build();
+        run(new LockerStressHarness(locker).entityCount(4).interrupts());
+        assertEquals(0, locker.getEntityLockCount());
+    }
+
+    @Test
+    public void testStripedEntityLocker() throws InterruptedException {
+        run(new LockerStressHarness(new StripedEntityLocker<>(8)).interrupts());
+    }
+
+    @Test
+    public void testCompactEntityLocker() throws InterruptedException {
+        CompactEntityLocker<Integer> locker = new CompactEntityLocker<>();
+        run(new LockerStressHarness(locker).interrupts());
+        assertEquals(0, locker.getEntryCount());
+    }
+
+    @Test
+    public void testCompactEntityLockerReportsNoDeadlocksForOrderedLocking() throws InterruptedException {
+        CompactEntityLocker<Integer> locker = new CompactEntityLocker<>();
+        assertEquals(0, run(new LockerStressHarness(locker).orderedNesting()).getDeadlockCount());
+        assertEquals(0, locker.getEntryCount());
+    }
+
+    @Test
+    public void testHierarchicalEntityLocker() throws InterruptedException {
+        HierarchicalEntityLocker<Integer> locker = new HierarchicalEntityLocker<>(id -> null);
+        run(new LockerStressHarness(locker).interrupts());
+        assertEquals(0, locker.getNodeLockCount());
+    }
+
+    @Test
+    public void testHierarchicalEntityLockerWithParents() throws InterruptedException {
+        // Entities form a binary tree rooted at 0, so locks of a subtree conflict with locks of its nodes
+        HierarchicalEntityLocker<Integer> locker = new HierarchicalEntityLocker<>(id -> id == 0 ? null : (id - 1) / 2);
+        run(new LockerStressHarness(locker).lockingPaths().interrupts());
+        assertEquals(0, locker.getNodeLockCount());
+    }
+
+    @Test
+    public void testDistributedEntityLocker() throws InterruptedException {
+        LoopbackTransport<Integer> transport = new LoopbackTransport<>();
+        try (DistributedEntityLocker<Integer> nodeA = newNode("node-a", transport);
+             DistributedEntityLocker<Integer> nodeB = newNode("node-b", transport)) {
+            // Workers lock through node A only, so node B must own some of the entities for remote leases to be exercised
+            assertTrue(IntStream.range(0, 16).anyMatch(id -> nodeB.getNodeId().equals(nodeA.getOwnerNodeId(id))));
+            // Deadlocks spanning both nodes are not detected, so nesting is ordered, and any reported deadlock is a false positive
+            assertEquals(0, run(new LockerStressHarness(nodeA).orderedNesting().interrupts()).getDeadlockCount());
+        }
+    }
+
+    private static DistributedEntityLocker<Integer> newNode(String nodeId, LoopbackTransport<Integer> transport) {
+        return DistributedEntityLocker.builder(nodeId, transport)
+                .nodes("node-a", "node-b")
+                .leaseTime(1, TimeUnit.SECONDS)
+                .build();
+    }
+
+    @Test
+    public void testLongEntityLocker() throws InterruptedException {
+        LongEntityLocker locker = new LongEntityLocker();
+        run(new LockerStressHarness(new LongEntityLockerAdapter(locker)).entityCount(4).interrupts());
+        assertEquals(0, locker.getEntityLockCount());
+    }
+
+    @Test
+    public void testLongEntityLockerReportsNoDeadlocksForOrderedLocking() throws InterruptedException {
+        LongEntityLocker locker = new LongEntityLocker();
+        assertEquals(0, run(new LockerStressHarness(new LongEntityLockerAdapter(locker)).orderedNesting()).getDeadlockCount());
+        assertEquals(0, locker.getEntityLockCount());
+    }
+
+    /**
+     * Lets the harness drive {@link LongEntityLocker}. Shared and batch locking are the defaults of {@link IEntityLocker}, so shared locks
+     * are exclusive.
+     */
+    private static final class LongEntityLockerAdapter implements IEntityLocker<Integer> {
+
+        private final LongEntityLocker locker;
+
+        LongEntityLockerAdapter(LongEntityLocker locker) {
+            this.locker = locker;
+        }
+
+        @Override
+        public void lock(Integer entityId) {
+            this.locker.lock(entityId);
+        }
+
+        @Override
+        public void unlock(Integer entityId) {
+            this.locker.unlock(entityId);
+        }
+
+        @Override
+        public boolean isLockedByAnotherThread(Integer entityId) {
+            return this.locker.isLockedByAnotherThread(entityId);
+        }
+
+        @Override
+        public boolean tryLock(Integer entityId, long timeout, TimeUnit unit) throws InterruptedException {
+            return this.locker.tryLock(entityId, timeout, unit);
+        }
+    }
+}
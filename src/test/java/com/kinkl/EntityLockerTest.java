@@ -1,17 +1,34 @@
 package com.kinkl;
 
 import com.kinkl.exception.DeadlockThreatException;
+import com.kinkl.exception.LeaseExpiredException;
 import com.kinkl.exception.MissingEntityLockException;
 import com.kinkl.exception.OtherThreadEntityUnlockAttemptException;
+import com.kinkl.exception.OtherThreadGlobalUnlockAttemptException;
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 import org.junit.rules.Timeout;
 
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 import static org.junit.Assert.*;
 
@@ -23,7 +40,7 @@ public class EntityLockerTest {
     @Rule
     public Timeout timeout = new Timeout(10, TimeUnit.SECONDS);
 
-    private IEntityLocker<Integer> entityLocker;
+    private IGlobalEntityLocker<Integer> entityLocker;
 
     @Before
     public void setUp() {
@@ -400,6 +417,1291 @@ public class EntityLockerTest {
         fail();
     }
 
+    @Test
+    public void testBackgroundDeadlockDetectionAbortsYoungestWaiter() throws InterruptedException {
+        EntityLocker<Integer> locker = EntityLocker.<Integer>builder().backgroundDeadlockDetection(10, TimeUnit.MILLISECONDS).build();
+        Thread.currentThread().setName("Main Thread");
+        CountDownLatch subThreadLockedEntityLatch = new CountDownLatch(1);
+        AtomicBoolean subThreadLockedBothEntities = new AtomicBoolean();
+        Thread subThread = new Thread(() -> {
+            locker.lock(456);
+            subThreadLockedEntityLatch.countDown();
+            locker.lock(123);
+            subThreadLockedBothEntities.set(true);
+            locker.unlock(123);
+            locker.unlock(456);
+        }, "Sub Thread");
+        locker.lock(123);
+        subThread.start();
+        subThreadLockedEntityLatch.await();
+        while (subThread.getState() != Thread.State.WAITING) {
+            Thread.yield();
+        }
+        try {
+            locker.lock(456);
+            fail("Deadlock was not detected");
+        } catch (DeadlockThreatException e) {
+            assertEquals("Thread [Main Thread] cannot lock entity with id 456 because this will cause a deadlock. This entity is already locked by thread [Sub Thread]", e.getMessage());
+        }
+        assertFalse(Thread.currentThread().isInterrupted());
+        locker.unlock(123);
+        subThread.join();
+        assertTrue(subThreadLockedBothEntities.get());
+        assertEquals(0, locker.getEntityLockCount());
+    }
+
+    @Test
+    public void testBackgroundDeadlockDetectionKeepsOtherInterrupts() throws InterruptedException {
+        EntityLocker<Integer> locker = EntityLocker.<Integer>builder().backgroundDeadlockDetection(10, TimeUnit.MILLISECONDS).build();
+        locker.lock(123);
+        AtomicBoolean isInterruptKept = new AtomicBoolean();
+        Thread subThread = new Thread(() -> {
+            locker.lock(123);
+            isInterruptKept.set(Thread.currentThread().isInterrupted());
+            locker.unlock(123);
+        });
+        subThread.start();
+        while (subThread.getState() != Thread.State.WAITING) {
+            Thread.yield();
+        }
+        subThread.interrupt();
+        Thread.sleep(50);
+        locker.unlock(123);
+        subThread.join();
+        assertTrue(isInterruptKept.get());
+    }
+
+    @Test
+    public void testIdleEntityLocksAreReclaimed() {
+        EntityLocker<Integer> locker = new EntityLocker<>();
+        for (int i = 0; i < 100_000; i++) {
+            locker.lock(i);
+            locker.lock(i);
+            locker.unlock(i);
+            locker.unlock(i);
+        }
+        assertEquals(0, locker.getEntityLockCount());
+    }
+
+    @Test
+    public void testEntityLockIsKeptWhileAnotherThreadWaitsForIt() throws InterruptedException {
+        EntityLocker<Integer> locker = new EntityLocker<>();
+        CountDownLatch subThreadLockedEntityLatch = new CountDownLatch(1);
+        Thread subThread = new Thread(() -> {
+            locker.lock(123);
+            subThreadLockedEntityLatch.countDown();
+            try {
+                Thread.sleep(500);
+            } catch (InterruptedException e) {
+                fail();
+            }
+            locker.unlock(123);
+        });
+        subThread.start();
+
+        subThreadLockedEntityLatch.await(10, TimeUnit.SECONDS);
+        assertFalse(locker.tryLock(123, 10, TimeUnit.MILLISECONDS));
+        assertEquals(1, locker.getEntityLockCount());
+        locker.lock(123);
+        locker.unlock(123);
+        subThread.join();
+        assertEquals(0, locker.getEntityLockCount());
+        assertFalse(locker.isLockedByAnotherThread(123));
+    }
+
+    @Test
+    public void testConcurrentLockingOfSameEntitiesLeavesNoIdleLocks() throws InterruptedException {
+        EntityLocker<Integer> locker = new EntityLocker<>();
+        int[] counters = new int[16];
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 20_000; i++) {
+                    int entityId = ThreadLocalRandom.current().nextInt(counters.length);
+                    locker.lock(entityId);
+                    counters[entityId]++;
+                    locker.unlock(entityId);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        int total = 0;
+        for (int entityId = 0; entityId < counters.length; entityId++) {
+            locker.lock(entityId);
+            total += counters[entityId];
+            locker.unlock(entityId);
+        }
+        assertEquals(threads.length * 20_000, total);
+        assertEquals(0, locker.getEntityLockCount());
+    }
+
+    @Test
+    public void testDeadlockOfThreeThreadsIsPrevented() throws InterruptedException {
+        this.expectedRule.expect(DeadlockThreatException.class);
+        this.expectedRule.expectMessage("cannot lock entity with id 1 because this will cause a deadlock");
+        CountDownLatch subThreadsLockedEntitiesLatch = new CountDownLatch(2);
+        CountDownLatch mainThreadLockedEntityLatch = new CountDownLatch(1);
+        for (int i = 1; i <= 2; i++) {
+            int entityId = i;
+            Thread subThread = new Thread(() -> {
+                this.entityLocker.lock(entityId);
+                subThreadsLockedEntitiesLatch.countDown();
+                try {
+                    mainThreadLockedEntityLatch.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    fail();
+                }
+                this.entityLocker.lock(entityId + 1);
+            });
+            subThread.setDaemon(true);
+            subThread.start();
+        }
+        subThreadsLockedEntitiesLatch.await(10, TimeUnit.SECONDS);
+        this.entityLocker.lock(3);
+        mainThreadLockedEntityLatch.countDown();
+        Thread.sleep(1000); // Sub threads should start waiting for entities 2 and 3 before the main thread closes the cycle
+        this.entityLocker.lock(1);
+        fail();
+    }
+
+    @Test
+    public void testGlobalLockWaitsForProtectedCodeAndBlocksNewProtectedCode() throws InterruptedException {
+        CountDownLatch subThreadLockedEntityLatch = new CountDownLatch(1);
+        AtomicBoolean subThreadReleasedEntity = new AtomicBoolean();
+        Thread subThread = new Thread(() -> {
+            this.entityLocker.lock(123);
+            subThreadLockedEntityLatch.countDown();
+            try {
+                Thread.sleep(500);
+            } catch (InterruptedException e) {
+                fail();
+            }
+            // A thread inside protected code may lock more entities while the global lock is pending
+            this.entityLocker.lock(456);
+            this.entityLocker.unlock(456);
+            subThreadReleasedEntity.set(true);
+            this.entityLocker.unlock(123);
+        });
+        subThread.start();
+        subThreadLockedEntityLatch.await(10, TimeUnit.SECONDS);
+
+        this.entityLocker.lockGlobal();
+        assertTrue(subThreadReleasedEntity.get());
+
+        AtomicBoolean otherThreadLockedEntity = new AtomicBoolean();
+        Thread otherThread = new Thread(() -> {
+            assertTrue(this.entityLocker.isLockedByAnotherThread(789));
+            try {
+                assertFalse(this.entityLocker.tryLock(789, 100, TimeUnit.MILLISECONDS));
+            } catch (InterruptedException e) {
+                fail();
+            }
+            this.entityLocker.lock(789);
+            otherThreadLockedEntity.set(true);
+            this.entityLocker.unlock(789);
+        });
+        otherThread.start();
+        Thread.sleep(500);
+        assertFalse(otherThreadLockedEntity.get());
+        // The global lock owner may lock entities itself
+        this.entityLocker.lock(789);
+        this.entityLocker.unlock(789);
+        this.entityLocker.unlockGlobal();
+        otherThread.join();
+        assertTrue(otherThreadLockedEntity.get());
+    }
+
+    @Test
+    public void testTryLockGlobalTimeout() throws InterruptedException {
+        CountDownLatch subThreadLockedEntityLatch = new CountDownLatch(1);
+        CountDownLatch subThreadIsAllowedToUnlockEntityLatch = new CountDownLatch(1);
+        Thread subThread = new Thread(() -> {
+            this.entityLocker.lock(123);
+            subThreadLockedEntityLatch.countDown();
+            try {
+                subThreadIsAllowedToUnlockEntityLatch.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                fail();
+            }
+            this.entityLocker.unlock(123);
+        });
+        subThread.start();
+        subThreadLockedEntityLatch.await(10, TimeUnit.SECONDS);
+
+        assertFalse(this.entityLocker.tryLockGlobal(100, TimeUnit.MILLISECONDS));
+        // The failed attempt must not block protected code of other threads
+        this.entityLocker.lock(456);
+        this.entityLocker.unlock(456);
+        subThreadIsAllowedToUnlockEntityLatch.countDown();
+        assertTrue(this.entityLocker.tryLockGlobal(3, TimeUnit.SECONDS));
+        this.entityLocker.unlockGlobal();
+    }
+
+    @Test
+    public void testGlobalLockDeadlockIsPrevented() throws InterruptedException {
+        this.expectedRule.expect(DeadlockThreatException.class);
+        this.expectedRule.expectMessage("cannot acquire the global lock because this will cause a deadlock");
+        this.entityLocker.lock(123);
+        CountDownLatch subThreadLockedEntityLatch = new CountDownLatch(1);
+        Thread subThread = new Thread(() -> {
+            this.entityLocker.lock(456);
+            subThreadLockedEntityLatch.countDown();
+            this.entityLocker.lock(123);
+        });
+        subThread.setDaemon(true);
+        subThread.start();
+        subThreadLockedEntityLatch.await(10, TimeUnit.SECONDS);
+        Thread.sleep(500); // Sub thread should start waiting for entity 123
+        this.entityLocker.lockGlobal();
+    }
+
+    @Test
+    public void testUnlockGlobalThrowsExceptionWhenGlobalLockIsNotHeld() {
+        this.expectedRule.expect(OtherThreadGlobalUnlockAttemptException.class);
+        this.expectedRule.expectMessage("The global lock is not held by current thread");
+        this.entityLocker.unlockGlobal();
+    }
+
+    @Test
+    public void testLockEscalation() throws InterruptedException {
+        EntityLocker<Integer> locker = EntityLocker.<Integer>builder().escalationThreshold(3).build();
+        for (int i = 1; i <= 10; i++) {
+            locker.lock(i);
+        }
+        locker.lock(10);
+        assertEquals(1, locker.getEscalationCount());
+        assertEquals(3, locker.getEntityLockCount());
+
+        AtomicBoolean otherThreadLockedEntity = new AtomicBoolean();
+        Thread otherThread = new Thread(() -> {
+            assertTrue(locker.isLockedByAnotherThread(100));
+            locker.lock(100);
+            otherThreadLockedEntity.set(true);
+            locker.unlock(100);
+        });
+        otherThread.start();
+        Thread.sleep(500);
+        assertFalse(otherThreadLockedEntity.get());
+
+        locker.unlock(10);
+        for (int i = 10; i >= 1; i--) {
+            locker.unlock(i);
+        }
+        otherThread.join();
+        assertTrue(otherThreadLockedEntity.get());
+        assertEquals(1, locker.getDeescalationCount());
+        assertEquals(0, locker.getEntityLockCount());
+    }
+
+    @Test
+    public void testEntityHeldInBothModesCountsOnceTowardsEscalation() {
+        EntityLocker<Integer> locker = EntityLocker.<Integer>builder().escalationThreshold(2).build();
+        locker.lock(1);
+        locker.lockShared(1);
+        assertEquals(0, locker.getEscalationCount());
+        locker.unlock(1);
+        locker.lock(2);
+        assertEquals(1, locker.getEscalationCount());
+        locker.unlock(2);
+        locker.unlockShared(1);
+        assertEquals(1, locker.getDeescalationCount());
+        assertEquals(0, locker.getEntityLockCount());
+    }
+
+    @Test
+    public void testVirtualThreadFriendlyLockerDropsThreadStateOnlyWhenIdle() throws InterruptedException {
+        EntityLocker<Integer> locker = EntityLocker.<Integer>builder().escalationThreshold(2).virtualThreadFriendly().build();
+        locker.lock(1);
+        locker.lock(1);
+        locker.unlock(1);
+        assertFalse(locker.isLockedByAnotherThread(1));
+        locker.lock(2);
+        locker.lock(3);
+        assertEquals(1, locker.getEscalationCount());
+        locker.unlock(1);
+        locker.unlock(2);
+        locker.lockGlobal();
+        locker.unlock(3);
+        assertEquals(1, locker.getDeescalationCount());
+        locker.unlockGlobal();
+
+        Thread otherThread = new Thread(() -> {
+            try {
+                assertTrue(locker.tryLockGlobal(0, TimeUnit.MILLISECONDS));
+            } catch (InterruptedException e) {
+                fail();
+            }
+            locker.unlockGlobal();
+        });
+        otherThread.start();
+        otherThread.join();
+        assertEquals(0, locker.getEntityLockCount());
+        this.expectedRule.expect(OtherThreadGlobalUnlockAttemptException.class);
+        locker.unlockGlobal();
+    }
+
+    @Test
+    public void testLockEscalationIsSkippedWhenItCausesDeadlock() throws InterruptedException {
+        EntityLocker<Integer> locker = EntityLocker.<Integer>builder().escalationThreshold(2).build();
+        locker.lock(1);
+        CountDownLatch subThreadLockedEntityLatch = new CountDownLatch(1);
+        Thread subThread = new Thread(() -> {
+            locker.lock(100);
+            subThreadLockedEntityLatch.countDown();
+            locker.lock(1);
+            locker.unlock(1);
+            locker.unlock(100);
+        });
+        subThread.start();
+        subThreadLockedEntityLatch.await(10, TimeUnit.SECONDS);
+        Thread.sleep(500); // Sub thread should start waiting for entity 1
+
+        locker.lock(2);
+        assertEquals(0, locker.getEscalationCount());
+        assertEquals(1, locker.getFailedEscalationCount());
+        locker.unlock(2);
+        locker.unlock(1);
+        subThread.join();
+        assertEquals(0, locker.getEntityLockCount());
+    }
+
+    @Test
+    public void testSharedLockIsHeldByMultipleThreadsAndExcludesExclusiveLock() throws InterruptedException {
+        CountDownLatch subThreadsLockedEntityLatch = new CountDownLatch(2);
+        CountDownLatch subThreadsAreAllowedToUnlockEntityLatch = new CountDownLatch(1);
+        for (int i = 0; i < 2; i++) {
+            new Thread(() -> {
+                this.entityLocker.lockShared(123);
+                this.entityLocker.lockShared(123);
+                subThreadsLockedEntityLatch.countDown();
+                try {
+                    subThreadsAreAllowedToUnlockEntityLatch.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    fail();
+                }
+                this.entityLocker.unlockShared(123);
+                this.entityLocker.unlockShared(123);
+            }).start();
+        }
+        // Both sub threads hold the shared lock at the same time
+        assertTrue(subThreadsLockedEntityLatch.await(10, TimeUnit.SECONDS));
+        assertTrue(this.entityLocker.isLockedByAnotherThread(123));
+        assertTrue(this.entityLocker.tryLockShared(123, 1, TimeUnit.SECONDS));
+        this.entityLocker.unlockShared(123);
+        assertFalse(this.entityLocker.tryLock(123, 100, TimeUnit.MILLISECONDS));
+
+        subThreadsAreAllowedToUnlockEntityLatch.countDown();
+        assertTrue(this.entityLocker.tryLock(123, 3, TimeUnit.SECONDS));
+
+        // Downgrade: the exclusive owner may acquire the shared lock
+        this.entityLocker.lockShared(123);
+        this.entityLocker.unlock(123);
+        AtomicBoolean otherThreadLockedEntityShared = new AtomicBoolean();
+        Thread otherThread = new Thread(() -> {
+            this.entityLocker.lockShared(123);
+            otherThreadLockedEntityShared.set(true);
+            this.entityLocker.unlockShared(123);
+        });
+        otherThread.start();
+        otherThread.join();
+        assertTrue(otherThreadLockedEntityShared.get());
+        this.entityLocker.unlockShared(123);
+        assertFalse(this.entityLocker.isLockedByAnotherThread(123));
+    }
+
+    @Test
+    public void testSharedLockUpgradeIsPrevented() {
+        this.expectedRule.expect(DeadlockThreatException.class);
+        this.expectedRule.expectMessage("cannot lock entity with id 123 because this will cause a deadlock");
+        this.entityLocker.lockShared(123);
+        this.entityLocker.lock(123);
+    }
+
+    @Test
+    public void testUnlockSharedThrowsExceptionWhenSharedLockIsNotHeld() {
+        this.expectedRule.expect(OtherThreadEntityUnlockAttemptException.class);
+        this.expectedRule.expectMessage("The shared lock of entity with id 123 is not held by current thread");
+        this.entityLocker.lock(123);
+        this.entityLocker.unlockShared(123);
+    }
+
+    @Test
+    public void testDeadlockThroughSharedHolderIsPrevented() throws InterruptedException {
+        this.expectedRule.expect(DeadlockThreatException.class);
+        this.expectedRule.expectMessage("Thread [Main Thread] cannot lock entity with id 123 because this will cause a deadlock. This entity is already locked by thread [Reader Thread]");
+        Thread.currentThread().setName("Main Thread");
+        this.entityLocker.lock(456);
+        CountDownLatch subThreadLockedEntityLatch = new CountDownLatch(1);
+        Thread subThread = new Thread(() -> {
+            this.entityLocker.lockShared(123);
+            subThreadLockedEntityLatch.countDown();
+            this.entityLocker.lock(456);
+        });
+        subThread.setName("Reader Thread");
+        subThread.setDaemon(true);
+        subThread.start();
+        subThreadLockedEntityLatch.await(10, TimeUnit.SECONDS);
+        Thread.sleep(500); // Sub thread should start waiting for entity 456
+        this.entityLocker.lock(123);
+    }
+
+    @Test
+    public void testDeadlockThroughReaderQueuedBehindWriterIsPrevented() throws InterruptedException {
+        this.entityLocker.lock(123);
+        Thread writerThread = new Thread(() -> {
+            this.entityLocker.lock(123);
+            this.entityLocker.unlock(123);
+        });
+        writerThread.start();
+        while (writerThread.getState() != Thread.State.WAITING) {
+            Thread.yield();
+        }
+        CountDownLatch readerLockedEntityLatch = new CountDownLatch(1);
+        Thread readerThread = new Thread(() -> {
+            this.entityLocker.lock(456);
+            readerLockedEntityLatch.countDown();
+            this.entityLocker.lockShared(123);
+            this.entityLocker.unlockShared(123);
+            this.entityLocker.unlock(456);
+        });
+        readerThread.start();
+        readerLockedEntityLatch.await(10, TimeUnit.SECONDS);
+        while (readerThread.getState() != Thread.State.WAITING) {
+            Thread.yield();
+        }
+        // Downgrading keeps the writer and the reader queued behind it parked, so the reader waits for the shared lock of this thread
+        this.entityLocker.lockShared(123);
+        this.entityLocker.unlock(123);
+        try {
+            this.entityLocker.lock(456);
+            fail("Deadlock was not detected");
+        } catch (DeadlockThreatException e) {
+            assertTrue(e.getMessage().contains("cannot lock entity with id 456"));
+        }
+        this.entityLocker.unlockShared(123);
+        writerThread.join();
+        readerThread.join();
+    }
+
+    @Test
+    public void testOptimisticRead() throws InterruptedException {
+        EntityLocker<Integer> locker = EntityLocker.<Integer>builder().optimisticReads().build();
+        long stamp = locker.tryOptimisticRead(123);
+        assertNotEquals(0, stamp);
+        assertTrue(locker.validate(123, stamp));
+        // Shared locks and reentrant exclusive locks of the reader itself don't invalidate the stamp until the entity is changed
+        locker.lockShared(123);
+        locker.unlockShared(123);
+        assertTrue(locker.validate(123, stamp));
+
+        CountDownLatch subThreadLockedEntityLatch = new CountDownLatch(1);
+        CountDownLatch subThreadIsAllowedToUnlockEntityLatch = new CountDownLatch(1);
+        Thread subThread = new Thread(() -> {
+            locker.lock(123);
+            subThreadLockedEntityLatch.countDown();
+            try {
+                subThreadIsAllowedToUnlockEntityLatch.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                fail();
+            }
+            locker.unlock(123);
+        });
+        subThread.start();
+        subThreadLockedEntityLatch.await(10, TimeUnit.SECONDS);
+        assertFalse(locker.validate(123, stamp));
+        assertEquals(0, locker.tryOptimisticRead(123));
+        subThreadIsAllowedToUnlockEntityLatch.countDown();
+        subThread.join();
+
+        stamp = locker.tryOptimisticRead(123);
+        assertNotEquals(0, stamp);
+        locker.lockGlobal();
+        locker.unlockGlobal();
+        assertFalse(locker.validate(123, stamp));
+    }
+
+    @Test
+    public void testOptimisticReadThrowsExceptionWhenItIsNotEnabled() {
+        this.expectedRule.expect(IllegalStateException.class);
+        this.expectedRule.expectMessage("Optimistic reads are not enabled for this locker");
+        new EntityLocker<Integer>().tryOptimisticRead(123);
+    }
+
+    @Test
+    public void testLockAllLocksEveryEntityOnce() throws InterruptedException {
+        EntityLocker<Integer> locker = new EntityLocker<>();
+        locker.lockAll(Arrays.asList(3, 1, 2, 3));
+        Thread subThread = new Thread(() -> {
+            for (int entityId = 1; entityId <= 3; entityId++) {
+                assertTrue(locker.isLockedByAnotherThread(entityId));
+            }
+        });
+        subThread.start();
+        subThread.join();
+        locker.unlockAll(Arrays.asList(1, 2, 3));
+        assertEquals(0, locker.getEntityLockCount());
+    }
+
+    @Test
+    public void testTryLockAllLocksNothingWhenSomeEntityIsUnavailable() throws InterruptedException {
+        EntityLocker<Integer> locker = new EntityLocker<>();
+        CountDownLatch subThreadLockedEntityLatch = new CountDownLatch(1);
+        CountDownLatch subThreadIsAllowedToUnlockEntityLatch = new CountDownLatch(1);
+        Thread subThread = new Thread(() -> {
+            locker.lock(2);
+            subThreadLockedEntityLatch.countDown();
+            try {
+                subThreadIsAllowedToUnlockEntityLatch.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                fail();
+            }
+            for (int entityId = 1; entityId <= 3; entityId++) {
+                assertFalse(locker.isLockedByAnotherThread(entityId));
+            }
+            locker.unlock(2);
+        });
+        subThread.start();
+        subThreadLockedEntityLatch.await(10, TimeUnit.SECONDS);
+
+        assertFalse(locker.tryLockAll(Arrays.asList(1, 2, 3), 100, TimeUnit.MILLISECONDS));
+        subThreadIsAllowedToUnlockEntityLatch.countDown();
+        subThread.join();
+        assertTrue(locker.tryLockAll(Arrays.asList(1, 2, 3), 1, TimeUnit.SECONDS));
+        locker.unlockAll(Arrays.asList(1, 2, 3));
+        assertEquals(0, locker.getEntityLockCount());
+    }
+
+    @Test
+    public void testLockAllReleasesLockedEntitiesWhenDeadlockIsPrevented() throws InterruptedException {
+        EntityLocker<Integer> locker = new EntityLocker<>();
+        locker.lock(100);
+        CountDownLatch subThreadLockedEntityLatch = new CountDownLatch(1);
+        Thread subThread = new Thread(() -> {
+            locker.lock(2);
+            subThreadLockedEntityLatch.countDown();
+            locker.lock(100);
+            locker.unlock(100);
+            locker.unlock(2);
+        });
+        subThread.start();
+        subThreadLockedEntityLatch.await(10, TimeUnit.SECONDS);
+        Thread.sleep(500); // Sub thread should start waiting for entity 100
+
+        try {
+            locker.lockAll(Arrays.asList(1, 2, 3));
+            fail();
+        } catch (DeadlockThreatException e) {
+            // expected
+        }
+        // Entity 1 locked by the batch must have been released, only entities 2 and 100 remain locked
+        assertEquals(2, locker.getEntityLockCount());
+        locker.unlock(100);
+        subThread.join();
+        assertEquals(0, locker.getEntityLockCount());
+    }
+
+    @Test
+    public void testLockAllHoldsNoEntitiesWhileWaiting() throws InterruptedException {
+        EntityLocker<Integer> locker = new EntityLocker<>();
+        locker.lock(2);
+        Thread subThread = new Thread(() -> {
+            locker.lockAll(Arrays.asList(1, 2, 3));
+            locker.unlockAll(Arrays.asList(1, 2, 3));
+        });
+        subThread.start();
+        while (subThread.getState() != Thread.State.WAITING) {
+            Thread.yield();
+        }
+        // The batch gave entity 1 back before waiting for entity 2, so it can't take part in a deadlock
+        assertFalse(locker.isLockedByAnotherThread(1));
+        assertFalse(locker.isLockedByAnotherThread(3));
+        locker.lock(1);
+        locker.unlock(1);
+        locker.unlock(2);
+        subThread.join();
+        assertEquals(0, locker.getEntityLockCount());
+    }
+
+    @Test
+    public void testExecuteUnlocksEntityWhenProtectedCodeThrowsException() throws InterruptedException {
+        try {
+            this.entityLocker.execute(123, () -> {
+                throw new IllegalStateException("Protected code failed");
+            });
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("Protected code failed", e.getMessage());
+        }
+        Thread subThread = new Thread(() -> assertEquals("A", this.entityLocker.compute(123, () -> "A")));
+        subThread.start();
+        subThread.join();
+        assertTrue(this.entityLocker.execute(123, 1, TimeUnit.SECONDS, () -> assertFalse(this.entityLocker.isLockedByAnotherThread(123))));
+    }
+
+    @Test
+    public void testTimedComputeThrowsExceptionWhenEntityIsUnavailable() throws InterruptedException, TimeoutException {
+        this.expectedRule.expect(TimeoutException.class);
+        this.expectedRule.expectMessage("The lock of entity with id 123 was not acquired within 100 MILLISECONDS");
+        CountDownLatch subThreadLockedEntityLatch = new CountDownLatch(1);
+        Thread subThread = new Thread(() -> this.entityLocker.execute(123, () -> {
+            subThreadLockedEntityLatch.countDown();
+            try {
+                Thread.sleep(1000);
+            } catch (InterruptedException e) {
+                fail();
+            }
+        }));
+        subThread.setDaemon(true);
+        subThread.start();
+        subThreadLockedEntityLatch.await(10, TimeUnit.SECONDS);
+        assertFalse(this.entityLocker.execute(123, 100, TimeUnit.MILLISECONDS, Assert::fail));
+        this.entityLocker.compute(123, 100, TimeUnit.MILLISECONDS, () -> "A");
+    }
+
+    @Test
+    public void testAsyncLockIsOwnedByHandle() throws Exception {
+        EntityLocker<Integer> entityLocker = new EntityLocker<>();
+        EntityLockHandle<Integer> handle = entityLocker.lockAsync(123).toCompletableFuture().get();
+        assertEquals(Integer.valueOf(123), handle.getEntityId());
+        assertTrue(entityLocker.isLockedByAnotherThread(123));
+        try {
+            entityLocker.unlock(123);
+            fail("Thread unlocked entity held by handle");
+        } catch (OtherThreadEntityUnlockAttemptException e) {
+            assertEquals("The lock of entity with id 123 is held by another thread", e.getMessage());
+        }
+        Thread subThread = new Thread(handle::unlock);
+        subThread.start();
+        subThread.join();
+        assertFalse(entityLocker.isLockedByAnotherThread(123));
+        assertEquals(0, entityLocker.getEntityLockCount());
+        this.expectedRule.expect(MissingEntityLockException.class);
+        this.expectedRule.expectMessage("The lock handle of entity with id 123 is already released");
+        handle.unlock();
+    }
+
+    @Test
+    public void testAsyncLocksAreGrantedInFifoOrder() throws Exception {
+        EntityLocker<Integer> entityLocker = new EntityLocker<>();
+        entityLocker.lock(123);
+        List<Integer> grantOrder = new CopyOnWriteArrayList<>();
+        List<CompletableFuture<EntityLockHandle<Integer>>> requests = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            int requestNumber = i;
+            requests.add(entityLocker.lockAsync(123).toCompletableFuture().whenComplete((handle, e) -> grantOrder.add(requestNumber)));
+        }
+        assertTrue(grantOrder.isEmpty());
+        entityLocker.unlock(123);
+        for (int i = 0; i < requests.size(); i++) {
+            EntityLockHandle<Integer> handle = requests.get(i).get();
+            for (int j = i + 1; j < requests.size(); j++) {
+                assertFalse(requests.get(j).isDone());
+            }
+            handle.unlock();
+        }
+        assertEquals(Arrays.asList(0, 1, 2), grantOrder);
+        assertEquals(0, entityLocker.getEntityLockCount());
+    }
+
+    @Test
+    public void testAsyncDeadlockIsPrevented() throws Exception {
+        EntityLocker<Integer> entityLocker = new EntityLocker<>();
+        EntityLockHandle<Integer> handle = entityLocker.lockAsync(456).toCompletableFuture().get();
+        CountDownLatch subThreadLockedLatch = new CountDownLatch(1);
+        Thread subThread = new Thread(() -> {
+            entityLocker.lock(123);
+            subThreadLockedLatch.countDown();
+            entityLocker.lock(456);
+            entityLocker.unlock(456);
+            entityLocker.unlock(123);
+        }, "Sub Thread");
+        subThread.start();
+        subThreadLockedLatch.await();
+        while (subThread.getState() != Thread.State.WAITING) {
+            Thread.yield();
+        }
+        CompletableFuture<EntityLockHandle<Integer>> request = handle.lockAsync(123).toCompletableFuture();
+        try {
+            request.get();
+            fail("Deadlock was not detected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof DeadlockThreatException);
+            assertTrue(e.getCause().getMessage().endsWith("cannot lock entity with id 123 because this will cause a deadlock. This entity is already locked by thread [Sub Thread]"));
+        }
+        handle.unlock();
+        subThread.join();
+        assertEquals(0, entityLocker.getEntityLockCount());
+    }
+
+    @Test
+    public void testAsyncLockWaitsForGlobalLock() throws Exception {
+        EntityLocker<Integer> entityLocker = new EntityLocker<>();
+        entityLocker.lockGlobal();
+        CompletableFuture<EntityLockHandle<Integer>> request = entityLocker.lockAsync(123).toCompletableFuture();
+        assertFalse(request.isDone());
+        entityLocker.unlockGlobal();
+        request.get().unlock();
+        assertTrue(entityLocker.tryLockGlobal(0, TimeUnit.MILLISECONDS));
+        entityLocker.unlockGlobal();
+    }
+
+    @Test
+    public void testMetrics() throws Exception {
+        EntityLocker<Integer> locker = EntityLocker.<Integer>builder().metrics(1).build();
+        locker.lock(1);
+        locker.unlock(1);
+        CountDownLatch subThreadLockedLatch = new CountDownLatch(1);
+        CountDownLatch mainThreadTimedOutLatch = new CountDownLatch(1);
+        Thread subThread = new Thread(() -> {
+            locker.lock(2);
+            subThreadLockedLatch.countDown();
+            try {
+                mainThreadTimedOutLatch.await();
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                fail();
+            }
+            locker.unlock(2);
+        });
+        subThread.start();
+        subThreadLockedLatch.await();
+        assertFalse(locker.tryLock(2, 10, TimeUnit.MILLISECONDS));
+        mainThreadTimedOutLatch.countDown();
+        locker.lock(2);
+        locker.unlock(2);
+        subThread.join();
+
+        LockMetricsSnapshot<Integer> metrics = locker.getMetrics();
+        assertEquals(3, metrics.getAcquisitionCount());
+        assertEquals(2, metrics.getContendedAcquisitionCount());
+        assertEquals(1, metrics.getTimeoutCount());
+        assertEquals(0, metrics.getDeadlockCount());
+        assertEquals(0, metrics.getEntityLockCount());
+        assertEquals(2, metrics.getWaitTime().getCount());
+        assertTrue(metrics.getWaitTime().getValueAtPercentile(50) >= TimeUnit.MILLISECONDS.toNanos(10) * 7 / 8);
+        assertTrue(metrics.getWaitTime().getValueAtPercentile(100) <= metrics.getWaitTime().getMax());
+        assertEquals(1, metrics.getHotKeys().size());
+        assertEquals(Integer.valueOf(2), metrics.getHotKeys().get(0).getEntityId());
+        assertEquals(2, metrics.getHotKeys().get(0).getCount());
+
+        ObjectName objectName = locker.registerMXBean("com.kinkl:type=EntityLocker,name=testMetrics");
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            assertEquals(1L, server.getAttribute(objectName, "TimeoutCount"));
+            assertArrayEquals(new String[]{"2=2"}, (String[]) server.getAttribute(objectName, "HotKeys"));
+        } finally {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        }
+    }
+
+    @Test
+    public void testMetricsThrowExceptionWhenTheyAreNotEnabled() {
+        this.expectedRule.expect(IllegalStateException.class);
+        this.expectedRule.expectMessage("Metrics are not enabled for this locker");
+        new EntityLocker<Integer>().getMetrics();
+    }
+
+    @Test
+    public void testFairPolicyGrantsLockInArrivalOrder() throws InterruptedException {
+        EntityLocker<Integer> locker = EntityLocker.<Integer>builder().acquisitionPolicy(AcquisitionPolicy.fair()).build();
+        List<Integer> lockOrder = new CopyOnWriteArrayList<>();
+        CountDownLatch mainThreadTriedToBargeLatch = new CountDownLatch(1);
+        locker.lock(123);
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            int threadIndex = i;
+            threads[i] = new Thread(() -> {
+                locker.lock(123);
+                lockOrder.add(threadIndex);
+                try {
+                    mainThreadTriedToBargeLatch.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                locker.unlock(123);
+            });
+            threads[i].start();
+            while (threads[i].getState() != Thread.State.WAITING) {
+                Thread.yield();
+            }
+        }
+        locker.unlock(123);
+        assertFalse(locker.tryLock(123, 0, TimeUnit.MILLISECONDS));
+        mainThreadTriedToBargeLatch.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(Arrays.asList(0, 1, 2, 3), lockOrder);
+        assertEquals(0, locker.getEntityLockCount());
+    }
+
+    @Test
+    public void testFairPolicyMakesAsyncLockWaitForQueuedThreads() throws Exception {
+        EntityLocker<Integer> locker = EntityLocker.<Integer>builder().acquisitionPolicy(AcquisitionPolicy.fair()).build();
+        AtomicBoolean isThreadServed = new AtomicBoolean();
+        locker.lock(123);
+        Thread subThread = new Thread(() -> {
+            locker.lock(123);
+            isThreadServed.set(true);
+            locker.unlock(123);
+        });
+        subThread.start();
+        while (subThread.getState() != Thread.State.WAITING) {
+            Thread.yield();
+        }
+        locker.unlock(123);
+        EntityLockHandle<Integer> handle = locker.lockAsync(123).toCompletableFuture().get();
+        assertTrue(isThreadServed.get());
+        handle.unlock();
+        subThread.join();
+        assertEquals(0, locker.getEntityLockCount());
+    }
+
+    @Test
+    public void testFairPolicyDoesNotQueueReentrantSharedLock() throws InterruptedException {
+        EntityLocker<Integer> locker = EntityLocker.<Integer>builder().acquisitionPolicy(AcquisitionPolicy.fair()).build();
+        locker.lockShared(123);
+        Thread subThread = new Thread(() -> {
+            locker.lock(123);
+            locker.unlock(123);
+        });
+        subThread.start();
+        while (subThread.getState() != Thread.State.WAITING) {
+            Thread.yield();
+        }
+        assertTrue(locker.tryLockShared(123, 0, TimeUnit.MILLISECONDS));
+        Thread otherThread = new Thread(() -> {
+            try {
+                assertFalse(locker.tryLockShared(123, 0, TimeUnit.MILLISECONDS));
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        otherThread.start();
+        otherThread.join();
+        locker.unlockShared(123);
+        locker.unlockShared(123);
+        subThread.join();
+        assertEquals(0, locker.getEntityLockCount());
+    }
+
+    @Test
+    public void testBoundedBargingPolicyStopsBargingAfterMaxWait() throws InterruptedException {
+        EntityLocker<Integer> locker = EntityLocker.<Integer>builder()
+                .acquisitionPolicy(AcquisitionPolicy.boundedBarging(20, TimeUnit.MILLISECONDS))
+                .build();
+        CountDownLatch mainThreadTriedToBargeLatch = new CountDownLatch(1);
+        locker.lock(123);
+        Thread subThread = new Thread(() -> {
+            locker.lock(123);
+            try {
+                mainThreadTriedToBargeLatch.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            locker.unlock(123);
+        });
+        subThread.start();
+        while (subThread.getState() != Thread.State.WAITING) {
+            Thread.yield();
+        }
+        Thread.sleep(50);
+        locker.unlock(123);
+        assertFalse(locker.tryLock(123, 0, TimeUnit.MILLISECONDS));
+        mainThreadTriedToBargeLatch.countDown();
+        subThread.join();
+        assertEquals(0, locker.getEntityLockCount());
+    }
+
+    @Test
+    public void testMutualExclusionUnderEveryAcquisitionPolicy() throws InterruptedException {
+        AcquisitionPolicy[] policies = {
+                AcquisitionPolicy.barging(),
+                AcquisitionPolicy.fair(),
+                AcquisitionPolicy.boundedBarging(1, TimeUnit.MILLISECONDS),
+                AcquisitionPolicy.spinThenPark()
+        };
+        for (AcquisitionPolicy policy : policies) {
+            EntityLocker<Integer> locker = EntityLocker.<Integer>builder().acquisitionPolicy(policy).build();
+            long[] counters = new long[4];
+            Thread[] threads = new Thread[8];
+            for (int t = 0; t < threads.length; t++) {
+                threads[t] = new Thread(() -> {
+                    for (int i = 0; i < 10_000; i++) {
+                        int entityId = ThreadLocalRandom.current().nextInt(counters.length);
+                        if (i % 4 == 0) {
+                            locker.lockShared(entityId);
+                            assertTrue(counters[entityId] >= 0);
+                            locker.unlockShared(entityId);
+                        } else {
+                            locker.lock(entityId);
+                            counters[entityId]++;
+                            locker.unlock(entityId);
+                        }
+                    }
+                });
+                threads[t].start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            assertEquals(policy.toString(), threads.length * 7_500, Arrays.stream(counters).sum());
+            assertEquals(0, locker.getEntityLockCount());
+        }
+    }
+
+    @Test
+    public void testExpiredLeaseIsRevokedAndLateUnlockIsRejected() throws InterruptedException {
+        EntityLocker<Integer> locker = new EntityLocker<>();
+        locker.lockWithLease(1, 100, TimeUnit.MILLISECONDS);
+        locker.lock(1);
+        AtomicBoolean isAcquired = new AtomicBoolean();
+        Thread waiter = new Thread(() -> {
+            locker.lock(1);
+            isAcquired.set(true);
+            locker.unlock(1);
+        });
+        waiter.start();
+        waiter.join();
+        assertTrue(isAcquired.get());
+        assertEquals(1, locker.getExpiredLeaseCount());
+        try {
+            locker.unlock(1);
+            fail();
+        } catch (LeaseExpiredException e) {
+            assertEquals("The lease of entity with id 1 expired before it was released", e.getMessage());
+        }
+        this.expectedRule.expect(LeaseExpiredException.class);
+        this.expectedRule.expectMessage("The lease of entity with id 1 expired before it was released");
+        locker.unlock(1);
+    }
+
+    @Test
+    public void testLeaseReleasedInTimeKeepsLockExclusive() throws InterruptedException {
+        EntityLocker<Integer> locker = new EntityLocker<>();
+        assertTrue(locker.tryLockWithLease(1, 1, 10, TimeUnit.SECONDS));
+        locker.lockShared(1);
+        assertFalse(locker.isLockedByAnotherThread(1));
+        Thread otherThread = new Thread(() -> {
+            assertTrue(locker.isLockedByAnotherThread(1));
+            try {
+                assertFalse(locker.tryLockWithLease(1, 50, 1_000, TimeUnit.MILLISECONDS));
+                assertFalse(locker.tryLock(1, 50, TimeUnit.MILLISECONDS));
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        otherThread.start();
+        otherThread.join();
+        locker.unlockShared(1);
+        locker.unlock(1);
+        assertEquals(0, locker.getExpiredLeaseCount());
+        assertTrue(locker.tryLock(1, 1, TimeUnit.SECONDS));
+        locker.unlock(1);
+    }
+
+    @Test
+    public void testLeaseIsRejectedForEntityLockedWithoutLease() {
+        EntityLocker<Integer> locker = new EntityLocker<>();
+        locker.lock(1);
+        this.expectedRule.expect(DeadlockThreatException.class);
+        this.expectedRule.expectMessage("cannot lease entity with id 1 because this will cause a deadlock");
+        locker.lockWithLease(1, 1, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testLeaseWaitClosingCycleCausesDeadlockThreat() throws InterruptedException {
+        EntityLocker<Integer> locker = new EntityLocker<>();
+        locker.lock(1);
+        CountDownLatch lockedLatch = new CountDownLatch(1);
+        Thread otherThread = new Thread(() -> {
+            locker.lock(2);
+            lockedLatch.countDown();
+            locker.lock(1);
+            locker.unlock(1);
+            locker.unlock(2);
+        });
+        otherThread.start();
+        lockedLatch.await();
+        while (otherThread.getState() != Thread.State.WAITING) {
+            Thread.yield();
+        }
+        try {
+            locker.lockWithLease(2, 1, TimeUnit.HOURS);
+            fail();
+        } catch (DeadlockThreatException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("cannot lock entity with id 2 because this will cause a deadlock"));
+        } finally {
+            locker.unlock(1);
+        }
+        otherThread.join();
+        assertEquals(0, locker.getEntityLockCount());
+    }
+
+    @Test
+    public void testWaitClosingCycleThroughLeaseCausesDeadlockThreat() throws InterruptedException {
+        EntityLocker<Integer> locker = new EntityLocker<>();
+        CountDownLatch leasedLatch = new CountDownLatch(1);
+        CountDownLatch lockedLatch = new CountDownLatch(1);
+        Thread leaseThread = new Thread(() -> {
+            locker.lockWithLease(1, 1, TimeUnit.HOURS);
+            leasedLatch.countDown();
+            try {
+                lockedLatch.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            locker.lock(2);
+            locker.unlock(2);
+            locker.unlock(1);
+        }, "lease-thread");
+        leaseThread.start();
+        leasedLatch.await();
+        locker.lock(2);
+        lockedLatch.countDown();
+        while (locker.getWaiterCount() == 0) {
+            Thread.yield();
+        }
+        try {
+            locker.lock(1);
+            fail();
+        } catch (DeadlockThreatException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("cannot lock entity with id 1 because this will cause a deadlock. "
+                    + "This entity is already locked by thread [lease-thread]"));
+        } finally {
+            locker.unlock(2);
+        }
+        leaseThread.join();
+        assertEquals(0, locker.getEntityLockCount());
+    }
+
+    @Test
+    public void testGlobalLockIsRejectedWhileHoldingLease() {
+        EntityLocker<Integer> locker = new EntityLocker<>();
+        locker.lockWithLease(1, 1, TimeUnit.SECONDS);
+        try {
+            this.expectedRule.expect(DeadlockThreatException.class);
+            this.expectedRule.expectMessage("The thread holds leased entity locks");
+            locker.lockGlobal();
+        } finally {
+            locker.unlock(1);
+        }
+    }
+
+    @Test
+    public void testReentrantHoldsAreResolvedByThread() throws InterruptedException {
+        EntityLocker<Integer> locker = new EntityLocker<>();
+        locker.lock(123);
+        locker.lock(123);
+        locker.lockShared(123);
+        locker.lockShared(123);
+        assertEquals(Arrays.asList(123), locker.getHeldEntityIds());
+        locker.unlock(123);
+        locker.unlockShared(123);
+        locker.unlock(123);
+        // Only the shared hold is left, so another thread may read the entity but not write it
+        AtomicBoolean isReadableOnly = new AtomicBoolean();
+        Thread subThread = new Thread(() -> {
+            try {
+                isReadableOnly.set(!locker.tryLock(123, 10, TimeUnit.MILLISECONDS) && locker.tryLockShared(123, 10, TimeUnit.MILLISECONDS));
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            locker.unlockShared(123);
+        });
+        subThread.start();
+        subThread.join();
+        assertTrue(isReadableOnly.get());
+        locker.unlockShared(123);
+        assertTrue(locker.getHeldEntityIds().isEmpty());
+        assertEquals(0, locker.getEntityLockCount());
+        this.expectedRule.expect(MissingEntityLockException.class);
+        locker.unlockShared(123);
+    }
+
+    @Test
+    public void testHeldEntityIdsIncludeEscalatedEntities() {
+        EntityLocker<Integer> locker = EntityLocker.<Integer>builder().escalationThreshold(2).build();
+        locker.lockAll(Arrays.asList(1, 2));
+        locker.lock(3);
+        List<Integer> heldEntityIds = locker.getHeldEntityIds();
+        heldEntityIds.sort(null);
+        assertEquals(Arrays.asList(1, 2, 3), heldEntityIds);
+        locker.unlock(3);
+        locker.unlockAll(Arrays.asList(1, 2));
+        assertTrue(locker.getHeldEntityIds().isEmpty());
+    }
+
+    @Test
+    public void testHeldEntityIdsIncludeLeasedEntities() {
+        EntityLocker<Integer> locker = new EntityLocker<>();
+        locker.lockWithLease(1, 1, TimeUnit.SECONDS);
+        locker.lock(2);
+        List<Integer> heldEntityIds = locker.getHeldEntityIds();
+        heldEntityIds.sort(null);
+        assertEquals(Arrays.asList(1, 2), heldEntityIds);
+        locker.unlock(2);
+        locker.unlock(1);
+        assertTrue(locker.getHeldEntityIds().isEmpty());
+    }
+
+    @Test
+    public void testCombiningHolderRunsSubmittedCode() throws InterruptedException {
+        EntityLocker<Integer> locker = EntityLocker.<Integer>builder().combining(16).build();
+        Thread mainThread = Thread.currentThread();
+        List<Thread> runningThreads = new CopyOnWriteArrayList<>();
+        Thread[] submitters = new Thread[3];
+        locker.execute(123, () -> {
+            for (int t = 0; t < submitters.length; t++) {
+                submitters[t] = new Thread(() -> runningThreads.add(locker.compute(123, Thread::currentThread)));
+                submitters[t].start();
+                while (submitters[t].getState() != Thread.State.WAITING) {
+                    Thread.yield();
+                }
+            }
+        });
+        for (Thread submitter : submitters) {
+            submitter.join();
+        }
+        assertEquals(Arrays.asList(mainThread, mainThread, mainThread), runningThreads);
+        assertEquals(3, locker.getCombinedExecutionCount());
+        assertEquals(0, locker.getEntityLockCount());
+    }
+
+    @Test
+    public void testCombinedCodeExceptionIsRethrownToSubmitter() throws InterruptedException {
+        EntityLocker<Integer> locker = EntityLocker.<Integer>builder().combining(16).build();
+        AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        locker.execute(123, () -> {
+            Thread subThread = new Thread(() -> {
+                try {
+                    locker.execute(123, () -> {
+                        throw new IllegalStateException("Submitted code failed");
+                    });
+                } catch (IllegalStateException e) {
+                    failure.set(e);
+                }
+            });
+            subThread.start();
+            while (subThread.getState() != Thread.State.WAITING) {
+                Thread.yield();
+            }
+        });
+        while (failure.get() == null) {
+            Thread.yield();
+        }
+        assertEquals("Submitted code failed", failure.get().getMessage());
+        assertTrue(locker.tryLock(123, 0, TimeUnit.MILLISECONDS));
+        locker.unlock(123);
+    }
+
+    @Test
+    public void testSubmitterAcquiresLockReleasedWithoutCombining() throws InterruptedException {
+        EntityLocker<Integer> locker = EntityLocker.<Integer>builder().combining(16).build();
+        AtomicReference<Thread> runningThread = new AtomicReference<>();
+        locker.lock(123);
+        Thread subThread = new Thread(() -> locker.execute(123, () -> runningThread.set(Thread.currentThread())));
+        subThread.start();
+        while (subThread.getState() != Thread.State.WAITING) {
+            Thread.yield();
+        }
+        locker.unlock(123);
+        subThread.join();
+        assertEquals(subThread, runningThread.get());
+        assertEquals(0, locker.getCombinedExecutionCount());
+        assertEquals(0, locker.getEntityLockCount());
+    }
+
+    @Test
+    public void testCombiningKeepsMutualExclusionUnderContention() throws InterruptedException {
+        EntityLocker<Integer> locker = EntityLocker.<Integer>builder().combining(4).build();
+        int[] counters = new int[2];
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 20_000; i++) {
+                    int entityId = i & 1;
+                    locker.execute(entityId, () -> counters[entityId]++);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(threads.length * 10_000, (int) locker.compute(0, () -> counters[0]));
+        assertEquals(threads.length * 10_000, (int) locker.compute(1, () -> counters[1]));
+        assertEquals(0, locker.getEntityLockCount());
+    }
+
+    @Test
+    public void testCombiningBatchSizeMustBePositive() {
+        this.expectedRule.expect(IllegalArgumentException.class);
+        EntityLocker.builder().combining(0);
+    }
+
+    @Test
+    public void testLockStatesListHoldersAndWaiters() throws InterruptedException {
+        EntityLocker<Integer> locker = new EntityLocker<>();
+        locker.lock(1);
+        locker.lockShared(2);
+        Thread subThread = new Thread(() -> {
+            locker.lock(1);
+            locker.unlock(1);
+        }, "Waiting Thread");
+        subThread.start();
+        while (subThread.getState() != Thread.State.WAITING) {
+            Thread.yield();
+        }
+        List<EntityLockState<Integer>> states = locker.getLockStates();
+        states.sort((first, second) -> first.getEntityId().compareTo(second.getEntityId()));
+        assertEquals(2, states.size());
+        assertEquals(Thread.currentThread(), states.get(0).getOwnerThread());
+        assertTrue(states.get(0).getSharedHolders().isEmpty());
+        assertEquals(1, states.get(0).getWaiters().size());
+        assertEquals("Waiting Thread", states.get(0).getWaiters().get(0).getName());
+        assertTrue(states.get(0).getWaiters().get(0).getWaitNanos() > 0);
+        assertNull(states.get(1).getOwner());
+        assertEquals(Collections.singletonList(Thread.currentThread()), states.get(1).getSharedHolders());
+        assertTrue(states.get(1).getWaiters().isEmpty());
+        locker.unlock(1);
+        locker.unlockShared(2);
+        subThread.join();
+        assertFalse(locker.lockStates().hasNext());
+    }
+
+    @Test
+    public void testLockStatesAreDumpedAsJson() throws Exception {
+        EntityLocker<String> locker = new EntityLocker<>();
+        CountDownLatch lockedLatch = new CountDownLatch(1);
+        CountDownLatch mayUnlockLatch = new CountDownLatch(1);
+        Thread subThread = new Thread(() -> {
+            locker.lock("a\\b");
+            lockedLatch.countDown();
+            try {
+                mayUnlockLatch.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            } finally {
+                locker.unlock("a\\b");
+            }
+        }, "Holder \"1\"");
+        subThread.start();
+        lockedLatch.await();
+        StringBuilder json = new StringBuilder();
+        locker.dumpLockStates(json);
+        mayUnlockLatch.countDown();
+        subThread.join();
+        assertEquals(String.format("[{\"entityId\":\"a\\\\b\",\"owner\":{\"name\":\"Holder \\\"1\\\"\",\"threadId\":%d},"
+                + "\"sharedHolders\":[],\"waiters\":[]}]", subThread.getId()), json.toString());
+        json.setLength(0);
+        locker.dumpLockStates(json);
+        assertEquals("[]", json.toString());
+    }
+
     private static class SimpleEntity {
 
         private final int id;
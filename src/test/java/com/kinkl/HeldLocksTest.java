@@ -0,0 +1,68 @@
+package com.kinkl;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class HeldLocksTest {
+
+    @Test
+    public void testReenterOnlyInHeldMode() {
+        HeldLocks<String, EntityLock> heldLocks = new HeldLocks<>();
+        EntityLock lock = new EntityLock();
+        assertFalse(heldLocks.reenter("a", false));
+        heldLocks.addFirstHold("a", lock, false);
+        assertTrue(heldLocks.reenter("a", false));
+        assertFalse(heldLocks.reenter("a", true));
+        heldLocks.addFirstHold("a", lock, true);
+        int index = heldLocks.indexOf("a");
+        assertSame(lock, heldLocks.getLock(index));
+        assertEquals(2, heldLocks.getHoldCount(index, false));
+        assertEquals(1, heldLocks.getHoldCount(index, true));
+        heldLocks.release(index, true);
+        assertTrue(heldLocks.contains("a"));
+        heldLocks.release(heldLocks.indexOf("a"), false);
+        heldLocks.release(heldLocks.indexOf("a"), false);
+        assertFalse(heldLocks.contains("a"));
+        assertEquals(0, heldLocks.size());
+    }
+
+    @Test
+    public void testMatchesMapUnderRandomOperations() {
+        HeldLocks<Integer, EntityLock> heldLocks = new HeldLocks<>();
+        Map<Integer, Integer> holdCounts = new HashMap<>();
+        EntityLock lock = new EntityLock();
+        Random random = new Random(42);
+        for (int i = 0; i < 100_000; i++) {
+            // Ids that are multiples of 64 collide in small tables and exercise probing and backward shifts
+            int entityId = random.nextInt(200) * (random.nextBoolean() ? 1 : 64);
+            if (random.nextInt(3) > 0 || !holdCounts.containsKey(entityId)) {
+                if (!heldLocks.reenter(entityId, false)) {
+                    heldLocks.addFirstHold(entityId, lock, false);
+                }
+                holdCounts.merge(entityId, 1, Integer::sum);
+            } else {
+                heldLocks.release(heldLocks.indexOf(entityId), false);
+                holdCounts.computeIfPresent(entityId, (id, count) -> count == 1 ? null : count - 1);
+            }
+            if (i % 1_000 == 0) {
+                assertEquals(holdCounts.keySet(), new HashSet<>(heldLocks.getEntityIds()));
+                for (Map.Entry<Integer, Integer> entry : holdCounts.entrySet()) {
+                    assertEquals((int) entry.getValue(), heldLocks.getHoldCount(heldLocks.indexOf(entry.getKey()), false));
+                }
+            }
+        }
+        for (Integer entityId : new HashSet<>(holdCounts.keySet())) {
+            for (int count = holdCounts.get(entityId); count > 0; count--) {
+                heldLocks.release(heldLocks.indexOf(entityId), false);
+            }
+        }
+        assertEquals(0, heldLocks.size());
+        assertFalse(heldLocks.contains(0));
+    }
+}
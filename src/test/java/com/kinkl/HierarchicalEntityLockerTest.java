@@ -0,0 +1,251 @@
+package com.kinkl;
+
+import com.kinkl.exception.DeadlockThreatException;
+import com.kinkl.exception.MissingEntityLockException;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.Timeout;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class HierarchicalEntityLockerTest {
+
+    @Rule
+    public ExpectedException expectedRule = ExpectedException.none();
+
+    @Rule
+    public Timeout timeout = new Timeout(10, TimeUnit.SECONDS);
+
+    private HierarchicalEntityLocker<String> entityLocker;
+
+    @Before
+    public void setUp() {
+        // Ids are paths like "tenant/account/order"
+        this.entityLocker = new HierarchicalEntityLocker<>(id -> id.contains("/") ? id.substring(0, id.lastIndexOf('/')) : null);
+    }
+
+    private void inAnotherThread(InterruptibleRunnable code) throws InterruptedException {
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread thread = new Thread(() -> {
+            try {
+                code.run();
+            } catch (Throwable e) {
+                failure.set(e);
+            }
+        });
+        thread.start();
+        thread.join();
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+    }
+
+    private interface InterruptibleRunnable {
+        void run() throws InterruptedException;
+    }
+
+    @Test
+    public void testParentLockExcludesChildLocks() throws InterruptedException {
+        this.entityLocker.lock("t1");
+        inAnotherThread(() -> {
+            assertTrue(this.entityLocker.isLockedByAnotherThread("t1/a1/o1"));
+            assertFalse(this.entityLocker.tryLock("t1/a1/o1", 10, TimeUnit.MILLISECONDS));
+            assertFalse(this.entityLocker.tryLockShared("t1/a1", 10, TimeUnit.MILLISECONDS));
+            assertTrue(this.entityLocker.tryLock("t2/a1", 10, TimeUnit.MILLISECONDS));
+            this.entityLocker.unlock("t2/a1");
+        });
+        this.entityLocker.unlock("t1");
+        assertEquals(0, this.entityLocker.getNodeLockCount());
+    }
+
+    @Test
+    public void testChildLockExcludesParentLockButNotSiblings() throws InterruptedException {
+        this.entityLocker.lock("t1/a1/o1");
+        inAnotherThread(() -> {
+            assertFalse(this.entityLocker.isLockedByAnotherThread("t1"));
+            assertFalse(this.entityLocker.tryLock("t1", 10, TimeUnit.MILLISECONDS));
+            assertFalse(this.entityLocker.tryLockShared("t1/a1", 10, TimeUnit.MILLISECONDS));
+            assertTrue(this.entityLocker.tryLock("t1/a1/o2", 10, TimeUnit.MILLISECONDS));
+            assertTrue(this.entityLocker.tryLockShared("t1/a2", 10, TimeUnit.MILLISECONDS));
+            this.entityLocker.unlockShared("t1/a2");
+            this.entityLocker.unlock("t1/a1/o2");
+        });
+        this.entityLocker.unlock("t1/a1/o1");
+        inAnotherThread(() -> {
+            assertTrue(this.entityLocker.tryLock("t1", 10, TimeUnit.MILLISECONDS));
+            this.entityLocker.unlock("t1");
+        });
+        assertEquals(0, this.entityLocker.getNodeLockCount());
+    }
+
+    @Test
+    public void testSharedParentLockAdmitsSharedChildLocksOnly() throws InterruptedException {
+        this.entityLocker.lockShared("t1");
+        inAnotherThread(() -> {
+            assertTrue(this.entityLocker.tryLockShared("t1/a1", 10, TimeUnit.MILLISECONDS));
+            assertTrue(this.entityLocker.tryLockShared("t1", 10, TimeUnit.MILLISECONDS));
+            assertFalse(this.entityLocker.tryLock("t1/a1/o1", 10, TimeUnit.MILLISECONDS));
+            this.entityLocker.unlockShared("t1");
+            this.entityLocker.unlockShared("t1/a1");
+        });
+        this.entityLocker.unlockShared("t1");
+    }
+
+    @Test
+    public void testReentrantLocksAlongPath() throws InterruptedException {
+        this.entityLocker.lock("t1/a1");
+        this.entityLocker.lock("t1/a1/o1");
+        this.entityLocker.lock("t1/a1");
+        this.entityLocker.unlock("t1/a1");
+        this.entityLocker.unlock("t1/a1");
+        inAnotherThread(() -> assertFalse(this.entityLocker.tryLock("t1/a1", 10, TimeUnit.MILLISECONDS)));
+        this.entityLocker.unlock("t1/a1/o1");
+        assertEquals(0, this.entityLocker.getNodeLockCount());
+    }
+
+    @Test
+    public void testLockingParentOfHeldChildConvertsIntentionLock() throws InterruptedException {
+        this.entityLocker.lock("t1/a1");
+        this.entityLocker.lock("t1");
+        this.entityLocker.unlock("t1/a1");
+        inAnotherThread(() -> assertFalse(this.entityLocker.tryLock("t1/a2", 10, TimeUnit.MILLISECONDS)));
+        this.entityLocker.unlock("t1");
+        assertEquals(0, this.entityLocker.getNodeLockCount());
+    }
+
+    @Test
+    public void testConcurrentConversionsCauseDeadlockThreat() throws InterruptedException {
+        CountDownLatch childrenLockedLatch = new CountDownLatch(2);
+        AtomicInteger deadlockCount = new AtomicInteger();
+        Thread[] threads = new Thread[2];
+        for (int t = 0; t < threads.length; t++) {
+            String childId = "t1/a" + t;
+            threads[t] = new Thread(() -> {
+                this.entityLocker.lock(childId);
+                childrenLockedLatch.countDown();
+                try {
+                    childrenLockedLatch.await();
+                    this.entityLocker.lock("t1");
+                    this.entityLocker.unlock("t1");
+                } catch (DeadlockThreatException e) {
+                    deadlockCount.incrementAndGet();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                } finally {
+                    this.entityLocker.unlock(childId);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue(deadlockCount.get() >= 1);
+        assertEquals(0, this.entityLocker.getNodeLockCount());
+    }
+
+    @Test
+    public void testReleaseWakesCompatibleWaiterQueuedBehindBlockedOne() throws InterruptedException {
+        CountDownLatch lockedLatch = new CountDownLatch(1);
+        CountDownLatch releaseLatch = new CountDownLatch(1);
+        Thread sharedHolder = new Thread(() -> {
+            this.entityLocker.lockShared("t1");
+            lockedLatch.countDown();
+            try {
+                releaseLatch.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            } finally {
+                this.entityLocker.unlockShared("t1");
+            }
+        });
+        sharedHolder.start();
+        lockedLatch.await();
+        this.entityLocker.lockShared("t1/a1");
+        // Waits for both holders of "t1"
+        Thread parentWaiter = new Thread(() -> {
+            this.entityLocker.lock("t1");
+            this.entityLocker.unlock("t1");
+        });
+        parentWaiter.start();
+        while (parentWaiter.getState() != Thread.State.WAITING) {
+            Thread.yield();
+        }
+        // Waits for the shared holder of "t1" only
+        Thread childWaiter = new Thread(() -> {
+            this.entityLocker.lock("t1/a2");
+            this.entityLocker.unlock("t1/a2");
+        });
+        childWaiter.start();
+        while (childWaiter.getState() != Thread.State.WAITING) {
+            Thread.yield();
+        }
+        releaseLatch.countDown();
+        childWaiter.join();
+        assertEquals(Thread.State.WAITING, parentWaiter.getState());
+        this.entityLocker.unlockShared("t1/a1");
+        parentWaiter.join();
+        sharedHolder.join();
+        assertEquals(0, this.entityLocker.getNodeLockCount());
+    }
+
+    @Test
+    public void testMutualExclusionAlongPath() throws InterruptedException {
+        String[] ids = {"t1", "t1/a1", "t1/a1/o1", "t1/a2"};
+        long[] counters = new long[2];
+        Thread[] threads = new Thread[6];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 5_000; i++) {
+                    int index = ThreadLocalRandom.current().nextInt(ids.length);
+                    this.entityLocker.lock(ids[index]);
+                    // The first counter is protected by "t1/a1" and its ancestors, the second one by "t1/a2" and its ancestors
+                    counters[index == 3 ? 1 : 0]++;
+                    this.entityLocker.unlock(ids[index]);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(threads.length * 5_000, counters[0] + counters[1]);
+        assertEquals(0, this.entityLocker.getNodeLockCount());
+    }
+
+    @Test
+    public void testLockAllLocksEntitiesOfDifferentSubtrees() throws InterruptedException {
+        this.entityLocker.lockAll(Arrays.asList("t1/a1", "t1/a2", "t2"));
+        inAnotherThread(() -> {
+            assertFalse(this.entityLocker.tryLockAll(Arrays.asList("t1/a3", "t2/a1"), 10, TimeUnit.MILLISECONDS));
+            assertTrue(this.entityLocker.tryLock("t1/a3", 10, TimeUnit.MILLISECONDS));
+            this.entityLocker.unlock("t1/a3");
+        });
+        this.entityLocker.unlockAll(Arrays.asList("t1/a1", "t1/a2", "t2"));
+        assertEquals(0, this.entityLocker.getNodeLockCount());
+    }
+
+    @Test
+    public void testUnlockThrowsExceptionWhenEntityWasNotLocked() {
+        this.expectedRule.expect(MissingEntityLockException.class);
+        this.expectedRule.expectMessage("There is no associated locks for entity with id t1/a1");
+        this.entityLocker.unlock("t1/a1");
+    }
+
+    @Test
+    public void testCyclicHierarchyIsRejected() {
+        HierarchicalEntityLocker<Integer> cyclicLocker = new HierarchicalEntityLocker<>(id -> (id + 1) % 3);
+        this.expectedRule.expect(IllegalArgumentException.class);
+        this.expectedRule.expectMessage("The ancestors of entity with id 0 form a cycle");
+        cyclicLocker.lock(0);
+    }
+}
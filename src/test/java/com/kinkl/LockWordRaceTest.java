@@ -0,0 +1,212 @@
+package com.kinkl;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.*;
+
+/**
+ * Races two actors on the lock words of {@link LockEntry} and {@link EntityLock} and on the slots of {@link LockTable}, in the manner of
+ * jcstress: every round gets a fresh state, both actors are released into it together, and the outcomes of all rounds must be among the
+ * outcomes the algorithm allows.
+ */
+public class LockWordRaceTest {
+
+    private static final int ROUNDS = 2_000;
+
+    /**
+     * Stands for a thread that held an entry before the round started
+     */
+    private static final Thread HOLDER = new Thread("holder");
+
+    @Rule
+    public Timeout timeout = new Timeout(10, TimeUnit.SECONDS);
+
+    /**
+     * Runs the actors against fresh states and returns how many rounds ended with each outcome: what the actors returned followed by what
+     * the arbiter sees once both are done.
+     */
+    private static <S> Map<String, Integer> race(Supplier<S> stateFactory, Function<S, Object> actor1, Function<S, Object> actor2,
+                                                 Function<S, Object> arbiter) throws InterruptedException {
+        List<S> states = new ArrayList<>(ROUNDS);
+        for (int i = 0; i < ROUNDS; i++) {
+            states.add(stateFactory.get());
+        }
+        Object[] results1 = new Object[ROUNDS];
+        Object[] results2 = new Object[ROUNDS];
+        AtomicInteger arrivals = new AtomicInteger();
+        Thread actor2Thread = new Thread(() -> runActor(states, actor2, results2, arrivals));
+        actor2Thread.start();
+        runActor(states, actor1, results1, arrivals);
+        actor2Thread.join();
+        Map<String, Integer> outcomes = new TreeMap<>();
+        for (int i = 0; i < ROUNDS; i++) {
+            outcomes.merge(results1[i] + ", " + results2[i] + ", " + arbiter.apply(states.get(i)), 1, Integer::sum);
+        }
+        return outcomes;
+    }
+
+    private static <S> void runActor(List<S> states, Function<S, Object> actor, Object[] results, AtomicInteger arrivals) {
+        for (int i = 0; i < states.size(); i++) {
+            arrivals.incrementAndGet();
+            while (arrivals.get() < 2 * (i + 1)) {
+                Thread.yield();
+            }
+            try {
+                results[i] = actor.apply(states.get(i));
+            } catch (Throwable e) {
+                // Reported as a forbidden outcome instead of stalling the other actor at the next round
+                results[i] = e;
+            }
+        }
+    }
+
+    private static void assertOutcomes(Map<String, Integer> outcomes, String... allowedOutcomes) {
+        for (String outcome : outcomes.keySet()) {
+            assertTrue(String.format("Forbidden outcome [%s] in %s", outcome, outcomes), Arrays.asList(allowedOutcomes).contains(outcome));
+        }
+    }
+
+    private static String describe(long word) {
+        if (word == LockEntry.REMOVED) {
+            return "REMOVED";
+        }
+        if (word == LockEntry.WAITERS) {
+            return "WAITERS";
+        }
+        return Long.toString(word);
+    }
+
+    /**
+     * Returns an entry that is free but was not removed because threads may be parked on it
+     */
+    private static LockEntry freeEntryWithWaiters() {
+        LockEntry entry = new LockEntry(1, false, HOLDER);
+        entry.compareAndSetWord(LockEntry.EXCLUSIVE, LockEntry.EXCLUSIVE | LockEntry.WAITERS);
+        entry.unlock();
+        return entry;
+    }
+
+    @Test
+    public void testOnlyOneExclusiveTryLockOfFreeEntrySucceeds() throws InterruptedException {
+        Map<String, Integer> outcomes = race(LockWordRaceTest::freeEntryWithWaiters,
+                entry -> entry.tryLock(Thread.currentThread()),
+                entry -> entry.tryLock(Thread.currentThread()),
+                entry -> entry.getOwner() != null);
+        assertOutcomes(outcomes, "true, false, true", "false, true, true");
+    }
+
+    @Test
+    public void testSharedTryLockNeverSeesReleasedExclusiveEntryAsFree() throws InterruptedException {
+        Map<String, Integer> outcomes = race(() -> new LockEntry(1, false, HOLDER),
+                entry -> describe(entry.unlock()),
+                entry -> entry.tryLockShared(Thread.currentThread()),
+                entry -> describe(entry.word));
+        assertOutcomes(outcomes, "REMOVED, false, REMOVED");
+    }
+
+    @Test
+    public void testSharedTryLockEitherJoinsLastReaderOrFindsEntryRemoved() throws InterruptedException {
+        Map<String, Integer> outcomes = race(() -> new LockEntry(1, true, HOLDER),
+                entry -> describe(entry.unlockShared(HOLDER)),
+                entry -> entry.tryLockShared(Thread.currentThread()),
+                entry -> describe(entry.word));
+        String sharedUnit = describe(LockEntry.SHARED_UNIT);
+        assertOutcomes(outcomes, sharedUnit + ", true, " + sharedUnit, "REMOVED, false, REMOVED");
+    }
+
+    @Test
+    public void testReleaseSeesWaitersBitOrWaiterSeesRemovedEntry() throws InterruptedException {
+        // The waiter publishes the waiters bit the way a thread does before parking; a release that misses it would leave the waiter parked
+        Map<String, Integer> outcomes = race(() -> new LockEntry(1, false, HOLDER),
+                entry -> {
+                    while (true) {
+                        long word = entry.word;
+                        if ((word & LockEntry.REMOVED) != 0) {
+                            return "removed";
+                        }
+                        if (entry.compareAndSetWord(word, word | LockEntry.WAITERS)) {
+                            return "waiting";
+                        }
+                    }
+                },
+                entry -> describe(entry.unlock()),
+                entry -> describe(entry.word));
+        assertOutcomes(outcomes, "waiting, WAITERS, WAITERS", "removed, REMOVED, REMOVED");
+    }
+
+    @Test
+    public void testEntryAcquiredWhileWaitersBitIsClearedIsNotRemoved() throws InterruptedException {
+        // The last waiter clears the waiters bit of a free entry and then removes it, the way a thread leaving the queue does
+        Map<String, Integer> outcomes = race(LockWordRaceTest::freeEntryWithWaiters,
+                entry -> entry.compareAndSetWord(LockEntry.WAITERS, 0) && entry.compareAndSetWord(0, LockEntry.REMOVED),
+                entry -> entry.tryLock(Thread.currentThread()),
+                entry -> entry.isRemoved());
+        assertOutcomes(outcomes, "true, false, true", "false, true, false");
+    }
+
+    @Test
+    public void testConcurrentInsertionsOfEntityMeetAtOneEntry() throws InterruptedException {
+        LockTable table = new LockTable();
+        AtomicInteger nextEntityId = new AtomicInteger();
+        Map<String, Integer> outcomes = race(() -> {
+                    int entityId = nextEntityId.incrementAndGet();
+                    return new LockEntry[] {new LockEntry(entityId, false, HOLDER), new LockEntry(entityId, false, HOLDER)};
+                },
+                entries -> table.putIfAbsent(entries[0]) == entries[0] ? "first" : "second",
+                entries -> table.putIfAbsent(entries[1]) == entries[0] ? "first" : "second",
+                entries -> table.get(entries[0].entityId) == entries[0] ? "first" : "second");
+        assertOutcomes(outcomes, "first, first, first", "second, second, second");
+        assertEquals(ROUNDS, table.size());
+    }
+
+    @Test
+    public void testInsertionReplacesEntryBeingRemoved() throws InterruptedException {
+        LockTable table = new LockTable();
+        AtomicInteger nextEntityId = new AtomicInteger();
+        Map<String, Integer> outcomes = race(() -> {
+                    LockEntry[] entries = new LockEntry[] {new LockEntry(nextEntityId.incrementAndGet(), false, HOLDER), null};
+                    table.putIfAbsent(entries[0]);
+                    entries[0].unlock();
+                    entries[1] = new LockEntry(entries[0].entityId, false, HOLDER);
+                    return entries;
+                },
+                entries -> {
+                    table.remove(entries[0]);
+                    return "removed";
+                },
+                entries -> table.putIfAbsent(entries[1]) == entries[1],
+                entries -> table.get(entries[0].entityId) == entries[1]);
+        assertOutcomes(outcomes, "removed, true, true");
+        assertEquals(ROUNDS, table.size());
+    }
+
+    @Test
+    public void testOnlyOneTryLockOfEntityLockSucceeds() throws InterruptedException {
+        Map<String, Integer> outcomes = race(EntityLock::new,
+                EntityLock::tryLock,
+                EntityLock::tryLock,
+                lock -> lock.getOwner() != null);
+        assertOutcomes(outcomes, "true, false, true", "false, true, true");
+    }
+
+    @Test
+    public void testExclusiveAndSharedTryLocksOfEntityLockExcludeEachOther() throws InterruptedException {
+        Map<String, Integer> outcomes = race(EntityLock::new,
+                EntityLock::tryLock,
+                EntityLock::tryLockShared,
+                lock -> lock.getSharedHolders().size());
+        assertOutcomes(outcomes, "true, false, 0", "false, true, 1");
+    }
+}
@@ -0,0 +1,495 @@
+package com.kinkl;
+
+import com.kinkl.exception.DeadlockThreatException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>Runs a randomized many-thread workload against an {@link IEntityLocker} and checks it against a model of the entities. Workers mix
+ * reentrant exclusive and shared locking, timed locking, batches, protected code lambdas and nested locking of two entities; optionally
+ * another thread keeps interrupting them. Every critical section registers itself in the model, so two threads inside conflicting critical
+ * sections of one entity are reported as a mutual exclusion violation. Each entity also has a plain counter incremented under its exclusive
+ * lock that must match the number of exclusive critical sections at the end.</p>
+ * <p>Nested locking takes entities in random order, so workers close real wait-for cycles that the locker must break with
+ * {@link DeadlockThreatException}: a deadlock that is not detected makes the run miss its deadline. With ordered nesting there are no
+ * cycles, and any {@link DeadlockThreatException} is a false positive. At the end every entity must be free.</p>
+ * <p>Operation choices are derived from the seed, thread interleavings are not, so a failing seed is worth rerunning a few times.</p>
+ */
+final class LockerStressHarness {
+
+    private final IEntityLocker<Integer> locker;
+
+    private int threadCount = 8;
+
+    private int entityCount = 16;
+
+    private long durationNanos = TimeUnit.MILLISECONDS.toNanos(500);
+
+    private boolean isNestingOrdered;
+
+    private boolean isInterrupting;
+
+    private boolean isLockingPaths;
+
+    private long seed = ThreadLocalRandom.current().nextLong();
+
+    private EntityModel[] entities;
+
+    private final Queue<String> violations = new ConcurrentLinkedQueue<>();
+
+    private final LongAdder operationCount = new LongAdder();
+
+    private final LongAdder deadlockCount = new LongAdder();
+
+    private final LongAdder timeoutCount = new LongAdder();
+
+    private final LongAdder interruptCount = new LongAdder();
+
+    LockerStressHarness(IEntityLocker<Integer> locker) {
+        this.locker = locker;
+    }
+
+    LockerStressHarness threadCount(int threadCount) {
+        this.threadCount = threadCount;
+        return this;
+    }
+
+    LockerStressHarness entityCount(int entityCount) {
+        this.entityCount = entityCount;
+        return this;
+    }
+
+    LockerStressHarness duration(long duration, TimeUnit unit) {
+        this.durationNanos = unit.toNanos(duration);
+        return this;
+    }
+
+    /**
+     * Makes nested locking take entities in ascending order, so that any reported deadlock is a false positive.
+     */
+    LockerStressHarness orderedNesting() {
+        this.isNestingOrdered = true;
+        return this;
+    }
+
+    /**
+     * Starts a thread interrupting random workers while they run.
+     */
+    LockerStressHarness interrupts() {
+        this.isInterrupting = true;
+        return this;
+    }
+
+    /**
+     * Tells that the locker locks the ancestors of an entity before the entity itself, so even a thread locking a single entity holds
+     * locks while it waits and may be refused with {@link DeadlockThreatException}.
+     */
+    LockerStressHarness lockingPaths() {
+        this.isLockingPaths = true;
+        return this;
+    }
+
+    LockerStressHarness seed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    /**
+     * Runs the workload and waits for the workers to finish, giving them twice the duration plus five seconds before declaring them stuck.
+     */
+    @SuppressWarnings("unchecked")
+    Result run() throws InterruptedException {
+        this.entities = new EntityModel[this.entityCount];
+        for (int i = 0; i < this.entityCount; i++) {
+            this.entities[i] = new EntityModel();
+        }
+        long start = System.nanoTime();
+        long deadline = start + this.durationNanos;
+        Thread[] workers = new Thread[this.threadCount];
+        for (int t = 0; t < workers.length; t++) {
+            Random random = new Random(this.seed + t);
+            workers[t] = new Thread(() -> work(random, deadline), "stress-worker-" + t);
+            workers[t].setDaemon(true);
+            workers[t].start();
+        }
+        Thread interrupter = this.isInterrupting ? startInterrupter(workers, deadline) : null;
+        long joinDeadline = deadline + this.durationNanos + TimeUnit.SECONDS.toNanos(5);
+        for (Thread worker : workers) {
+            worker.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(joinDeadline - System.nanoTime())));
+        }
+        long elapsedNanos = System.nanoTime() - start;
+        if (interrupter != null) {
+            interrupter.join();
+        }
+        List<Thread> stuckWorkers = new ArrayList<>();
+        for (Thread worker : workers) {
+            if (worker.isAlive()) {
+                stuckWorkers.add(worker);
+                StackTraceElement[] stackTrace = worker.getStackTrace();
+                this.violations.add(String.format("Worker [%s] is stuck, a deadlock may be undetected: %s", worker.getName(),
+                        Arrays.toString(Arrays.copyOfRange(stackTrace, 0, Math.min(stackTrace.length, 12)))));
+            }
+        }
+        if (stuckWorkers.isEmpty()) {
+            checkFinalState();
+        } else if (this.locker instanceof EntityLocker) {
+            this.violations.add("Lock states: " + ((EntityLocker<Integer>) this.locker).getLockStates());
+        }
+        return new Result(this.seed, this.operationCount.sum(), this.deadlockCount.sum(), this.timeoutCount.sum(), this.interruptCount.sum(),
+                elapsedNanos, new ArrayList<>(this.violations));
+    }
+
+    private Thread startInterrupter(Thread[] workers, long deadline) {
+        Thread interrupter = new Thread(() -> {
+            Random random = new Random(this.seed - 1);
+            while (System.nanoTime() < deadline) {
+                workers[random.nextInt(workers.length)].interrupt();
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }, "stress-interrupter");
+        interrupter.setDaemon(true);
+        interrupter.start();
+        return interrupter;
+    }
+
+    private void work(Random random, long deadline) {
+        Map<Integer, int[]> holds = new HashMap<>();
+        try {
+            while (System.nanoTime() < deadline && this.violations.size() < 10) {
+                int entityId = random.nextInt(this.entityCount);
+                try {
+                    switch (random.nextInt(6)) {
+                        case 0:
+                            lockReentrantly(holds, entityId, false, 1 + random.nextInt(3));
+                            break;
+                        case 1:
+                            lockReentrantly(holds, entityId, true, 1 + random.nextInt(3));
+                            break;
+                        case 2:
+                            tryLock(holds, entityId, random.nextInt(2));
+                            break;
+                        case 3:
+                            lockBatch(holds, entityId, random.nextInt(this.entityCount), random.nextInt(this.entityCount));
+                            break;
+                        case 4:
+                            lockNested(holds, entityId, random.nextInt(this.entityCount), random.nextBoolean(), random.nextBoolean());
+                            break;
+                        default:
+                            this.locker.execute(entityId, () -> exclusiveSection(entityId));
+                    }
+                    this.operationCount.increment();
+                } catch (InterruptedException e) {
+                    this.interruptCount.increment();
+                } catch (DeadlockThreatException e) {
+                    if (!this.isLockingPaths) {
+                        throw e;
+                    }
+                    recordDeadlock(e);
+                }
+                if (!holds.isEmpty()) {
+                    this.violations.add(String.format("Worker [%s] still holds %s after an operation", Thread.currentThread().getName(),
+                            holds.keySet()));
+                    return;
+                }
+                // Interrupts are meant for the operation in progress only
+                Thread.interrupted();
+            }
+        } catch (Throwable e) {
+            this.violations.add(String.format("Worker [%s] failed: %s", Thread.currentThread().getName(), e));
+        }
+    }
+
+    private void lockReentrantly(Map<Integer, int[]> holds, int entityId, boolean isShared, int depth) {
+        for (int i = 0; i < depth; i++) {
+            acquire(holds, entityId, isShared);
+        }
+        if (isShared) {
+            sharedSection(entityId);
+        } else {
+            exclusiveSection(entityId);
+        }
+        for (int i = 0; i < depth; i++) {
+            release(holds, entityId, isShared);
+        }
+    }
+
+    private void tryLock(Map<Integer, int[]> holds, int entityId, long timeoutMillis) throws InterruptedException {
+        if (!this.locker.tryLock(entityId, timeoutMillis, TimeUnit.MILLISECONDS)) {
+            this.timeoutCount.increment();
+            return;
+        }
+        enter(holds, entityId, false);
+        exclusiveSection(entityId);
+        release(holds, entityId, false);
+    }
+
+    private void lockBatch(Map<Integer, int[]> holds, int... entityIds) {
+        List<Integer> batch = new ArrayList<>();
+        for (int entityId : entityIds) {
+            batch.add(entityId);
+        }
+        try {
+            this.locker.lockAll(batch);
+        } catch (DeadlockThreatException e) {
+            // A batch holds nothing of its own while it waits, but the locker may lock the ancestors of the awaited entity
+            recordDeadlock(e);
+            return;
+        }
+        List<Integer> distinctIds = new ArrayList<>(new LinkedHashSet<>(batch));
+        for (int entityId : distinctIds) {
+            enter(holds, entityId, false);
+            exclusiveSection(entityId);
+        }
+        for (int entityId : distinctIds) {
+            exit(holds, entityId, false);
+        }
+        this.locker.unlockAll(batch);
+    }
+
+    private void lockNested(Map<Integer, int[]> holds, int firstId, int secondId, boolean isFirstShared, boolean isSecondShared) {
+        if (firstId == secondId) {
+            return;
+        }
+        if (this.isNestingOrdered && firstId > secondId) {
+            int id = firstId;
+            firstId = secondId;
+            secondId = id;
+        }
+        acquire(holds, firstId, isFirstShared);
+        try {
+            try {
+                acquire(holds, secondId, isSecondShared);
+            } catch (DeadlockThreatException e) {
+                recordDeadlock(e);
+                return;
+            }
+            if (isSecondShared) {
+                sharedSection(secondId);
+            } else {
+                exclusiveSection(secondId);
+            }
+            release(holds, secondId, isSecondShared);
+        } finally {
+            release(holds, firstId, isFirstShared);
+        }
+    }
+
+    private void recordDeadlock(DeadlockThreatException e) {
+        this.deadlockCount.increment();
+        if (this.isNestingOrdered) {
+            this.violations.add(String.format("Deadlock reported although locks are taken in order: %s", e.getMessage()));
+        }
+    }
+
+    private void acquire(Map<Integer, int[]> holds, int entityId, boolean isShared) {
+        if (isShared) {
+            this.locker.lockShared(entityId);
+        } else {
+            this.locker.lock(entityId);
+        }
+        enter(holds, entityId, isShared);
+    }
+
+    private void release(Map<Integer, int[]> holds, int entityId, boolean isShared) {
+        exit(holds, entityId, isShared);
+        if (isShared) {
+            this.locker.unlockShared(entityId);
+        } else {
+            this.locker.unlock(entityId);
+        }
+    }
+
+    /**
+     * Registers a hold in the worker's bookkeeping and, for the first hold of the mode, in the entity model.
+     */
+    private void enter(Map<Integer, int[]> holds, int entityId, boolean isShared) {
+        int[] counts = holds.computeIfAbsent(entityId, id -> new int[2]);
+        if (counts[isShared ? 1 : 0]++ == 0) {
+            if (isShared) {
+                this.entities[entityId].enterShared(entityId);
+            } else {
+                this.entities[entityId].enterExclusive(entityId);
+            }
+        }
+    }
+
+    private void exit(Map<Integer, int[]> holds, int entityId, boolean isShared) {
+        int[] counts = holds.get(entityId);
+        if (--counts[isShared ? 1 : 0] == 0) {
+            if (isShared) {
+                this.entities[entityId].exitShared();
+            } else {
+                this.entities[entityId].exitExclusive();
+            }
+        }
+        if (counts[0] == 0 && counts[1] == 0) {
+            holds.remove(entityId);
+        }
+    }
+
+    /**
+     * Critical section of a thread holding the exclusive lock, possibly run on its behalf by another thread
+     */
+    private void exclusiveSection(int entityId) {
+        EntityModel entity = this.entities[entityId];
+        if (entity.owner.get() != Thread.currentThread()) {
+            // Code passed as a lambda is not registered by the caller since it may run in another thread
+            entity.enterExclusive(entityId);
+            entity.increment();
+            entity.exitExclusive();
+        } else {
+            entity.increment();
+        }
+    }
+
+    private void sharedSection(int entityId) {
+        if (this.entities[entityId].owner.get() != null) {
+            this.violations.add(String.format("Entity %d is held exclusively while a thread reads it", entityId));
+        }
+    }
+
+    private void checkFinalState() {
+        for (int entityId = 0; entityId < this.entityCount; entityId++) {
+            EntityModel entity = this.entities[entityId];
+            try {
+                if (!this.locker.tryLock(entityId, 0, TimeUnit.MILLISECONDS)) {
+                    this.violations.add(String.format("Entity %d is still locked after the workers finished", entityId));
+                    continue;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (entity.counter != entity.exclusiveSectionCount.sum()) {
+                this.violations.add(String.format("Entity %d counter is %d after %d exclusive sections, updates were lost", entityId,
+                        entity.counter, entity.exclusiveSectionCount.sum()));
+            }
+            this.locker.unlock(entityId);
+        }
+    }
+
+    /**
+     * Model of an entity: who is inside its critical sections. Updated only by threads holding the corresponding lock, so any conflict it
+     * sees is a violation of the locker's guarantees.
+     */
+    private final class EntityModel {
+
+        final AtomicReference<Thread> owner = new AtomicReference<>();
+
+        final AtomicInteger readerCount = new AtomicInteger();
+
+        final LongAdder exclusiveSectionCount = new LongAdder();
+
+        /**
+         * Guarded by the exclusive lock of the entity under test
+         */
+        long counter;
+
+        void enterExclusive(int entityId) {
+            Thread currentThread = Thread.currentThread();
+            if (!this.owner.compareAndSet(null, currentThread)) {
+                violations.add(String.format("Threads [%s] and [%s] hold entity %d exclusively at the same time", this.owner.get(),
+                        currentThread.getName(), entityId));
+            }
+            if (this.readerCount.get() != 0) {
+                violations.add(String.format("Thread [%s] holds entity %d exclusively while it's read", currentThread.getName(), entityId));
+            }
+        }
+
+        void exitExclusive() {
+            this.owner.compareAndSet(Thread.currentThread(), null);
+        }
+
+        void enterShared(int entityId) {
+            this.readerCount.incrementAndGet();
+            Thread owner = this.owner.get();
+            if (owner != null) {
+                violations.add(String.format("Thread [%s] reads entity %d held exclusively by thread [%s]", Thread.currentThread().getName(),
+                        entityId, owner.getName()));
+            }
+        }
+
+        void exitShared() {
+            this.readerCount.decrementAndGet();
+        }
+
+        void increment() {
+            this.counter++;
+            this.exclusiveSectionCount.increment();
+        }
+    }
+
+    static final class Result {
+
+        private final long seed;
+
+        private final long operationCount;
+
+        private final long deadlockCount;
+
+        private final long timeoutCount;
+
+        private final long interruptCount;
+
+        private final long elapsedNanos;
+
+        private final List<String> violations;
+
+        Result(long seed, long operationCount, long deadlockCount, long timeoutCount, long interruptCount, long elapsedNanos,
+               List<String> violations) {
+            this.seed = seed;
+            this.operationCount = operationCount;
+            this.deadlockCount = deadlockCount;
+            this.timeoutCount = timeoutCount;
+            this.interruptCount = interruptCount;
+            this.elapsedNanos = elapsedNanos;
+            this.violations = violations;
+        }
+
+        long getOperationCount() {
+            return this.operationCount;
+        }
+
+        long getDeadlockCount() {
+            return this.deadlockCount;
+        }
+
+        long getInterruptCount() {
+            return this.interruptCount;
+        }
+
+        /**
+         * Returns completed operations per second over the whole run.
+         */
+        double getThroughput() {
+            return this.operationCount * 1e9 / this.elapsedNanos;
+        }
+
+        List<String> getViolations() {
+            return this.violations;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("seed %d: %d operations (%.0f ops/s), %d deadlocks, %d timeouts, %d interrupts, violations: %s", this.seed,
+                    this.operationCount, getThroughput(), this.deadlockCount, this.timeoutCount, this.interruptCount, this.violations);
+        }
+    }
+}
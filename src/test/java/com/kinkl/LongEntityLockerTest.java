@@ -0,0 +1,162 @@
+package com.kinkl;
+
+import com.kinkl.exception.DeadlockThreatException;
+import com.kinkl.exception.MissingEntityLockException;
+import com.kinkl.exception.OtherThreadEntityUnlockAttemptException;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.Timeout;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class LongEntityLockerTest {
+
+    @Rule
+    public ExpectedException expectedRule = ExpectedException.none();
+
+    @Rule
+    public Timeout timeout = new Timeout(10, TimeUnit.SECONDS);
+
+    private LongEntityLocker entityLocker;
+
+    @Before
+    public void setUp() {
+        this.entityLocker = new LongEntityLocker();
+    }
+
+    @Test
+    public void testUnlockThrowsExceptionWhenEntityWasNotLocked() {
+        this.expectedRule.expect(MissingEntityLockException.class);
+        this.expectedRule.expectMessage("There is no associated locks for entity with id 123");
+        this.entityLocker.unlock(123);
+    }
+
+    @Test
+    public void testUnlockThrowsExceptionWhenEntityIsLockedByAnotherThread() throws InterruptedException {
+        this.expectedRule.expect(OtherThreadEntityUnlockAttemptException.class);
+        this.expectedRule.expectMessage("The lock of entity with id 123 is held by another thread");
+        Thread subThread = new Thread(() -> this.entityLocker.lock(123));
+        subThread.start();
+        subThread.join();
+        assertTrue(this.entityLocker.isLockedByAnotherThread(123));
+        this.entityLocker.unlock(123);
+    }
+
+    @Test
+    public void testReentrantLockingAndReclaiming() {
+        for (long entityId = -50_000; entityId < 50_000; entityId++) {
+            this.entityLocker.lock(entityId);
+            this.entityLocker.lock(entityId);
+            assertFalse(this.entityLocker.isLockedByAnotherThread(entityId));
+        }
+        assertEquals(100_000, this.entityLocker.getEntityLockCount());
+        for (long entityId = -50_000; entityId < 50_000; entityId++) {
+            this.entityLocker.unlock(entityId);
+            this.entityLocker.unlock(entityId);
+        }
+        assertEquals(0, this.entityLocker.getEntityLockCount());
+    }
+
+    @Test
+    public void testMutualExclusionUnderContention() throws InterruptedException {
+        long[] counters = new long[8];
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 20_000; i++) {
+                    int entityId = ThreadLocalRandom.current().nextInt(counters.length);
+                    this.entityLocker.lock(entityId);
+                    counters[entityId]++;
+                    this.entityLocker.unlock(entityId);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long total = 0;
+        for (int entityId = 0; entityId < counters.length; entityId++) {
+            this.entityLocker.lock(entityId);
+            total += counters[entityId];
+            this.entityLocker.unlock(entityId);
+        }
+        assertEquals(threads.length * 20_000, total);
+        assertEquals(0, this.entityLocker.getEntityLockCount());
+    }
+
+    @Test
+    public void testTryLockTimeout() throws InterruptedException {
+        CountDownLatch subThreadLockedEntityLatch = new CountDownLatch(1);
+        CountDownLatch subThreadIsAllowedToUnlockEntityLatch = new CountDownLatch(1);
+        Thread subThread = new Thread(() -> {
+            this.entityLocker.lock(123);
+            subThreadLockedEntityLatch.countDown();
+            try {
+                subThreadIsAllowedToUnlockEntityLatch.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                fail();
+            }
+            this.entityLocker.unlock(123);
+        });
+        subThread.start();
+        subThreadLockedEntityLatch.await(10, TimeUnit.SECONDS);
+
+        assertFalse(this.entityLocker.tryLock(123, 100, TimeUnit.MILLISECONDS));
+        subThreadIsAllowedToUnlockEntityLatch.countDown();
+        assertTrue(this.entityLocker.tryLock(123, 3, TimeUnit.SECONDS));
+        this.entityLocker.unlock(123);
+        subThread.join();
+        assertEquals(0, this.entityLocker.getEntityLockCount());
+    }
+
+    @Test
+    public void testDeadlockIsPrevented() throws InterruptedException {
+        this.expectedRule.expect(DeadlockThreatException.class);
+        this.expectedRule.expectMessage("Thread [Main Thread] cannot lock entity with id 456 because this will cause a deadlock. This entity is already locked by thread [Sub Thread]");
+        Thread.currentThread().setName("Main Thread");
+        this.entityLocker.lock(123);
+        CountDownLatch subThreadLockedEntityLatch = new CountDownLatch(1);
+        Thread subThread = new Thread(() -> {
+            this.entityLocker.lock(456);
+            subThreadLockedEntityLatch.countDown();
+            this.entityLocker.lock(123);
+        });
+        subThread.setName("Sub Thread");
+        subThread.setDaemon(true);
+        subThread.start();
+        subThreadLockedEntityLatch.await(10, TimeUnit.SECONDS);
+        Thread.sleep(500); // Sub thread should start waiting for entity 123
+        this.entityLocker.lock(456);
+    }
+
+    @Test
+    public void testReleasedEntityIsNotReportedAsDeadlock() throws InterruptedException {
+        this.entityLocker.lock(123);
+        CountDownLatch subThreadLockedEntityLatch = new CountDownLatch(1);
+        Thread subThread = new Thread(() -> {
+            this.entityLocker.lock(456);
+            subThreadLockedEntityLatch.countDown();
+            this.entityLocker.lock(123);
+            this.entityLocker.unlock(123);
+            this.entityLocker.unlock(456);
+        });
+        subThread.start();
+        subThreadLockedEntityLatch.await();
+        while (subThread.getState() != Thread.State.WAITING) {
+            Thread.yield();
+        }
+        // The sub thread still waits for entity 123 until it's woken, but no longer for the current thread
+        this.entityLocker.unlock(123);
+        this.entityLocker.lock(456);
+        this.entityLocker.unlock(456);
+        subThread.join();
+        assertEquals(0, this.entityLocker.getEntityLockCount());
+    }
+}
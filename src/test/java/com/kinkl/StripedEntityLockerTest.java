@@ -0,0 +1,188 @@
+package com.kinkl;
+
+import com.kinkl.exception.DeadlockThreatException;
+import com.kinkl.exception.MissingEntityLockException;
+import com.kinkl.exception.OtherThreadEntityUnlockAttemptException;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.Timeout;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class StripedEntityLockerTest {
+
+    @Rule
+    public ExpectedException expectedRule = ExpectedException.none();
+
+    @Rule
+    public Timeout timeout = new Timeout(10, TimeUnit.SECONDS);
+
+    private IGlobalEntityLocker<Integer> entityLocker;
+
+    @Before
+    public void setUp() {
+        this.entityLocker = EntityLockers.newStripedEntityLocker(1024);
+    }
+
+    @Test
+    public void testStripeCountIsRoundedUpToPowerOfTwo() {
+        assertEquals(1, new StripedEntityLocker<Integer>(1).getStripeCount());
+        assertEquals(1024, new StripedEntityLocker<Integer>(1000).getStripeCount());
+        assertEquals(1024, new StripedEntityLocker<Integer>(1024).getStripeCount());
+    }
+
+    @Test
+    public void testNonPositiveStripeCountIsRejected() {
+        this.expectedRule.expect(IllegalArgumentException.class);
+        new StripedEntityLocker<Integer>(0);
+    }
+
+    @Test
+    public void testUnlockThrowsExceptionWhenEntityWasNotLocked() {
+        this.expectedRule.expect(MissingEntityLockException.class);
+        this.expectedRule.expectMessage("There is no associated locks for entity with id 123");
+        this.entityLocker.unlock(123);
+    }
+
+    @Test
+    public void testUnlockThrowsExceptionWhenEntityIsLockedByAnotherThread() throws InterruptedException {
+        this.expectedRule.expect(OtherThreadEntityUnlockAttemptException.class);
+        this.expectedRule.expectMessage("The lock of entity with id 123 is held by another thread");
+        Thread subThread = new Thread(() -> this.entityLocker.lock(123));
+        subThread.start();
+        subThread.join();
+        assertTrue(this.entityLocker.isLockedByAnotherThread(123));
+        this.entityLocker.unlock(123);
+    }
+
+    @Test
+    public void testEntitiesOfSameStripeExcludeEachOther() throws InterruptedException {
+        IEntityLocker<Integer> singleStripeLocker = EntityLockers.newStripedEntityLocker(1);
+        singleStripeLocker.lock(1);
+        singleStripeLocker.lock(2);
+        Thread subThread = new Thread(() -> {
+            try {
+                assertFalse(singleStripeLocker.tryLock(3, 10, TimeUnit.MILLISECONDS));
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        subThread.start();
+        subThread.join();
+        singleStripeLocker.unlock(1);
+        singleStripeLocker.unlock(2);
+        assertFalse(singleStripeLocker.isLockedByAnotherThread(3));
+    }
+
+    @Test
+    public void testDeadlockIsDetectedOnStripes() throws InterruptedException {
+        StripedEntityLocker<Integer> locker = new StripedEntityLocker<>(2);
+        int firstId = 0;
+        int secondId = findId(locker, locker.stripeIndex(firstId) ^ 1, firstId + 1);
+        int otherFirstStripeId = findId(locker, locker.stripeIndex(firstId), firstId + 1);
+        int otherSecondStripeId = findId(locker, locker.stripeIndex(secondId), secondId + 1);
+        CountDownLatch subThreadLockedLatch = new CountDownLatch(1);
+        Thread subThread = new Thread(() -> {
+            locker.lock(otherSecondStripeId);
+            subThreadLockedLatch.countDown();
+            locker.lock(otherFirstStripeId);
+            locker.unlock(otherFirstStripeId);
+            locker.unlock(otherSecondStripeId);
+        });
+        locker.lock(firstId);
+        subThread.start();
+        subThreadLockedLatch.await();
+        while (subThread.getState() != Thread.State.WAITING) {
+            Thread.yield();
+        }
+        try {
+            locker.lock(secondId);
+            fail("Deadlock was not detected");
+        } catch (DeadlockThreatException e) {
+            assertTrue(e.getMessage().contains("cannot lock entity with id " + secondId));
+        }
+        locker.unlock(firstId);
+        subThread.join();
+    }
+
+    private static int findId(StripedEntityLocker<Integer> locker, int stripeIndex, int from) {
+        int entityId = from;
+        while (locker.stripeIndex(entityId) != stripeIndex) {
+            entityId++;
+        }
+        return entityId;
+    }
+
+    @Test
+    public void testSharedLocksOfSameStripeAreCompatible() throws InterruptedException {
+        IEntityLocker<Integer> singleStripeLocker = EntityLockers.newStripedEntityLocker(1);
+        singleStripeLocker.lockShared(1);
+        Thread subThread = new Thread(() -> {
+            try {
+                assertTrue(singleStripeLocker.tryLockShared(2, 0, TimeUnit.MILLISECONDS));
+                singleStripeLocker.unlockShared(2);
+                assertFalse(singleStripeLocker.tryLock(3, 10, TimeUnit.MILLISECONDS));
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        subThread.start();
+        subThread.join();
+        singleStripeLocker.unlockShared(1);
+    }
+
+    @Test
+    public void testExclusiveLockOfSharedStripeIsUpgrade() {
+        IEntityLocker<Integer> singleStripeLocker = EntityLockers.newStripedEntityLocker(1);
+        singleStripeLocker.lockShared(1);
+        this.expectedRule.expect(DeadlockThreatException.class);
+        singleStripeLocker.lock(2);
+    }
+
+    @Test
+    public void testMutualExclusionUnderContention() throws InterruptedException {
+        long[] counters = new long[64];
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 20_000; i++) {
+                    int first = ThreadLocalRandom.current().nextInt(counters.length);
+                    int second = ThreadLocalRandom.current().nextInt(counters.length);
+                    this.entityLocker.lockAll(Arrays.asList(first, second));
+                    counters[first]++;
+                    counters[second]++;
+                    this.entityLocker.unlockAll(Arrays.asList(first, second));
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(8 * 20_000 * 2, Arrays.stream(counters).sum());
+    }
+
+    @Test
+    public void testGlobalLockExcludesEntityLocks() throws InterruptedException {
+        this.entityLocker.lockGlobal();
+        Thread subThread = new Thread(() -> {
+            try {
+                assertFalse(this.entityLocker.tryLock(1, 10, TimeUnit.MILLISECONDS));
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        subThread.start();
+        subThread.join();
+        this.entityLocker.unlockGlobal();
+        assertTrue(this.entityLocker.tryLock(1, 0, TimeUnit.MILLISECONDS));
+        this.entityLocker.unlock(1);
+    }
+}
@@ -0,0 +1,80 @@
+package com.kinkl;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class TimerWheelTest {
+
+    @Rule
+    public Timeout timeout = new Timeout(10, TimeUnit.SECONDS);
+
+    @Test
+    public void testTaskRunsNotBeforeDelay() throws InterruptedException {
+        TimerWheel timerWheel = new TimerWheel(5, TimeUnit.MILLISECONDS, 8, "test-timer");
+        CountDownLatch expiredLatch = new CountDownLatch(1);
+        long start = System.nanoTime();
+        long[] elapsedNanos = new long[1];
+        TimerWheel.Timeout timeout = timerWheel.schedule(() -> {
+            elapsedNanos[0] = System.nanoTime() - start;
+            expiredLatch.countDown();
+        }, 100, TimeUnit.MILLISECONDS);
+        expiredLatch.await();
+        assertTrue(elapsedNanos[0] >= TimeUnit.MILLISECONDS.toNanos(100));
+        assertTrue(timeout.isExpired());
+        assertFalse(timeout.cancel());
+    }
+
+    @Test
+    public void testCancelledTaskNeverRuns() throws InterruptedException {
+        TimerWheel timerWheel = new TimerWheel(1, TimeUnit.MILLISECONDS, 4, "test-timer");
+        AtomicInteger runCount = new AtomicInteger();
+        TimerWheel.Timeout cancelled = timerWheel.schedule(runCount::incrementAndGet, 30, TimeUnit.MILLISECONDS);
+        CountDownLatch expiredLatch = new CountDownLatch(1);
+        timerWheel.schedule(expiredLatch::countDown, 60, TimeUnit.MILLISECONDS);
+        assertTrue(cancelled.cancel());
+        expiredLatch.await();
+        assertEquals(0, runCount.get());
+        assertFalse(cancelled.isExpired());
+    }
+
+    @Test
+    public void testManyTimeoutsAcrossSeveralTurns() throws InterruptedException {
+        TimerWheel timerWheel = new TimerWheel(1, TimeUnit.MILLISECONDS, 16, "test-timer");
+        int count = 100_000;
+        CountDownLatch expiredLatch = new CountDownLatch(count / 2);
+        AtomicInteger runCount = new AtomicInteger();
+        List<TimerWheel.Timeout> timeouts = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            timeouts.add(timerWheel.schedule(() -> {
+                runCount.incrementAndGet();
+                expiredLatch.countDown();
+            }, 1_000 + i % 100, TimeUnit.MILLISECONDS));
+        }
+        for (int i = 1; i < count; i += 2) {
+            assertTrue(timeouts.get(i).cancel());
+        }
+        expiredLatch.await();
+        Thread.sleep(50);
+        assertEquals(count / 2, runCount.get());
+    }
+
+    @Test
+    public void testFailingTaskDoesNotStopTimer() throws InterruptedException {
+        TimerWheel timerWheel = new TimerWheel(1, TimeUnit.MILLISECONDS, 4, "test-timer");
+        CountDownLatch expiredLatch = new CountDownLatch(1);
+        timerWheel.schedule(() -> {
+            throw new IllegalStateException("Expected failure");
+        }, 1, TimeUnit.MILLISECONDS);
+        timerWheel.schedule(expiredLatch::countDown, 20, TimeUnit.MILLISECONDS);
+        expiredLatch.await();
+    }
+}